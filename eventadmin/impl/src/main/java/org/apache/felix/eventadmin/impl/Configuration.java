@@ -29,9 +29,11 @@ import org.apache.felix.eventadmin.impl.adapter.FrameworkEventAdapter;
 import org.apache.felix.eventadmin.impl.adapter.LogEventAdapter;
 import org.apache.felix.eventadmin.impl.adapter.ServiceEventAdapter;
 import org.apache.felix.eventadmin.impl.handler.EventAdminImpl;
+import org.apache.felix.eventadmin.impl.metrics.MetricsInventoryPrinter;
 import org.apache.felix.eventadmin.impl.security.SecureEventAdminFactory;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
+import org.apache.felix.eventadmin.metrics.EventAdminMetrics;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
@@ -68,6 +70,18 @@ import org.osgi.service.metatype.MetaTypeProvider;
  * </p>
  * <p>
  * <p>
+ *      <tt>org.apache.felix.eventadmin.TimeoutWatchdog</tt> - Call <tt>EventHandler</tt>s
+ *          with a timeout in the calling thread?
+ * </p>
+ * The default is <tt>false</tt>. By default, each <tt>EventHandler</tt> with a
+ * timeout is called in a thread from the thread pool while the calling thread
+ * waits. Setting this value to <tt>true</tt> calls the <tt>EventHandler</tt>s in the
+ * calling thread and a single watchdog thread blacklists them once the timeout
+ * elapsed. This avoids two context switches per handler call, however the elapsed
+ * time is measured instead of the cpu time of the <tt>EventHandler</tt>.
+ * </p>
+ * <p>
+ * <p>
  *      <tt>org.apache.felix.eventadmin.RequireTopic</tt> - Are <tt>EventHandler</tt>
  *          required to be registered with a topic?
  * </p>
@@ -114,6 +128,15 @@ import org.osgi.service.metatype.MetaTypeProvider;
  * </p>
  * <p>
  * <p>
+ *      <tt>org.apache.felix.eventadmin.Metrics</tt> - Record delivery metrics?
+ * </p>
+ * The default is <tt>false</tt>. If enabled, the event admin records the post rate
+ * per topic and a latency histogram per <tt>EventHandler</tt>. The metrics are
+ * available through the <tt>EventAdminMetrics</tt> service and, if the Apache Felix
+ * Inventory is installed, as an inventory printer in the web console.
+ * </p>
+ * <p>
+ * <p>
  * These properties are read at startup and serve as a default configuration.
  * If a configuration admin is configured, the event admin can be configured
  * through the config admin.
@@ -129,10 +152,12 @@ public class Configuration
     static final String PROP_THREAD_POOL_SIZE = "org.apache.felix.eventadmin.ThreadPoolSize";
     static final String PROP_ASYNC_TO_SYNC_THREAD_RATIO = "org.apache.felix.eventadmin.AsyncToSyncThreadRatio";
     static final String PROP_TIMEOUT = "org.apache.felix.eventadmin.Timeout";
+    static final String PROP_TIMEOUT_WATCHDOG = "org.apache.felix.eventadmin.TimeoutWatchdog";
     static final String PROP_REQUIRE_TOPIC = "org.apache.felix.eventadmin.RequireTopic";
     static final String PROP_IGNORE_TIMEOUT = "org.apache.felix.eventadmin.IgnoreTimeout";
     static final String PROP_IGNORE_TOPIC = "org.apache.felix.eventadmin.IgnoreTopic";
     static final String PROP_LOG_LEVEL = "org.apache.felix.eventadmin.LogLevel";
+    static final String PROP_METRICS = "org.apache.felix.eventadmin.Metrics";
 
     /** The bundle context. */
     private final BundleContext m_bundleContext;
@@ -145,6 +170,8 @@ public class Configuration
 
     private int m_timeout;
 
+    private boolean m_timeoutWatchdog;
+
     private boolean m_requireTopic;
 
     private String[] m_ignoreTimeout;
@@ -153,6 +180,8 @@ public class Configuration
 
     private int m_logLevel;
 
+    private boolean m_metrics;
+
     // The thread pool used - this is a member because we need to close it on stop
     private volatile DefaultThreadPool m_sync_pool;
 
@@ -167,6 +196,11 @@ public class Configuration
     // The registration of the security decorator factory (i.e., the service)
     private volatile ServiceRegistration m_registration;
 
+    // The registrations of the metrics service and inventory printer
+    private volatile ServiceRegistration m_metricsRegistration;
+
+    private volatile ServiceRegistration m_metricsPrinterRegistration;
+
     // all adapters
     private AbstractAdapter[] m_adapters;
 
@@ -261,6 +295,12 @@ public class Configuration
             m_timeout = getIntProperty(PROP_TIMEOUT,
                     m_bundleContext.getProperty(PROP_TIMEOUT), 5000, Integer.MIN_VALUE);
 
+            // Are EventHandler with a timeout called in the calling thread? - The
+            // default is false. If enabled, a watchdog thread blacklists handlers
+            // exceeding the timeout instead of handing each call to a pool thread.
+            m_timeoutWatchdog = getBooleanProperty(
+                m_bundleContext.getProperty(PROP_TIMEOUT_WATCHDOG), false);
+
             // Are EventHandler required to be registered with a topic? - The default is
             // true. The specification says that EventHandler must register with a list
             // of topics they are interested in. Setting this value to false will enable
@@ -301,6 +341,10 @@ public class Configuration
                     m_bundleContext.getProperty(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+
+            // Are delivery metrics recorded? - The default is false.
+            m_metrics = getBooleanProperty(
+                m_bundleContext.getProperty(PROP_METRICS), false);
         }
         else
         {
@@ -308,6 +352,7 @@ public class Configuration
             m_asyncToSyncThreadRatio = getDoubleProperty(
                 	PROP_ASYNC_TO_SYNC_THREAD_RATIO, m_bundleContext.getProperty(PROP_ASYNC_TO_SYNC_THREAD_RATIO), 0.5, 0.0);
             m_timeout = getIntProperty(PROP_TIMEOUT, config.get(PROP_TIMEOUT), 5000, Integer.MIN_VALUE);
+            m_timeoutWatchdog = getBooleanProperty(config.get(PROP_TIMEOUT_WATCHDOG), false);
             m_requireTopic = getBooleanProperty(config.get(PROP_REQUIRE_TOPIC), true);
             m_ignoreTimeout = null;
             final Object value = config.get(PROP_IGNORE_TIMEOUT);
@@ -343,6 +388,7 @@ public class Configuration
                     config.get(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+            m_metrics = getBooleanProperty(config.get(PROP_METRICS), false);
         }
         // a timeout less or equals to 100 means : disable timeout
         if ( m_timeout <= 100 )
@@ -365,8 +411,12 @@ public class Configuration
                 "Async Pool Size=" + m_asyncThreadPoolSize);
         LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
             PROP_TIMEOUT + "=" + m_timeout);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_TIMEOUT_WATCHDOG + "=" + m_timeoutWatchdog);
         LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
             PROP_REQUIRE_TOPIC + "=" + m_requireTopic);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_METRICS + "=" + m_metrics);
 
         // Note that this uses a lazy thread pool that will create new threads on
         // demand - in case none of its cached threads is free - until threadPoolSize
@@ -396,9 +446,11 @@ public class Configuration
                     m_sync_pool,
                     m_async_pool,
                     m_timeout,
+                    m_timeoutWatchdog,
                     m_ignoreTimeout,
                     m_requireTopic,
-                    m_ignoreTopics);
+                    m_ignoreTopics,
+                    m_metrics);
 
             // Finally, adapt the outside events to our kind of events as per spec
             adaptEvents(m_admin);
@@ -408,10 +460,15 @@ public class Configuration
             // appropriated permissions of each calling bundle
             m_registration = m_bundleContext.registerService(EventAdmin.class.getName(),
                     new SecureEventAdminFactory(m_admin), null);
+
+            // register the metrics and, if the inventory is available, the printer
+            m_metricsRegistration = m_bundleContext.registerService(EventAdminMetrics.class.getName(),
+                    m_admin.getMetrics(), null);
+            m_metricsPrinterRegistration = tryToRegisterMetricsPrinter(m_admin.getMetrics());
         }
         else
         {
-            m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic, m_ignoreTopics);
+            m_admin.update(m_timeout, m_timeoutWatchdog, m_ignoreTimeout, m_requireTopic, m_ignoreTopics, m_metrics);
         }
 
     }
@@ -440,6 +497,16 @@ public class Configuration
                 m_managedServiceReg.unregister();
                 m_managedServiceReg = null;
             }
+            if ( m_metricsPrinterRegistration != null )
+            {
+                m_metricsPrinterRegistration.unregister();
+                m_metricsPrinterRegistration = null;
+            }
+            if ( m_metricsRegistration != null )
+            {
+                m_metricsRegistration.unregister();
+                m_metricsRegistration = null;
+            }
             // We need to unregister manually
             if ( m_registration != null )
             {
@@ -476,13 +543,26 @@ public class Configuration
         m_adapters[3] = new LogEventAdapter(m_bundleContext, admin);
     }
 
+    private ServiceRegistration tryToRegisterMetricsPrinter(final EventAdminMetrics metrics)
+    {
+        try
+        {
+            return MetricsInventoryPrinter.register(m_bundleContext, metrics);
+        }
+        catch (final Throwable t)
+        {
+            // we simply ignore this
+        }
+        return null;
+    }
+
     private Object tryToCreateMetaTypeProvider(final Object managedService)
     {
         try
         {
             return new MetaTypeProviderImpl((ManagedService)managedService,
-                    m_threadPoolSize, m_timeout, m_requireTopic,
-                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio);
+                    m_threadPoolSize, m_timeout, m_timeoutWatchdog, m_requireTopic,
+                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio, m_metrics);
         }
         catch (final Throwable t)
         {
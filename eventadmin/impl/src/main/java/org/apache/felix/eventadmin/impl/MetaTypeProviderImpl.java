@@ -38,27 +38,33 @@ public class MetaTypeProviderImpl
 {
     private final int m_threadPoolSize;
     private final int m_timeout;
+    private final boolean m_timeoutWatchdog;
     private final boolean m_requireTopic;
     private final String[] m_ignoreTimeout;
     private final String[] m_ignoreTopic;
     private final double m_asyncThreadPoolRatio;
+    private final boolean m_metrics;
 
     private final ManagedService m_delegatee;
 
     public MetaTypeProviderImpl(final ManagedService delegatee,
             final int threadPoolSize,
-            final int timeout, final boolean requireTopic,
+            final int timeout, final boolean timeoutWatchdog,
+            final boolean requireTopic,
             final String[] ignoreTimeout,
             final String[] ignoreTopic,
-            final double asyncThreadPoolRatio)
+            final double asyncThreadPoolRatio,
+            final boolean metrics)
     {
         m_threadPoolSize = threadPoolSize;
         m_timeout = timeout;
+        m_timeoutWatchdog = timeoutWatchdog;
         m_requireTopic = requireTopic;
         m_delegatee = delegatee;
         m_ignoreTimeout = ignoreTimeout;
         m_ignoreTopic = ignoreTopic;
         m_asyncThreadPoolRatio = asyncThreadPoolRatio;
+        m_metrics = metrics;
     }
 
     private ObjectClassDefinition ocd;
@@ -116,6 +122,14 @@ public class MetaTypeProviderImpl
                     "in milliseconds granted to each event handler before it gets blacklisted",
                     m_timeout ) );
 
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_TIMEOUT_WATCHDOG, "Timeout Watchdog",
+                    "Call event handlers with a timeout in the thread sending the event. By default, such " +
+                    "event handlers are called in a thread from the thread pool while the sending thread waits. " +
+                    "If enabled, a single watchdog thread blacklists event handlers once the timeout elapsed, " +
+                    "which avoids two context switches per event handler call. The elapsed time is measured " +
+                    "instead of the cpu time of the event handler. This is disabled by default.",
+                    m_timeoutWatchdog ) );
+
             adList.add( new AttributeDefinitionImpl( Configuration.PROP_REQUIRE_TOPIC, "Require Topic",
                     "Are event handlers required to be registered with a topic? " +
                     "This is enabled by default. The specification says that event handlers " +
@@ -143,6 +157,11 @@ public class MetaTypeProviderImpl
                     "are ignored. If a single value neither ends with a dot nor with a start, this is assumed " +
                     "to define an exact topic. A single star can be used to disable delivery completely.",
                     AttributeDefinition.STRING, m_ignoreTopic, Integer.MAX_VALUE, null, null));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_METRICS, "Metrics",
+                    "Record delivery metrics: the post rate per topic and a latency histogram per " +
+                    "event handler. The metrics are available as a service and in the web console " +
+                    "inventory. This is disabled by default.",
+                    m_metrics ) );
             ocd = new ObjectClassDefinition()
             {
 
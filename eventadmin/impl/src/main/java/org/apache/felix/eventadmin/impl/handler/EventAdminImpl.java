@@ -19,6 +19,7 @@
 package org.apache.felix.eventadmin.impl.handler;
 
 import org.apache.felix.eventadmin.impl.handler.EventHandlerTracker.Matcher;
+import org.apache.felix.eventadmin.impl.metrics.Metrics;
 import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
 import org.apache.felix.eventadmin.impl.tasks.SyncDeliverTasks;
@@ -53,29 +54,39 @@ public class EventAdminImpl implements EventAdmin
     // matchers for ignore topics
     private Matcher[] m_ignoreTopics;
 
+    // The delivery metrics
+    private final Metrics m_metrics;
+
     /**
      * The constructor of the <tt>EventAdmin</tt> implementation.
      *
      * @param syncPool The synchronous thread pool
      * @param asyncPool The asynchronous thread pool
+     * @param timeoutWatchdog Whether handlers with a timeout are called in the
+     *        calling thread and blacklisted by a watchdog
+     * @param metrics Whether delivery metrics are recorded
      */
     public EventAdminImpl(
                     final BundleContext bundleContext,
                     final DefaultThreadPool syncPool,
                     final DefaultThreadPool asyncPool,
                     final int timeout,
+                    final boolean timeoutWatchdog,
                     final String[] ignoreTimeout,
                     final boolean requireTopic,
-                    final String[] ignoreTopics)
+                    final String[] ignoreTopics,
+                    final boolean metrics)
     {
         checkNull(syncPool, "syncPool");
         checkNull(asyncPool, "asyncPool");
 
-        this.tracker = new EventHandlerTracker(bundleContext);
+        m_metrics = new Metrics(metrics);
+        this.tracker = new EventHandlerTracker(bundleContext, m_metrics);
         this.tracker.update(ignoreTimeout, requireTopic);
         this.tracker.open();
-        m_sendManager = new SyncDeliverTasks(syncPool, timeout);
+        m_sendManager = new SyncDeliverTasks(syncPool, timeout, timeoutWatchdog);
         m_postManager = new AsyncDeliverTasks(asyncPool, m_sendManager);
+        m_metrics.setAsyncDeliverTasks(m_postManager);
         m_ignoreTopics = EventHandlerTracker.createMatchers(ignoreTopics);
     }
 
@@ -126,6 +137,7 @@ public class EventAdminImpl implements EventAdmin
     {
         if ( checkTopic(event) )
         {
+            m_metrics.posted(event);
             m_postManager.execute(this.getTracker().getHandlers(event), event);
         }
     }
@@ -144,6 +156,7 @@ public class EventAdminImpl implements EventAdmin
     {
         if ( checkTopic(event) )
         {
+            m_metrics.sent(event);
             m_sendManager.execute(this.getTracker().getHandlers(event), event, false);
         }
     }
@@ -155,23 +168,35 @@ public class EventAdminImpl implements EventAdmin
     {
         this.tracker.close();
         this.tracker = null;
+        this.m_sendManager.stop();
     }
 
     /**
      * Update the event admin with new configuration.
      */
     public void update(final int timeout,
+                    final boolean timeoutWatchdog,
                     final String[] ignoreTimeout,
                     final boolean requireTopic,
-                    final String[] ignoreTopics)
+                    final String[] ignoreTopics,
+                    final boolean metrics)
     {
         this.tracker.close();
+        this.m_metrics.setEnabled(metrics);
         this.tracker.update(ignoreTimeout, requireTopic);
-        this.m_sendManager.update(timeout);
+        this.m_sendManager.update(timeout, timeoutWatchdog);
         this.tracker.open();
         this.m_ignoreTopics = EventHandlerTracker.createMatchers(ignoreTopics);
     }
 
+    /**
+     * Returns the delivery metrics.
+     */
+    public Metrics getMetrics()
+    {
+        return m_metrics;
+    }
+
     /**
      * This is a utility method that will throw a <tt>NullPointerException</tt>
      * in case that the given object is null. The message will be of the form
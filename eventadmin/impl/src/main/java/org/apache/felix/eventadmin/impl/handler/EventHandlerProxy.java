@@ -21,7 +21,9 @@ package org.apache.felix.eventadmin.impl.handler;
 import java.util.Collection;
 import java.util.Iterator;
 
+import org.apache.felix.eventadmin.impl.metrics.HandlerStats;
 import org.apache.felix.eventadmin.impl.security.PermissionsUtil;
+import org.apache.felix.eventadmin.impl.tasks.QueuedDelivery;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Filter;
@@ -38,10 +40,44 @@ import org.osgi.service.event.EventHandler;
  * It checks the timeout handling for the implementation as well as
  * blacklisting the handler.
  *
+ * Asynchronous events are delivered through a bounded queue per handler
+ * if one of the following service properties is set on the handler:
+ * <ul>
+ * <li>{@link #PROP_BATCH_SIZE} - The handler receives batch events carrying
+ *     up to this number of queued events of the same topic in the
+ *     {@link #PROP_EVENTS} property.</li>
+ * <li>{@link #PROP_COALESCE_KEY} - The name of an event property. A posted
+ *     event replaces a queued event of the same topic with an equal value of
+ *     this property, so only the latest value is delivered.</li>
+ * <li>{@link #PROP_QUEUE_SIZE} - The maximum number of queued events, the
+ *     default is 1000.</li>
+ * <li>{@link #PROP_QUEUE_OVERFLOW} - What happens if the queue is full:
+ *     <code>block</code> blocks the poster (the default), <code>drop.oldest</code>
+ *     drops the oldest queued event and <code>drop.newest</code> drops the
+ *     posted event.</li>
+ * </ul>
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class EventHandlerProxy {
 
+    /** The handler property for the maximum number of events per batch. */
+    public static final String PROP_BATCH_SIZE = "org.apache.felix.eventadmin.BatchSize";
+
+    /** The handler property for the name of the event property to coalesce events by. */
+    public static final String PROP_COALESCE_KEY = "org.apache.felix.eventadmin.CoalesceKey";
+
+    /** The handler property for the maximum number of queued events. */
+    public static final String PROP_QUEUE_SIZE = "org.apache.felix.eventadmin.QueueSize";
+
+    /** The handler property for the overflow policy of the queue. */
+    public static final String PROP_QUEUE_OVERFLOW = "org.apache.felix.eventadmin.QueueOverflow";
+
+    /** The property of a batch event holding the array of events. */
+    public static final String PROP_EVENTS = "org.apache.felix.eventadmin.Events";
+
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
     /** The service reference for the event handler. */
     private final ServiceReference<EventHandler> reference;
 
@@ -66,6 +102,12 @@ public class EventHandlerProxy {
     /** Deliver async ordered. */
     private boolean asyncOrderedDelivery;
 
+    /** Optional queue for asynchronous events. */
+    private volatile QueuedDelivery queuedDelivery;
+
+    /** The delivery metrics, null if metrics are disabled. */
+    private volatile HandlerStats stats;
+
     /**
      * Create an EventHandlerProxy.
      *
@@ -261,17 +303,111 @@ public class EventHandlerProxy {
                                             + this.reference + " | Bundle("
                                             + this.reference.getBundle() + ")]");
         }
+        // hand the queued events over before publishing the new queue, so
+        // that the events of the handler are still delivered in order
+        final QueuedDelivery previousQueue = this.queuedDelivery;
+        QueuedDelivery queue = createQueuedDelivery();
+        if ( previousQueue != null && previousQueue.handOver(queue) )
+        {
+            // no queue anymore, but the previous one has to be drained first
+            queue = previousQueue;
+        }
+        this.queuedDelivery = queue;
+        this.stats = this.handlerContext.metrics.getHandlerStats(this.reference);
+        if ( this.stats != null )
+        {
+            this.stats.setQueue(this.queuedDelivery);
+        }
+
         // make sure to release the handler
         this.release();
 
         return valid;
     }
 
+    /**
+     * Create the queue for asynchronous events if the handler requests
+     * batching, coalescing, or a bounded queue.
+     */
+    private QueuedDelivery createQueuedDelivery()
+    {
+        final Object batchSize = reference.getProperty(PROP_BATCH_SIZE);
+        final Object coalesceKey = reference.getProperty(PROP_COALESCE_KEY);
+        final Object queueSize = reference.getProperty(PROP_QUEUE_SIZE);
+        final Object overflow = reference.getProperty(PROP_QUEUE_OVERFLOW);
+        if ( batchSize == null && coalesceKey == null && queueSize == null && overflow == null )
+        {
+            return null;
+        }
+        int overflowPolicy = QueuedDelivery.OVERFLOW_BLOCK;
+        if ( "drop.oldest".equals(overflow) )
+        {
+            overflowPolicy = QueuedDelivery.OVERFLOW_DROP_OLDEST;
+        }
+        else if ( "drop.newest".equals(overflow) )
+        {
+            overflowPolicy = QueuedDelivery.OVERFLOW_DROP_NEWEST;
+        }
+        else if ( overflow != null && !"block".equals(overflow) )
+        {
+            this.logInvalidProperty(PROP_QUEUE_OVERFLOW, overflow);
+        }
+        return new QueuedDelivery(this, this.reference,
+                        this.getIntProperty(PROP_BATCH_SIZE, batchSize, 0),
+                        coalesceKey == null ? null : coalesceKey.toString(),
+                        this.getIntProperty(PROP_QUEUE_SIZE, queueSize, DEFAULT_QUEUE_SIZE),
+                        overflowPolicy);
+    }
+
+    /**
+     * Returns the positive int value of a handler property or the default.
+     */
+    private int getIntProperty(final String key, final Object value, final int defaultValue)
+    {
+        if ( value != null )
+        {
+            try
+            {
+                final int result = value instanceof Number ? ((Number)value).intValue() : Integer.parseInt(value.toString());
+                if ( result > 0 )
+                {
+                    return result;
+                }
+            }
+            catch (final NumberFormatException nfe)
+            {
+                // fall through to the warning
+            }
+            this.logInvalidProperty(key, value);
+        }
+        return defaultValue;
+    }
+
+    private void logInvalidProperty(final String key, final Object value)
+    {
+        LogWrapper.getLogger().log(
+                        this.reference,
+                        LogWrapper.LOG_WARNING,
+                        "Invalid " + key + " - Ignoring value " + value + " of ServiceReference ["
+                                        + this.reference + " | Bundle("
+                                        + this.reference.getBundle() + ")]");
+    }
+
     /**
      * Dispose the proxy and release the handler
      */
     public void dispose()
     {
+        final QueuedDelivery queue = this.queuedDelivery;
+        if ( queue != null )
+        {
+            queue.close();
+        }
+        final HandlerStats handlerStats = this.stats;
+        if ( handlerStats != null )
+        {
+            this.handlerContext.metrics.removeHandlerStats(handlerStats);
+        }
         this.release();
     }
 
@@ -369,6 +505,15 @@ public class EventHandlerProxy {
         return this.useTimeout;
     }
 
+    /**
+     * Returns the queue for asynchronous events or <code>null</code> if
+     * events are delivered directly.
+     */
+    public QueuedDelivery getQueuedDelivery()
+    {
+        return this.queuedDelivery;
+    }
+
     /**
      * Should async events be delivered in order?
      */
@@ -410,6 +555,8 @@ public class EventHandlerProxy {
             return;
         }
 
+        final HandlerStats handlerStats = this.stats;
+        final long start = handlerStats == null ? 0 : System.nanoTime();
         try
         {
             handlerService.handleEvent(event);
@@ -424,12 +571,18 @@ public class EventHandlerProxy {
                                             + this.reference + " | Bundle("
                                             + this.reference.getBundle() + ")]", e);
         }
+        if ( handlerStats != null )
+        {
+            handlerStats.delivered(System.nanoTime() - start);
+        }
     }
 
     /**
      * Blacklist the handler.
+     * This might be called by the timeout watchdog and by the delivering
+     * thread at the same time.
      */
-    public void blackListHandler()
+    public synchronized void blackListHandler()
     {
     	if(!this.blacklisted)
     	{
@@ -438,6 +591,7 @@ public class EventHandlerProxy {
 	                        "Blacklisting ServiceReference [" + this.reference + " | Bundle("
 	                                        + this.reference.getBundle() + ")] due to timeout!");
 	        this.blacklisted = true;
+	        this.handlerContext.metrics.blacklisted(this.stats);
 	        // we can free the handler now.
 	        this.release();
     	}
@@ -19,14 +19,19 @@
 package org.apache.felix.eventadmin.impl.handler;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.felix.eventadmin.impl.metrics.Metrics;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.event.Event;
@@ -40,30 +45,24 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandlerProxy> {
 
-    /** The proxies in this list match all events. */
-	private final List<EventHandlerProxy> matchingAllEvents;
+    /** The maximum number of topics whose handlers are cached. */
+    private static final int MAX_CACHED_TOPICS = 4096;
 
-    /** This is a map for exact topic matches. The key is the topic,
-     * the value is a list of proxies.
-     */
-    private final Map<String, List<EventHandlerProxy>> matchingTopic;
-
-	/** This is a map for wildcard topics. The key is the prefix of the topic,
-	 * the value is a list of proxies
-	 */
-	private final Map<String, List<EventHandlerProxy>> matchingPrefixTopic;
+    /** All valid proxies in the order they were added. */
+    private final Set<EventHandlerProxy> proxies = new LinkedHashSet<EventHandlerProxy>();
 
+    /** The topic trie for the current proxies, replaced on every change. */
+    private volatile TopicTrie trie = new TopicTrie(Collections.<EventHandlerProxy> emptySet());
 
 	/** The context for the proxies. */
 	private HandlerContext handlerContext;
 
-    public EventHandlerTracker(final BundleContext context) {
-		super(context, EventHandler.class.getName(), null);
+	/** The delivery metrics. */
+	private final Metrics metrics;
 
-		// we start with empty collections
-		this.matchingAllEvents = new CopyOnWriteArrayList<EventHandlerProxy>();
-		this.matchingTopic = new ConcurrentHashMap<String, List<EventHandlerProxy>>();
-		this.matchingPrefixTopic = new ConcurrentHashMap<String, List<EventHandlerProxy>>();
+    public EventHandlerTracker(final BundleContext context, final Metrics metrics) {
+		super(context, EventHandler.class.getName(), null);
+		this.metrics = metrics;
 	}
 
     /**
@@ -103,7 +102,7 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
                 }
             }
         }
-        this.handlerContext = new HandlerContext(this.context, ignoreTimeoutMatcher, requireTopic);
+        this.handlerContext = new HandlerContext(this.context, ignoreTimeoutMatcher, requireTopic, this.metrics);
     }
 
     /**
@@ -138,141 +137,57 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
         proxy.dispose();
 	}
 
-	private void updateMap(final Map<String, List<EventHandlerProxy>> proxyListMap, final String key, final EventHandlerProxy proxy, final boolean add) {
-        List<EventHandlerProxy> proxies = proxyListMap.get(key);
-        if (proxies == null)
-        {
-            if ( !add )
-            {
-                return;
-            }
-            proxies = new CopyOnWriteArrayList<EventHandlerProxy>();
-            proxyListMap.put(key, proxies);
-        }
-
-        if ( add )
-        {
-            proxies.add(proxy);
-        }
-        else
-        {
-            proxies.remove(proxy);
-            if ( proxies.size() == 0 )
-            {
-                proxyListMap.remove(key);
-            }
-        }
-	}
-
 	/**
-	 * Check the topics of the event handler and put it into the
-	 * corresponding collections.
+	 * Add the proxy and rebuild the topic trie.
 	 */
 	private synchronized void put(final EventHandlerProxy proxy) {
-		final String[] topics = proxy.getTopics();
-		if ( topics == null )
-		{
-		    this.matchingAllEvents.add(proxy);
-		}
-		else
-		{
-    		for(int i = 0; i < topics.length; i++) {
-    			final String topic = topics[i];
-
-    			if ( topic.endsWith("/*") )
-    			{
-                    // prefix topic: we remove the /*
-    				final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, true);
-    			}
-    			else
-    			{
-    			    // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, true);
-    			}
-    		}
-		}
+	    if ( this.proxies.add(proxy) )
+	    {
+	        this.trie = new TopicTrie(this.proxies);
+	    }
 	}
 
     /**
-     * Check the topics of the event handler and remove it from the
-     * corresponding collections.
+     * Remove the proxy and rebuild the topic trie.
      */
 	private synchronized void remove(final EventHandlerProxy proxy) {
-        final String[] topics = proxy.getTopics();
-        if ( topics == null )
+        if ( this.proxies.remove(proxy) )
         {
-            this.matchingAllEvents.remove(proxy);
-        } else {
-            for(int i = 0; i < topics.length; i++) {
-                final String topic = topics[i];
-
-                if ( topic.endsWith("/*") )
-                {
-                    // prefix topic: we remove the /*
-                    final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, false);
-                }
-                else
-                {
-                    // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, false);
-                }
-            }
+            this.trie = new TopicTrie(this.proxies);
         }
 	}
 
 	/**
 	 * Get all handlers for this event
 	 *
+	 * The handlers subscribed to a topic are looked up once in the topic
+	 * trie and then cached, so only the filter and permission checks
+	 * remain per event. As long as all of them pass, the cached list is
+	 * returned and nothing is allocated.
+	 *
 	 * @param event The event topic
 	 * @return All handlers for the event
 	 */
 	public Collection<EventHandlerProxy> getHandlers(final Event event) {
-	    final String topic = event.getTopic();
-
-		final Set<EventHandlerProxy> handlers = new HashSet<EventHandlerProxy>();
-
-		// Add all handlers matching everything
-        this.checkHandlerAndAdd(handlers, this.matchingAllEvents, event);
-
-		// Now check for prefix matches
-		if ( !this.matchingPrefixTopic.isEmpty() )
-		{
-		    int pos = topic.lastIndexOf('/');
-			while (pos != -1)
-			{
-			    final String prefix = topic.substring(0, pos);
-		        this.checkHandlerAndAdd(handlers, this.matchingPrefixTopic.get(prefix), event);
+	    final List<EventHandlerProxy> candidates = this.trie.getCandidates(event.getTopic());
 
-				pos = prefix.lastIndexOf('/');
-			}
-		}
-
-		// Add the handlers for matching topic names
-		this.checkHandlerAndAdd(handlers, this.matchingTopic.get(topic), event);
-
-		return handlers;
-	}
-
-	/**
-	 * Checks each handler from the proxy list if it can deliver the event
-	 * If the event can be delivered, the proxy is added to the handlers.
-	 */
-	private void checkHandlerAndAdd( final Set<EventHandlerProxy> handlers,
-	        final List<EventHandlerProxy> proxies,
-	        final Event event)
-	{
-	    if ( proxies != null )
+	    List<EventHandlerProxy> handlers = candidates;
+	    for(int i = 0; i < candidates.size(); i++)
 	    {
-            for(final EventHandlerProxy p : proxies)
-            {
-                if ( p.canDeliver(event) )
-                {
-                    handlers.add(p);
-                }
-            }
+	        final EventHandlerProxy p = candidates.get(i);
+	        if ( !p.canDeliver(event) )
+	        {
+	            if ( handlers == candidates )
+	            {
+	                handlers = new ArrayList<EventHandlerProxy>(candidates.subList(0, i));
+	            }
+	        }
+	        else if ( handlers != candidates )
+	        {
+	            handlers.add(p);
+	        }
 	    }
+	    return handlers;
 	}
 
 	static Matcher[] createMatchers(final String[] config)
@@ -394,6 +309,141 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
         }
     }
 
+    /**
+     * An immutable trie of the topic segments the proxies subscribed to.
+     * The handlers matching a topic are cached per topic, the cache is
+     * cleared when it holds more than {@link #MAX_CACHED_TOPICS} topics. A new
+     * trie with an empty cache replaces this one whenever the proxies change.
+     */
+    private static final class TopicTrie
+    {
+        /** The proxies matching all events. */
+        private final List<EventHandlerProxy> matchingAllEvents = new ArrayList<EventHandlerProxy>();
+
+        /** The root node, which represents the empty topic. */
+        private final Node root = new Node();
+
+        /** The handlers of looked up topics. */
+        private final ConcurrentMap<String, List<EventHandlerProxy>> cache =
+            new ConcurrentHashMap<String, List<EventHandlerProxy>>();
+
+        /** The number of cached topics. */
+        private final AtomicInteger cacheSize = new AtomicInteger();
+
+        public TopicTrie(final Collection<EventHandlerProxy> proxies)
+        {
+            for(final EventHandlerProxy proxy : proxies)
+            {
+                final String[] topics = proxy.getTopics();
+                if ( topics == null )
+                {
+                    this.matchingAllEvents.add(proxy);
+                    continue;
+                }
+                for(int i = 0; i < topics.length; i++)
+                {
+                    final String topic = topics[i];
+                    if ( topic.endsWith("/*") )
+                    {
+                        // prefix topic: we remove the /*
+                        this.getNode(topic.substring(0, topic.length() - 2)).prefixMatches.add(proxy);
+                    }
+                    else
+                    {
+                        // exact match
+                        this.getNode(topic).exactMatches.add(proxy);
+                    }
+                }
+            }
+        }
+
+        private Node getNode(final String topic)
+        {
+            Node node = this.root;
+            int start = 0;
+            while ( true )
+            {
+                final int end = topic.indexOf('/', start);
+                final String segment = topic.substring(start, end == -1 ? topic.length() : end);
+                Node child = node.children.get(segment);
+                if ( child == null )
+                {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+                if ( end == -1 )
+                {
+                    return node;
+                }
+                start = end + 1;
+            }
+        }
+
+        /**
+         * Get the handlers subscribed to the topic, regardless of their
+         * filters and permissions.
+         */
+        public List<EventHandlerProxy> getCandidates(final String topic)
+        {
+            List<EventHandlerProxy> result = this.cache.get(topic);
+            if ( result == null )
+            {
+                result = this.lookup(topic);
+                // clear the cache once it is full, so that topics with ids
+                // in them do not keep the frequent topics out of the cache
+                if ( this.cache.putIfAbsent(topic, result) == null
+                     && this.cacheSize.incrementAndGet() > MAX_CACHED_TOPICS )
+                {
+                    this.cache.clear();
+                    this.cacheSize.set(0);
+                }
+            }
+            return result;
+        }
+
+        private List<EventHandlerProxy> lookup(final String topic)
+        {
+            // a handler might subscribe to several matching topics
+            final Set<EventHandlerProxy> result = new LinkedHashSet<EventHandlerProxy>(this.matchingAllEvents);
+
+            // prefix matches are collected from all nodes above the topic node
+            Node node = this.root;
+            int start = 0;
+            while ( node != null )
+            {
+                final int end = topic.indexOf('/', start);
+                node = node.children.get(topic.substring(start, end == -1 ? topic.length() : end));
+                if ( node != null )
+                {
+                    if ( end == -1 )
+                    {
+                        result.addAll(node.exactMatches);
+                        break;
+                    }
+                    result.addAll(node.prefixMatches);
+                }
+                start = end + 1;
+            }
+
+            if ( result.isEmpty() )
+            {
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableList(
+                Arrays.asList(result.toArray(new EventHandlerProxy[result.size()])));
+        }
+
+        private static final class Node
+        {
+            public final Map<String, Node> children = new HashMap<String, Node>();
+
+            public final List<EventHandlerProxy> exactMatches = new ArrayList<EventHandlerProxy>();
+
+            public final List<EventHandlerProxy> prefixMatches = new ArrayList<EventHandlerProxy>();
+        }
+    }
+
     /**
      * The context object passed to the proxies.
      */
@@ -408,13 +458,18 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
         /** Is a topic required. */
         public final boolean requireTopic;
 
+        /** The delivery metrics. */
+        public final Metrics metrics;
+
         public HandlerContext(final BundleContext bundleContext,
                 final Matcher[] ignoreTimeoutMatcher,
-                final boolean   requireTopic)
+                final boolean   requireTopic,
+                final Metrics   metrics)
         {
             this.bundleContext = bundleContext;
             this.ignoreTimeoutMatcher = ignoreTimeoutMatcher;
             this.requireTopic = requireTopic;
+            this.metrics = metrics;
         }
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.felix.eventadmin.impl.tasks.QueuedDelivery;
+import org.apache.felix.eventadmin.metrics.HandlerMetrics;
+
+/**
+ * The counters of an event handler. The latency histogram uses power of
+ * two buckets, so recording a delivery only needs a few atomic updates.
+ */
+public class HandlerStats implements HandlerMetrics
+{
+    /** Bucket i counts latencies below 2^i microseconds, the last one all others. */
+    private static final int BUCKETS = 26;
+
+    private final long serviceId;
+
+    private final long bundleId;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private volatile QueuedDelivery queue;
+
+    private volatile long blacklistTime;
+
+    public HandlerStats(final long serviceId, final long bundleId)
+    {
+        this.serviceId = serviceId;
+        this.bundleId = bundleId;
+    }
+
+    /**
+     * Record a delivery.
+     * @param nanos The latency in nanoseconds
+     */
+    public void delivered(final long nanos)
+    {
+        final long micros = nanos / 1000;
+        final int index = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        this.counts.incrementAndGet(index);
+        this.totalNanos.addAndGet(nanos);
+        long max = this.maxNanos.get();
+        while ( nanos > max && !this.maxNanos.compareAndSet(max, nanos) )
+        {
+            max = this.maxNanos.get();
+        }
+    }
+
+    public void blacklisted()
+    {
+        this.blacklistTime = System.currentTimeMillis();
+    }
+
+    public void setQueue(final QueuedDelivery queue)
+    {
+        this.queue = queue;
+    }
+
+    public void reset()
+    {
+        for(int i=0; i<BUCKETS; i++)
+        {
+            this.counts.set(i, 0);
+        }
+        this.totalNanos.set(0);
+        this.maxNanos.set(0);
+    }
+
+    @Override
+    public long getServiceId()
+    {
+        return this.serviceId;
+    }
+
+    @Override
+    public long getBundleId()
+    {
+        return this.bundleId;
+    }
+
+    @Override
+    public long getDeliveryCount()
+    {
+        long result = 0;
+        for(int i=0; i<BUCKETS; i++)
+        {
+            result += this.counts.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getLatencyBounds()
+    {
+        final long[] result = new long[BUCKETS];
+        for(int i=0; i<BUCKETS - 1; i++)
+        {
+            result[i] = 1L << i;
+        }
+        result[BUCKETS - 1] = Long.MAX_VALUE;
+        return result;
+    }
+
+    @Override
+    public long[] getLatencyCounts()
+    {
+        final long[] result = new long[BUCKETS];
+        for(int i=0; i<BUCKETS; i++)
+        {
+            result[i] = this.counts.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public long getMeanLatency()
+    {
+        final long count = this.getDeliveryCount();
+        return count == 0 ? 0 : this.totalNanos.get() / count / 1000;
+    }
+
+    @Override
+    public long getMaxLatency()
+    {
+        return this.maxNanos.get() / 1000;
+    }
+
+    @Override
+    public long getLatencyPercentile(final double percentile)
+    {
+        final long[] counts = this.getLatencyCounts();
+        long total = 0;
+        for(final long c : counts)
+        {
+            total += c;
+        }
+        if ( total == 0 )
+        {
+            return 0;
+        }
+        final long rank = (long)Math.ceil(total * Math.max(0, Math.min(100, percentile)) / 100);
+        final long[] bounds = this.getLatencyBounds();
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++)
+        {
+            seen += counts[i];
+            if ( seen >= rank && counts[i] > 0 )
+            {
+                return bounds[i];
+            }
+        }
+        return bounds[BUCKETS - 1];
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        final QueuedDelivery q = this.queue;
+        return q == null ? 0 : q.size();
+    }
+
+    @Override
+    public long getBlacklistTime()
+    {
+        return this.blacklistTime;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
+import org.apache.felix.eventadmin.metrics.EventAdminMetrics;
+import org.apache.felix.eventadmin.metrics.HandlerMetrics;
+import org.apache.felix.eventadmin.metrics.TopicMetrics;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+
+/**
+ * The delivery metrics of the event admin.
+ *
+ * If metrics are disabled, recording a posted or sent event is a single
+ * volatile read and handlers do not get any {@link HandlerStats}, so they
+ * do not measure the delivery latency.
+ */
+public class Metrics implements EventAdminMetrics
+{
+    /** The maximum number of recorded topics. */
+    private static final int MAX_TOPICS = 1000;
+
+    /** The topic used once the maximum number of topics is recorded. */
+    private static final String OTHER_TOPIC = "<other>";
+
+    private final ConcurrentMap<String, TopicStats> topics = new ConcurrentHashMap<String, TopicStats>();
+
+    private final ConcurrentMap<Long, HandlerStats> handlers = new ConcurrentHashMap<Long, HandlerStats>();
+
+    private final AtomicLong blacklistCount = new AtomicLong();
+
+    private volatile boolean enabled;
+
+    private volatile long startTime;
+
+    private volatile AsyncDeliverTasks asyncDeliverTasks;
+
+    public Metrics(final boolean enabled)
+    {
+        this.setEnabled(enabled);
+    }
+
+    /**
+     * Enable or disable recording. Handlers only pick up the change when
+     * they are updated.
+     */
+    public void setEnabled(final boolean enabled)
+    {
+        if ( enabled && !this.enabled )
+        {
+            this.startTime = System.currentTimeMillis();
+        }
+        this.enabled = enabled;
+    }
+
+    public void setAsyncDeliverTasks(final AsyncDeliverTasks asyncDeliverTasks)
+    {
+        this.asyncDeliverTasks = asyncDeliverTasks;
+    }
+
+    /**
+     * Record a posted event.
+     */
+    public void posted(final Event event)
+    {
+        if ( this.enabled )
+        {
+            this.getTopicStats(event.getTopic()).posted();
+        }
+    }
+
+    /**
+     * Record a sent event.
+     */
+    public void sent(final Event event)
+    {
+        if ( this.enabled )
+        {
+            this.getTopicStats(event.getTopic()).sent();
+        }
+    }
+
+    private TopicStats getTopicStats(final String topic)
+    {
+        TopicStats stats = this.topics.get(topic);
+        if ( stats == null )
+        {
+            final String key = this.topics.size() < MAX_TOPICS ? topic : OTHER_TOPIC;
+            stats = new TopicStats(key);
+            final TopicStats existing = this.topics.putIfAbsent(key, stats);
+            if ( existing != null )
+            {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Get the stats for an event handler.
+     * @return The stats or <code>null</code> if metrics are disabled.
+     */
+    public HandlerStats getHandlerStats(final ServiceReference<?> reference)
+    {
+        if ( !this.enabled )
+        {
+            return null;
+        }
+        final Object id = reference.getProperty(Constants.SERVICE_ID);
+        final Long serviceId = id instanceof Long ? (Long)id : Long.valueOf(-1);
+        HandlerStats stats = this.handlers.get(serviceId);
+        if ( stats == null )
+        {
+            final long bundleId = reference.getBundle() == null ? -1 : reference.getBundle().getBundleId();
+            stats = new HandlerStats(serviceId, bundleId);
+            final HandlerStats existing = this.handlers.putIfAbsent(serviceId, stats);
+            if ( existing != null )
+            {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Forget the stats of a handler that is gone.
+     */
+    public void removeHandlerStats(final HandlerStats stats)
+    {
+        this.handlers.remove(stats.getServiceId(), stats);
+    }
+
+    /**
+     * Record a blacklisted handler.
+     * @param stats The stats of the handler or <code>null</code>
+     */
+    public void blacklisted(final HandlerStats stats)
+    {
+        this.blacklistCount.incrementAndGet();
+        if ( stats != null )
+        {
+            stats.blacklisted();
+        }
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    @Override
+    public long getStartTime()
+    {
+        return this.startTime;
+    }
+
+    @Override
+    public TopicMetrics[] getTopicMetrics()
+    {
+        return this.topics.values().toArray(new TopicMetrics[0]);
+    }
+
+    @Override
+    public HandlerMetrics[] getHandlerMetrics()
+    {
+        return this.handlers.values().toArray(new HandlerMetrics[0]);
+    }
+
+    @Override
+    public int getAsyncQueueDepth()
+    {
+        final AsyncDeliverTasks tasks = this.asyncDeliverTasks;
+        int result = tasks == null ? 0 : tasks.getQueueDepth();
+        for(final HandlerStats stats : this.handlers.values())
+        {
+            result += stats.getQueueDepth();
+        }
+        return result;
+    }
+
+    @Override
+    public long getBlacklistCount()
+    {
+        return this.blacklistCount.get();
+    }
+
+    @Override
+    public void reset()
+    {
+        this.topics.clear();
+        for(final HandlerStats stats : this.handlers.values())
+        {
+            stats.reset();
+        }
+        this.startTime = System.currentTimeMillis();
+    }
+}
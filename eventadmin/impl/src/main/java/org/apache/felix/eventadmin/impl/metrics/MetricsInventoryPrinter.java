@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.metrics;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.apache.felix.eventadmin.metrics.EventAdminMetrics;
+import org.apache.felix.eventadmin.metrics.HandlerMetrics;
+import org.apache.felix.eventadmin.metrics.TopicMetrics;
+import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.InventoryPrinter;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The inventory printer for the event admin metrics, which is shown in
+ * the web console. The inventory API is optional, so this class must only
+ * be loaded through {@link #register(BundleContext, EventAdminMetrics)}.
+ */
+public class MetricsInventoryPrinter implements InventoryPrinter
+{
+    private final EventAdminMetrics metrics;
+
+    public MetricsInventoryPrinter(final EventAdminMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Register the inventory printer.
+     * @throws NoClassDefFoundError if the inventory API is not available
+     */
+    public static ServiceRegistration<?> register(final BundleContext bundleContext, final EventAdminMetrics metrics)
+    {
+        final Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(InventoryPrinter.NAME, "eventadmin");
+        props.put(InventoryPrinter.TITLE, "Event Admin Metrics");
+        props.put(InventoryPrinter.FORMAT, Format.TEXT.toString());
+        return bundleContext.registerService(InventoryPrinter.SERVICE, new MetricsInventoryPrinter(metrics), props);
+    }
+
+    /**
+     * @see org.apache.felix.inventory.InventoryPrinter#print(java.io.PrintWriter, org.apache.felix.inventory.Format, boolean)
+     */
+    @Override
+    public void print(final PrintWriter pw, final Format format, final boolean isZip)
+    {
+        if ( format != Format.TEXT )
+        {
+            return;
+        }
+        pw.println("Apache Felix Event Admin Metrics");
+        pw.println();
+        if ( !this.metrics.isEnabled() )
+        {
+            pw.println("Metrics are disabled, enable them with the org.apache.felix.eventadmin.Metrics property.");
+        }
+        else
+        {
+            pw.println("Recording since: " + new Date(this.metrics.getStartTime()));
+        }
+        pw.println("Async queue depth: " + this.metrics.getAsyncQueueDepth());
+        pw.println("Blacklisted handlers: " + this.metrics.getBlacklistCount());
+
+        final TopicMetrics[] topics = this.metrics.getTopicMetrics();
+        Arrays.sort(topics, new Comparator<TopicMetrics>()
+        {
+            @Override
+            public int compare(final TopicMetrics o1, final TopicMetrics o2)
+            {
+                final long c1 = o1.getPostCount() + o1.getSendCount();
+                final long c2 = o2.getPostCount() + o2.getSendCount();
+                return c1 < c2 ? 1 : (c1 == c2 ? o1.getTopic().compareTo(o2.getTopic()) : -1);
+            }
+        });
+        pw.println();
+        pw.println("Topics (" + topics.length + ")");
+        for(final TopicMetrics t : topics)
+        {
+            pw.println("  " + t.getTopic()
+                            + ": posted=" + t.getPostCount()
+                            + ", sent=" + t.getSendCount()
+                            + ", post rate=" + String.format("%.2f", t.getPostRate()) + "/s");
+        }
+
+        // slowest handlers first
+        final HandlerMetrics[] handlers = this.metrics.getHandlerMetrics();
+        Arrays.sort(handlers, new Comparator<HandlerMetrics>()
+        {
+            @Override
+            public int compare(final HandlerMetrics o1, final HandlerMetrics o2)
+            {
+                final long m1 = o1.getMeanLatency();
+                final long m2 = o2.getMeanLatency();
+                return m1 < m2 ? 1 : (m1 == m2 ? 0 : -1);
+            }
+        });
+        pw.println();
+        pw.println("Event Handlers (" + handlers.length + ")");
+        for(final HandlerMetrics h : handlers)
+        {
+            pw.print("  Service " + h.getServiceId() + " (Bundle " + h.getBundleId() + ")"
+                            + ": delivered=" + h.getDeliveryCount()
+                            + ", mean=" + h.getMeanLatency() + "us"
+                            + ", p50<" + formatBound(h.getLatencyPercentile(50))
+                            + ", p99<" + formatBound(h.getLatencyPercentile(99))
+                            + ", max=" + h.getMaxLatency() + "us");
+            if ( h.getQueueDepth() > 0 )
+            {
+                pw.print(", queued=" + h.getQueueDepth());
+            }
+            if ( h.getBlacklistTime() > 0 )
+            {
+                pw.print(", blacklisted at " + new Date(h.getBlacklistTime()));
+            }
+            pw.println();
+
+            final long[] bounds = h.getLatencyBounds();
+            final long[] counts = h.getLatencyCounts();
+            final StringBuilder sb = new StringBuilder();
+            for(int i=0; i<counts.length; i++)
+            {
+                if ( counts[i] > 0 )
+                {
+                    sb.append(sb.length() == 0 ? "    " : ", ");
+                    sb.append('<').append(formatBound(bounds[i])).append(": ").append(counts[i]);
+                }
+            }
+            if ( sb.length() > 0 )
+            {
+                pw.println(sb);
+            }
+        }
+    }
+
+    private static String formatBound(final long micros)
+    {
+        return micros == Long.MAX_VALUE ? "inf" : micros + "us";
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.eventadmin.metrics.TopicMetrics;
+
+/**
+ * The counters of a topic. The post rate is an exponentially weighted
+ * moving average, which is updated lazily every five seconds by the
+ * thread posting or reading it.
+ */
+public class TopicStats implements TopicMetrics
+{
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    /** The smoothing factor for a one minute average with five second ticks. */
+    private static final double ALPHA = 1 - Math.exp(-5 / 60.0);
+
+    private final String topic;
+
+    private final AtomicLong posts = new AtomicLong();
+
+    private final AtomicLong sends = new AtomicLong();
+
+    /** The posts since the last tick. */
+    private final AtomicLong uncounted = new AtomicLong();
+
+    private final long created = System.nanoTime();
+
+    private final AtomicLong lastTick = new AtomicLong(created);
+
+    private volatile double rate = -1;
+
+    public TopicStats(final String topic)
+    {
+        this.topic = topic;
+    }
+
+    public void posted()
+    {
+        this.posts.incrementAndGet();
+        this.uncounted.incrementAndGet();
+        this.tickIfNecessary();
+    }
+
+    public void sent()
+    {
+        this.sends.incrementAndGet();
+    }
+
+    @Override
+    public String getTopic()
+    {
+        return this.topic;
+    }
+
+    @Override
+    public long getPostCount()
+    {
+        return this.posts.get();
+    }
+
+    @Override
+    public long getSendCount()
+    {
+        return this.sends.get();
+    }
+
+    @Override
+    public double getPostRate()
+    {
+        this.tickIfNecessary();
+        final double result = this.rate;
+        if ( result < 0 )
+        {
+            // before the first tick, use the average since the topic was seen first
+            final double seconds = Math.max(1, (System.nanoTime() - this.created) / 1e9);
+            return this.uncounted.get() / seconds;
+        }
+        return result;
+    }
+
+    private void tickIfNecessary()
+    {
+        final long oldTick = this.lastTick.get();
+        final long age = System.nanoTime() - oldTick;
+        if ( age > TICK_INTERVAL && this.lastTick.compareAndSet(oldTick, oldTick + age - age % TICK_INTERVAL) )
+        {
+            // only the first tick has posts, any further ticks just decay the rate
+            final double instantRate = this.uncounted.getAndSet(0) / 5.0;
+            double newRate = this.rate < 0 ? instantRate : this.rate + ALPHA * (instantRate - this.rate);
+            final long idleTicks = age / TICK_INTERVAL - 1;
+            if ( idleTicks > 0 )
+            {
+                newRate *= Math.pow(1 - ALPHA, idleTicks);
+            }
+            this.rate = newRate;
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.felix.eventadmin.impl.tasks;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -66,6 +67,32 @@ public class AsyncDeliverTasks
      */
     public void execute(final Collection<EventHandlerProxy> tasks, final Event event)
     {
+        Collection<EventHandlerProxy> directTasks = tasks;
+        for(final EventHandlerProxy task : tasks)
+        {
+            if ( task.getQueuedDelivery() != null )
+            {
+                directTasks = null;
+                break;
+            }
+        }
+        if ( directTasks == null )
+        {
+            // handlers with a queue receive the event through their queue
+            directTasks = new ArrayList<EventHandlerProxy>(tasks.size());
+            for(final EventHandlerProxy task : tasks)
+            {
+                final QueuedDelivery queue = task.getQueuedDelivery();
+                if ( queue == null || !queue.post(event, m_pool, m_deliver_task) )
+                {
+                    directTasks.add(task);
+                }
+            }
+            if ( directTasks.isEmpty() )
+            {
+                return;
+            }
+        }
         /*
         final Iterator i = tasks.iterator();
         boolean hasOrdered = false;
@@ -84,7 +111,7 @@ public class AsyncDeliverTasks
         }
         if ( hasOrdered )
         {*/
-            final TaskInfo info = new TaskInfo(tasks, event);
+            final TaskInfo info = new TaskInfo(directTasks, event);
             final Long currentThreadId = Thread.currentThread().getId();
             TaskExecuter executer = m_running_threads.get(currentThreadId);
             if ( executer == null )
@@ -109,6 +136,19 @@ public class AsyncDeliverTasks
         //}
     }
 
+    /**
+     * Returns the number of events waiting for delivery by the executers.
+     */
+    public int getQueueDepth()
+    {
+        int result = 0;
+        for(final TaskExecuter executer : m_running_threads.values())
+        {
+            result += executer.size();
+        }
+        return result;
+    }
+
     private final static class TaskInfo {
         public final Collection<EventHandlerProxy> tasks;
         public final Event event;
@@ -173,6 +213,16 @@ public class AsyncDeliverTasks
             } while ( running );
         }
 
+        public synchronized int size()
+        {
+            int result = 0;
+            for(TaskInfo info = first; info != null; info = info.next)
+            {
+                result++;
+            }
+            return result;
+        }
+
         public void add(final TaskInfo info)
         {
             if ( first == null )
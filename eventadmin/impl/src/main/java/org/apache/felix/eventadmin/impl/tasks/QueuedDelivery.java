@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+
+/**
+ * The bounded queue of asynchronous events for a single event handler that
+ * requested queued delivery through its service properties.
+ *
+ * Posted events are appended to the queue and a thread from the pool
+ * delivers them to the handler in the order they were posted. The handler
+ * either receives each event on its own or, if batching is enabled, a batch
+ * event per run of queued events with the same topic, that carries the
+ * events in the {@link EventHandlerProxy#PROP_EVENTS} property.
+ *
+ * If coalescing is enabled, a posted event replaces a queued event of the
+ * same topic with an equal value of the coalescing property, keeping the
+ * position of the queued event. Thus, only the latest value is delivered.
+ *
+ * If the queue is full, the poster is blocked until the handler caught up,
+ * or either the oldest queued event or the posted event is dropped. Events
+ * posted from a thread delivering queued events are never blocked as this
+ * could dead lock the delivery.
+ *
+ * If the handler is modified, its queue is handed over to the queue created
+ * for the new properties. The new queue takes over the queued events and
+ * only starts delivering after the old queue delivered its current event,
+ * so the events are still delivered in order. If the handler does not
+ * request a queue anymore, the old queue keeps taking events until it is
+ * empty, after which events are delivered without queue.
+ */
+public class QueuedDelivery implements Runnable
+{
+    /** Block the poster until there is space in the queue. */
+    public static final int OVERFLOW_BLOCK = 0;
+
+    /** Drop the oldest queued event. */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+
+    /** Drop the posted event. */
+    public static final int OVERFLOW_DROP_NEWEST = 2;
+
+    /** Marks the threads delivering queued events. */
+    private static final ThreadLocal<Boolean> DELIVERING = new ThreadLocal<Boolean>();
+
+    private final EventHandlerProxy handler;
+
+    private final ServiceReference<?> reference;
+
+    /** The maximum number of events per batch, 0 disables batching. */
+    private final int batchSize;
+
+    /** The name of the coalescing property, null disables coalescing. */
+    private final String coalesceKey;
+
+    private final int capacity;
+
+    private final int overflow;
+
+    /** The queued events or, if coalescing, the keys of the queued events. */
+    private final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+
+    /** The queued events by key if coalescing. */
+    private final Map<Object, Event> latest;
+
+    /** The deliver tasks while a thread is delivering the queued events. */
+    private SyncDeliverTasks deliverTask;
+
+    private boolean closed;
+
+    /** The queue taking over after this one was closed for an update. */
+    private QueuedDelivery successor;
+
+    /** Whether this queue was closed for an update that removed the queue. */
+    private boolean retiring;
+
+    /** Whether the queue that was handed over is still delivering an event. */
+    private boolean held;
+
+    /** Whether events were dropped since the queue was empty. */
+    private boolean overflowing;
+
+    /**
+     * @param handler The event handler
+     * @param reference The service reference of the event handler, used for logging
+     * @param batchSize The maximum number of events per batch, 0 disables batching
+     * @param coalesceKey The name of the coalescing property or <code>null</code>
+     * @param capacity The maximum number of queued events
+     * @param overflow The overflow policy
+     */
+    public QueuedDelivery(final EventHandlerProxy handler,
+                    final ServiceReference<?> reference,
+                    final int batchSize,
+                    final String coalesceKey,
+                    final int capacity,
+                    final int overflow)
+    {
+        this.handler = handler;
+        this.reference = reference;
+        this.batchSize = batchSize;
+        this.coalesceKey = coalesceKey;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.latest = coalesceKey == null ? null : new HashMap<Object, Event>();
+    }
+
+    /**
+     * Queue an event for delivery.
+     *
+     * @param event The event
+     * @param pool The thread pool used to deliver the queued events
+     * @param deliverTask The deliver tasks for dispatching the events
+     * @return <code>false</code> if the queue was retired and the event has
+     *         to be delivered without queue
+     */
+    public boolean post(final Event event, final DefaultThreadPool pool, final SyncDeliverTasks deliverTask)
+    {
+        QueuedDelivery next = null;
+        synchronized ( this )
+        {
+            final Object key = this.key(event);
+            while ( true )
+            {
+                if ( this.closed )
+                {
+                    // posted while the handler was modified or disposed
+                    if ( this.retiring && this.deliverTask != null )
+                    {
+                        this.add(key, event);
+                        return true;
+                    }
+                    if ( this.successor == null )
+                    {
+                        return !this.retiring;
+                    }
+                    next = this.successor;
+                    break;
+                }
+                if ( this.latest != null && this.latest.containsKey(key) )
+                {
+                    this.latest.put(key, event);
+                    return true;
+                }
+                if ( this.queue.size() < this.capacity )
+                {
+                    break;
+                }
+                if ( this.overflow == OVERFLOW_DROP_NEWEST )
+                {
+                    this.dropped();
+                    return true;
+                }
+                else if ( this.overflow == OVERFLOW_DROP_OLDEST )
+                {
+                    this.dropped();
+                    this.poll();
+                    break;
+                }
+                else if ( DELIVERING.get() != null )
+                {
+                    break;
+                }
+                try
+                {
+                    this.wait();
+                }
+                catch (final InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if ( next == null )
+            {
+                this.add(key, event);
+                if ( this.deliverTask != null )
+                {
+                    return true;
+                }
+                this.deliverTask = deliverTask;
+                if ( this.held )
+                {
+                    // delivery starts once the previous queue is done
+                    return true;
+                }
+            }
+        }
+        if ( next != null )
+        {
+            return next.post(event, pool, deliverTask);
+        }
+        if ( !pool.executeTask(this) )
+        {
+            // scheduling failed: last resort, call directly
+            this.run();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of queued events.
+     */
+    public synchronized int size()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * Discard the queued events and release blocked posters.
+     */
+    public synchronized void close()
+    {
+        this.closed = true;
+        this.queue.clear();
+        if ( this.latest != null )
+        {
+            this.latest.clear();
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Close this queue after the handler was modified and hand the queued
+     * events over to the queue for the new properties. If the handler does
+     * not use a queue anymore, this queue keeps taking events until it is
+     * empty.
+     *
+     * @param next The new queue of the handler or <code>null</code>
+     * @return <code>true</code> if this queue still has events to deliver
+     *         and should receive the events posted meanwhile
+     */
+    public boolean handOver(final QueuedDelivery next)
+    {
+        synchronized ( this )
+        {
+            this.closed = true;
+            if ( next == null )
+            {
+                this.retiring = true;
+            }
+            else
+            {
+                this.successor = next;
+                if ( this.deliverTask != null )
+                {
+                    // a thread is delivering, it resumes the next queue when done
+                    synchronized ( next )
+                    {
+                        while ( !this.queue.isEmpty() )
+                        {
+                            final Event event = this.poll();
+                            next.add(next.key(event), event);
+                        }
+                        if ( next.deliverTask == null )
+                        {
+                            next.deliverTask = this.deliverTask;
+                        }
+                        next.held = true;
+                    }
+                }
+            }
+            this.notifyAll();
+            return this.retiring && this.deliverTask != null;
+        }
+    }
+
+    /**
+     * Start delivering the events of this queue after the queue it took
+     * over from delivered its last event.
+     */
+    private void resume()
+    {
+        synchronized ( this )
+        {
+            this.held = false;
+            if ( this.deliverTask == null )
+            {
+                return;
+            }
+        }
+        this.run();
+    }
+
+    /**
+     * Deliver the queued events until the queue is empty.
+     */
+    @Override
+    public void run()
+    {
+        final boolean nested = DELIVERING.get() != null;
+        DELIVERING.set(Boolean.TRUE);
+        try
+        {
+            QueuedDelivery next = null;
+            while ( next == null )
+            {
+                final SyncDeliverTasks task;
+                final Event event;
+                synchronized ( this )
+                {
+                    if ( this.queue.isEmpty() )
+                    {
+                        this.deliverTask = null;
+                        this.overflowing = false;
+                        if ( !this.closed || this.successor == null )
+                        {
+                            return;
+                        }
+                        next = this.successor;
+                        continue;
+                    }
+                    task = this.deliverTask;
+                    event = this.batchSize > 0 ? this.pollBatch() : this.poll();
+                    this.notifyAll();
+                }
+                task.execute(Collections.singletonList(this.handler), event, true);
+            }
+            next.resume();
+        }
+        finally
+        {
+            if ( !nested )
+            {
+                DELIVERING.remove();
+            }
+        }
+    }
+
+    private Object key(final Event event)
+    {
+        return this.latest == null ? event
+                        : Arrays.asList(event.getTopic(), event.getProperty(this.coalesceKey));
+    }
+
+    private void add(final Object key, final Event event)
+    {
+        if ( this.latest == null || this.latest.put(key, event) == null )
+        {
+            this.queue.add(key);
+        }
+    }
+
+    private Event poll()
+    {
+        final Object key = this.queue.removeFirst();
+        return this.latest == null ? (Event)key : this.latest.remove(key);
+    }
+
+    private Event peek()
+    {
+        final Object key = this.queue.getFirst();
+        return this.latest == null ? (Event)key : this.latest.get(key);
+    }
+
+    /**
+     * Create a batch event from the next queued events with the same topic.
+     */
+    private Event pollBatch()
+    {
+        final Event first = this.poll();
+        final List<Event> events = new ArrayList<Event>();
+        events.add(first);
+        while ( events.size() < this.batchSize && !this.queue.isEmpty()
+                        && first.getTopic().equals(this.peek().getTopic()) )
+        {
+            events.add(this.poll());
+        }
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(EventHandlerProxy.PROP_EVENTS, events.toArray(new Event[events.size()]));
+        return new Event(first.getTopic(), properties);
+    }
+
+    private void dropped()
+    {
+        if ( !this.overflowing )
+        {
+            this.overflowing = true;
+            LogWrapper.getLogger().log(
+                            this.reference,
+                            LogWrapper.LOG_WARNING,
+                            "Event queue is full - Dropping events for ServiceReference ["
+                                            + this.reference + " | Bundle("
+                                            + this.reference.getBundle() + ")]");
+        }
+    }
+}
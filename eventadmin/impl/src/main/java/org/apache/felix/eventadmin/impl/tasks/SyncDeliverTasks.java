@@ -50,6 +50,12 @@ import org.osgi.service.event.Event;
  * within the event handler, the timeout handler is stopped for the
  * delivery time of the inner event!
  *
+ * If the timeout watchdog is enabled, events are always delivered
+ * using the calling thread and the {@link TimeoutWatchdog} blacklists
+ * the handlers that exceed the timeout. This avoids the thread
+ * hand-off per handler call, however the calling thread is blocked
+ * by each handler in turn.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class SyncDeliverTasks
@@ -58,24 +64,40 @@ public class SyncDeliverTasks
     /** The thread pool used to spin-off new threads. */
     private final DefaultThreadPool pool;
 
+    /** The watchdog used to blacklist handlers called in the calling thread. */
+    private final TimeoutWatchdog watchdog = new TimeoutWatchdog();
+
     private long timeout;
 
+    private boolean useWatchdog;
+
     /**
      * Construct a new sync deliver tasks.
      * @param pool The thread pool used to spin-off new threads.
+     * @param timeout The timeout in milliseconds
+     * @param useWatchdog Whether handlers are called in the calling thread
      */
-    public SyncDeliverTasks(final DefaultThreadPool pool, final long timeout)
+    public SyncDeliverTasks(final DefaultThreadPool pool, final long timeout, final boolean useWatchdog)
     {
         this.pool = pool;
-        this.update(timeout);
+        this.update(timeout, useWatchdog);
     }
 
     /**
      * Update the timeout configuration
      */
-    public void update(final long timeout)
+    public void update(final long timeout, final boolean useWatchdog)
     {
         this.timeout = timeout;
+        this.useWatchdog = useWatchdog;
+    }
+
+    /**
+     * Stop the timeout watchdog.
+     */
+    public void stop()
+    {
+        this.watchdog.close();
     }
 
     /**
@@ -87,6 +109,23 @@ public class SyncDeliverTasks
      */
     public void execute(final Collection<EventHandlerProxy> tasks, final Event event, final boolean filterAsyncUnordered)
     {
+        if ( this.useWatchdog )
+        {
+            final long timeout = this.timeout;
+            for(final EventHandlerProxy task : tasks)
+            {
+                if ( timeout > 0 && task.useTimeout() )
+                {
+                    this.watchdog.deliver(task, event, timeout);
+                }
+                else
+                {
+                    task.sendEvent(event);
+                }
+            }
+            return;
+        }
+
         final Thread sleepingThread = Thread.currentThread();
         final SyncThread syncThread = sleepingThread instanceof SyncThread ? (SyncThread)sleepingThread : null;
 
@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
+import org.osgi.service.event.Event;
+
+/**
+ * The timeout watchdog delivers events to event handlers in the calling
+ * thread and blacklists handlers that exceed the timeout.
+ *
+ * Running deliveries are kept in a hashed timer wheel: a ring of buckets
+ * of which a single watchdog thread expires one per tick. Starting and
+ * finishing a delivery only links and unlinks an entry of the calling
+ * thread in a bucket, so there is no thread hand-off per handler call.
+ * If a delivery is still running when its bucket expires, the handler
+ * is blacklisted while the calling thread stays blocked until the
+ * handler returns, as with the thread pool based delivery. A handler
+ * that returns after the timeout is blacklisted by the calling thread.
+ *
+ * In contrast to the thread pool based delivery the elapsed time is
+ * measured, not the cpu time of the handler.
+ *
+ * If during an event delivery a new event is delivered from within the
+ * event handler, the timeout of the outer delivery is stopped for the
+ * delivery time of the inner event.
+ *
+ * The watchdog thread is started with the first delivery and parks
+ * when no delivery has been running for a while.
+ */
+public class TimeoutWatchdog
+{
+    /** The duration of a tick. */
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** The number of buckets, a power of two. */
+    private static final int WHEEL_SIZE = 512;
+
+    /** The number of ticks without deliveries before the thread parks. */
+    private static final int IDLE_TICKS = 100;
+
+    private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+
+    /** The watches of the calling threads. */
+    private final ThreadLocal<WatchStack> watches = new ThreadLocal<WatchStack>();
+
+    /** The number of watches in the wheel. */
+    private final AtomicInteger armed = new AtomicInteger();
+
+    /** The next tick to expire. */
+    private volatile long tick;
+
+    private volatile Thread thread;
+
+    private volatile boolean parked;
+
+    private volatile boolean closed;
+
+    public TimeoutWatchdog()
+    {
+        for(int i=0; i<WHEEL_SIZE; i++)
+        {
+            this.wheel[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Deliver the event to the handler in the calling thread and blacklist
+     * the handler if the delivery takes longer than the timeout.
+     *
+     * @param handler The event handler
+     * @param event The event to deliver
+     * @param timeout The timeout in milliseconds
+     */
+    public void deliver(final EventHandlerProxy handler, final Event event, final long timeout)
+    {
+        WatchStack stack = this.watches.get();
+        if ( stack == null )
+        {
+            stack = new WatchStack();
+            this.watches.set(stack);
+        }
+        final Watch outer = stack.peek();
+        if ( outer != null )
+        {
+            this.disarm(outer);
+            outer.elapsed += System.nanoTime() - outer.start;
+        }
+        final Watch watch = stack.push();
+        watch.handler = handler;
+        watch.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        watch.elapsed = 0;
+        watch.start = System.nanoTime();
+        this.arm(watch, watch.timeout);
+        try
+        {
+            handler.sendEvent(event);
+        }
+        finally
+        {
+            final long now = System.nanoTime();
+            this.disarm(watch);
+            stack.pop();
+            watch.handler = null;
+            if ( watch.elapsed + now - watch.start > watch.timeout )
+            {
+                handler.blackListHandler();
+            }
+            if ( outer != null )
+            {
+                outer.start = now;
+                this.arm(outer, outer.timeout - outer.elapsed);
+            }
+        }
+    }
+
+    /**
+     * Stop the watchdog thread. Deliveries started afterwards are only
+     * checked after the handler returned.
+     */
+    public void close()
+    {
+        this.closed = true;
+        final Thread t = this.thread;
+        if ( t != null )
+        {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Returns the watchdog thread or <code>null</code> if it was not started yet.
+     */
+    Thread getThread()
+    {
+        return this.thread;
+    }
+
+    /**
+     * Link the watch into the bucket that expires after the given time.
+     */
+    private void arm(final Watch watch, final long nanos)
+    {
+        if ( this.closed )
+        {
+            return;
+        }
+        // one more tick, as the current tick might be about to expire
+        final long ticks = Math.max(0, (nanos + TICK - 1) / TICK) + 1;
+        final long target = this.tick + ticks;
+        final Bucket bucket = this.wheel[(int)(target & (WHEEL_SIZE - 1))];
+        synchronized ( bucket )
+        {
+            watch.rounds = ticks / WHEEL_SIZE;
+            bucket.add(watch);
+        }
+        if ( this.armed.getAndIncrement() == 0 )
+        {
+            this.wakeUp();
+        }
+    }
+
+    /**
+     * Unlink the watch unless it already expired.
+     */
+    private void disarm(final Watch watch)
+    {
+        final Bucket bucket = watch.bucket;
+        if ( bucket != null )
+        {
+            synchronized ( bucket )
+            {
+                if ( watch.bucket == bucket )
+                {
+                    bucket.remove(watch);
+                    this.armed.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure the watchdog thread is running.
+     */
+    private void wakeUp()
+    {
+        Thread t = this.thread;
+        if ( t == null )
+        {
+            synchronized ( this )
+            {
+                t = this.thread;
+                if ( t == null && !this.closed )
+                {
+                    t = new Thread(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            TimeoutWatchdog.this.run();
+                        }
+                    }, "EventAdminTimeoutWatchdog");
+                    t.setDaemon(true);
+                    this.thread = t;
+                    t.start();
+                }
+            }
+        }
+        else if ( this.parked )
+        {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private void run()
+    {
+        final List<EventHandlerProxy> expired = new ArrayList<EventHandlerProxy>();
+        long deadline = System.nanoTime() + TICK;
+        int idle = 0;
+        while ( !this.closed )
+        {
+            final long wait = deadline - System.nanoTime();
+            if ( wait > 0 )
+            {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            deadline += TICK;
+
+            final long current = this.tick;
+            final Bucket bucket = this.wheel[(int)(current & (WHEEL_SIZE - 1))];
+            synchronized ( bucket )
+            {
+                Watch watch = bucket.head;
+                while ( watch != null )
+                {
+                    final Watch next = watch.next;
+                    if ( watch.rounds > 0 )
+                    {
+                        watch.rounds--;
+                    }
+                    else
+                    {
+                        bucket.remove(watch);
+                        this.armed.decrementAndGet();
+                        expired.add(watch.handler);
+                    }
+                    watch = next;
+                }
+            }
+            this.tick = current + 1;
+
+            for(final EventHandlerProxy handler : expired)
+            {
+                try
+                {
+                    handler.blackListHandler();
+                }
+                catch (final Throwable t)
+                {
+                    LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                                    "Unable to blacklist event handler.", t);
+                }
+            }
+            expired.clear();
+
+            if ( this.armed.get() > 0 )
+            {
+                idle = 0;
+            }
+            else if ( ++idle >= IDLE_TICKS )
+            {
+                // no deliveries are running: park until the next one starts
+                this.parked = true;
+                while ( this.armed.get() == 0 && !this.closed )
+                {
+                    LockSupport.park(this);
+                }
+                this.parked = false;
+                idle = 0;
+                deadline = System.nanoTime() + TICK;
+            }
+        }
+    }
+
+    /**
+     * A running delivery.
+     */
+    private static final class Watch
+    {
+        EventHandlerProxy handler;
+
+        long timeout;
+
+        long start;
+
+        /** The time spent before the watch was suspended by an inner delivery. */
+        long elapsed;
+
+        /** The remaining full turns of the wheel. */
+        long rounds;
+
+        /** The bucket the watch is linked in, guarded by that bucket. */
+        Bucket bucket;
+
+        Watch prev;
+
+        Watch next;
+    }
+
+    /**
+     * A doubly linked list of watches.
+     */
+    private static final class Bucket
+    {
+        Watch head;
+
+        void add(final Watch watch)
+        {
+            watch.bucket = this;
+            watch.prev = null;
+            watch.next = this.head;
+            if ( this.head != null )
+            {
+                this.head.prev = watch;
+            }
+            this.head = watch;
+        }
+
+        void remove(final Watch watch)
+        {
+            if ( watch.prev != null )
+            {
+                watch.prev.next = watch.next;
+            }
+            else
+            {
+                this.head = watch.next;
+            }
+            if ( watch.next != null )
+            {
+                watch.next.prev = watch.prev;
+            }
+            watch.bucket = null;
+            watch.prev = null;
+            watch.next = null;
+        }
+    }
+
+    /**
+     * The reusable watches of a thread, one per nested delivery.
+     */
+    private static final class WatchStack
+    {
+        private final List<Watch> watches = new ArrayList<Watch>();
+
+        private int depth;
+
+        Watch peek()
+        {
+            return this.depth == 0 ? null : this.watches.get(this.depth - 1);
+        }
+
+        Watch push()
+        {
+            if ( this.depth == this.watches.size() )
+            {
+                this.watches.add(new Watch());
+            }
+            return this.watches.get(this.depth++);
+        }
+
+        void pop()
+        {
+            this.depth--;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.metrics;
+
+/**
+ * The delivery metrics of the event admin. The event admin registers this
+ * service while it is active. Metrics are only recorded if enabled through
+ * the <tt>org.apache.felix.eventadmin.Metrics</tt> configuration property,
+ * except for blacklisted handlers which are always counted.
+ */
+public interface EventAdminMetrics
+{
+    /**
+     * Are metrics recorded?
+     */
+    boolean isEnabled();
+
+    /**
+     * The time in milliseconds since the epoch when recording started or
+     * the metrics were reset.
+     */
+    long getStartTime();
+
+    /**
+     * The metrics of the topics events were posted or sent to.
+     */
+    TopicMetrics[] getTopicMetrics();
+
+    /**
+     * The metrics of the registered event handlers.
+     */
+    HandlerMetrics[] getHandlerMetrics();
+
+    /**
+     * The number of posted events waiting for delivery, including the events
+     * in the queues of handlers requesting queued delivery.
+     */
+    int getAsyncQueueDepth();
+
+    /**
+     * The number of handlers blacklisted since the event admin started.
+     */
+    long getBlacklistCount();
+
+    /**
+     * Clear the recorded metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.metrics;
+
+/**
+ * The metrics of a single event handler.
+ *
+ * Delivery latencies are recorded in a histogram whose buckets have
+ * power of two upper bounds in microseconds.
+ */
+public interface HandlerMetrics
+{
+    /**
+     * The service id of the event handler.
+     */
+    long getServiceId();
+
+    /**
+     * The id of the bundle registering the event handler.
+     */
+    long getBundleId();
+
+    /**
+     * The number of events delivered to the handler.
+     */
+    long getDeliveryCount();
+
+    /**
+     * The exclusive upper bounds of the latency histogram buckets in
+     * microseconds. The last bucket has no upper bound and is reported
+     * as <code>Long.MAX_VALUE</code>.
+     */
+    long[] getLatencyBounds();
+
+    /**
+     * The number of deliveries per latency histogram bucket.
+     */
+    long[] getLatencyCounts();
+
+    /**
+     * The mean delivery latency in microseconds.
+     */
+    long getMeanLatency();
+
+    /**
+     * The maximum delivery latency in microseconds.
+     */
+    long getMaxLatency();
+
+    /**
+     * The upper bound of the histogram bucket containing the given
+     * percentile of the delivery latencies in microseconds.
+     *
+     * @param percentile The percentile between 0 and 100
+     */
+    long getLatencyPercentile(double percentile);
+
+    /**
+     * The number of posted events queued for the handler if it requests
+     * queued delivery, otherwise 0.
+     */
+    int getQueueDepth();
+
+    /**
+     * The time in milliseconds since the epoch when the handler was
+     * blacklisted, or 0 if it is not blacklisted.
+     */
+    long getBlacklistTime();
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.metrics;
+
+/**
+ * The metrics of a single topic.
+ */
+public interface TopicMetrics
+{
+    /**
+     * The topic. Once the number of recorded topics reached its limit, the
+     * events of further topics are counted for the topic <tt>&lt;other&gt;</tt>.
+     */
+    String getTopic();
+
+    /**
+     * The number of posted events.
+     */
+    long getPostCount();
+
+    /**
+     * The number of sent events.
+     */
+    long getSendCount();
+
+    /**
+     * The rate of posted events per second, as an exponentially weighted
+     * moving average over one minute.
+     */
+    double getPostRate();
+}
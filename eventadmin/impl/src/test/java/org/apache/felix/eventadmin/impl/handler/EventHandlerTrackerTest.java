@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.felix.eventadmin.impl.metrics.Metrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+
+public class EventHandlerTrackerTest
+{
+    private EventHandlerTracker tracker;
+
+    @Before
+    public void setUp()
+    {
+        this.tracker = new EventHandlerTracker(TestEventHandler.createBundleContext(), new Metrics(false));
+        this.tracker.update(null, false);
+    }
+
+    private EventHandlerProxy add(final Object topics)
+    {
+        return this.tracker.addingService(new TestEventHandler(EventConstants.EVENT_TOPIC, topics).getReference());
+    }
+
+    private Set<EventHandlerProxy> getHandlers(final String topic)
+    {
+        return new HashSet<EventHandlerProxy>(this.tracker.getHandlers(new Event(topic, (Map<String, ?>) null)));
+    }
+
+    private static Set<EventHandlerProxy> set(final EventHandlerProxy... proxies)
+    {
+        final Set<EventHandlerProxy> result = new HashSet<EventHandlerProxy>();
+        Collections.addAll(result, proxies);
+        return result;
+    }
+
+    @Test
+    public void testExactTopic()
+    {
+        final EventHandlerProxy ab = add("a/b");
+        final EventHandlerProxy abc = add("a/b/c");
+        final EventHandlerProxy a = add("a");
+
+        assertEquals(set(ab), getHandlers("a/b"));
+        assertEquals(set(abc), getHandlers("a/b/c"));
+        assertEquals(set(a), getHandlers("a"));
+        assertTrue(getHandlers("a/bc").isEmpty());
+        assertTrue(getHandlers("b").isEmpty());
+    }
+
+    @Test
+    public void testMatchAll()
+    {
+        final EventHandlerProxy all = add("*");
+        final EventHandlerProxy allInArray = add(new String[] {"x/y", "*"});
+        final EventHandlerProxy xy = add("x/y");
+
+        assertEquals(set(all, allInArray), getHandlers("a"));
+        assertEquals(set(all, allInArray, xy), getHandlers("x/y"));
+        assertEquals(set(all, allInArray), getHandlers("x/y/z"));
+    }
+
+    @Test
+    public void testPrefixTopic()
+    {
+        final EventHandlerProxy a = add("a/*");
+        final EventHandlerProxy ab = add("a/b/*");
+
+        // a prefix topic does not match the prefix itself
+        assertTrue(getHandlers("a").isEmpty());
+        assertEquals(set(a), getHandlers("a/b"));
+        assertEquals(set(a, ab), getHandlers("a/b/c"));
+        assertEquals(set(a, ab), getHandlers("a/b/c/d"));
+        assertTrue(getHandlers("ab/c").isEmpty());
+        assertTrue(getHandlers("b/a/c").isEmpty());
+    }
+
+    @Test
+    public void testHandlerMatchingSeveralTopicsIsReturnedOnce()
+    {
+        add(new String[] {"a/*", "a/b/*", "a/b/c"});
+
+        assertEquals(1, this.tracker.getHandlers(new Event("a/b/c", (Map<String, ?>) null)).size());
+    }
+
+    @Test
+    public void testRemovedHandler()
+    {
+        final EventHandlerProxy a = add("a/*");
+        final EventHandlerProxy ab = add("a/b");
+        assertEquals(set(a, ab), getHandlers("a/b"));
+
+        this.tracker.removedService(null, a);
+        assertEquals(set(ab), getHandlers("a/b"));
+    }
+
+    @Test
+    public void testSameAsTopicMaps()
+    {
+        // compare with the former lookup in maps of exact and prefix topics
+        final String[] segments = {"a", "b", "c"};
+        final Random random = new Random(17);
+        final List<EventHandlerProxy> proxies = new ArrayList<EventHandlerProxy>();
+        for(int i = 0; i < 50; i++)
+        {
+            final String[] topics = new String[1 + random.nextInt(3)];
+            for(int j = 0; j < topics.length; j++)
+            {
+                topics[j] = randomTopic(random, segments) + (random.nextInt(3) == 0 ? "/*" : "");
+            }
+            proxies.add(add(topics));
+        }
+        for(int i = 0; i < 1000; i++)
+        {
+            final String topic = randomTopic(random, segments);
+            final Set<EventHandlerProxy> expected = new HashSet<EventHandlerProxy>();
+            for(final EventHandlerProxy proxy : proxies)
+            {
+                if ( matches(proxy.getTopics(), topic) )
+                {
+                    expected.add(proxy);
+                }
+            }
+            final Collection<EventHandlerProxy> handlers = this.tracker.getHandlers(new Event(topic, (Map<String, ?>) null));
+            assertEquals(topic, expected, new HashSet<EventHandlerProxy>(handlers));
+            assertEquals(topic, expected.size(), handlers.size());
+        }
+    }
+
+    @Test
+    public void testCacheIsClearedWhenFull()
+    {
+        add("a/*");
+
+        // topics with ids in them fill the cache
+        for(int i = 0; i < 10000; i++)
+        {
+            assertEquals(1, this.tracker.getHandlers(new Event("a/" + i, (Map<String, ?>) null)).size());
+        }
+
+        // a topic seen for the first time is still cached
+        final Event event = new Event("a/frequent", (Map<String, ?>) null);
+        assertSame(this.tracker.getHandlers(event), this.tracker.getHandlers(event));
+    }
+
+    private static String randomTopic(final Random random, final String[] segments)
+    {
+        final StringBuilder sb = new StringBuilder(segments[random.nextInt(segments.length)]);
+        final int count = random.nextInt(4);
+        for(int i = 0; i < count; i++)
+        {
+            sb.append('/').append(segments[random.nextInt(segments.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The matching of the former implementation.
+     */
+    private static boolean matches(final String[] topics, final String topic)
+    {
+        if ( topics == null )
+        {
+            return true;
+        }
+        final Set<String> exact = new HashSet<String>();
+        final Set<String> prefix = new HashSet<String>();
+        for(final String t : topics)
+        {
+            if ( t.endsWith("/*") )
+            {
+                prefix.add(t.substring(0, t.length() - 2));
+            }
+            else
+            {
+                exact.add(t);
+            }
+        }
+        int pos = topic.lastIndexOf('/');
+        while ( pos != -1 )
+        {
+            final String p = topic.substring(0, pos);
+            if ( prefix.contains(p) )
+            {
+                return true;
+            }
+            pos = p.lastIndexOf('/');
+        }
+        return exact.contains(topic);
+    }
+}
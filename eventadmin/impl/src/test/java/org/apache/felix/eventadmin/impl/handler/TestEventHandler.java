@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.eventadmin.impl.metrics.Metrics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * An event handler recording the events it receives, together with a
+ * service reference carrying its service properties. The bundle context
+ * returned by {@link #createBundleContext()} hands out the handler of
+ * such a reference, so tests can create proxies without a framework.
+ */
+public class TestEventHandler implements EventHandler
+{
+    private static final Bundle BUNDLE = (Bundle) Proxy.newProxyInstance(
+        TestEventHandler.class.getClassLoader(), new Class<?>[] {Bundle.class},
+        new InvocationHandler()
+        {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args)
+            {
+                if ( method.getName().equals("hasPermission") )
+                {
+                    return Boolean.TRUE;
+                }
+                if ( method.getName().equals("getBundleId") )
+                {
+                    return Long.valueOf(1);
+                }
+                return method.getName().equals("toString") ? "TestBundle" : null;
+            }
+        });
+
+    private final List<Event> events = new ArrayList<Event>();
+
+    private final Map<String, Object> properties = new HashMap<String, Object>();
+
+    private final ServiceReference<EventHandler> reference;
+
+    /**
+     * @param properties The service properties as key value pairs
+     */
+    @SuppressWarnings("unchecked")
+    public TestEventHandler(final Object... properties)
+    {
+        this.setProperties(properties);
+        this.reference = (ServiceReference<EventHandler>) Proxy.newProxyInstance(
+            TestEventHandler.class.getClassLoader(), new Class<?>[] {ServiceReference.class},
+            new ReferenceHandler());
+    }
+
+    /**
+     * Replace the service properties, the proxy has to be updated afterwards.
+     */
+    public void setProperties(final Object... properties)
+    {
+        synchronized ( this.properties )
+        {
+            this.properties.clear();
+            for(int i = 0; i < properties.length; i += 2)
+            {
+                this.properties.put((String) properties[i], properties[i + 1]);
+            }
+        }
+    }
+
+    public ServiceReference<EventHandler> getReference()
+    {
+        return this.reference;
+    }
+
+    /**
+     * Create a proxy for this handler.
+     */
+    public EventHandlerProxy createProxy(final Metrics metrics)
+    {
+        final EventHandlerProxy proxy = new EventHandlerProxy(createContext(metrics), this.reference);
+        proxy.update();
+        return proxy;
+    }
+
+    @Override
+    public void handleEvent(final Event event)
+    {
+        synchronized ( this.events )
+        {
+            this.events.add(event);
+            this.events.notifyAll();
+        }
+        this.handled(event);
+    }
+
+    /**
+     * Called after the event was recorded, to be overridden by tests.
+     */
+    protected void handled(final Event event)
+    {
+        // nothing to do
+    }
+
+    /**
+     * Returns the received events.
+     */
+    public List<Event> getEvents()
+    {
+        synchronized ( this.events )
+        {
+            return new ArrayList<Event>(this.events);
+        }
+    }
+
+    /**
+     * Wait until the given number of events was received.
+     * @return The received events
+     */
+    public List<Event> awaitEvents(final int count) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + 5000;
+        synchronized ( this.events )
+        {
+            long remaining;
+            while ( this.events.size() < count && (remaining = end - System.currentTimeMillis()) > 0 )
+            {
+                this.events.wait(remaining);
+            }
+            return new ArrayList<Event>(this.events);
+        }
+    }
+
+    /**
+     * Create a handler context using a bundle context from {@link #createBundleContext()}.
+     */
+    static EventHandlerTracker.HandlerContext createContext(final Metrics metrics)
+    {
+        return new EventHandlerTracker.HandlerContext(createBundleContext(), null, false, metrics);
+    }
+
+    /**
+     * Create a bundle context creating filters and handing out the handlers
+     * of the references of test event handlers.
+     */
+    public static BundleContext createBundleContext()
+    {
+        return (BundleContext) Proxy.newProxyInstance(
+            TestEventHandler.class.getClassLoader(), new Class<?>[] {BundleContext.class},
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args)
+                throws InvalidSyntaxException
+                {
+                    final String name = method.getName();
+                    if ( name.equals("createFilter") )
+                    {
+                        return FrameworkUtil.createFilter((String) args[0]);
+                    }
+                    if ( name.equals("getService") )
+                    {
+                        return ((ReferenceHandler) Proxy.getInvocationHandler(args[0])).getHandler();
+                    }
+                    if ( name.equals("ungetService") )
+                    {
+                        return Boolean.TRUE;
+                    }
+                    if ( name.equals("getBundle") )
+                    {
+                        return BUNDLE;
+                    }
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * The service reference of the handler, backed by its properties.
+     */
+    private final class ReferenceHandler implements InvocationHandler
+    {
+        public TestEventHandler getHandler()
+        {
+            return TestEventHandler.this;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args)
+        {
+            final String name = method.getName();
+            if ( name.equals("getProperty") )
+            {
+                synchronized ( TestEventHandler.this.properties )
+                {
+                    return TestEventHandler.this.properties.get(args[0]);
+                }
+            }
+            if ( name.equals("getBundle") )
+            {
+                return BUNDLE;
+            }
+            if ( name.equals("equals") )
+            {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ( name.equals("hashCode") )
+            {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if ( name.equals("toString") )
+            {
+                return "TestEventHandler" + TestEventHandler.this.properties;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HandlerStatsTest
+{
+    private static final long MICROS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    /**
+     * Returns the index of the only bucket with a count.
+     */
+    private static int bucketOf(final long nanos)
+    {
+        final HandlerStats stats = new HandlerStats(1, 2);
+        stats.delivered(nanos);
+        final long[] counts = stats.getLatencyCounts();
+        int result = -1;
+        for(int i = 0; i < counts.length; i++)
+        {
+            if ( counts[i] != 0 )
+            {
+                assertEquals(-1, result);
+                assertEquals(1, counts[i]);
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testLatencyBounds()
+    {
+        final long[] bounds = new HandlerStats(1, 2).getLatencyBounds();
+        assertEquals(26, bounds.length);
+        for(int i = 0; i < bounds.length - 1; i++)
+        {
+            assertEquals(1L << i, bounds[i]);
+        }
+        assertEquals(Long.MAX_VALUE, bounds[bounds.length - 1]);
+    }
+
+    @Test
+    public void testBucketBoundaries()
+    {
+        // bucket i counts latencies below 2^i microseconds
+        assertEquals(0, bucketOf(0));
+        assertEquals(0, bucketOf(MICROS - 1));
+        assertEquals(1, bucketOf(MICROS));
+        assertEquals(1, bucketOf(2 * MICROS - 1));
+        assertEquals(2, bucketOf(2 * MICROS));
+        assertEquals(2, bucketOf(4 * MICROS - 1));
+        assertEquals(3, bucketOf(4 * MICROS));
+        assertEquals(10, bucketOf(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(24, bucketOf(((1L << 24) - 1) * MICROS));
+    }
+
+    @Test
+    public void testOverflowIntoLastBucket()
+    {
+        assertEquals(25, bucketOf((1L << 24) * MICROS));
+        assertEquals(25, bucketOf((1L << 30) * MICROS));
+        assertEquals(25, bucketOf(TimeUnit.HOURS.toNanos(1)));
+        assertEquals(25, bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testAggregation()
+    {
+        final HandlerStats stats = new HandlerStats(1, 2);
+        assertEquals(0, stats.getDeliveryCount());
+        assertEquals(0, stats.getMeanLatency());
+        assertEquals(0, stats.getLatencyPercentile(50));
+
+        for(int i = 0; i < 9; i++)
+        {
+            stats.delivered(3 * MICROS);
+        }
+        stats.delivered(1000 * MICROS);
+
+        assertEquals(10, stats.getDeliveryCount());
+        assertEquals(9, stats.getLatencyCounts()[2]);
+        assertEquals(1, stats.getLatencyCounts()[10]);
+        assertEquals(102, stats.getMeanLatency());
+        assertEquals(1000, stats.getMaxLatency());
+        // percentiles are reported as the upper bound of their bucket
+        assertEquals(4, stats.getLatencyPercentile(50));
+        assertEquals(4, stats.getLatencyPercentile(90));
+        assertEquals(1024, stats.getLatencyPercentile(91));
+        assertEquals(1024, stats.getLatencyPercentile(100));
+
+        stats.reset();
+        assertEquals(0, stats.getDeliveryCount());
+        assertEquals(0, stats.getMaxLatency());
+        assertEquals(1, stats.getServiceId());
+        assertEquals(2, stats.getBundleId());
+    }
+}
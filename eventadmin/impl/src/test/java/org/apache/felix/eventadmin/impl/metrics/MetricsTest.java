@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.handler.TestEventHandler;
+import org.apache.felix.eventadmin.metrics.HandlerMetrics;
+import org.apache.felix.eventadmin.metrics.TopicMetrics;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+
+public class MetricsTest
+{
+    private static Event event(final String topic)
+    {
+        return new Event(topic, (Map<String, ?>) null);
+    }
+
+    private static Map<String, TopicMetrics> topics(final Metrics metrics)
+    {
+        final Map<String, TopicMetrics> result = new HashMap<String, TopicMetrics>();
+        for(final TopicMetrics topic : metrics.getTopicMetrics())
+        {
+            result.put(topic.getTopic(), topic);
+        }
+        return result;
+    }
+
+    private static Map<Long, HandlerMetrics> handlers(final Metrics metrics)
+    {
+        final Map<Long, HandlerMetrics> result = new HashMap<Long, HandlerMetrics>();
+        for(final HandlerMetrics handler : metrics.getHandlerMetrics())
+        {
+            result.put(handler.getServiceId(), handler);
+        }
+        return result;
+    }
+
+    @Test
+    public void testPerTopic()
+    {
+        final Metrics metrics = new Metrics(true);
+        for(int i = 0; i < 3; i++)
+        {
+            metrics.posted(event("a/b"));
+        }
+        metrics.sent(event("a/b"));
+        metrics.sent(event("a/c"));
+        metrics.sent(event("a/c"));
+
+        final Map<String, TopicMetrics> topics = topics(metrics);
+        assertEquals(2, topics.size());
+        assertEquals(3, topics.get("a/b").getPostCount());
+        assertEquals(1, topics.get("a/b").getSendCount());
+        assertEquals(0, topics.get("a/c").getPostCount());
+        assertEquals(2, topics.get("a/c").getSendCount());
+        // the average since the topic was seen first, for at least a second
+        final double rate = topics.get("a/b").getPostRate();
+        assertTrue(rate > 0 && rate <= 3.0);
+        assertEquals(0.0, topics.get("a/c").getPostRate(), 0.0);
+
+        metrics.reset();
+        assertEquals(0, metrics.getTopicMetrics().length);
+    }
+
+    @Test
+    public void testTopicsBeyondTheMaximumAreCombined()
+    {
+        final Metrics metrics = new Metrics(true);
+        for(int i = 0; i < 1000; i++)
+        {
+            metrics.posted(event("t/" + i));
+        }
+        metrics.posted(event("x/1"));
+        metrics.posted(event("x/2"));
+        metrics.sent(event("x/3"));
+        metrics.posted(event("t/0"));
+
+        final Map<String, TopicMetrics> topics = topics(metrics);
+        assertEquals(1001, topics.size());
+        assertEquals(2, topics.get("<other>").getPostCount());
+        assertEquals(1, topics.get("<other>").getSendCount());
+        assertEquals(2, topics.get("t/0").getPostCount());
+        assertNull(topics.get("x/1"));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        final Metrics metrics = new Metrics(false);
+        metrics.posted(event("a/b"));
+        metrics.sent(event("a/b"));
+
+        assertEquals(0, metrics.getTopicMetrics().length);
+        assertNull(metrics.getHandlerStats(new TestEventHandler(Constants.SERVICE_ID, 1L).getReference()));
+        assertEquals(0, metrics.getHandlerMetrics().length);
+    }
+
+    @Test
+    public void testPerHandler()
+    {
+        final Metrics metrics = new Metrics(true);
+        final TestEventHandler first = new TestEventHandler(EventConstants.EVENT_TOPIC, "*", Constants.SERVICE_ID, 10L);
+        final TestEventHandler second = new TestEventHandler(EventConstants.EVENT_TOPIC, "*", Constants.SERVICE_ID, 11L);
+        final EventHandlerProxy firstProxy = first.createProxy(metrics);
+        final EventHandlerProxy secondProxy = second.createProxy(metrics);
+
+        for(int i = 0; i < 3; i++)
+        {
+            firstProxy.sendEvent(event("a/b"));
+        }
+        secondProxy.sendEvent(event("a/b"));
+
+        final Map<Long, HandlerMetrics> handlers = handlers(metrics);
+        assertEquals(2, handlers.size());
+        assertEquals(3, handlers.get(10L).getDeliveryCount());
+        assertEquals(1, handlers.get(11L).getDeliveryCount());
+        assertEquals(1, handlers.get(10L).getBundleId());
+
+        // the stats are kept across updates of the handler
+        final HandlerStats stats = metrics.getHandlerStats(first.getReference());
+        assertSame(stats, handlers.get(10L));
+        firstProxy.update();
+        firstProxy.sendEvent(event("a/b"));
+        assertSame(stats, metrics.getHandlerStats(first.getReference()));
+        assertEquals(4, stats.getDeliveryCount());
+        assertNotSame(stats, metrics.getHandlerStats(second.getReference()));
+
+        secondProxy.blackListHandler();
+        assertEquals(1, metrics.getBlacklistCount());
+        assertTrue(handlers.get(11L).getBlacklistTime() > 0);
+        assertEquals(0, handlers.get(10L).getBlacklistTime());
+
+        metrics.reset();
+        assertEquals(0, stats.getDeliveryCount());
+        assertEquals(2, metrics.getHandlerMetrics().length);
+
+        secondProxy.dispose();
+        assertEquals(1, metrics.getHandlerMetrics().length);
+        assertSame(stats, metrics.getHandlerMetrics()[0]);
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.handler.TestEventHandler;
+import org.apache.felix.eventadmin.impl.metrics.Metrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+
+public class QueuedDeliveryTest
+{
+    private DefaultThreadPool pool;
+
+    private DefaultThreadPool syncPool;
+
+    private SyncDeliverTasks syncDeliverTasks;
+
+    private AsyncDeliverTasks asyncDeliverTasks;
+
+    @Before
+    public void setUp()
+    {
+        this.pool = new DefaultThreadPool(10, false);
+        this.syncPool = new DefaultThreadPool(10, true);
+        this.syncDeliverTasks = new SyncDeliverTasks(this.syncPool, 0, false);
+        this.asyncDeliverTasks = new AsyncDeliverTasks(this.pool, this.syncDeliverTasks);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.syncDeliverTasks.stop();
+        this.pool.close();
+        this.syncPool.close();
+    }
+
+    private void post(final EventHandlerProxy proxy, final String topic, final int value, final Object... properties)
+    {
+        final Map<String, Object> props = new HashMap<String, Object>();
+        props.put("v", value);
+        for(int i = 0; i < properties.length; i += 2)
+        {
+            props.put((String) properties[i], properties[i + 1]);
+        }
+        this.asyncDeliverTasks.execute(Collections.singletonList(proxy), new Event(topic, props));
+    }
+
+    private static List<Integer> values(final List<Event> events)
+    {
+        final List<Integer> result = new ArrayList<Integer>();
+        for(final Event event : events)
+        {
+            result.add((Integer) event.getProperty("v"));
+        }
+        return result;
+    }
+
+    @Test
+    public void testCoalesceKey() throws Exception
+    {
+        final GatedHandler handler = new GatedHandler(EventConstants.EVENT_TOPIC, "t/*",
+            EventHandlerProxy.PROP_COALESCE_KEY, "id");
+        final EventHandlerProxy proxy = handler.createProxy(new Metrics(false));
+
+        post(proxy, "t/a", 0, "id", 0);
+        handler.awaitEntered();
+        post(proxy, "t/a", 1, "id", 1);
+        post(proxy, "t/a", 2, "id", 0);
+        post(proxy, "t/a", 3, "id", 1);
+        post(proxy, "t/b", 4, "id", 1);
+        post(proxy, "t/a", 5, "id", 0);
+        assertEquals(3, proxy.getQueuedDelivery().size());
+        handler.open();
+
+        // the latest value of each key is delivered at the position of the first one
+        assertEquals(Arrays.asList(0, 3, 5, 4), values(handler.awaitEvents(4)));
+    }
+
+    @Test
+    public void testBatchSize() throws Exception
+    {
+        final GatedHandler handler = new GatedHandler(EventConstants.EVENT_TOPIC, "t/*",
+            EventHandlerProxy.PROP_BATCH_SIZE, 3);
+        final EventHandlerProxy proxy = handler.createProxy(new Metrics(false));
+
+        post(proxy, "t/a", 0);
+        handler.awaitEntered();
+        post(proxy, "t/a", 1);
+        post(proxy, "t/a", 2);
+        post(proxy, "t/a", 3);
+        post(proxy, "t/a", 4);
+        post(proxy, "t/b", 5);
+        post(proxy, "t/a", 6);
+        handler.open();
+
+        // batches hold up to three consecutive events of the same topic
+        final List<Event> batches = handler.awaitEvents(5);
+        assertEquals(5, batches.size());
+        final String[] topics = {"t/a", "t/a", "t/a", "t/b", "t/a"};
+        final Integer[][] values = {{0}, {1, 2, 3}, {4}, {5}, {6}};
+        for(int i = 0; i < batches.size(); i++)
+        {
+            final Event batch = batches.get(i);
+            assertEquals(topics[i], batch.getTopic());
+            final Event[] events = (Event[]) batch.getProperty(EventHandlerProxy.PROP_EVENTS);
+            assertNotNull(events);
+            assertArrayEquals(values[i], values(Arrays.asList(events)).toArray());
+        }
+    }
+
+    @Test
+    public void testOverflowDropNewest() throws Exception
+    {
+        final GatedHandler handler = new GatedHandler(EventConstants.EVENT_TOPIC, "t/*",
+            EventHandlerProxy.PROP_QUEUE_SIZE, 2,
+            EventHandlerProxy.PROP_QUEUE_OVERFLOW, "drop.newest");
+        final EventHandlerProxy proxy = handler.createProxy(new Metrics(false));
+
+        post(proxy, "t/a", 0);
+        handler.awaitEntered();
+        for(int v = 1; v < 5; v++)
+        {
+            post(proxy, "t/a", v);
+        }
+        handler.open();
+
+        assertEquals(Arrays.asList(0, 1, 2), values(handler.awaitEvents(3)));
+        Thread.sleep(100);
+        assertEquals(3, handler.getEvents().size());
+    }
+
+    @Test
+    public void testOverflowDropOldest() throws Exception
+    {
+        final GatedHandler handler = new GatedHandler(EventConstants.EVENT_TOPIC, "t/*",
+            EventHandlerProxy.PROP_QUEUE_SIZE, 2,
+            EventHandlerProxy.PROP_QUEUE_OVERFLOW, "drop.oldest");
+        final EventHandlerProxy proxy = handler.createProxy(new Metrics(false));
+
+        post(proxy, "t/a", 0);
+        handler.awaitEntered();
+        for(int v = 1; v < 5; v++)
+        {
+            post(proxy, "t/a", v);
+        }
+        handler.open();
+
+        assertEquals(Arrays.asList(0, 3, 4), values(handler.awaitEvents(3)));
+        Thread.sleep(100);
+        assertEquals(3, handler.getEvents().size());
+    }
+
+    @Test
+    public void testOverflowBlock() throws Exception
+    {
+        final GatedHandler handler = new GatedHandler(EventConstants.EVENT_TOPIC, "t/*",
+            EventHandlerProxy.PROP_QUEUE_SIZE, 2,
+            EventHandlerProxy.PROP_QUEUE_OVERFLOW, "block");
+        final EventHandlerProxy proxy = handler.createProxy(new Metrics(false));
+
+        post(proxy, "t/a", 0);
+        handler.awaitEntered();
+        final Thread poster = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for(int v = 1; v < 5; v++)
+                {
+                    post(proxy, "t/a", v);
+                }
+            }
+        };
+        poster.start();
+
+        // the poster waits for space in the full queue
+        final long end = System.currentTimeMillis() + 5000;
+        while ( poster.getState() != Thread.State.WAITING && System.currentTimeMillis() < end )
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, poster.getState());
+        assertEquals(2, proxy.getQueuedDelivery().size());
+
+        handler.open();
+        poster.join(5000);
+        assertFalse(poster.isAlive());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), values(handler.awaitEvents(5)));
+    }
+
+    @Test
+    public void testHandOverToNewQueue() throws Exception
+    {
+        final GatedHandler handler = new GatedHandler(EventConstants.EVENT_TOPIC, "t/*",
+            EventHandlerProxy.PROP_QUEUE_SIZE, 100);
+        final EventHandlerProxy proxy = handler.createProxy(new Metrics(false));
+
+        for(int v = 0; v < 5; v++)
+        {
+            post(proxy, "t/a", v);
+        }
+        handler.awaitEntered();
+        final QueuedDelivery previous = proxy.getQueuedDelivery();
+
+        handler.setProperties(EventConstants.EVENT_TOPIC, "t/*",
+            EventHandlerProxy.PROP_QUEUE_SIZE, 50);
+        proxy.update();
+        assertTrue(proxy.getQueuedDelivery() != previous);
+        for(int v = 5; v < 10; v++)
+        {
+            post(proxy, "t/a", v);
+        }
+        handler.open();
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), values(handler.awaitEvents(10)));
+        assertFalse(handler.overlapped);
+    }
+
+    @Test
+    public void testHandOverWithoutNewQueue() throws Exception
+    {
+        final GatedHandler handler = new GatedHandler(EventConstants.EVENT_TOPIC, "t/*",
+            EventHandlerProxy.PROP_QUEUE_SIZE, 100);
+        final EventHandlerProxy proxy = handler.createProxy(new Metrics(false));
+
+        for(int v = 0; v < 5; v++)
+        {
+            post(proxy, "t/a", v);
+        }
+        handler.awaitEntered();
+        final QueuedDelivery previous = proxy.getQueuedDelivery();
+
+        // the retiring queue keeps taking events until it is empty
+        handler.setProperties(EventConstants.EVENT_TOPIC, "t/*");
+        proxy.update();
+        assertSame(previous, proxy.getQueuedDelivery());
+        for(int v = 5; v < 10; v++)
+        {
+            post(proxy, "t/a", v);
+        }
+        handler.open();
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), values(handler.awaitEvents(10)));
+        assertFalse(handler.overlapped);
+
+        // once drained, the retired queue refuses events, they are delivered directly
+        final long end = System.currentTimeMillis() + 5000;
+        while ( previous.size() > 0 && System.currentTimeMillis() < end )
+        {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertFalse(previous.post(new Event("t/a", (Map<String, ?>) null), this.pool, this.syncDeliverTasks));
+        post(proxy, "t/a", 10);
+        assertEquals(Integer.valueOf(10), values(handler.awaitEvents(11)).get(10));
+    }
+
+    /**
+     * A handler blocking the delivery of the first event until it is opened.
+     */
+    private static final class GatedHandler extends TestEventHandler
+    {
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final CountDownLatch gate = new CountDownLatch(1);
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        volatile boolean overlapped;
+
+        GatedHandler(final Object... properties)
+        {
+            super(properties);
+        }
+
+        @Override
+        public void handleEvent(final Event event)
+        {
+            if ( this.active.incrementAndGet() > 1 )
+            {
+                this.overlapped = true;
+            }
+            try
+            {
+                super.handleEvent(event);
+                this.entered.countDown();
+                this.gate.await(5, TimeUnit.SECONDS);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                this.active.decrementAndGet();
+            }
+        }
+
+        void awaitEntered() throws InterruptedException
+        {
+            assertTrue(this.entered.await(5, TimeUnit.SECONDS));
+        }
+
+        void open()
+        {
+            this.gate.countDown();
+        }
+    }
+}
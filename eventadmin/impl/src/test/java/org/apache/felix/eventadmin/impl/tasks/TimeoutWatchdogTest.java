@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.handler.TestEventHandler;
+import org.apache.felix.eventadmin.impl.metrics.Metrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+
+public class TimeoutWatchdogTest
+{
+    private static final Event EVENT = new Event("t/a", (Map<String, ?>) null);
+
+    private TimeoutWatchdog watchdog;
+
+    @Before
+    public void setUp()
+    {
+        this.watchdog = new TimeoutWatchdog();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.watchdog.close();
+    }
+
+    private static EventHandlerProxy createWarmProxy(final TestEventHandler handler, final Metrics metrics)
+    {
+        final EventHandlerProxy proxy = handler.createProxy(metrics);
+        // the timeout configuration is checked once the handler is obtained
+        proxy.sendEvent(new Event("warm/up", (Map<String, ?>) null));
+        assertTrue(proxy.useTimeout());
+        return proxy;
+    }
+
+    private static void sleep(final long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testExpiredHandlerIsBlacklisted()
+    {
+        final BlockingHandler handler = new BlockingHandler();
+        final EventHandlerProxy proxy = handler.init(new Metrics(false));
+
+        this.watchdog.deliver(proxy, EVENT, 50);
+
+        // blacklisted by the watchdog, not after the handler returned
+        assertTrue(handler.blacklistedWhileRunning);
+        assertFalse(proxy.canDeliver(EVENT));
+    }
+
+    @Test
+    public void testHandlerWithinTimeoutIsNotBlacklisted()
+    {
+        final TestEventHandler handler = new TestEventHandler(EventConstants.EVENT_TOPIC, "*");
+        final EventHandlerProxy proxy = createWarmProxy(handler, new Metrics(false));
+
+        for(int i = 0; i < 100; i++)
+        {
+            this.watchdog.deliver(proxy, EVENT, 5000);
+        }
+
+        assertEquals(101, handler.getEvents().size());
+        assertTrue(proxy.canDeliver(EVENT));
+    }
+
+    @Test
+    public void testOuterWatchIsPausedDuringNestedDelivery()
+    {
+        final TestEventHandler inner = new TestEventHandler(EventConstants.EVENT_TOPIC, "*")
+        {
+            @Override
+            protected void handled(final Event event)
+            {
+                if ( event == EVENT )
+                {
+                    sleep(700);
+                }
+            }
+        };
+        final EventHandlerProxy innerProxy = createWarmProxy(inner, new Metrics(false));
+        final TestEventHandler outer = new TestEventHandler(EventConstants.EVENT_TOPIC, "*")
+        {
+            @Override
+            protected void handled(final Event event)
+            {
+                if ( event == EVENT )
+                {
+                    sleep(100);
+                    TimeoutWatchdogTest.this.watchdog.deliver(innerProxy, EVENT, 5000);
+                    sleep(100);
+                }
+            }
+        };
+        final EventHandlerProxy outerProxy = createWarmProxy(outer, new Metrics(false));
+
+        // the outer handler takes longer than its timeout, but only because of the inner one
+        final long start = System.currentTimeMillis();
+        this.watchdog.deliver(outerProxy, EVENT, 500);
+        assertTrue(System.currentTimeMillis() - start > 500);
+
+        assertTrue(outerProxy.canDeliver(EVENT));
+        assertTrue(innerProxy.canDeliver(EVENT));
+    }
+
+    @Test
+    public void testThreadParksWhenIdle()
+    {
+        final TestEventHandler handler = new TestEventHandler(EventConstants.EVENT_TOPIC, "*");
+        this.watchdog.deliver(createWarmProxy(handler, new Metrics(false)), EVENT, 5000);
+        final Thread thread = this.watchdog.getThread();
+        assertNotNull(thread);
+
+        // parked without timeout after IDLE_TICKS ticks without deliveries
+        final long end = System.currentTimeMillis() + 5000;
+        while ( thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < end )
+        {
+            sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+
+        // and woken up by the next delivery
+        final BlockingHandler blocking = new BlockingHandler();
+        final EventHandlerProxy proxy = blocking.init(new Metrics(false));
+        this.watchdog.deliver(proxy, EVENT, 50);
+        assertTrue(blocking.blacklistedWhileRunning);
+        assertTrue(thread.isAlive());
+    }
+
+    @Test
+    public void testBlackListHandlerIsIdempotent()
+    {
+        final Metrics metrics = new Metrics(true);
+        final BlockingHandler handler = new BlockingHandler();
+        final EventHandlerProxy proxy = handler.init(metrics);
+
+        // blacklisted by the watchdog and again by the caller as the handler took too long
+        this.watchdog.deliver(proxy, EVENT, 50);
+        assertTrue(handler.blacklistedWhileRunning);
+        assertEquals(1, metrics.getBlacklistCount());
+
+        proxy.blackListHandler();
+        assertEquals(1, metrics.getBlacklistCount());
+        assertTrue(metrics.getHandlerMetrics()[0].getBlacklistTime() > 0);
+    }
+
+    @Test
+    public void testSyncDeliverTasksWithWatchdog()
+    {
+        final DefaultThreadPool pool = new DefaultThreadPool(10, true);
+        final SyncDeliverTasks tasks = new SyncDeliverTasks(pool, 50, true);
+        try
+        {
+            final TestEventHandler first = new TestEventHandler(EventConstants.EVENT_TOPIC, "*");
+            final BlockingHandler slow = new BlockingHandler();
+            final TestEventHandler last = new TestEventHandler(EventConstants.EVENT_TOPIC, "*");
+            final EventHandlerProxy firstProxy = createWarmProxy(first, new Metrics(false));
+            final EventHandlerProxy slowProxy = slow.init(new Metrics(false));
+            final EventHandlerProxy lastProxy = createWarmProxy(last, new Metrics(false));
+
+            tasks.execute(Arrays.asList(firstProxy, slowProxy, lastProxy), EVENT, false);
+
+            // the slow handler is blacklisted while the caller is blocked by it
+            assertTrue(slow.blacklistedWhileRunning);
+            assertFalse(slowProxy.canDeliver(EVENT));
+
+            // and the caller still delivered to the remaining handler
+            assertEquals(Arrays.asList(EVENT), last.getEvents().subList(1, last.getEvents().size()));
+            assertTrue(firstProxy.canDeliver(EVENT));
+            assertTrue(lastProxy.canDeliver(EVENT));
+        }
+        finally
+        {
+            tasks.stop();
+            pool.close();
+        }
+    }
+
+    /**
+     * A handler blocking until it is blacklisted.
+     */
+    private static final class BlockingHandler extends TestEventHandler
+    {
+        private EventHandlerProxy proxy;
+
+        volatile boolean blacklistedWhileRunning;
+
+        BlockingHandler()
+        {
+            super(EventConstants.EVENT_TOPIC, "*");
+        }
+
+        EventHandlerProxy init(final Metrics metrics)
+        {
+            this.proxy = createWarmProxy(this, metrics);
+            return this.proxy;
+        }
+
+        @Override
+        protected void handled(final Event event)
+        {
+            if ( event != EVENT )
+            {
+                return;
+            }
+            final long end = System.currentTimeMillis() + 5000;
+            while ( this.proxy.canDeliver(event) && System.currentTimeMillis() < end )
+            {
+                sleep(10);
+            }
+            this.blacklistedWhileRunning = !this.proxy.canDeliver(event);
+            sleep(20);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.felix.framework.Felix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Measures how long it takes a number of threads to load all classes of a
+ * freshly installed bundle, where each thread loads a distinct subset of the
+ * classes. Every invocation uses a new bundle, so no class is loaded yet.
+**/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(1)
+public class ClassLoadingBenchmark
+{
+    private static final String PACKAGE = "org/apache/felix/framework/benchmark/generated";
+
+    @Param({ "1000" })
+    public int classes;
+
+    @Param({ "1", "4", "16" })
+    public int threads;
+
+    private File m_tempDir;
+    private File m_bundleFile;
+    private Felix m_felix;
+    private ExecutorService m_executor;
+    private int m_installCount;
+    private Bundle m_bundle;
+    private ClassLoader m_classLoader;
+
+    @Setup(Level.Trial)
+    public void setUpFramework() throws Exception
+    {
+        m_tempDir = File.createTempFile("felix-benchmark", ".dir");
+        m_tempDir.delete();
+        m_tempDir.mkdirs();
+        m_bundleFile = createBundle(new File(m_tempDir, "classes.jar"), classes);
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, new File(m_tempDir, "cache").getPath());
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES, "org.osgi.framework; version=1.7.0");
+        m_felix = new Felix(params);
+        m_felix.start();
+
+        m_executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownFramework() throws Exception
+    {
+        m_executor.shutdownNow();
+        m_felix.stop();
+        m_felix.waitForStop(10000);
+        deleteDir(m_tempDir);
+    }
+
+    @Setup(Level.Invocation)
+    public void installBundle() throws Exception
+    {
+        // Use a new location every time, so that each invocation gets a
+        // new revision and class loader.
+        FileInputStream is = new FileInputStream(m_bundleFile);
+        try
+        {
+            m_bundle = m_felix.getBundleContext().installBundle(
+                m_bundleFile.toURI() + "#" + m_installCount++, is);
+        }
+        finally
+        {
+            is.close();
+        }
+        m_felix.adapt(FrameworkWiring.class).resolveBundles(Collections.singleton(m_bundle));
+        m_classLoader = m_bundle.adapt(BundleWiring.class).getClassLoader();
+    }
+
+    @TearDown(Level.Invocation)
+    public void uninstallBundle() throws Exception
+    {
+        m_bundle.uninstall();
+        m_felix.adapt(FrameworkWiring.class).refreshBundles(null);
+        m_bundle = null;
+        m_classLoader = null;
+    }
+
+    @Benchmark
+    public int loadClasses() throws Exception
+    {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            final int first = t;
+            futures.add(m_executor.submit(new Callable<Integer>()
+            {
+                public Integer call() throws Exception
+                {
+                    int count = 0;
+                    for (int i = first; i < classes; i += threads)
+                    {
+                        count += m_classLoader.loadClass(getClassName(i)).getName().length();
+                    }
+                    return count;
+                }
+            }));
+        }
+        int count = 0;
+        for (Future<Integer> future : futures)
+        {
+            count += future.get();
+        }
+        return count;
+    }
+
+    private static String getClassName(int i)
+    {
+        return PACKAGE.replace('/', '.') + ".C" + i;
+    }
+
+    private static File createBundle(File file, int classes) throws IOException
+    {
+        Manifest mf = new Manifest();
+        Attributes attrs = mf.getMainAttributes();
+        attrs.putValue("Manifest-Version", "1.0");
+        attrs.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+        attrs.putValue(Constants.BUNDLE_SYMBOLICNAME, "classes");
+
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(file), mf);
+        try
+        {
+            for (int i = 0; i < classes; i++)
+            {
+                os.putNextEntry(new ZipEntry(PACKAGE + "/C" + i + ".class"));
+                os.write(createClass(PACKAGE + "/C" + i));
+            }
+        }
+        finally
+        {
+            os.close();
+        }
+        return file;
+    }
+
+    /**
+     * Creates the byte code of an empty class without methods.
+     * @param name the internal name of the class.
+     * @return the class file.
+    **/
+    private static byte[] createClass(String name) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(0xCAFEBABE);
+        // Version 49.0, i.e., Java 5.
+        out.writeShort(0);
+        out.writeShort(49);
+        // Constant pool of the class and super class names.
+        out.writeShort(5);
+        out.writeByte(1);
+        out.writeUTF(name);
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);
+        out.writeShort(3);
+        // Public super class, this class, super class.
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+        // No interfaces, fields, methods or attributes.
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            File[] files = root.listFiles();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    deleteDir(file);
+                }
+            }
+        }
+        root.delete();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Data Transfer Object with the time the framework spent on a bundle, as
+ * recorded when the <tt>felix.profiler</tt> property is enabled. It can be
+ * obtained by adapting a bundle to this type; adapting the system bundle to
+ * an array of this type returns the profiles of all bundles. All times are
+ * in nanoseconds.
+ * <p>
+ * This class is not exported by the system bundle, so it can only be used
+ * by the launcher or other code that embeds the framework. Bundles can get
+ * the same information through the <tt>felix:profile</tt> command.
+**/
+public class BundleProfileDTO extends DTO
+{
+    /**
+     * The id of the bundle.
+     */
+    public long bundle;
+
+    /**
+     * The symbolic name of the bundle.
+     */
+    public String symbolicName;
+
+    /**
+     * The time spent resolving the bundle. The time of resolving several
+     * bundles at once is split evenly among them.
+     */
+    public long resolveTime;
+
+    /**
+     * The time spent in the start method of the bundle activator.
+     */
+    public long activateTime;
+
+    /**
+     * The time spent loading classes from the bundle class path, including
+     * weaving them.
+     */
+    public long classLoadTime;
+
+    /**
+     * The number of classes loaded from the bundle class path.
+     */
+    public int loadedClasses;
+
+    /**
+     * The time spent in weaving hooks for classes of the bundle.
+     */
+    public long weaveTime;
+}
@@ -34,6 +34,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -154,6 +155,20 @@ public class BundleWiringImpl implements BundleWiring
     // Flag indicating whether this wiring has been disposed.
     private volatile boolean m_isDisposed = false;
 
+    // Index of the directories of the revision's class path, which is
+    // created on first use.
+    private volatile ContentIndex m_contentIndex;
+
+    // Maximum number of entries of each lookup miss cache.
+    private static final int MAX_CACHED_MISSES = 1024;
+    // Names of classes and resources that were found neither by boot
+    // delegation nor in the revision's class path; only names of packages
+    // without a static package source are cached, since misses for them
+    // cannot change as long as the class path is indexed. The caches are
+    // cleared whenever a dynamic wire is added.
+    private final Map<String, Boolean> m_classMisses = createMissCache();
+    private final Map<String, Boolean> m_resourceMisses = createMissCache();
+
     BundleWiringImpl(
         Logger logger, Map configMap, StatefulResolver resolver,
         BundleRevisionImpl revision, List<BundleRevision> fragments,
@@ -487,6 +502,45 @@ public class BundleWiringImpl implements BundleWiring
         }
         m_classLoader = null;
         m_isDisposed = true;
+        m_contentIndex = null;
+        m_classMisses.clear();
+        m_resourceMisses.clear();
+    }
+
+    /**
+     * Returns the index of the revision's class path, creating it if needed.
+     * The index is recreated if the class path of the revision changed.
+     * @return the class path index.
+    **/
+    ContentIndex getContentIndex()
+    {
+        List<Content> contentPath = m_revision.getContentPath();
+        ContentIndex index = m_contentIndex;
+        if ((index == null) || (index.getContentPath() != contentPath))
+        {
+            index = new ContentIndex(contentPath);
+            m_contentIndex = index;
+        }
+        return index;
+    }
+
+    private boolean isMissCacheable(String pkgName)
+    {
+        // Misses can only be cached if the result does not depend on a
+        // package source nor on class path entries that may change.
+        return !hasPackageSource(pkgName) && getContentIndex().isComplete();
+    }
+
+    private static Map<String, Boolean> createMissCache()
+    {
+        return Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+            {
+                return size() > MAX_CACHED_MISSES;
+            }
+        });
     }
 
 // TODO: OSGi R4.3 - This really shouldn't be public, but it is needed by the
@@ -654,6 +708,9 @@ public class BundleWiringImpl implements BundleWiring
         // to cause any issues.
         m_wires = ImmutableList.newInstance(wires);
         m_importedPkgs = importedPkgs;
+        // The new package source may provide previously missed names.
+        m_classMisses.clear();
+        m_resourceMisses.clear();
     }
 
     public BundleRevision getResource()
@@ -1474,66 +1531,81 @@ public class BundleWiringImpl implements BundleWiring
                     ? Util.getClassPackage(name)
                     : Util.getResourcePackage(name);
 
-                // Delegate any packages listed in the boot delegation
-                // property to the parent class loader.
-                if (shouldBootDelegate(pkgName))
+                // Check whether we already know that neither boot delegation
+                // nor the revision's class path provide the class/resource,
+                // in which case only the dynamic imports need to be searched.
+                Map<String, Boolean> misses = (isClass) ? m_classMisses : m_resourceMisses;
+                if (misses.containsKey(name))
                 {
-                    try
+                    result = searchDynamicImports(pkgName, name, isClass);
+                }
+                else
+                {
+                    // Delegate any packages listed in the boot delegation
+                    // property to the parent class loader.
+                    if (shouldBootDelegate(pkgName))
                     {
-                        // Get the appropriate class loader for delegation.
-                        ClassLoader bdcl = getBootDelegationClassLoader();
-                        result = (isClass)
-                            ? (Object) bdcl.loadClass(name)
-                            : (Object) bdcl.getResource(name);
-                        // If this is a java.* package, then always terminate the
-                        // search; otherwise, continue to look locally if not found.
-                        if (pkgName.startsWith("java.") || (result != null))
+                        try
                         {
-                            return result;
+                            // Get the appropriate class loader for delegation.
+                            ClassLoader bdcl = getBootDelegationClassLoader();
+                            result = (isClass)
+                                ? (Object) bdcl.loadClass(name)
+                                : (Object) bdcl.getResource(name);
+                            // If this is a java.* package, then always terminate the
+                            // search; otherwise, continue to look locally if not found.
+                            if (pkgName.startsWith("java.") || (result != null))
+                            {
+                                return result;
+                            }
                         }
-                    }
-                    catch (ClassNotFoundException ex)
-                    {
-                        // If this is a java.* package, then always terminate the
-                        // search; otherwise, continue to look locally if not found.
-                        if (pkgName.startsWith("java."))
+                        catch (ClassNotFoundException ex)
                         {
-                            throw ex;
+                            // If this is a java.* package, then always terminate the
+                            // search; otherwise, continue to look locally if not found.
+                            if (pkgName.startsWith("java."))
+                            {
+                                throw ex;
+                            }
                         }
                     }
-                }
 
-                // Look in the revision's imports. Note that the search may
-                // be aborted if this method throws an exception, otherwise
-                // it continues if a null is returned.
-                result = searchImports(pkgName, name, isClass);
+                    // Look in the revision's imports. Note that the search may
+                    // be aborted if this method throws an exception, otherwise
+                    // it continues if a null is returned.
+                    result = searchImports(pkgName, name, isClass);
 
-                // If not found, try the revision's own class path.
-                if (result == null)
-                {
-                    if (isClass)
+                    // If not found, try the revision's own class path.
+                    if (result == null)
                     {
-                        ClassLoader cl = getClassLoaderInternal();
-                        if (cl == null)
+                        if (isClass)
                         {
-                            throw new ClassNotFoundException(
-                                "Unable to load class '"
-                                + name
-                                + "' because the bundle wiring for "
-                                + m_revision.getSymbolicName()
-                                + " is no longer valid.");
+                            ClassLoader cl = getClassLoaderInternal();
+                            if (cl == null)
+                            {
+                                throw new ClassNotFoundException(
+                                    "Unable to load class '"
+                                    + name
+                                    + "' because the bundle wiring for "
+                                    + m_revision.getSymbolicName()
+                                    + " is no longer valid.");
+                            }
+                            result = ((BundleClassLoader) cl).findClass(name);
+                        }
+                        else if (getContentIndex().getContentIndices(name).length > 0)
+                        {
+                            result = m_revision.getResourceLocal(name);
                         }
-                        result = ((BundleClassLoader) cl).findClass(name);
-                    }
-                    else
-                    {
-                        result = m_revision.getResourceLocal(name);
-                    }
 
-                    // If still not found, then try the revision's dynamic imports.
-                    if (result == null)
-                    {
-                        result = searchDynamicImports(pkgName, name, isClass);
+                        // If still not found, then try the revision's dynamic imports.
+                        if (result == null)
+                        {
+                            if (isMissCacheable(pkgName))
+                            {
+                                misses.put(name, Boolean.TRUE);
+                            }
+                            result = searchDynamicImports(pkgName, name, isClass);
+                        }
                     }
                 }
             }
@@ -1944,7 +2016,14 @@ public class BundleWiringImpl implements BundleWiring
         private Object[][] m_cachedLibs = new Object[0][];
         private static final int LIBNAME_IDX = 0;
         private static final int LIBPATH_IDX = 1;
-        private final Map<String, Thread> m_classLocks = new HashMap<String, Thread>();
+        // Number of stripes of class definition locks for parallel capable
+        // class loaders; must be a power of two.
+        private static final int CLASS_LOCK_STRIPES = 32;
+        // Locks guarding the definition of classes, striped by class name so
+        // that threads defining different classes rarely contend. Class loaders
+        // that are not parallel capable only have one stripe, which uses the
+        // class loader itself as monitor, like the VM does.
+        private final ClassLockStripe[] m_classLocks;
         private final BundleWiringImpl m_wiring;
         private final Logger m_logger;
 
@@ -1961,6 +2040,18 @@ public class BundleWiringImpl implements BundleWiring
             }
             m_wiring = wiring;
             m_logger = logger;
+            if (isParallel())
+            {
+                m_classLocks = new ClassLockStripe[CLASS_LOCK_STRIPES];
+                for (int i = 0; i < m_classLocks.length; i++)
+                {
+                    m_classLocks[i] = new ClassLockStripe(null);
+                }
+            }
+            else
+            {
+                m_classLocks = new ClassLockStripe[] { new ClassLockStripe(this) };
+            }
         }
 
         protected boolean isParallel()
@@ -1968,6 +2059,15 @@ public class BundleWiringImpl implements BundleWiring
             return false;
         }
 
+        private ClassLockStripe getClassLockStripe(String name)
+        {
+            // Spread the hash code, since class names of a bundle often
+            // only differ in their last characters.
+            int h = name.hashCode();
+            h ^= (h >>> 16);
+            return m_classLocks[h & (m_classLocks.length - 1)];
+        }
+
         public boolean isActivationTriggered()
         {
             return m_isActivationTriggered;
@@ -1985,8 +2085,7 @@ public class BundleWiringImpl implements BundleWiring
             Class clazz;
 
             // Make sure the class was not already loaded.
-            Object lock = (isParallel()) ? m_classLocks : this;
-            synchronized (lock)
+            synchronized (getClassLockStripe(name).m_monitor)
             {
                 clazz = findLoadedClass(name);
             }
@@ -2049,17 +2148,25 @@ public class BundleWiringImpl implements BundleWiring
             {
                 String actual = name.replace('.', '/') + ".class";
 
+                // Only take the time if the framework profiles bundles.
+                StartupProfiler profiler =
+                    ((BundleImpl) m_wiring.m_revision.getBundle()).getFramework().getProfiler();
+                long start = (profiler != null) ? System.nanoTime() : 0;
+
                 byte[] bytes = null;
 
-                // Check the bundle class path.
-                List<Content> contentPath = m_wiring.m_revision.getContentPath();
+                // Check the bundle class path, but only the entries that
+                // contain the package of the class according to the index.
+                ContentIndex index = m_wiring.getContentIndex();
+                List<Content> contentPath = index.getContentPath();
+                int[] indices = index.getContentIndices(actual);
                 Content content = null;
                 for (int i = 0;
                     (bytes == null) &&
-                    (i < contentPath.size()); i++)
+                    (i < indices.length); i++)
                 {
-                    bytes = contentPath.get(i).getEntryAsBytes(actual);
-                    content = contentPath.get(i);
+                    bytes = contentPath.get(indices[i]).getEntryAsBytes(actual);
+                    content = contentPath.get(indices[i]);
                 }
 
                 if (bytes != null)
@@ -2087,6 +2194,7 @@ public class BundleWiringImpl implements BundleWiring
                     {
                         // Create woven class to be used for hooks.
                         wci = new WovenClassImpl(name, m_wiring, bytes);
+                        long weaveStart = (profiler != null) ? System.nanoTime() : 0;
                         try
                         {
                             transformClass(felix, wci, hooks, wovenClassListeners,
@@ -2100,19 +2208,28 @@ public class BundleWiringImpl implements BundleWiring
                             callWovenClassListeners(felix, wovenClassListeners, wci);
                             throw e;
                         }
+                        finally
+                        {
+                            if (profiler != null)
+                            {
+                                profiler.record(m_wiring.m_revision.getBundle(),
+                                    StartupProfiler.WEAVE, System.nanoTime() - weaveStart);
+                            }
+                        }
                     }
                     // Before we actually attempt to define the class, grab
                     // the lock for this class loader and make sure than no
                     // other thread has defined this class in the meantime.
-                    Object lock = (isParallel()) ? m_classLocks : this;
-                    synchronized (lock)
+                    ClassLockStripe stripe = getClassLockStripe(name);
+                    synchronized (stripe.m_monitor)
                     {
                         Thread me = Thread.currentThread();
-                        while (m_classLocks.containsKey(name) && (m_classLocks.get(name) != me))
+                        while (stripe.m_owners.containsKey(name)
+                            && (stripe.m_owners.get(name) != me))
                         {
                             try
                             {
-                                lock.wait();
+                                stripe.m_monitor.wait();
                             }
                             catch (InterruptedException e)
                             {
@@ -2125,14 +2242,14 @@ public class BundleWiringImpl implements BundleWiring
                         if (clazz == null)
                         {
                             // Not found, we should try load it.
-                            m_classLocks.put(name, me);
+                            stripe.m_owners.put(name, me);
                         }
                     }
 
                     try
                     {
                         clazz = defineClass(felix, wovenClassListeners, wci, name,
-                                clazz, bytes, content, pkgName, lock);
+                                clazz, bytes, content, pkgName, stripe);
                     }
                     catch (ClassFormatError e)
                     {
@@ -2144,6 +2261,12 @@ public class BundleWiringImpl implements BundleWiring
                         throw e;
                     }
 
+                    if (profiler != null)
+                    {
+                        profiler.record(m_wiring.m_revision.getBundle(),
+                            StartupProfiler.CLASS_LOAD, System.nanoTime() - start);
+                    }
+
                     // Perform deferred activation without holding the class loader lock,
                     // if the class we are returning is the instigating class.
                     List deferredList = (List) m_deferredActivation.get();
@@ -2181,7 +2304,7 @@ public class BundleWiringImpl implements BundleWiring
         Class defineClass(Felix felix,
                 Set<ServiceReference<WovenClassListener>> wovenClassListeners,
                 WovenClassImpl wci, String name, Class clazz, byte[] bytes,
-                Content content, String pkgName, Object lock)
+                Content content, String pkgName, ClassLockStripe stripe)
                         throws ClassFormatError
         {
 
@@ -2372,10 +2495,10 @@ public class BundleWiringImpl implements BundleWiring
             }
             finally
             {
-                synchronized (lock)
+                synchronized (stripe.m_monitor)
                 {
-                    m_classLocks.remove(name);
-                    lock.notifyAll();
+                    stripe.m_owners.remove(name);
+                    stripe.m_monitor.notifyAll();
                 }
             }
             return clazz;
@@ -2639,6 +2762,21 @@ public class BundleWiringImpl implements BundleWiring
         return url;
     }
 
+    static class ClassLockStripe
+    {
+        // The monitor guarding the owners, which is the stripe itself
+        // unless specified otherwise.
+        final Object m_monitor;
+        // Maps the names of the classes currently being defined to the
+        // threads defining them.
+        final Map<String, Thread> m_owners = new HashMap<String, Thread>();
+
+        ClassLockStripe(Object monitor)
+        {
+            m_monitor = (monitor == null) ? this : monitor;
+        }
+    }
+
     private static class ResourceSource implements Comparable<ResourceSource>
     {
         public final String m_resource;
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.JarContent;
+
+/**
+ * This class indexes the directories of the entries of a bundle class path,
+ * so that looking up an entry only needs to search the class path entries
+ * that contain its directory. Only JAR files are indexed, since their
+ * entries cannot change; other content is always searched. A directory is
+ * indexed for all of its ancestors too, so that looking up the directory
+ * itself as a resource finds the class path entries containing it.
+**/
+class ContentIndex
+{
+    private static final int[] EMPTY = new int[0];
+
+    private final List<Content> m_contentPath;
+    // Maps directories to the indices of the class path entries containing
+    // them, merged with the indices of the unindexed class path entries.
+    private final Map<String, int[]> m_dirs;
+    // Indices of the class path entries that are not indexed.
+    private final int[] m_unindexed;
+    // Indices of all class path entries.
+    private final int[] m_all;
+
+    ContentIndex(List<Content> contentPath)
+    {
+        m_contentPath = contentPath;
+
+        Map<String, List<Integer>> dirs = new HashMap<String, List<Integer>>();
+        List<Integer> unindexed = new ArrayList<Integer>();
+        for (int i = 0; i < contentPath.size(); i++)
+        {
+            if (!(contentPath.get(i) instanceof JarContent))
+            {
+                unindexed.add(i);
+                continue;
+            }
+
+            Enumeration<String> entries = contentPath.get(i).getEntries();
+            while ((entries != null) && entries.hasMoreElements())
+            {
+                String dir = getDirectory(entries.nextElement());
+                while (dir != null)
+                {
+                    List<Integer> indices = dirs.get(dir);
+                    if (indices == null)
+                    {
+                        indices = new ArrayList<Integer>(1);
+                        dirs.put(dir, indices);
+                    }
+                    // If the directory is already indexed for this class path
+                    // entry, then so are all of its ancestors.
+                    else if (indices.get(indices.size() - 1) == i)
+                    {
+                        break;
+                    }
+                    indices.add(i);
+                    dir = getDirectory(dir);
+                }
+            }
+        }
+
+        m_unindexed = toArray(unindexed);
+        m_all = new int[contentPath.size()];
+        for (int i = 0; i < m_all.length; i++)
+        {
+            m_all[i] = i;
+        }
+        m_dirs = new HashMap<String, int[]>(dirs.size());
+        for (Entry<String, List<Integer>> entry : dirs.entrySet())
+        {
+            List<Integer> indices = entry.getValue();
+            if (!unindexed.isEmpty())
+            {
+                indices.addAll(unindexed);
+                Collections.sort(indices);
+            }
+            m_dirs.put(entry.getKey(), toArray(indices));
+        }
+    }
+
+    List<Content> getContentPath()
+    {
+        return m_contentPath;
+    }
+
+    /**
+     * Returns whether the entries of all class path entries are known, i.e.,
+     * whether all of them are indexed.
+     * @return <tt>true</tt> if no class path entry needs to be searched
+     *         without the index.
+    **/
+    boolean isComplete()
+    {
+        return m_unindexed.length == 0;
+    }
+
+    /**
+     * Returns the indices of the class path entries that may contain the
+     * specified entry, in class path order.
+     * @param name the entry name.
+     * @return the indices of the class path entries to search.
+    **/
+    int[] getContentIndices(String name)
+    {
+        if ((name.length() > 0) && (name.charAt(0) == '/'))
+        {
+            name = name.substring(1);
+        }
+        String dir = getDirectory(name);
+        if (dir == null)
+        {
+            return m_all;
+        }
+        int[] indices = m_dirs.get(dir);
+        return (indices == null) ? m_unindexed : indices;
+    }
+
+    /**
+     * Returns the directory of the specified entry, which is the empty
+     * string for entries in the root directory.
+     * @param name the entry name, where directories may end with a slash.
+     * @return the directory or <tt>null</tt> for the root directory itself.
+    **/
+    private static String getDirectory(String name)
+    {
+        int end = name.length();
+        if ((end > 0) && (name.charAt(end - 1) == '/'))
+        {
+            end--;
+        }
+        if (end == 0)
+        {
+            return null;
+        }
+        int idx = name.lastIndexOf('/', end - 1);
+        return (idx < 0) ? "" : name.substring(0, idx);
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        if (list.isEmpty())
+        {
+            return EMPTY;
+        }
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+        {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -109,6 +109,16 @@ public class DTOFactory
         {
             return type.cast(createFrameworkStartLevelDTO((Framework) bundle));
         }
+        else if (type == BundleProfileDTO.class)
+        {
+            StartupProfiler profiler = ((BundleImpl) bundle).getFramework().getProfiler();
+            return (profiler != null) ? type.cast(profiler.getProfile(bundle)) : null;
+        }
+        else if (type == BundleProfileDTO[].class && bundle instanceof Felix)
+        {
+            StartupProfiler profiler = ((Felix) bundle).getProfiler();
+            return (profiler != null) ? type.cast(profiler.getProfiles()) : null;
+        }
         return null;
     }
 
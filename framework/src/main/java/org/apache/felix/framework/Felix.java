@@ -49,6 +49,12 @@ import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.felix.framework.BundleWiringImpl.BundleClassLoader;
 import org.apache.felix.framework.ServiceRegistry.ServiceRegistryCallbacks;
@@ -114,6 +120,8 @@ public class Felix extends BundleImpl implements Framework
     // Framework wiring object.
     private final FrameworkWiringImpl m_fwkWiring;
     private final FrameworkStartLevelImpl m_fwkStartLevel;
+    // Profiler of the time spent per bundle, if enabled.
+    private final StartupProfiler m_profiler;
 
     // Logging related member variables.
     private final Logger m_logger;
@@ -183,6 +191,9 @@ public class Felix extends BundleImpl implements Framework
     private long m_nextId = 1L;
     private final Object m_nextIdLock = new Object[0];
 
+    // Name of the system bundle data file holding the wiring snapshot.
+    private static final String WIRINGS_FILE = "wirings";
+
     // Service registry.
     private final ServiceRegistry m_registry;
 
@@ -418,7 +429,7 @@ public class Felix extends BundleImpl implements Framework
             {
                 fireServiceEvent(event, oldProps);
             }
-        });
+        }, "true".equals(getProperty(FelixConstants.SERVICE_REGISTRY_SNAPSHOT_PROP)));
 
         // Create a resolver and its state.
         m_resolver = new StatefulResolver(this, m_registry);
@@ -438,12 +449,17 @@ public class Felix extends BundleImpl implements Framework
         }
 
         // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        m_dispatcher = new EventDispatcher(m_logger, m_registry,
+            getIntProperty(FelixConstants.EVENT_DISPATCHER_THREADS_PROP, 1),
+            getIntProperty(FelixConstants.EVENT_DISPATCHER_QUEUE_SIZE_PROP, 0));
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
         // Create framework start level object.
         m_fwkStartLevel = new FrameworkStartLevelImpl(this, m_registry);
+        // Create profiler object, if enabled.
+        m_profiler = "true".equals(getProperty(FelixConstants.PROFILER_PROP))
+            ? new StartupProfiler(this, m_registry) : null;
     }
 
     Logger getLogger()
@@ -451,6 +467,11 @@ public class Felix extends BundleImpl implements Framework
         return m_logger;
     }
 
+    StartupProfiler getProfiler()
+    {
+        return m_profiler;
+    }
+
     Map getConfig()
     {
         return m_configMap;
@@ -816,6 +837,22 @@ public class Felix extends BundleImpl implements Framework
                 // keep the max value.
                 m_nextId = Math.max(m_nextId, loadNextId());
 
+                // Load the wirings of the previous session, which are only
+                // used if the reloaded bundles and configuration match.
+                if ("true".equals(getProperty(FelixConstants.CACHE_WIRINGS_PROP)))
+                {
+                    try
+                    {
+                        m_resolver.loadWiringSnapshot(
+                            m_cache.getSystemBundleDataFile(WIRINGS_FILE));
+                    }
+                    catch (Exception ex)
+                    {
+                        m_logger.log(Logger.LOG_WARNING,
+                            "Unable to load wiring snapshot.", ex);
+                    }
+                }
+
                 // The framework is now in its startup sequence.
                 setBundleStateAndNotify(this, Bundle.STARTING);
 
@@ -836,6 +873,10 @@ public class Felix extends BundleImpl implements Framework
                 m_resolver.start();
                 m_fwkWiring.start();
                 m_fwkStartLevel.start();
+                if (m_profiler != null)
+                {
+                    m_profiler.start();
+                }
 
                 try
                 {
@@ -1286,126 +1327,82 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
-            // Process bundles and stop or start them accordingly.
-            while (bundlesRemaining)
-            {
-                StartLevelTuple tuple;
+            // Bundles of the same start level are started concurrently
+            // if configured to do so; stopping is always sequential.
+            int threads = getIntProperty(FelixConstants.STARTLEVEL_THREADS_PROP, 1);
+            ExecutorService executor = (!isLowering && (threads > 1))
+                ? createStartLevelExecutor(threads) : null;
 
-                // Remove our tuple to be processed while holding the queue lock
-                // and update the active start level accordingly, which allows
-                // us to determine in startBundle() if concurrent requests to
-                // start a bundle should be handled synchronously or just added
-                // to the queue and handled asynchronously.
-                synchronized (m_startLevelBundles)
+            try
+            {
+                // Process bundles and stop or start them accordingly.
+                while (bundlesRemaining)
                 {
-                    if (isLowering)
-                    {
-                        tuple = m_startLevelBundles.last();
-                    }
-                    else
-                    {
-                        tuple = m_startLevelBundles.first();
-                    }
-
-                    if ((tuple.m_level >= low) && (tuple.m_level <= high))
-                    {
-                        m_activeStartLevel = tuple.m_level;
-                    }
-                }
+                    StartLevelTuple tuple;
+                    List<StartLevelTuple> batch = null;
 
-                // Ignore the system bundle, since its start() and
-                // stop() methods get called explicitly in Felix.start()
-                // and Felix.stop(), respectively.
-                if (tuple.m_bundle.getBundleId() != 0)
-                {
-                    // Lock the current bundle.
-                    try
-                    {
-                        acquireBundleLock(tuple.m_bundle,
-                            Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
-                            | Bundle.STARTING | Bundle.STOPPING);
-                    }
-                    catch (IllegalStateException ex)
+                    // Remove our tuple to be processed while holding the queue lock
+                    // and update the active start level accordingly, which allows
+                    // us to determine in startBundle() if concurrent requests to
+                    // start a bundle should be handled synchronously or just added
+                    // to the queue and handled asynchronously.
+                    synchronized (m_startLevelBundles)
                     {
-                        // Ignore if the bundle has been uninstalled.
-                        if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+                        if (isLowering)
                         {
-                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
-                            m_logger.log(tuple.m_bundle,
-                                Logger.LOG_ERROR,
-                                "Error locking " + tuple.m_bundle._getLocation(), ex);
+                            tuple = m_startLevelBundles.last();
                         }
                         else
                         {
-                            synchronized (m_startLevelBundles)
-                            {
-                                m_startLevelBundles.remove(tuple);
-                                bundlesRemaining = !m_startLevelBundles.isEmpty();
-                            }
+                            tuple = m_startLevelBundles.first();
                         }
-                        continue;
-                    }
 
-                    try
-                    {
-                        // Start the bundle if necessary.
-                        // Note that we only attempt to start the bundle if
-                        // its start level is equal to the active start level,
-                        // which means we assume lower bundles are in the state
-                        // they should be in (i.e., we won't attempt to restart
-                        // them if they previously failed to start).
-                        if (!isLowering
-                            && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
+                        if ((tuple.m_level >= low) && (tuple.m_level <= high))
                         {
-                            try
-                            {
-// TODO: LAZY - Not sure if this is the best way...
-                                int options = Bundle.START_TRANSIENT;
-                                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
-                                    ? options | Bundle.START_ACTIVATION_POLICY
-                                    : options;
-                                startBundle(tuple.m_bundle, options);
-                            }
-                            catch (Throwable th)
+                            m_activeStartLevel = tuple.m_level;
+
+                            // Process all bundles of the level at once, which
+                            // are the first ones since the tuples are sorted.
+                            if (executor != null)
                             {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error starting " + tuple.m_bundle._getLocation(), th);
+                                batch = new ArrayList<StartLevelTuple>();
+                                for (StartLevelTuple t : m_startLevelBundles)
+                                {
+                                    if (t.m_level != tuple.m_level)
+                                    {
+                                        break;
+                                    }
+                                    batch.add(t);
+                                }
                             }
                         }
-                        // Stop the bundle if necessary.
-                        else if (isLowering
-                            && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
+                    }
+
+                    if ((batch != null) && (batch.size() > 1))
+                    {
+                        List<StartLevelTuple> processed =
+                            processStartLevelTuples(executor, batch);
+                        synchronized (m_startLevelBundles)
                         {
-                            try
-                            {
-                                stopBundle(tuple.m_bundle, false);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error stopping " + tuple.m_bundle._getLocation(), th);
-                            }
+                            m_startLevelBundles.removeAll(processed);
+                            bundlesRemaining = !m_startLevelBundles.isEmpty();
                         }
                     }
-                    finally
+                    else if (processStartLevelTuple(tuple, isLowering))
                     {
-                        // Always release bundle lock.
-                        releaseBundleLock(tuple.m_bundle);
+                        synchronized (m_startLevelBundles)
+                        {
+                            m_startLevelBundles.remove(tuple);
+                            bundlesRemaining = !m_startLevelBundles.isEmpty();
+                        }
                     }
                 }
-
-                synchronized (m_startLevelBundles)
+            }
+            finally
+            {
+                if (executor != null)
                 {
-                    m_startLevelBundles.remove(tuple);
-                    bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    executor.shutdown();
                 }
             }
 
@@ -1436,6 +1433,203 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Starts or stops the bundle of the specified start level tuple if its
+     * start level matches the active start level. Failures are reported as
+     * framework error events.
+     * @param tuple the tuple to process.
+     * @param isLowering whether the start level is lowering.
+     * @return <tt>true</tt> if the tuple has been processed or <tt>false</tt>
+     *         if it must be processed again since its bundle could not
+     *         be locked.
+    **/
+    private boolean processStartLevelTuple(StartLevelTuple tuple, boolean isLowering)
+    {
+        // Ignore the system bundle, since its start() and
+        // stop() methods get called explicitly in Felix.start()
+        // and Felix.stop(), respectively.
+        if (tuple.m_bundle.getBundleId() == 0)
+        {
+            return true;
+        }
+
+        // Lock the current bundle.
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+            {
+                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+                m_logger.log(tuple.m_bundle,
+                    Logger.LOG_ERROR,
+                    "Error locking " + tuple.m_bundle._getLocation(), ex);
+                return false;
+            }
+            return true;
+        }
+
+        try
+        {
+            // Start the bundle if necessary.
+            // Note that we only attempt to start the bundle if
+            // its start level is equal to the active start level,
+            // which means we assume lower bundles are in the state
+            // they should be in (i.e., we won't attempt to restart
+            // them if they previously failed to start).
+            if (!isLowering && isStartLevelStartPending(tuple))
+            {
+                try
+                {
+// TODO: LAZY - Not sure if this is the best way...
+                    int options = Bundle.START_TRANSIENT;
+                    options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                        ? options | Bundle.START_ACTIVATION_POLICY
+                        : options;
+                    startBundle(tuple.m_bundle, options);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error starting " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+            // Stop the bundle if necessary.
+            else if (isLowering
+                && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+                    stopBundle(tuple.m_bundle, false);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error stopping " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+
+        return true;
+    }
+
+    private boolean isStartLevelStartPending(StartLevelTuple tuple)
+    {
+        return ((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+            || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+            && (tuple.m_level == m_activeStartLevel);
+    }
+
+    /**
+     * Starts the bundles of the specified start level tuples concurrently
+     * and waits until all of them have been processed. The bundles are
+     * resolved together beforehand, since resolving requires the global
+     * lock and would otherwise serialize the start operations.
+     * @param executor the executor to use for starting the bundles.
+     * @param tuples the tuples to process, which must all have the active
+     *        start level.
+     * @return the tuples that have been processed.
+    **/
+    private List<StartLevelTuple> processStartLevelTuples(
+        ExecutorService executor, List<StartLevelTuple> tuples)
+    {
+        List<Bundle> unresolved = new ArrayList<Bundle>();
+        for (StartLevelTuple tuple : tuples)
+        {
+            if ((tuple.m_bundle.getBundleId() != 0)
+                && (tuple.m_bundle.getState() == Bundle.INSTALLED)
+                && isStartLevelStartPending(tuple))
+            {
+                unresolved.add(tuple.m_bundle);
+            }
+        }
+        if (unresolved.size() > 1)
+        {
+            // Failures are reported when the bundles are started.
+            resolveBundles(unresolved);
+        }
+
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(tuples.size());
+        for (final StartLevelTuple tuple : tuples)
+        {
+            futures.add(executor.submit(new Callable<Boolean>()
+            {
+                public Boolean call()
+                {
+                    return processStartLevelTuple(tuple, false);
+                }
+            }));
+        }
+
+        List<StartLevelTuple> processed = new ArrayList<StartLevelTuple>(tuples.size());
+        for (int i = 0; i < futures.size(); i++)
+        {
+            boolean done = false;
+            while (!done)
+            {
+                try
+                {
+                    if (futures.get(i).get().booleanValue())
+                    {
+                        processed.add(tuples.get(i));
+                    }
+                    done = true;
+                }
+                catch (InterruptedException ex)
+                {
+                    // Keep waiting, since the bundles must be processed
+                    // before moving on to the next start level.
+                }
+                catch (ExecutionException ex)
+                {
+                    // This should never happen, since all errors are
+                    // handled when processing the tuple.
+                    m_logger.log(tuples.get(i).m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error starting " + tuples.get(i).m_bundle._getLocation(),
+                        ex.getCause());
+                    processed.add(tuples.get(i));
+                    done = true;
+                }
+            }
+        }
+        return processed;
+    }
+
+    private ExecutorService createStartLevelExecutor(int threads)
+    {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private int m_count = 0;
+
+            public synchronized Thread newThread(Runnable r)
+            {
+                // The name marks the thread as part of the start level
+                // thread, see startBundle().
+                Thread thread = new Thread(
+                    r, FrameworkStartLevelImpl.THREAD_NAME + "-" + (m_count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -2022,9 +2216,9 @@ public class Felix extends BundleImpl implements Framework
             // so queue this bundle to the start level bundle queue for the start
             // level thread and return, except for transient starts which are
             // queued but processed synchronously.
-            // Note: Don't queue starts from the start level thread, otherwise
-            // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            // Note: Don't queue starts from the start level thread or its
+            // worker threads, otherwise we'd never get anything started.
+            if (!Thread.currentThread().getName().startsWith(FrameworkStartLevelImpl.THREAD_NAME))
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2221,8 +2415,14 @@ public class Felix extends BundleImpl implements Framework
                 // Activate the bundle if it has an activator.
                 if (bundle.getActivator() != null)
                 {
+                    long start = (m_profiler != null) ? System.nanoTime() : 0;
                     m_secureAction.startActivator(
                         bundle.getActivator(), bundle._getBundleContext());
+                    if (m_profiler != null)
+                    {
+                        m_profiler.record(bundle, StartupProfiler.ACTIVATE,
+                            System.nanoTime() - start);
+                    }
                 }
 
                 setBundleStateAndNotify(bundle, Bundle.ACTIVE);
@@ -2827,6 +3027,24 @@ public class Felix extends BundleImpl implements Framework
         return (val == null) ? System.getProperty(key) : val;
     }
 
+    private int getIntProperty(String key, int defaultValue)
+    {
+        String s = getProperty(key);
+        if (s != null)
+        {
+            try
+            {
+                return Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid value for " + key + ": " + s);
+            }
+        }
+        return defaultValue;
+    }
+
     private Bundle reloadBundle(BundleArchive ba)
         throws BundleException
     {
@@ -4898,6 +5116,21 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
+            // Save the wirings for the next session before they are disposed.
+            if ("true".equals(getProperty(FelixConstants.CACHE_WIRINGS_PROP)))
+            {
+                try
+                {
+                    m_resolver.saveWiringSnapshot(
+                        m_cache.getSystemBundleDataFile(WIRINGS_FILE));
+                }
+                catch (Exception ex)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Unable to save wiring snapshot.", ex);
+                }
+            }
+
             // Dispose of the bundles to close their associated contents.
             bundles = getBundles();
             for (int i = 0; i < bundles.length; i++)
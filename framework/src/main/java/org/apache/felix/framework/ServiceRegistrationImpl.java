@@ -65,6 +65,9 @@ class ServiceRegistrationImpl implements ServiceRegistration
     private final ServiceReferenceImpl m_ref;
     // Flag indicating that we are unregistering.
     private volatile boolean m_isUnregistering = false;
+    // Lock guarding the usage counts of this registration when the
+    // registry is in snapshot mode.
+    private final Object m_usageLock = new Object();
 
     public ServiceRegistrationImpl(
         ServiceRegistry registry, Bundle bundle,
@@ -96,6 +99,11 @@ class ServiceRegistrationImpl implements ServiceRegistration
         m_svcObj = null;
     }
 
+    Object getUsageLock()
+    {
+        return m_usageLock;
+    }
+
     public synchronized ServiceReference getReference()
     {
         // Make sure registration is valid.
@@ -30,6 +30,8 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
@@ -49,15 +51,23 @@ public class ServiceRegistry
     private long m_currentServiceId = 1L;
     // Maps bundle to an array of service registrations.
     private final Map<Bundle, ServiceRegistration<?>[]> m_regsMap = Collections.synchronizedMap(new HashMap<Bundle, ServiceRegistration<?>[]>());
-    // Capability set for all service registrations.
-    private final CapabilitySet m_regCapSet;
+    // Capability set for all service registrations. In snapshot mode
+    // this is replaced by a modified copy on every change, so readers
+    // never see it being modified and do not need to lock.
+    private volatile CapabilitySet m_regCapSet;
+    // Flag indicating whether lookups are served from snapshots and
+    // usage counts are guarded per registration instead of globally.
+    private final boolean m_snapshot;
 
     // Maps registration to thread to keep track when a
     // registration is in use, which will cause other
     // threads to wait.
-    private final Map<ServiceRegistration<?>, Object> m_lockedRegsMap = new HashMap<ServiceRegistration<?>, Object>();
-    // Maps bundle to an array of usage counts.
-    private final Map<Bundle, UsageCount[]> m_inUseMap = new HashMap<Bundle, UsageCount[]>();
+    private final Map<ServiceRegistration<?>, Object> m_lockedRegsMap =
+        new ConcurrentHashMap<ServiceRegistration<?>, Object>();
+    // Maps bundle to an array of usage counts. The arrays are never
+    // modified in place, only replaced atomically.
+    private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap =
+        new ConcurrentHashMap<Bundle, UsageCount[]>();
 
     private final ServiceRegistryCallbacks m_callbacks;
 
@@ -82,9 +92,26 @@ public class ServiceRegistry
         new HashMap<Class<?>, Set<ServiceReference<?>>>();
 
     public ServiceRegistry(Logger logger, ServiceRegistryCallbacks callbacks)
+    {
+        this(logger, callbacks, false);
+    }
+
+    /**
+     * Creates a service registry.
+     * @param logger the logger to use.
+     * @param callbacks the callbacks to notify about service changes,
+     *        may be <tt>null</tt>.
+     * @param snapshot if <tt>true</tt>, service lookups are served from
+     *        copy-on-write snapshots without locking and getting/ungetting
+     *        a service only locks the affected registration; registering
+     *        and unregistering services becomes more expensive in exchange.
+    **/
+    public ServiceRegistry(
+        Logger logger, ServiceRegistryCallbacks callbacks, boolean snapshot)
     {
         m_logger = logger;
         m_callbacks = callbacks;
+        m_snapshot = snapshot;
 
         List indices = new ArrayList();
         indices.add(Constants.OBJECTCLASS);
@@ -133,7 +160,9 @@ public class ServiceRegistry
             // Get the bundles current registered services.
             ServiceRegistration<?>[] regs = m_regsMap.get(bundle);
             m_regsMap.put(bundle, addServiceRegistration(regs, reg));
-            m_regCapSet.addCapability((BundleCapabilityImpl) reg.getReference());
+            CapabilitySet capSet = getModifiableCapabilitySet();
+            capSet.addCapability((BundleCapabilityImpl) reg.getReference());
+            m_regCapSet = capSet;
         }
 
         return reg;
@@ -155,7 +184,9 @@ public class ServiceRegistry
             // Now remove the registered service.
             ServiceRegistration<?>[] regs = m_regsMap.get(bundle);
             m_regsMap.put(bundle, removeServiceRegistration(regs, reg));
-            m_regCapSet.removeCapability((BundleCapabilityImpl) reg.getReference());
+            CapabilitySet capSet = getModifiableCapabilitySet();
+            capSet.removeCapability((BundleCapabilityImpl) reg.getReference());
+            m_regCapSet = capSet;
         }
 
         // Notify callback objects about unregistering service.
@@ -239,7 +270,7 @@ public class ServiceRegistry
         }
     }
 
-    public synchronized Collection getServiceReferences(String className, SimpleFilter filter)
+    public Collection getServiceReferences(String className, SimpleFilter filter)
     {
         if ((className == null) && (filter == null))
         {
@@ -261,10 +292,19 @@ public class ServiceRegistry
         }
         // else just use the specified filter.
 
-        return m_regCapSet.match(filter, false);
+        // In snapshot mode the capability set is never modified once it
+        // has been published, so it can be matched without locking.
+        if (m_snapshot)
+        {
+            return m_regCapSet.match(filter, false);
+        }
+        synchronized (this)
+        {
+            return m_regCapSet.match(filter, false);
+        }
     }
 
-    public synchronized ServiceReference<?>[] getServicesInUse(Bundle bundle)
+    public ServiceReference<?>[] getServicesInUse(Bundle bundle)
     {
         UsageCount[] usages = m_inUseMap.get(bundle);
         if (usages != null)
@@ -290,8 +330,9 @@ public class ServiceRegistry
         // Get the service registration.
         final ServiceRegistrationImpl reg =
             ((ServiceRegistrationImpl.ServiceReferenceImpl) ref).getRegistration();
+        final Object lock = getUsageLock(reg);
 
-        synchronized (this)
+        synchronized (lock)
         {
             // First make sure that no existing operation is currently
             // being performed by another thread on the service registration.
@@ -309,7 +350,7 @@ public class ServiceRegistry
                 // Otherwise, wait for it to be freed.
                 try
                 {
-                    wait();
+                    lock.wait();
                 }
                 catch (InterruptedException ex)
                 {
@@ -362,7 +403,7 @@ public class ServiceRegistry
             // cache it in the usage count. If not, we should flush the usage
             // count. Either way, we need to unlock the service registration
             // so that any threads waiting for it can continue.
-            synchronized (this)
+            synchronized (lock)
             {
                 // Before caching the service object, double check to see if
                 // the registration is still valid, since it may have been
@@ -376,7 +417,7 @@ public class ServiceRegistry
                     usage.m_svcObj = svcObj;
                 }
                 m_lockedRegsMap.remove(reg);
-                notifyAll();
+                lock.notifyAll();
             }
         }
 
@@ -391,8 +432,9 @@ public class ServiceRegistry
     	UsageCount usage = null;
         ServiceRegistrationImpl reg =
             ((ServiceRegistrationImpl.ServiceReferenceImpl) ref).getRegistration();
+        final Object lock = getUsageLock(reg);
 
-        synchronized (this)
+        synchronized (lock)
         {
             // First make sure that no existing operation is currently
             // being performed by another thread on the service registration.
@@ -408,7 +450,7 @@ public class ServiceRegistry
                 // Otherwise, wait for it to be freed.
                 try
                 {
-                    wait();
+                    lock.wait();
                 }
                 catch (InterruptedException ex)
                 {
@@ -457,7 +499,7 @@ public class ServiceRegistry
             // the registration became invalid while we were not holding the
             // lock. Either way, unlock the service registration so that any
             // threads waiting for it can continue.
-            synchronized (this)
+            synchronized (lock)
             {
                 // Decrement usage count, which spec says should happen after
                 // ungetting the service object.
@@ -474,7 +516,7 @@ public class ServiceRegistry
                 // Release the registration lock so any waiting threads can
                 // continue.
                 m_lockedRegsMap.remove(reg);
-                notifyAll();
+                lock.notifyAll();
             }
         }
 
@@ -489,11 +531,7 @@ public class ServiceRegistry
     **/
     public void ungetServices(Bundle bundle)
     {
-        UsageCount[] usages;
-        synchronized (this)
-        {
-            usages = m_inUseMap.get(bundle);
-        }
+        UsageCount[] usages = m_inUseMap.get(bundle);
 
         if (usages == null)
         {
@@ -517,7 +555,7 @@ public class ServiceRegistry
         }
     }
 
-    public synchronized Bundle[] getUsingBundles(ServiceReference<?> ref)
+    public Bundle[] getUsingBundles(ServiceReference<?> ref)
     {
         Bundle[] bundles = null;
         for (Iterator<Map.Entry<Bundle, UsageCount[]>> iter = m_inUseMap.entrySet().iterator(); iter.hasNext(); )
@@ -562,6 +600,32 @@ public class ServiceRegistry
         return m_logger;
     }
 
+    /**
+     * Returns the capability set to which a registration change should be
+     * applied; the caller must hold the registry lock and must assign the
+     * result back to <tt>m_regCapSet</tt> once it is done. In snapshot mode
+     * this is a copy of the current set, so that concurrent readers of the
+     * current set are not disturbed.
+     * @return the capability set to modify.
+    **/
+    private CapabilitySet getModifiableCapabilitySet()
+    {
+        return (m_snapshot) ? new CapabilitySet(m_regCapSet) : m_regCapSet;
+    }
+
+    /**
+     * Returns the object used to guard the usage counts of the specified
+     * registration. In snapshot mode every registration has its own lock,
+     * so that getting and ungetting unrelated services does not contend;
+     * otherwise the registry itself is used.
+     * @param reg the registration whose usage counts will be modified.
+     * @return the lock object.
+    **/
+    private Object getUsageLock(ServiceRegistrationImpl reg)
+    {
+        return (m_snapshot) ? reg.getUsageLock() : this;
+    }
+
     private static ServiceRegistration<?>[] addServiceRegistration(
         ServiceRegistration<?>[] regs, ServiceRegistration<?> reg)
     {
@@ -641,25 +705,31 @@ public class ServiceRegistry
     **/
     private UsageCount addUsageCount(Bundle bundle, ServiceReference<?> ref, boolean isPrototype)
     {
-        UsageCount[] usages = m_inUseMap.get(bundle);
-
         UsageCount usage = new UsageCount();
         usage.m_ref = ref;
         usage.m_prototype = isPrototype;
 
-        if (usages == null)
+        // Usage counts of different registrations for the same bundle may
+        // be modified concurrently in snapshot mode, so only replace the
+        // array if nobody else has replaced it in the meantime.
+        boolean replaced;
+        do
         {
-            usages = new UsageCount[] { usage };
-        }
-        else
-        {
-            UsageCount[] newUsages = new UsageCount[usages.length + 1];
-            System.arraycopy(usages, 0, newUsages, 0, usages.length);
-            newUsages[usages.length] = usage;
-            usages = newUsages;
+            UsageCount[] usages = m_inUseMap.get(bundle);
+            if (usages == null)
+            {
+                replaced = (m_inUseMap.putIfAbsent(
+                    bundle, new UsageCount[] { usage }) == null);
+            }
+            else
+            {
+                UsageCount[] newUsages = new UsageCount[usages.length + 1];
+                System.arraycopy(usages, 0, newUsages, 0, usages.length);
+                newUsages[usages.length] = usage;
+                replaced = m_inUseMap.replace(bundle, usages, newUsages);
+            }
         }
-
-        m_inUseMap.put(bundle, usages);
+        while (!replaced);
 
         return usage;
     }
@@ -678,7 +748,26 @@ public class ServiceRegistry
     **/
     private void flushUsageCount(Bundle bundle, ServiceReference<?> ref, UsageCount uc)
     {
-        UsageCount[] usages = m_inUseMap.get(bundle);
+        UsageCount[] oldUsages;
+        boolean replaced;
+        do
+        {
+            oldUsages = m_inUseMap.get(bundle);
+            if (oldUsages == null)
+            {
+                return;
+            }
+            UsageCount[] usages = removeUsageCount(oldUsages, ref, uc);
+            replaced = (usages != null)
+                ? m_inUseMap.replace(bundle, oldUsages, usages)
+                : m_inUseMap.remove(bundle, oldUsages);
+        }
+        while (!replaced);
+    }
+
+    private static UsageCount[] removeUsageCount(
+        UsageCount[] usages, ServiceReference<?> ref, UsageCount uc)
+    {
         for (int i = 0; (usages != null) && (i < usages.length); i++)
         {
             if ((uc == null && usages[i].m_ref.equals(ref)) || (uc == usages[i]))
@@ -703,15 +792,7 @@ public class ServiceRegistry
                 }
             }
         }
-
-        if (usages != null)
-        {
-            m_inUseMap.put(bundle, usages);
-        }
-        else
-        {
-            m_inUseMap.remove(bundle);
-        }
+        return usages;
     }
 
     //
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Formatter;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Resource;
+
+/**
+ * This class records how much time the framework spends per bundle on
+ * resolving, starting activators, loading classes and weaving. It is only
+ * created if profiling is enabled, so instrumented code checks whether the
+ * framework has a profiler before taking any time. The profile is available
+ * as {@link BundleProfileDTO} by adapting bundles, which is only possible
+ * for code that embeds the framework, and, if a Gogo shell is present,
+ * through the <tt>felix:profile</tt> command, which is provided by this
+ * class.
+**/
+public class StartupProfiler
+{
+    static final int RESOLVE = 0;
+    static final int ACTIVATE = 1;
+    static final int CLASS_LOAD = 2;
+    static final int WEAVE = 3;
+    private static final int CATEGORIES = 4;
+
+    private static final int DEFAULT_TOP = 10;
+
+    private final Felix m_felix;
+    private final ServiceRegistry m_registry;
+    private final ConcurrentMap<Long, Times> m_times =
+        new ConcurrentHashMap<Long, Times>();
+
+    StartupProfiler(Felix felix, ServiceRegistry registry)
+    {
+        m_felix = felix;
+        m_registry = registry;
+    }
+
+    void start()
+    {
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("osgi.command.scope", "felix");
+        props.put("osgi.command.function", new String[] { "profile" });
+        m_registry.registerService(m_felix._getBundleContext(),
+            new String[] { StartupProfiler.class.getName() }, this, props);
+    }
+
+    /**
+     * Adds the specified time to a category of the specified bundle.
+     * @param bundle the bundle to charge.
+     * @param category the category of the time.
+     * @param nanos the time in nanoseconds.
+    **/
+    void record(Bundle bundle, int category, long nanos)
+    {
+        Times times = getTimes(bundle);
+        times.m_nanos.addAndGet(category, nanos);
+        if (category == CLASS_LOAD)
+        {
+            times.m_classes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Splits the time of a resolve operation evenly among the bundles of
+     * the resolved revisions.
+     * @param resources the resolved resources.
+     * @param nanos the time of the resolve operation in nanoseconds.
+    **/
+    void recordResolve(Collection<Resource> resources, long nanos)
+    {
+        if (resources.isEmpty())
+        {
+            return;
+        }
+        long share = nanos / resources.size();
+        for (Resource resource : resources)
+        {
+            if (resource instanceof BundleRevision)
+            {
+                record(((BundleRevision) resource).getBundle(), RESOLVE, share);
+            }
+        }
+    }
+
+    BundleProfileDTO getProfile(Bundle bundle)
+    {
+        Times times = m_times.get(bundle.getBundleId());
+        return createDTO(bundle, times);
+    }
+
+    BundleProfileDTO[] getProfiles()
+    {
+        List<BundleProfileDTO> dtos = new ArrayList<BundleProfileDTO>();
+        for (Bundle bundle : m_felix.getBundles())
+        {
+            dtos.add(getProfile(bundle));
+        }
+        return dtos.toArray(new BundleProfileDTO[dtos.size()]);
+    }
+
+    /**
+     * Gogo command printing the bundles the framework spent the most time
+     * on.
+     * @return the profile of the ten most expensive bundles.
+    **/
+    public String profile()
+    {
+        return profile(DEFAULT_TOP);
+    }
+
+    /**
+     * Gogo command printing the bundles the framework spent the most time
+     * on.
+     * @param top the maximum number of bundles to print.
+     * @return the profile of the most expensive bundles.
+    **/
+    public String profile(int top)
+    {
+        BundleProfileDTO[] dtos = getProfiles();
+        Arrays.sort(dtos, new Comparator<BundleProfileDTO>()
+        {
+            public int compare(BundleProfileDTO o1, BundleProfileDTO o2)
+            {
+                long t1 = getTotalTime(o1);
+                long t2 = getTotalTime(o2);
+                return (t1 < t2) ? 1 : ((t1 > t2) ? -1 : 0);
+            }
+        });
+
+        Formatter f = new Formatter();
+        f.format("%5s %10s %10s %10s %10s %8s %10s  %s%n",
+            "ID", "Total", "Resolve", "Activate", "Classes", "Count", "Weave", "Name");
+        for (int i = 0; (i < dtos.length) && (i < top); i++)
+        {
+            BundleProfileDTO dto = dtos[i];
+            f.format("%5d %10.1f %10.1f %10.1f %10.1f %8d %10.1f  %s%n",
+                dto.bundle, toMillis(getTotalTime(dto)), toMillis(dto.resolveTime),
+                toMillis(dto.activateTime), toMillis(dto.classLoadTime),
+                dto.loadedClasses, toMillis(dto.weaveTime), dto.symbolicName);
+        }
+        f.format("All times in milliseconds; activation includes the classes"
+            + " loaded by the activator.%n");
+        return f.toString();
+    }
+
+    private Times getTimes(Bundle bundle)
+    {
+        Times times = m_times.get(bundle.getBundleId());
+        if (times == null)
+        {
+            times = new Times();
+            Times existing = m_times.putIfAbsent(bundle.getBundleId(), times);
+            times = (existing == null) ? times : existing;
+        }
+        return times;
+    }
+
+    private static BundleProfileDTO createDTO(Bundle bundle, Times times)
+    {
+        BundleProfileDTO dto = new BundleProfileDTO();
+        dto.bundle = bundle.getBundleId();
+        dto.symbolicName = bundle.getSymbolicName();
+        if (times != null)
+        {
+            dto.resolveTime = times.m_nanos.get(RESOLVE);
+            dto.activateTime = times.m_nanos.get(ACTIVATE);
+            dto.classLoadTime = times.m_nanos.get(CLASS_LOAD);
+            dto.weaveTime = times.m_nanos.get(WEAVE);
+            dto.loadedClasses = times.m_classes.get();
+        }
+        return dto;
+    }
+
+    private static long getTotalTime(BundleProfileDTO dto)
+    {
+        // Weaving happens while loading classes, so it is not added.
+        return dto.resolveTime + dto.activateTime + dto.classLoadTime;
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return nanos / 1000000.0;
+    }
+
+    private static class Times
+    {
+        final AtomicLongArray m_nanos = new AtomicLongArray(CATEGORIES);
+        final AtomicInteger m_classes = new AtomicInteger();
+    }
+}
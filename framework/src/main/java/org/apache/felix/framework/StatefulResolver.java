@@ -18,6 +18,10 @@
  */
 package org.apache.felix.framework;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -36,6 +40,7 @@ import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.resolver.CandidateComparator;
 import org.apache.felix.framework.resolver.ResolveException;
+import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.ShrinkableCollection;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.NativeLibrary;
@@ -87,13 +92,27 @@ class StatefulResolver
     private final String m_fwkExecEnvStr;
     // Parsed framework environments
     private final Set<String> m_fwkExecEnvSet;
+    // Wiring snapshot of a previous framework session, if any; it is
+    // discarded as soon as the resolver state changes in other ways.
+    private WiringSnapshot m_snapshot;
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
     {
         m_felix = felix;
         m_registry = registry;
         m_logger = m_felix.getLogger();
-        m_resolver = new ResolverImpl(m_logger);
+        int parallelism = 1;
+        try
+        {
+            parallelism = Integer.parseInt(
+                (String) m_felix.getConfig().get(FelixConstants.RESOLVER_PARALLELISM_PROP));
+        }
+        catch (NumberFormatException ex)
+        {
+            // Ignore and just resolve sequentially.
+        }
+        m_resolver = new ResolverImpl(m_logger, parallelism,
+            "true".equals(m_felix.getConfig().get(FelixConstants.RESOLVER_INCREMENTAL_PROP)));
 
         m_revisions = new HashSet<BundleRevision>();
         m_fragments = new HashSet<BundleRevision>();
@@ -129,10 +148,16 @@ class StatefulResolver
 
     synchronized void addRevision(BundleRevision br)
     {
+        // A new revision invalidates the wiring snapshot.
+        if (!m_revisions.contains(br))
+        {
+            m_snapshot = null;
+        }
+
         // Always attempt to remove the revision, since
         // this method can be used for re-indexing a revision
         // after it has been resolved.
-        removeRevision(br);
+        deindexRevision(br);
 
         m_revisions.add(br);
 
@@ -160,7 +185,16 @@ class StatefulResolver
 
     synchronized void removeRevision(BundleRevision br)
     {
-        if (m_revisions.remove(br))
+        if (deindexRevision(br))
+        {
+            m_snapshot = null;
+        }
+    }
+
+    private boolean deindexRevision(BundleRevision br)
+    {
+        boolean removed = m_revisions.remove(br);
+        if (removed)
         {
             m_fragments.remove(br);
             deindexCapabilities(br);
@@ -177,6 +211,7 @@ class StatefulResolver
                 }
             }
         }
+        return removed;
     }
 
     boolean isEffective(Requirement req)
@@ -379,6 +414,9 @@ class StatefulResolver
         }
         m_isResolving = true;
 
+        StartupProfiler profiler = m_felix.getProfiler();
+        long start = (profiler != null) ? System.nanoTime() : 0;
+
         Map<Resource, List<Wire>> wireMap = null;
         try
         {
@@ -422,20 +460,34 @@ class StatefulResolver
                 }
             }
 
+            // Reuse the wires of the previous framework session if the
+            // wiring snapshot covers all revisions to resolve.
+            wireMap = getSnapshotWireMap(record, mandatory, optional);
+
             // Catch any resolve exception to rethrow later because
             // we may need to call end() on resolver hooks.
             ResolutionException rethrow = null;
             try
             {
-                // Resolve the revision.
-                wireMap = m_resolver.resolve(
-                    new ResolveContextImpl(
-                        this,
-                        getWirings(),
-                        record,
-                        mandatory,
-                        optional,
-                        getFragments()));
+                if (wireMap == null)
+                {
+                    // Resolve the revision.
+                    wireMap = m_resolver.resolve(
+                        new ResolveContextImpl(
+                            this,
+                            getWirings(),
+                            record,
+                            mandatory,
+                            optional,
+                            getFragments()));
+
+                    // The snapshot wires might not be consistent with
+                    // the ones chosen by the resolver.
+                    if (!wireMap.isEmpty())
+                    {
+                        discardWiringSnapshot();
+                    }
+                }
             }
             catch (ResolutionException ex)
             {
@@ -453,6 +505,11 @@ class StatefulResolver
 
             // Otherwise, mark all revisions as resolved.
             markResolvedRevisions(wireMap);
+
+            if (profiler != null)
+            {
+                profiler.recordResolve(wireMap.keySet(), System.nanoTime() - start);
+            }
         }
         finally
         {
@@ -494,6 +551,9 @@ class StatefulResolver
             }
             m_isResolving = true;
 
+            StartupProfiler profiler = m_felix.getProfiler();
+            long start = (profiler != null) ? System.nanoTime() : 0;
+
             Map<Resource, List<Wire>> wireMap = null;
             try
             {
@@ -601,6 +661,12 @@ class StatefulResolver
                         List<Wire> dynamicWires = wireMap.remove(revision);
                         Wire dynamicWire = dynamicWires.get(0);
 
+                        // Resolving the provider invalidates the wiring snapshot.
+                        if (!wireMap.isEmpty())
+                        {
+                            discardWiringSnapshot();
+                        }
+
                         // Mark all revisions as resolved.
                         markResolvedRevisions(wireMap);
 
@@ -638,6 +704,12 @@ class StatefulResolver
                             }
                         }
                     }
+
+                    if (profiler != null)
+                    {
+                        profiler.record(revision.getBundle(), StartupProfiler.RESOLVE,
+                            System.nanoTime() - start);
+                    }
                 }
             }
             finally
@@ -948,6 +1020,140 @@ class StatefulResolver
         return !candidates.isEmpty();
     }
 
+    /**
+     * Loads the wiring snapshot of a previous framework session. The
+     * snapshot is only used if it was taken of the current resolver state,
+     * so this method must be called after all cached bundles are reloaded.
+     * @param file the file from which to load the snapshot.
+    **/
+    synchronized void loadWiringSnapshot(File file)
+    {
+        m_snapshot = null;
+
+        InputStream is = null;
+        try
+        {
+            is = Felix.m_secureAction.getFileInputStream(file);
+            WiringSnapshot snapshot = WiringSnapshot.read(is);
+            if (snapshot.getDigest().equals(
+                WiringSnapshot.calculateDigest(m_felix.getConfig(), m_revisions)))
+            {
+                m_snapshot = snapshot;
+            }
+            else
+            {
+                m_logger.log(Logger.LOG_DEBUG,
+                    "Ignoring outdated wiring snapshot.");
+            }
+        }
+        catch (FileNotFoundException ex)
+        {
+            // Ignore, there is no snapshot yet.
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Unable to load wiring snapshot.", ex);
+        }
+        finally
+        {
+            try
+            {
+                if (is != null) is.close();
+            }
+            catch (Exception ex)
+            {
+                // Not much we can do.
+            }
+        }
+    }
+
+    /**
+     * Saves a snapshot of the wirings of all resolved revisions, so that they
+     * can be reused by the next framework session.
+     * @param file the file to which to save the snapshot.
+    **/
+    synchronized void saveWiringSnapshot(File file)
+    {
+        WiringSnapshot snapshot = WiringSnapshot.create(
+            WiringSnapshot.calculateDigest(m_felix.getConfig(), m_revisions),
+            m_revisions);
+        if (snapshot == null)
+        {
+            // Make sure that an old snapshot is not used by mistake.
+            Felix.m_secureAction.deleteFile(file);
+            return;
+        }
+
+        OutputStream os = null;
+        try
+        {
+            os = Felix.m_secureAction.getFileOutputStream(file);
+            snapshot.write(os);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Unable to save wiring snapshot.", ex);
+        }
+        finally
+        {
+            try
+            {
+                if (os != null) os.close();
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Unable to close wiring snapshot file.", ex);
+            }
+        }
+    }
+
+    private synchronized void discardWiringSnapshot()
+    {
+        m_snapshot = null;
+    }
+
+    private synchronized Map<Resource, List<Wire>> getSnapshotWireMap(
+        ResolverHookRecord record,
+        Set<BundleRevision> mandatory,
+        Set<BundleRevision> optional)
+    {
+        // Resolver hooks and permissions may change the outcome of
+        // a resolve, so we cannot bypass the resolver for them.
+        if ((m_snapshot == null) || !record.getResolverHookRefs().isEmpty()
+            || (System.getSecurityManager() != null))
+        {
+            return null;
+        }
+
+        Map<String, BundleRevision> revisionsById = new HashMap<String, BundleRevision>();
+        for (BundleRevision br : m_revisions)
+        {
+            revisionsById.put(WiringSnapshot.getId(br), br);
+        }
+
+        Set<BundleRevision> revisions = new HashSet<BundleRevision>(mandatory);
+        revisions.addAll(optional);
+        Map<Resource, List<Wire>> wireMap = m_snapshot.getWireMap(revisions, revisionsById);
+        if ((wireMap == null) || wireMap.isEmpty())
+        {
+            return null;
+        }
+
+        // Unselected singletons must not be resolved.
+        for (Resource resource : wireMap.keySet())
+        {
+            BundleRevision br = (BundleRevision) resource;
+            if (Util.isSingleton(br) && !isSelectedSingleton(br))
+            {
+                return null;
+            }
+        }
+        return wireMap;
+    }
+
     private void markResolvedRevisions(Map<Resource, List<Wire>> wireMap)
         throws ResolveException
     {
@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * This class captures the wires of resolved bundle revisions, so that they
+ * can be persisted when the framework stops and replayed when it starts
+ * again instead of running the resolver. Wires are recorded using revision
+ * identifiers and the indices of declared requirements and capabilities,
+ * which are only meaningful as long as the installed revisions and the
+ * framework configuration remain the same. For this reason, a snapshot
+ * carries a digest of both and must only be used for a framework state
+ * with the same digest.
+**/
+class WiringSnapshot
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private final String m_digest;
+    // Maps revision identifiers to the wires of their wirings.
+    private final Map<String, List<WireEntry>> m_wirings;
+    // Maps host revision identifiers to their attached fragments.
+    private final Map<String, List<String>> m_fragments =
+        new HashMap<String, List<String>>();
+
+    private WiringSnapshot(String digest, Map<String, List<WireEntry>> wirings)
+    {
+        m_digest = digest;
+        m_wirings = wirings;
+
+        for (Entry<String, List<WireEntry>> entry : m_wirings.entrySet())
+        {
+            for (WireEntry we : entry.getValue())
+            {
+                if (we.m_host)
+                {
+                    List<String> fragments = m_fragments.get(we.m_provider);
+                    if (fragments == null)
+                    {
+                        fragments = new ArrayList<String>();
+                        m_fragments.put(we.m_provider, fragments);
+                    }
+                    fragments.add(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the wires of all resolved revisions of the specified collection.
+     * Dynamically imported packages are not recorded, since they are wired
+     * lazily at class load time.
+     * @param digest the digest of the framework state.
+     * @param revisions the revisions to record.
+     * @return the snapshot or <tt>null</tt> if a wire could not be recorded.
+    **/
+    static WiringSnapshot create(String digest, Collection<BundleRevision> revisions)
+    {
+        Map<String, List<WireEntry>> wirings = new HashMap<String, List<WireEntry>>();
+        for (BundleRevision br : revisions)
+        {
+            if (br.getWiring() == null)
+            {
+                continue;
+            }
+
+            List<BundleWire> wires = br.getWiring().getRequiredWires(null);
+            List<WireEntry> entries = new ArrayList<WireEntry>(wires.size());
+            for (BundleWire bw : wires)
+            {
+                if (FelixConstants.RESOLUTION_DYNAMIC.equals(
+                    bw.getRequirement().getDirectives().get(Constants.RESOLUTION_DIRECTIVE)))
+                {
+                    continue;
+                }
+
+                BundleRevision reqOwner = bw.getRequirement().getRevision();
+                BundleRevision capOwner = bw.getCapability().getRevision();
+                int reqIdx = reqOwner.getDeclaredRequirements(null)
+                    .indexOf(bw.getRequirement());
+                int capIdx = capOwner.getDeclaredCapabilities(null)
+                    .indexOf(bw.getCapability());
+                if ((reqIdx < 0) || (capIdx < 0))
+                {
+                    return null;
+                }
+                entries.add(new WireEntry(
+                    getId(reqOwner), reqIdx,
+                    getId(bw.getProvider()),
+                    getId(capOwner), capIdx,
+                    BundleRevision.HOST_NAMESPACE.equals(bw.getCapability().getNamespace())));
+            }
+            wirings.put(getId(br), entries);
+        }
+        return new WiringSnapshot(digest, wirings);
+    }
+
+    String getDigest()
+    {
+        return m_digest;
+    }
+
+    /**
+     * Rebuilds the wire map needed to resolve the specified revisions from
+     * the recorded wires. The wire map also contains any unresolved providers
+     * of the revisions and the fragments that were attached to any of the
+     * included hosts, just as if the resolver had been run.
+     * @param revisions the revisions to resolve.
+     * @param revisionsById the installed revisions by their identifiers.
+     * @return the wire map or <tt>null</tt> if the revisions cannot be resolved
+     *         from this snapshot alone.
+    **/
+    Map<Resource, List<Wire>> getWireMap(
+        Collection<BundleRevision> revisions, Map<String, BundleRevision> revisionsById)
+    {
+        Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
+        LinkedList<BundleRevision> queue = new LinkedList<BundleRevision>();
+        for (BundleRevision br : revisions)
+        {
+            if (br.getWiring() == null)
+            {
+                queue.add(br);
+            }
+        }
+
+        while (!queue.isEmpty())
+        {
+            BundleRevision br = queue.removeFirst();
+            if (wireMap.containsKey(br))
+            {
+                continue;
+            }
+
+            List<WireEntry> entries = m_wirings.get(getId(br));
+            if (entries == null)
+            {
+                return null;
+            }
+
+            List<Wire> wires = new ArrayList<Wire>(entries.size());
+            for (WireEntry we : entries)
+            {
+                BundleRevision reqOwner = revisionsById.get(we.m_requirementOwner);
+                BundleRevision provider = revisionsById.get(we.m_provider);
+                BundleRevision capOwner = revisionsById.get(we.m_capabilityOwner);
+                if ((reqOwner == null) || (provider == null) || (capOwner == null))
+                {
+                    return null;
+                }
+                List<BundleRequirement> reqs = reqOwner.getDeclaredRequirements(null);
+                List<BundleCapability> caps = capOwner.getDeclaredCapabilities(null);
+                if ((we.m_requirementIndex >= reqs.size())
+                    || (we.m_capabilityIndex >= caps.size()))
+                {
+                    return null;
+                }
+
+                if (provider.getWiring() == null)
+                {
+                    queue.add(provider);
+                }
+                else if (we.m_host)
+                {
+                    // Fragments cannot be attached to resolved hosts.
+                    return null;
+                }
+
+                wires.add(new BundleWireImpl(
+                    br,
+                    reqs.get(we.m_requirementIndex),
+                    provider,
+                    caps.get(we.m_capabilityIndex)));
+            }
+            wireMap.put(br, wires);
+
+            List<String> fragments = m_fragments.get(getId(br));
+            for (int i = 0; (fragments != null) && (i < fragments.size()); i++)
+            {
+                BundleRevision fragment = revisionsById.get(fragments.get(i));
+                if ((fragment == null) || (fragment.getWiring() != null))
+                {
+                    return null;
+                }
+                queue.add(fragment);
+            }
+        }
+
+        return wireMap;
+    }
+
+    void write(OutputStream os) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(m_digest);
+        out.writeInt(m_wirings.size());
+        for (Entry<String, List<WireEntry>> entry : m_wirings.entrySet())
+        {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (WireEntry we : entry.getValue())
+            {
+                out.writeUTF(we.m_requirementOwner);
+                out.writeInt(we.m_requirementIndex);
+                out.writeUTF(we.m_provider);
+                out.writeUTF(we.m_capabilityOwner);
+                out.writeInt(we.m_capabilityIndex);
+                out.writeBoolean(we.m_host);
+            }
+        }
+        out.flush();
+    }
+
+    static WiringSnapshot read(InputStream is) throws IOException
+    {
+        DataInputStream in = new DataInputStream(is);
+        int version = in.readInt();
+        if (version != FORMAT_VERSION)
+        {
+            throw new IOException("Unsupported wiring snapshot format: " + version);
+        }
+        String digest = in.readUTF();
+        int count = in.readInt();
+        Map<String, List<WireEntry>> wirings = new HashMap<String, List<WireEntry>>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String id = in.readUTF();
+            int wireCount = in.readInt();
+            List<WireEntry> entries = new ArrayList<WireEntry>(wireCount);
+            for (int j = 0; j < wireCount; j++)
+            {
+                entries.add(new WireEntry(
+                    in.readUTF(), in.readInt(),
+                    in.readUTF(),
+                    in.readUTF(), in.readInt(),
+                    in.readBoolean()));
+            }
+            wirings.put(id, entries);
+        }
+        return new WiringSnapshot(digest, wirings);
+    }
+
+    /**
+     * Calculates a digest of the framework state that determines the
+     * outcome of a resolve, i.e., the framework configuration, the installed
+     * revisions, and the capabilities provided by the system bundle.
+     * @param configMap the framework configuration.
+     * @param revisions all installed revisions.
+     * @return the digest as a hexadecimal string.
+    **/
+    static String calculateDigest(Map configMap, Collection<BundleRevision> revisions)
+    {
+        MessageDigest md;
+        try
+        {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (Exception ex)
+        {
+            throw new IllegalStateException(ex.toString());
+        }
+
+        Map<String, String> props = new TreeMap<String, String>();
+        for (Object o : configMap.entrySet())
+        {
+            Entry entry = (Entry) o;
+            if ((entry.getKey() instanceof String) && (entry.getValue() instanceof String)
+                && ((String) entry.getKey()).startsWith("org.osgi.framework.")
+                // The UUID is different for every framework session.
+                && !entry.getKey().equals(Constants.FRAMEWORK_UUID))
+            {
+                props.put((String) entry.getKey(), (String) entry.getValue());
+            }
+        }
+        for (Entry<String, String> entry : props.entrySet())
+        {
+            update(md, entry.getKey() + "=" + entry.getValue());
+        }
+
+        List<BundleRevision> sorted = new ArrayList<BundleRevision>(revisions);
+        Collections.sort(sorted, new Comparator<BundleRevision>()
+        {
+            public int compare(BundleRevision br1, BundleRevision br2)
+            {
+                return getId(br1).compareTo(getId(br2));
+            }
+        });
+        for (BundleRevision br : sorted)
+        {
+            update(md, getId(br) + ";" + br.getSymbolicName() + ";" + br.getVersion()
+                + ";" + br.getBundle().getLastModified());
+            if (br.getBundle().getBundleId() == 0)
+            {
+                // The system bundle capabilities depend on the JVM and on
+                // extension bundles, so they are captured explicitly.
+                for (BundleCapability cap : br.getDeclaredCapabilities(null))
+                {
+                    update(md, cap.getNamespace()
+                        + ";" + new TreeMap<String, Object>(cap.getAttributes())
+                        + ";" + new TreeMap<String, String>(cap.getDirectives()));
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest())
+        {
+            sb.append(Integer.toHexString((b >> 4) & 0xf));
+            sb.append(Integer.toHexString(b & 0xf));
+        }
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest md, String s)
+    {
+        try
+        {
+            md.update(s.getBytes("UTF-8"));
+            md.update((byte) '\n');
+        }
+        catch (IOException ex)
+        {
+            // UTF-8 is always supported.
+        }
+    }
+
+    static String getId(BundleRevision br)
+    {
+        return (br instanceof BundleRevisionImpl)
+            ? ((BundleRevisionImpl) br).getId()
+            : Long.toString(br.getBundle().getBundleId());
+    }
+
+    private static class WireEntry
+    {
+        final String m_requirementOwner;
+        final int m_requirementIndex;
+        final String m_provider;
+        final String m_capabilityOwner;
+        final int m_capabilityIndex;
+        final boolean m_host;
+
+        WireEntry(String requirementOwner, int requirementIndex, String provider,
+            String capabilityOwner, int capabilityIndex, boolean host)
+        {
+            m_requirementOwner = requirementOwner;
+            m_requirementIndex = requirementIndex;
+            m_provider = provider;
+            m_capabilityOwner = capabilityOwner;
+            m_capabilityIndex = capabilityIndex;
+            m_host = host;
+        }
+    }
+}
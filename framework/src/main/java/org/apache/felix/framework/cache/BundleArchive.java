@@ -81,6 +81,7 @@ public class BundleArchive
     private final WeakZipFileFactory m_zipFactory;
     private final File m_archiveRootDir;
     private final boolean m_isSingleBundleFile;
+    private BundleStateJournal m_journal;
 
     private long m_id = -1;
     private String m_originalLocation = null;
@@ -126,6 +127,25 @@ public class BundleArchive
     public BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         File archiveRootDir, long id, int startLevel, String location, InputStream is)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, archiveRootDir, id, startLevel,
+            location, is, null);
+    }
+
+    /**
+     * <p>
+     * This constructor is used for creating new archives whose state is
+     * stored in the specified bundle state journal instead of the archive
+     * root directory.
+     * </p>
+     * @param journal the journal storing the state or <tt>null</tt> if the
+     *        state is stored in the archive root directory.
+     * @throws Exception if any error occurs.
+    **/
+    BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        File archiveRootDir, long id, int startLevel, String location, InputStream is,
+        BundleStateJournal journal)
+        throws Exception
     {
         m_logger = logger;
         m_configMap = configMap;
@@ -137,6 +157,7 @@ public class BundleArchive
             throw new IllegalArgumentException(
                 "Bundle ID cannot be less than or equal to zero.");
         }
+        m_journal = journal;
         m_originalLocation = location;
         m_persistentState = Bundle.INSTALLED;
         m_startLevel = startLevel;
@@ -168,16 +189,41 @@ public class BundleArchive
     public BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         File archiveRootDir)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, archiveRootDir, null);
+    }
+
+    /**
+     * <p>
+     * This constructor is called when an archive is being reconstructed
+     * whose state is stored in the specified bundle state journal. If the
+     * journal has no state for the archive, the state is read from the
+     * archive root directory and added to the journal.
+     * </p>
+     * @param journal the journal storing the state or <tt>null</tt> if the
+     *        state is stored in the archive root directory.
+     * @throws Exception if any error occurs.
+    **/
+    BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        File archiveRootDir, BundleStateJournal journal)
+        throws Exception
     {
         m_logger = logger;
         m_configMap = configMap;
         m_zipFactory = zipFactory;
         m_archiveRootDir = archiveRootDir;
+        m_journal = journal;
 
         String s = (String) m_configMap.get(BundleCache.CACHE_SINGLEBUNDLEFILE_PROP);
         m_isSingleBundleFile = ((s == null) || s.equalsIgnoreCase("true")) ? true : false;
 
-        if (m_isSingleBundleFile)
+        if ((m_journal != null) && !readJournalEntry())
+        {
+            // The archive predates the journal, so migrate its state.
+            readBundleInfo();
+            writeJournalEntry();
+        }
+        else if ((m_journal == null) && m_isSingleBundleFile)
         {
             readBundleInfo();
         }
@@ -290,7 +336,11 @@ public class BundleArchive
         if (m_persistentState != state)
         {
             m_persistentState = state;
-            if (m_isSingleBundleFile)
+            if (m_journal != null)
+            {
+                writeJournalEntry();
+            }
+            else if (m_isSingleBundleFile)
             {
                 writeBundleInfo();
             }
@@ -329,7 +379,11 @@ public class BundleArchive
         if (m_startLevel != level)
         {
             m_startLevel = level;
-            if (m_isSingleBundleFile)
+            if (m_journal != null)
+            {
+                writeJournalEntry();
+            }
+            else if (m_isSingleBundleFile)
             {
                 writeBundleInfo();
             }
@@ -371,7 +425,11 @@ public class BundleArchive
         if (m_lastModified != lastModified)
         {
             m_lastModified = lastModified;
-            if (m_isSingleBundleFile)
+            if (m_journal != null)
+            {
+                writeJournalEntry();
+            }
+            else if (m_isSingleBundleFile)
             {
                 writeBundleInfo();
             }
@@ -427,7 +485,11 @@ public class BundleArchive
         if (m_refreshCount != count)
         {
             m_refreshCount = count;
-            if (m_isSingleBundleFile)
+            if (m_journal != null)
+            {
+                writeJournalEntry();
+            }
+            else if (m_isSingleBundleFile)
             {
                 writeBundleInfo();
             }
@@ -690,6 +752,48 @@ public class BundleArchive
                 Logger.LOG_ERROR,
                 "Unable to delete archive directory - " + m_archiveRootDir);
         }
+        if (m_journal != null)
+        {
+            try
+            {
+                m_journal.remove(m_id);
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(
+                    Logger.LOG_ERROR,
+                    "Unable to remove archive from bundle journal - " + m_archiveRootDir, ex);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Stores the state of this archive in the archive root directory
+     * instead of the bundle state journal it was read from; this is used
+     * when the journal is disabled again.
+     * </p>
+     * @throws Exception if any error occurs.
+    **/
+    synchronized void detachJournal() throws Exception
+    {
+        if (m_journal != null)
+        {
+            m_journal = null;
+            if (m_isSingleBundleFile)
+            {
+                writeBundleInfo();
+            }
+            else
+            {
+                writeId();
+                writeLocation();
+                writePersistentState();
+                writeStartLevel();
+                writeLastModified();
+                writeRefreshCount();
+            }
+        }
     }
 
     /**
@@ -786,7 +890,11 @@ public class BundleArchive
                 throw new IOException("Unable to create archive directory.");
             }
 
-            if (m_isSingleBundleFile)
+            if (m_journal != null)
+            {
+                writeJournalEntry();
+            }
+            else if (m_isSingleBundleFile)
             {
                 writeBundleInfo();
             }
@@ -938,6 +1046,50 @@ public class BundleArchive
         return result.toString();
     }
 
+    private boolean readJournalEntry()
+    {
+        // Archive directories are named after the bundle identifier.
+        long id;
+        try
+        {
+            id = Long.parseLong(m_archiveRootDir.getName().substring(
+                BundleCache.BUNDLE_DIR_PREFIX.length()));
+        }
+        catch (NumberFormatException ex)
+        {
+            return false;
+        }
+
+        BundleStateJournal.Entry entry = m_journal.get(id);
+        if (entry == null)
+        {
+            return false;
+        }
+        m_id = entry.getId();
+        m_originalLocation = entry.getLocation();
+        m_persistentState = entry.getPersistentState();
+        m_startLevel = entry.getStartLevel();
+        m_lastModified = entry.getLastModified();
+        m_refreshCount = entry.getRefreshCount();
+        return true;
+    }
+
+    private void writeJournalEntry() throws Exception
+    {
+        try
+        {
+            m_journal.write(new BundleStateJournal.Entry(m_id, m_originalLocation,
+                m_persistentState, m_startLevel, m_lastModified, m_refreshCount));
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                getClass().getName() + ": Unable to journal bundle info - " + ex);
+            throw ex;
+        }
+    }
+
     private void readBundleInfo() throws Exception
     {
         File infoFile = new File(m_archiveRootDir, BUNDLE_INFO_FILE);
@@ -43,6 +43,26 @@ import org.osgi.framework.Constants;
  *       sets an upper limit on how many files the cache will open. The default
  *       value is zero, which means there is no limit.
  *   </li>
+ *   <li><tt>felix.cache.mapped</tt> - Enables or disables memory-mapped
+ *       access to bundle JAR files. If set to <tt>true</tt>, each bundle JAR
+ *       file is mapped into memory once and entries are read from the mapping
+ *       without reopening the file. The default value is <tt>false</tt>.
+ *   </li>
+ *   <li><tt>felix.cache.journal</tt> - Enables or disables the bundle state
+ *       journal. If set to <tt>true</tt>, the identifier, location, state,
+ *       start level, last modification time and refresh count of all bundle
+ *       archives are kept in a single append-only journal file in the cache
+ *       directory instead of a file per archive. Existing archives are
+ *       migrated when the property is changed. The default value is
+ *       <tt>false</tt>.
+ *   </li>
+ *   <li><tt>felix.cache.manifest</tt> - Enables or disables caching of
+ *       bundle manifests. If enabled, the manifest of each revision is stored
+ *       together with its parsed standard headers in the revision directory,
+ *       so that it is neither read from the bundle nor parsed again on the
+ *       next start, unless the bundle file changed. The default value is
+ *       <tt>true</tt>.
+ *   </li>
  *   <li><tt>org.osgi.framework.storage</tt> - Sets the directory to use as
  *       the bundle cache; by default bundle cache directory is
  *       <tt>felix-cache</tt> in the current working directory. The value
@@ -80,6 +100,9 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_MAPPED_PROP = "felix.cache.mapped";
+    public static final String CACHE_JOURNAL_PROP = "felix.cache.journal";
+    public static final String CACHE_MANIFEST_PROP = "felix.cache.manifest";
     // TODO: CACHE - This should eventually be removed along with the code
     //       supporting the old multi-file bundle cache format.
     public static final String CACHE_SINGLEBUNDLEFILE_PROP = "felix.cache.singlebundlefile";
@@ -97,6 +120,8 @@ public class BundleCache
     private final Map m_configMap;
     private final WeakZipFileFactory m_zipFactory;
     private final Object m_lock;
+    private final boolean m_isJournalEnabled;
+    private BundleStateJournal m_journal;
 
     public BundleCache(Logger logger, Map configMap)
         throws Exception
@@ -119,6 +144,10 @@ public class BundleCache
         }
         m_zipFactory = new WeakZipFileFactory(limit);
 
+        Object journal = m_configMap.get(CACHE_JOURNAL_PROP);
+        m_isJournalEnabled = (journal != null)
+            && journal.toString().equalsIgnoreCase(Boolean.TRUE.toString());
+
         // Create the cache directory, if it does not exist.
         File cacheDir = determineCacheDir(m_configMap);
         if (!getSecureAction().fileExists(cacheDir))
@@ -184,6 +213,7 @@ public class BundleCache
 
     public synchronized void release()
     {
+        closeJournal();
         if (m_lock != null)
         {
             try
@@ -209,6 +239,7 @@ public class BundleCache
     public synchronized void delete() throws Exception
     {
         // Delete the cache directory.
+        closeJournal();
         File cacheDir = determineCacheDir(m_configMap);
         deleteDirectoryTree(cacheDir);
     }
@@ -233,6 +264,15 @@ public class BundleCache
         // Create the existing bundle archives in the directory, if any exist.
         File cacheDir = determineCacheDir(m_configMap);
         List archiveList = new ArrayList();
+
+        // If the journal was disabled since the last run, the archives still
+        // read their state from it and then store it in their own files.
+        BundleStateJournal journal = getJournal();
+        if ((journal == null) && BundleStateJournal.exists(cacheDir))
+        {
+            journal = new BundleStateJournal(m_logger, cacheDir);
+        }
+
         File[] children = getSecureAction().listDirectory(cacheDir);
         for (int i = 0; (children != null) && (i < children.length); i++)
         {
@@ -246,7 +286,7 @@ public class BundleCache
                 {
                     archiveList.add(
                         new BundleArchive(
-                            m_logger, m_configMap, m_zipFactory, children[i]));
+                            m_logger, m_configMap, m_zipFactory, children[i], journal));
                 }
                 catch (Exception ex)
                 {
@@ -258,6 +298,33 @@ public class BundleCache
             }
         }
 
+        if ((journal != null) && !m_isJournalEnabled)
+        {
+            boolean detached = true;
+            for (Object ba : archiveList)
+            {
+                try
+                {
+                    ((BundleArchive) ba).detachJournal();
+                }
+                catch (Exception ex)
+                {
+                    detached = false;
+                    m_logger.log(Logger.LOG_ERROR,
+                        "Unable to move bundle state out of the journal.", ex);
+                }
+            }
+            // Keep the journal if any archive still depends on it.
+            if (detached)
+            {
+                journal.delete();
+            }
+            else
+            {
+                journal.close();
+            }
+        }
+
         return (BundleArchive[])
             archiveList.toArray(new BundleArchive[archiveList.size()]);
     }
@@ -277,7 +344,7 @@ public class BundleCache
             BundleArchive ba =
                 new BundleArchive(
                     m_logger, m_configMap, m_zipFactory, archiveRootDir,
-                    id, startLevel, location, is);
+                    id, startLevel, location, is, getJournal());
             return ba;
         }
         catch (Exception ex)
@@ -386,6 +453,34 @@ public class BundleCache
     // Private methods.
     //
 
+    /**
+     * Returns the bundle state journal, opening it if necessary.
+     * @return the journal or <tt>null</tt> if the journal is disabled.
+     * @throws Exception if the journal cannot be opened.
+    **/
+    private synchronized BundleStateJournal getJournal() throws Exception
+    {
+        if (m_isJournalEnabled && (m_journal == null))
+        {
+            File cacheDir = determineCacheDir(m_configMap);
+            if (!getSecureAction().fileExists(cacheDir))
+            {
+                getSecureAction().mkdirs(cacheDir);
+            }
+            m_journal = new BundleStateJournal(m_logger, cacheDir);
+        }
+        return m_journal;
+    }
+
+    private synchronized void closeJournal()
+    {
+        if (m_journal != null)
+        {
+            m_journal.close();
+            m_journal = null;
+        }
+    }
+
     private static File determineCacheDir(Map configMap)
     {
         File cacheDir;
@@ -0,0 +1,465 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.felix.framework.Logger;
+
+/**
+ * <p>
+ * This class keeps the persistent state of all bundle archives, i.e., their
+ * identifier, location, persistent state, start level, last modification
+ * time, and refresh count, in a single append-only journal file in the
+ * bundle cache directory, instead of a <tt>bundle.info</tt> file per archive.
+ * Every state change appends one record holding the complete state of the
+ * affected archive, so a change costs a single write to an already open file.
+ * The journal is read once when the cache is opened, where the last record
+ * of each bundle wins.
+ * </p>
+ * <p>
+ * Each record is prefixed with its length and followed by a CRC32 checksum,
+ * so a record that was only partially written when the process died is
+ * detected when the journal is read and the journal is truncated to the
+ * last complete record. Once the journal holds considerably more records
+ * than bundles, it is compacted by writing the current state to a temporary
+ * file, which is synced and then renamed over the journal. If the process
+ * dies during compaction, either the old journal or the completely written
+ * temporary file is used on the next start.
+ * </p>
+**/
+class BundleStateJournal
+{
+    // The names must not start with the bundle directory prefix, since
+    // those files would be taken for bundle archives.
+    static final String JOURNAL_FILE = "cache.journal";
+    private static final String COMPACT_FILE = "cache.journal.tmp";
+
+    private static final int MAGIC = 0x464A4E4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+
+    private static final byte OP_WRITE = 1;
+    private static final byte OP_REMOVE = 2;
+
+    // Records with a length beyond this limit must be corrupted.
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+    // The journal is not compacted before it has this many records.
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final Logger m_logger;
+    private final File m_journalFile;
+    private final File m_compactFile;
+    private final Map<Long, Entry> m_entries = new HashMap<Long, Entry>();
+    private FileOutputStream m_out;
+    private int m_records;
+
+    /**
+     * Opens the journal in the specified cache directory, creating it if it
+     * does not exist yet, and reads the state of all bundles from it.
+     * @param logger the logger to be used by the journal.
+     * @param cacheDir the bundle cache directory.
+     * @throws Exception if the journal cannot be read or created.
+    **/
+    BundleStateJournal(Logger logger, File cacheDir) throws Exception
+    {
+        m_logger = logger;
+        m_journalFile = new File(cacheDir, JOURNAL_FILE);
+        m_compactFile = new File(cacheDir, COMPACT_FILE);
+
+        // A leftover temporary file is only complete if the rename after
+        // compaction did not happen yet, otherwise it is discarded.
+        if (BundleCache.getSecureAction().fileExists(m_compactFile))
+        {
+            if (BundleCache.getSecureAction().fileExists(m_journalFile))
+            {
+                BundleCache.getSecureAction().deleteFile(m_compactFile);
+            }
+            else
+            {
+                BundleCache.getSecureAction().renameFile(m_compactFile, m_journalFile);
+            }
+        }
+
+        if (BundleCache.getSecureAction().fileExists(m_journalFile))
+        {
+            long validLength = read();
+            if (validLength < m_journalFile.length())
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Discarding incomplete records at the end of bundle journal: "
+                    + m_journalFile);
+                truncate(validLength);
+            }
+        }
+        else
+        {
+            compact();
+        }
+
+        if (m_out == null)
+        {
+            m_out = BundleCache.getSecureAction().getFileOutputStream(m_journalFile, true);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Returns whether the specified cache directory contains a journal.
+     * @param cacheDir the bundle cache directory.
+     * @return <tt>true</tt> if there is a journal, <tt>false</tt> otherwise.
+    **/
+    static boolean exists(File cacheDir)
+    {
+        return BundleCache.getSecureAction().fileExists(new File(cacheDir, JOURNAL_FILE))
+            || BundleCache.getSecureAction().fileExists(new File(cacheDir, COMPACT_FILE));
+    }
+
+    /**
+     * Returns the last state written for the specified bundle.
+     * @param id the bundle identifier.
+     * @return the state of the bundle or <tt>null</tt> if there is none.
+    **/
+    synchronized Entry get(long id)
+    {
+        return m_entries.get(id);
+    }
+
+    /**
+     * Appends the state of a bundle to the journal.
+     * @param entry the new state of the bundle.
+     * @throws IOException if the state cannot be written.
+    **/
+    synchronized void write(Entry entry) throws IOException
+    {
+        append(OP_WRITE, entry.getId(), entry);
+        m_entries.put(entry.getId(), entry);
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes the state of a bundle from the journal.
+     * @param id the identifier of the removed bundle.
+     * @throws IOException if the removal cannot be written.
+    **/
+    synchronized void remove(long id) throws IOException
+    {
+        if (m_entries.remove(id) != null)
+        {
+            append(OP_REMOVE, id, null);
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Closes the journal file.
+    **/
+    synchronized void close()
+    {
+        if (m_out != null)
+        {
+            try
+            {
+                m_out.getFD().sync();
+                m_out.close();
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Unable to close bundle journal: " + m_journalFile, ex);
+            }
+            m_out = null;
+        }
+    }
+
+    /**
+     * Closes and deletes the journal file.
+    **/
+    synchronized void delete()
+    {
+        close();
+        BundleCache.getSecureAction().deleteFile(m_journalFile);
+    }
+
+    /**
+     * Rewrites the journal so that it only contains the current state of
+     * each bundle.
+     * @throws IOException if the journal cannot be written.
+    **/
+    synchronized void compact() throws IOException
+    {
+        FileOutputStream fos =
+            BundleCache.getSecureAction().getFileOutputStream(m_compactFile);
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writeHeader(new DataOutputStream(baos));
+            for (Entry entry : m_entries.values())
+            {
+                writeRecord(baos, OP_WRITE, entry.getId(), entry);
+            }
+            baos.writeTo(fos);
+            fos.getFD().sync();
+        }
+        finally
+        {
+            fos.close();
+        }
+
+        if (m_out != null)
+        {
+            m_out.close();
+            m_out = null;
+        }
+        // Renaming does not replace existing files on all platforms.
+        if (!BundleCache.getSecureAction().renameFile(m_compactFile, m_journalFile))
+        {
+            BundleCache.getSecureAction().deleteFile(m_journalFile);
+            if (!BundleCache.getSecureAction().renameFile(m_compactFile, m_journalFile))
+            {
+                throw new IOException("Unable to replace bundle journal: " + m_journalFile);
+            }
+        }
+        m_out = BundleCache.getSecureAction().getFileOutputStream(m_journalFile, true);
+        m_records = m_entries.size();
+    }
+
+    private void compactIfNeeded() throws IOException
+    {
+        if ((m_records >= COMPACT_MIN_RECORDS) && (m_records > 2 * m_entries.size()))
+        {
+            compact();
+        }
+    }
+
+    private void append(byte op, long id, Entry entry) throws IOException
+    {
+        if (m_out == null)
+        {
+            throw new IOException("Bundle journal is closed: " + m_journalFile);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writeRecord(baos, op, id, entry);
+        // Write the record at once so that it is either completely
+        // written or is discarded as incomplete when reading it.
+        baos.writeTo(m_out);
+        m_out.flush();
+        m_records++;
+    }
+
+    /**
+     * Reads all records of the journal.
+     * @return the length of the journal up to the last complete record.
+    **/
+    private long read() throws Exception
+    {
+        InputStream is = BundleCache.getSecureAction().getFileInputStream(m_journalFile);
+        try
+        {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(is, BundleCache.BUFSIZE));
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+            {
+                throw new IOException("Unsupported bundle journal format: " + m_journalFile);
+            }
+            long validLength = HEADER_LENGTH;
+            CRC32 crc = new CRC32();
+            byte[] buf = new byte[256];
+            while (true)
+            {
+                int length;
+                try
+                {
+                    length = in.readInt();
+                    if ((length <= 0) || (length > MAX_RECORD_LENGTH))
+                    {
+                        break;
+                    }
+                    if (buf.length < length)
+                    {
+                        buf = new byte[length];
+                    }
+                    in.readFully(buf, 0, length);
+                    crc.reset();
+                    crc.update(buf, 0, length);
+                    if (in.readLong() != crc.getValue())
+                    {
+                        break;
+                    }
+                }
+                catch (EOFException ex)
+                {
+                    break;
+                }
+                readRecord(new DataInputStream(
+                    new ByteArrayInputStream(buf, 0, length)));
+                m_records++;
+                validLength += 4 + length + 8;
+            }
+            return validLength;
+        }
+        catch (EOFException ex)
+        {
+            throw new IOException("Bundle journal has no valid header: " + m_journalFile);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private void readRecord(DataInputStream in) throws IOException
+    {
+        byte op = in.readByte();
+        long id = in.readLong();
+        if (op == OP_WRITE)
+        {
+            byte[] location = new byte[in.readInt()];
+            in.readFully(location);
+            m_entries.put(id, new Entry(id, new String(location, "UTF-8"),
+                in.readInt(), in.readInt(), in.readLong(), in.readLong()));
+        }
+        else if (op == OP_REMOVE)
+        {
+            m_entries.remove(id);
+        }
+        else
+        {
+            throw new IOException("Unknown bundle journal record: " + op);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.flush();
+    }
+
+    private static void writeRecord(
+        ByteArrayOutputStream baos, byte op, long id, Entry entry)
+        throws IOException
+    {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(op);
+        out.writeLong(id);
+        if (entry != null)
+        {
+            String location = (entry.getLocation() == null) ? "" : entry.getLocation();
+            byte[] bytes = location.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt(entry.getPersistentState());
+            out.writeInt(entry.getStartLevel());
+            out.writeLong(entry.getLastModified());
+            out.writeLong(entry.getRefreshCount());
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(record.toByteArray());
+        out = new DataOutputStream(baos);
+        out.writeInt(record.size());
+        record.writeTo(out);
+        out.writeLong(crc.getValue());
+        out.flush();
+    }
+
+    private void truncate(long length) throws IOException
+    {
+        FileOutputStream fos =
+            BundleCache.getSecureAction().getFileOutputStream(m_journalFile, true);
+        try
+        {
+            fos.getChannel().truncate(length);
+            fos.getFD().sync();
+        }
+        finally
+        {
+            fos.close();
+        }
+    }
+
+    /**
+     * The persistent state of a single bundle archive.
+    **/
+    static class Entry
+    {
+        private final long m_id;
+        private final String m_location;
+        private final int m_persistentState;
+        private final int m_startLevel;
+        private final long m_lastModified;
+        private final long m_refreshCount;
+
+        Entry(long id, String location, int persistentState, int startLevel,
+            long lastModified, long refreshCount)
+        {
+            m_id = id;
+            m_location = location;
+            m_persistentState = persistentState;
+            m_startLevel = startLevel;
+            m_lastModified = lastModified;
+            m_refreshCount = refreshCount;
+        }
+
+        long getId()
+        {
+            return m_id;
+        }
+
+        String getLocation()
+        {
+            return m_location;
+        }
+
+        int getPersistentState()
+        {
+            return m_persistentState;
+        }
+
+        int getStartLevel()
+        {
+            return m_startLevel;
+        }
+
+        long getLastModified()
+        {
+            return m_lastModified;
+        }
+
+        long getRefreshCount()
+        {
+            return m_refreshCount;
+        }
+    }
+}
@@ -72,14 +72,24 @@ class DirectoryRevision extends BundleArchiveRevision
     public synchronized Map getManifestHeader()
         throws Exception
     {
+        File manifestFile = new File(m_refDir, "META-INF/MANIFEST.MF");
+        boolean isCached = ManifestCache.isEnabled(getConfig());
+        if (isCached)
+        {
+            Map headers = ManifestCache.read(getLogger(), getRevisionRootDir(), manifestFile);
+            if (headers != null)
+            {
+                return headers;
+            }
+        }
+
         // Read the header file from the reference directory.
         InputStream is = null;
 
         try
         {
             // Open manifest file.
-            is = BundleCache.getSecureAction()
-                .getFileInputStream(new File(m_refDir, "META-INF/MANIFEST.MF"));
+            is = BundleCache.getSecureAction().getFileInputStream(manifestFile);
             // Error if no jar file.
             if (is == null)
             {
@@ -89,7 +99,10 @@ class DirectoryRevision extends BundleArchiveRevision
             // Get manifest.
             Manifest mf = new Manifest(is);
             // Create a case insensitive map of manifest attributes.
-            return new StringMap(mf.getMainAttributes());
+            Map headers = new StringMap(mf.getMainAttributes());
+            return isCached
+                ? ManifestCache.write(getLogger(), getRevisionRootDir(), manifestFile, headers)
+                : headers;
         }
         finally
         {
@@ -52,6 +52,7 @@ class JarRevision extends BundleArchiveRevision
     private final WeakZipFileFactory m_zipFactory;
     private final File m_bundleFile;
     private final WeakZipFile m_zipFile;
+    private final MappedZipFile m_mappedFile;
 
     public JarRevision(
         Logger logger, Map configMap, WeakZipFileFactory zipFactory,
@@ -94,19 +95,54 @@ class JarRevision extends BundleArchiveRevision
             if (zipFile != null) zipFile.close();
             throw ex;
         }
+
+        // Map the bundle JAR file if configured; this is optional, since
+        // the JAR content can always fall back to the weak zip file.
+        MappedZipFile mappedFile = null;
+        if (Boolean.valueOf((String) getConfig().get(BundleCache.CACHE_MAPPED_PROP)))
+        {
+            try
+            {
+                mappedFile = new MappedZipFile(m_bundleFile);
+            }
+            catch (IOException ex)
+            {
+                getLogger().log(
+                    Logger.LOG_WARNING,
+                    "Unable to map JAR file, using unmapped access: " + ex.getMessage());
+            }
+        }
+        m_mappedFile = mappedFile;
     }
 
     public Map getManifestHeader() throws Exception
     {
+        boolean isCached = ManifestCache.isEnabled(getConfig());
+        if (isCached)
+        {
+            Map headers = ManifestCache.read(getLogger(), getRevisionRootDir(), m_bundleFile);
+            if (headers != null)
+            {
+                return headers;
+            }
+        }
+
         // Create a case insensitive map of manifest attributes.
         Map headers = new StringMap();
         // Read and parse headers.
         getMainAttributes(headers, m_zipFile);
-        return headers;
+        return isCached
+            ? ManifestCache.write(getLogger(), getRevisionRootDir(), m_bundleFile, headers)
+            : headers;
     }
 
     public synchronized Content getContent() throws Exception
     {
+        if (m_mappedFile != null)
+        {
+            return new MappedJarContent(getLogger(), getConfig(), m_zipFactory,
+                this, getRevisionRootDir(), m_zipFile, m_mappedFile);
+        }
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
+import org.apache.felix.framework.util.manifestparser.ParsedHeaderClause;
+import org.apache.felix.framework.util.manifestparser.ParsedHeaderMap;
+
+/**
+ * <p>
+ * This class stores the main attributes of a revision's manifest together
+ * with the parsed clauses of its standard headers in a binary file in the
+ * revision directory, so that the manifest neither needs to be read from the
+ * bundle content nor parsed again when the framework is restarted. The file
+ * records the last modification time and length of the file the manifest was
+ * read from and is ignored once they change, which also covers referenced
+ * bundles that are modified in place.
+ * </p>
+**/
+class ManifestCache
+{
+    private static final String MANIFEST_CACHE_FILE = "manifest.cache";
+
+    private static final int MAGIC = 0x464D4643;
+    private static final int VERSION = 1;
+
+    /**
+     * Returns whether the manifest cache is enabled by the configuration.
+     * @param configMap the framework configuration.
+     * @return <tt>true</tt> unless the cache is disabled.
+    **/
+    static boolean isEnabled(Map configMap)
+    {
+        Object value = configMap.get(BundleCache.CACHE_MANIFEST_PROP);
+        return (value == null) || value.toString().equalsIgnoreCase("true");
+    }
+
+    /**
+     * Reads the cached manifest of a revision.
+     * @param logger the logger to be used.
+     * @param revisionRootDir the revision directory.
+     * @param source the file the manifest was read from.
+     * @return the cached manifest with its parsed clauses or <tt>null</tt> if
+     *         there is no valid cached manifest.
+    **/
+    static Map read(Logger logger, File revisionRootDir, File source)
+    {
+        File file = new File(revisionRootDir, MANIFEST_CACHE_FILE);
+        InputStream is = null;
+        try
+        {
+            is = BundleCache.getSecureAction().getFileInputStream(file);
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(is, BundleCache.BUFSIZE));
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)
+                || (in.readLong() != source.lastModified())
+                || (in.readLong() != source.length()))
+            {
+                return null;
+            }
+
+            ParsedHeaderMap headers = new ParsedHeaderMap();
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                headers.put(readString(in), readString(in));
+            }
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                String header = readString(in);
+                List<ParsedHeaderClause> clauses = new ArrayList<ParsedHeaderClause>();
+                for (int j = in.readInt(); j > 0; j--)
+                {
+                    List<String> paths = new ArrayList<String>();
+                    for (int k = in.readInt(); k > 0; k--)
+                    {
+                        paths.add(readString(in));
+                    }
+                    clauses.add(new ParsedHeaderClause(
+                        paths, readMap(in), new HashMap<String, Object>(readMap(in)),
+                        readMap(in)));
+                }
+                headers.putClauses(header, clauses);
+            }
+            return headers;
+        }
+        catch (FileNotFoundException ex)
+        {
+            return null;
+        }
+        catch (IOException ex)
+        {
+            logger.log(Logger.LOG_DEBUG,
+                "Ignoring unreadable manifest cache: " + file, ex);
+            return null;
+        }
+        finally
+        {
+            if (is != null)
+            {
+                try
+                {
+                    is.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the standard headers of a manifest and stores the manifest
+     * with the parsed clauses in the revision directory. Failing to store
+     * the manifest is not an error, since it only affects the next start.
+     * @param logger the logger to be used.
+     * @param revisionRootDir the revision directory.
+     * @param source the file the manifest was read from.
+     * @param headers the main attributes of the manifest.
+     * @return the manifest with its parsed clauses.
+    **/
+    static Map write(Logger logger, File revisionRootDir, File source, Map headers)
+    {
+        ParsedHeaderMap result = new ParsedHeaderMap(headers);
+        for (Object value : result.values())
+        {
+            // Only text attributes can be stored.
+            if (!(value instanceof String))
+            {
+                return headers;
+            }
+        }
+
+        // The length and modification time are taken first, so that a
+        // concurrent modification invalidates the cached manifest.
+        long lastModified = source.lastModified();
+        long length = source.length();
+
+        File tmp = null;
+        OutputStream os = null;
+        try
+        {
+            tmp = BundleCache.getSecureAction().createTempFile(
+                MANIFEST_CACHE_FILE, ".tmp", revisionRootDir);
+            os = BundleCache.getSecureAction().getFileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(os, BundleCache.BUFSIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lastModified);
+            out.writeLong(length);
+            out.writeInt(result.size());
+            for (Entry<String, Object> entry : result.entrySet())
+            {
+                writeString(out, entry.getKey());
+                writeString(out, (String) entry.getValue());
+            }
+
+            List<String> present = new ArrayList<String>();
+            for (String header : ParsedHeaderMap.PARSED_HEADERS)
+            {
+                if (result.get(header) != null)
+                {
+                    present.add(header);
+                }
+            }
+            out.writeInt(present.size());
+            for (String header : present)
+            {
+                List<ParsedHeaderClause> clauses =
+                    ManifestParser.parseStandardHeader((String) result.get(header));
+                writeString(out, header);
+                out.writeInt(clauses.size());
+                for (ParsedHeaderClause clause : clauses)
+                {
+                    out.writeInt(clause.m_paths.size());
+                    for (String path : clause.m_paths)
+                    {
+                        writeString(out, path);
+                    }
+                    writeMap(out, clause.m_dirs);
+                    writeMap(out, clause.m_attrs);
+                    writeMap(out, clause.m_types);
+                }
+                // The clauses are written before the parser normalizes them.
+                result.putClauses(header, clauses);
+            }
+            out.flush();
+            os.close();
+            os = null;
+
+            File file = new File(revisionRootDir, MANIFEST_CACHE_FILE);
+            // Renaming does not replace existing files on all platforms.
+            BundleCache.getSecureAction().deleteFile(file);
+            if (BundleCache.getSecureAction().renameFile(tmp, file))
+            {
+                tmp = null;
+            }
+        }
+        catch (Exception ex)
+        {
+            logger.log(Logger.LOG_DEBUG,
+                "Unable to cache manifest in " + revisionRootDir, ex);
+        }
+        finally
+        {
+            if (os != null)
+            {
+                try
+                {
+                    os.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore.
+                }
+            }
+            if (tmp != null)
+            {
+                BundleCache.getSecureAction().deleteFile(tmp);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException
+    {
+        int size = in.readInt();
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < size; i++)
+        {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, ?> map)
+        throws IOException
+    {
+        out.writeInt(map.size());
+        for (Entry<String, ?> entry : map.entrySet())
+        {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue().toString());
+        }
+    }
+
+    // Header values may exceed the 64k limit of writeUTF().
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Map;
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
+
+/**
+ * This class is a JAR content that serves entry lookups from a
+ * memory-mapped copy of the JAR file, which is shared by all contents of a
+ * revision and never reopened. The weak zip file of the revision is only
+ * used for the rare operations extracting embedded JAR files, directories
+ * and native libraries, so it can stay weakly closed most of the time.
+**/
+public class MappedJarContent extends JarContent
+{
+    private final Logger m_logger;
+    private final Map m_configMap;
+    private final WeakZipFileFactory m_zipFactory;
+    private final Object m_revisionLock;
+    private final File m_rootDir;
+    private final WeakZipFile m_zipFile;
+    private final MappedZipFile m_mappedFile;
+
+    MappedJarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, WeakZipFile zipFile, MappedZipFile mappedFile)
+    {
+        super(logger, configMap, zipFactory, revisionLock, rootDir,
+            mappedFile.getFile(), zipFile);
+        m_logger = logger;
+        m_configMap = configMap;
+        m_zipFactory = zipFactory;
+        m_revisionLock = revisionLock;
+        m_rootDir = rootDir;
+        m_zipFile = zipFile;
+        m_mappedFile = mappedFile;
+    }
+
+    public boolean hasEntry(String name) throws IllegalStateException
+    {
+        return m_mappedFile.hasEntry(name);
+    }
+
+    public Enumeration<String> getEntries()
+    {
+        // Spec says to return null if there are no entries.
+        return (m_mappedFile.size() > 0) ? m_mappedFile.getNames() : null;
+    }
+
+    public byte[] getEntryAsBytes(String name) throws IllegalStateException
+    {
+        try
+        {
+            return m_mappedFile.getEntryAsBytes(name);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes for file " + name
+                + " in ZIP file " + m_mappedFile.getFile().getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    public InputStream getEntryAsStream(String name)
+        throws IllegalStateException, IOException
+    {
+        try
+        {
+            return m_mappedFile.getEntryAsStream(name);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    public Content getEntryAsContent(String entryName)
+    {
+        // If the entry name refers to the content itself, then share
+        // the mapped file; otherwise, embedded entries are extracted
+        // from the weak zip file as usual.
+        if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
+        {
+            return new MappedJarContent(m_logger, m_configMap, m_zipFactory,
+                m_revisionLock, m_rootDir, m_zipFile, m_mappedFile);
+        }
+        return super.getEntryAsContent(entryName);
+    }
+
+    public String toString()
+    {
+        return "Mapped JAR " + m_mappedFile.getFile().getPath();
+    }
+}
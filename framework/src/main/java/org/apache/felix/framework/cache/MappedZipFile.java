@@ -0,0 +1,476 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class provides read-only access to a ZIP file that is memory-mapped
+ * once when it is opened. The central directory is parsed into a compact
+ * hash index consisting of primitive arrays only; entry names and attributes
+ * are read from the mapped central directory on demand, so no per entry
+ * objects are created. Since the mapping stays valid independently of any
+ * open file handle, the file is closed right after mapping it. Instances are
+ * safe for concurrent use, since the mapped buffer is only accessed with
+ * absolute positions or through duplicates. ZIP64 files and files larger
+ * than 2 GB are not supported.
+**/
+class MappedZipFile
+{
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int LOCHDR = 30;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final File m_file;
+    private final ByteBuffer m_buffer;
+    // Offsets of the central directory records of all entries.
+    private final int[] m_records;
+    // Hash codes of the entry names, by entry.
+    private final int[] m_hashes;
+    // Open addressing hash table of entry indices plus one, where zero
+    // marks an empty slot.
+    private final int[] m_table;
+
+    MappedZipFile(File file) throws IOException
+    {
+        m_file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel fc = raf.getChannel();
+            if (fc.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("ZIP file too large to be mapped: " + file);
+            }
+            m_buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        int end = findEndRecord();
+        int count = getShort(end + 10);
+        int offset = m_buffer.getInt(end + 16);
+        if ((count == 0xFFFF) || (offset < 0))
+        {
+            throw new IOException("ZIP64 files are not supported: " + file);
+        }
+
+        m_records = new int[count];
+        m_hashes = new int[count];
+        int tableSize = Integer.highestOneBit(Math.max(count, 1) * 2) * 2;
+        m_table = new int[tableSize];
+        for (int i = 0, pos = offset; i < count; i++)
+        {
+            if ((pos + CENHDR > end) || (m_buffer.getInt(pos) != CENSIG))
+            {
+                throw new IOException("Invalid central directory in ZIP file: " + file);
+            }
+            if ((m_buffer.getInt(pos + 20) == 0xFFFFFFFF)
+                || (m_buffer.getInt(pos + 24) == 0xFFFFFFFF)
+                || (m_buffer.getInt(pos + 42) == 0xFFFFFFFF))
+            {
+                throw new IOException("ZIP64 files are not supported: " + file);
+            }
+            int nameLen = getShort(pos + 28);
+            m_records[i] = pos;
+            m_hashes[i] = hash(pos + CENHDR, nameLen);
+            // The first entry of a name wins, like for ZipFile.
+            if (findEntry(pos + CENHDR, nameLen, m_hashes[i]) < 0)
+            {
+                int slot = m_hashes[i] & (m_table.length - 1);
+                while (m_table[slot] != 0)
+                {
+                    slot = (slot + 1) & (m_table.length - 1);
+                }
+                m_table[slot] = i + 1;
+            }
+            pos += CENHDR + nameLen + getShort(pos + 30) + getShort(pos + 32);
+        }
+    }
+
+    File getFile()
+    {
+        return m_file;
+    }
+
+    int size()
+    {
+        return m_records.length;
+    }
+
+    /**
+     * Returns whether the specified entry exists. Like for <tt>ZipFile</tt>,
+     * a directory entry is also found if its name misses the trailing slash.
+     * @param name the entry name.
+     * @return <tt>true</tt> if the entry exists.
+    **/
+    boolean hasEntry(String name)
+    {
+        return getEntry(name) >= 0;
+    }
+
+    boolean isDirectory(String name)
+    {
+        int idx = getEntry(name);
+        return (idx >= 0) && getName(idx).endsWith("/");
+    }
+
+    Enumeration<String> getNames()
+    {
+        return new Enumeration<String>()
+        {
+            private int m_idx = 0;
+
+            public boolean hasMoreElements()
+            {
+                return m_idx < m_records.length;
+            }
+
+            public String nextElement()
+            {
+                if (m_idx >= m_records.length)
+                {
+                    throw new NoSuchElementException();
+                }
+                return getName(m_idx++);
+            }
+        };
+    }
+
+    /**
+     * Returns the uncompressed content of the specified entry.
+     * @param name the entry name.
+     * @return the content or <tt>null</tt> if there is no such entry.
+     * @throws IOException if the entry cannot be decompressed.
+    **/
+    byte[] getEntryAsBytes(String name) throws IOException
+    {
+        int idx = getEntry(name);
+        if (idx < 0)
+        {
+            return null;
+        }
+
+        int record = m_records[idx];
+        int method = getShort(record + 10);
+        ByteBuffer data = getData(record);
+        byte[] bytes = new byte[m_buffer.getInt(record + 24)];
+        if (method == STORED)
+        {
+            data.get(bytes, 0, Math.min(bytes.length, data.remaining()));
+            return bytes;
+        }
+        else if (method == DEFLATED)
+        {
+            // An extra dummy byte is needed when inflating without wrapper.
+            byte[] input = new byte[data.remaining() + 1];
+            data.get(input, 0, input.length - 1);
+            Inflater inflater = new Inflater(true);
+            try
+            {
+                inflater.setInput(input);
+                int n = 0;
+                while ((n < bytes.length) && !inflater.finished())
+                {
+                    int len = inflater.inflate(bytes, n, bytes.length - n);
+                    if ((len == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                    {
+                        break;
+                    }
+                    n += len;
+                }
+                if (n != bytes.length)
+                {
+                    throw new IOException("Truncated ZIP entry: " + name);
+                }
+                return bytes;
+            }
+            catch (DataFormatException ex)
+            {
+                throw new IOException("Invalid ZIP entry " + name + ": " + ex.getMessage());
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+        throw new IOException("Unsupported compression method of ZIP entry: " + name);
+    }
+
+    /**
+     * Returns a stream of the uncompressed content of the specified entry,
+     * which reads directly from the mapped file.
+     * @param name the entry name.
+     * @return the stream or <tt>null</tt> if there is no such entry.
+     * @throws IOException if the entry is not supported.
+    **/
+    InputStream getEntryAsStream(String name) throws IOException
+    {
+        int idx = getEntry(name);
+        if (idx < 0)
+        {
+            return null;
+        }
+
+        int record = m_records[idx];
+        int method = getShort(record + 10);
+        if (method == STORED)
+        {
+            return new ByteBufferInputStream(getData(record), false);
+        }
+        else if (method == DEFLATED)
+        {
+            return new InflaterInputStream(
+                new ByteBufferInputStream(getData(record), true), new Inflater(true))
+            {
+                private boolean m_closed = false;
+
+                public void close() throws IOException
+                {
+                    if (!m_closed)
+                    {
+                        m_closed = true;
+                        inf.end();
+                        super.close();
+                    }
+                }
+            };
+        }
+        throw new IOException("Unsupported compression method of ZIP entry: " + name);
+    }
+
+    private int getEntry(String name)
+    {
+        byte[] bytes;
+        try
+        {
+            bytes = name.getBytes("UTF-8");
+        }
+        catch (IOException ex)
+        {
+            return -1;
+        }
+        int idx = findEntry(bytes);
+        if ((idx < 0) && (bytes.length > 0) && (bytes[bytes.length - 1] != '/'))
+        {
+            byte[] dir = new byte[bytes.length + 1];
+            System.arraycopy(bytes, 0, dir, 0, bytes.length);
+            dir[bytes.length] = '/';
+            idx = findEntry(dir);
+        }
+        return idx;
+    }
+
+    private int findEntry(byte[] name)
+    {
+        int h = 0;
+        for (int i = 0; i < name.length; i++)
+        {
+            h = 31 * h + name[i];
+        }
+        for (int slot = h & (m_table.length - 1); m_table[slot] != 0;
+            slot = (slot + 1) & (m_table.length - 1))
+        {
+            int idx = m_table[slot] - 1;
+            if ((m_hashes[idx] == h) && nameEquals(m_records[idx], name))
+            {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    private int findEntry(int pos, int len, int h)
+    {
+        for (int slot = h & (m_table.length - 1); m_table[slot] != 0;
+            slot = (slot + 1) & (m_table.length - 1))
+        {
+            int idx = m_table[slot] - 1;
+            int record = m_records[idx];
+            if ((m_hashes[idx] == h) && (getShort(record + 28) == len))
+            {
+                int i = 0;
+                while ((i < len) && (m_buffer.get(record + CENHDR + i) == m_buffer.get(pos + i)))
+                {
+                    i++;
+                }
+                if (i == len)
+                {
+                    return idx;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int record, byte[] name)
+    {
+        if (getShort(record + 28) != name.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++)
+        {
+            if (m_buffer.get(record + CENHDR + i) != name[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getName(int idx)
+    {
+        int record = m_records[idx];
+        byte[] bytes = new byte[getShort(record + 28)];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = m_buffer.get(record + CENHDR + i);
+        }
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch (IOException ex)
+        {
+            // UTF-8 is always supported.
+            throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    private ByteBuffer getData(int record) throws IOException
+    {
+        int local = m_buffer.getInt(record + 42);
+        if ((local + LOCHDR > m_buffer.limit()) || (m_buffer.getInt(local) != LOCSIG))
+        {
+            throw new IOException("Invalid local header in ZIP file: " + m_file);
+        }
+        int start = local + LOCHDR + getShort(local + 26) + getShort(local + 28);
+        int size = m_buffer.getInt(record + 20);
+        if ((start + size < start) || (start + size > m_buffer.limit()))
+        {
+            throw new IOException("Invalid entry size in ZIP file: " + m_file);
+        }
+        ByteBuffer data = m_buffer.duplicate();
+        data.limit(start + size).position(start);
+        return data;
+    }
+
+    private int findEndRecord() throws IOException
+    {
+        // The end record is followed by a comment of up to 64k bytes.
+        int min = Math.max(0, m_buffer.limit() - ENDHDR - 0xFFFF);
+        for (int pos = m_buffer.limit() - ENDHDR; pos >= min; pos--)
+        {
+            if ((m_buffer.getInt(pos) == ENDSIG)
+                && (pos + ENDHDR + getShort(pos + 20) == m_buffer.limit()))
+            {
+                return pos;
+            }
+        }
+        throw new IOException("Not a ZIP file: " + m_file);
+    }
+
+    private int hash(int pos, int len)
+    {
+        int h = 0;
+        for (int i = 0; i < len; i++)
+        {
+            h = 31 * h + m_buffer.get(pos + i);
+        }
+        return h;
+    }
+
+    private int getShort(int pos)
+    {
+        return m_buffer.getShort(pos) & 0xFFFF;
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_data;
+        // Whether to append the dummy byte needed by inflaters without wrapper.
+        private boolean m_dummy;
+
+        ByteBufferInputStream(ByteBuffer data, boolean dummy)
+        {
+            m_data = data;
+            m_dummy = dummy;
+        }
+
+        public int read()
+        {
+            if (m_data.hasRemaining())
+            {
+                return m_data.get() & 0xFF;
+            }
+            else if (m_dummy)
+            {
+                m_dummy = false;
+                return 0;
+            }
+            return -1;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            else if (!m_data.hasRemaining())
+            {
+                int c = read();
+                if (c < 0)
+                {
+                    return -1;
+                }
+                b[off] = (byte) c;
+                return 1;
+            }
+            len = Math.min(len, m_data.remaining());
+            m_data.get(b, off, len);
+            return len;
+        }
+
+        public int available()
+        {
+            return m_data.remaining();
+        }
+    }
+}
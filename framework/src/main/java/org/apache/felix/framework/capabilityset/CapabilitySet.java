@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.apache.felix.framework.util.SecureAction;
@@ -43,7 +44,7 @@ import org.osgi.resource.Capability;
 
 public class CapabilitySet
 {
-    private final Map<String, Map<Object, Set<BundleCapability>>> m_indices;
+    private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices;
     private final Set<Capability> m_capSet = new HashSet<Capability>();
     private final static SecureAction m_secureAction = new SecureAction();
 
@@ -89,6 +90,31 @@ public class CapabilitySet
         }
     }
 
+    /**
+     * Creates a copy of the specified capability set, including its indices.
+     * The capabilities themselves are shared, but the copy can be modified
+     * without affecting the source set. This is used to publish immutable
+     * snapshots of a capability set to lock-free readers.
+     * @param capSet the capability set to copy.
+    **/
+    public CapabilitySet(CapabilitySet capSet)
+    {
+        m_indices = new TreeMap<String, Map<Object, Set<BundleCapability>>>(
+            capSet.m_indices.comparator());
+        for (Entry<String, Map<Object, Set<BundleCapability>>> entry
+            : capSet.m_indices.entrySet())
+        {
+            Map<Object, Set<BundleCapability>> index =
+                new HashMap<Object, Set<BundleCapability>>(entry.getValue().size());
+            for (Entry<Object, Set<BundleCapability>> entry2 : entry.getValue().entrySet())
+            {
+                index.put(entry2.getKey(), new HashSet<BundleCapability>(entry2.getValue()));
+            }
+            m_indices.put(entry.getKey(), index);
+        }
+        m_capSet.addAll(capSet.m_capSet);
+    }
+
     public void addCapability(BundleCapability cap)
     {
         m_capSet.add(cap);
@@ -254,7 +280,7 @@ public class CapabilitySet
                     Object lhs = cap.getAttributes().get(sf.getName());
                     if (lhs != null)
                     {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
+                        if (compare(lhs, sf.getValue(), sf.getOperation(), sf))
                         {
                             matches.add(cap);
                         }
@@ -318,7 +344,7 @@ public class CapabilitySet
             Object lhs = cap.getAttributes().get(sf.getName());
             if (lhs != null)
             {
-                matched = compare(lhs, sf.getValue(), sf.getOperation());
+                matched = compare(lhs, sf.getValue(), sf.getOperation(), sf);
             }
         }
 
@@ -378,7 +404,7 @@ public class CapabilitySet
     private static final Class<?>[] STRING_CLASS = new Class[] { String.class };
     private static final String VALUE_OF_METHOD_NAME = "valueOf";
 
-    private static boolean compare(Object lhs, Object rhsUnknown, int op)
+    private static boolean compare(Object lhs, Object rhsUnknown, int op, SimpleFilter sf)
     {
         if (lhs == null)
         {
@@ -399,7 +425,7 @@ public class CapabilitySet
             Object rhs = null;
             try
             {
-                rhs = coerceType(lhs, (String) rhsUnknown);
+                rhs = coerceType(lhs, (String) rhsUnknown, sf);
             }
             catch (Exception ex)
             {
@@ -431,7 +457,7 @@ public class CapabilitySet
             {
                 try
                 {
-                    rhs = coerceType(lhs, (String) rhsUnknown);
+                    rhs = coerceType(lhs, (String) rhsUnknown, sf);
                 }
                 catch (Exception ex)
                 {
@@ -483,7 +509,7 @@ public class CapabilitySet
             Object rhs;
             try
             {
-                rhs = coerceType(lhs, (String) rhsUnknown);
+                rhs = coerceType(lhs, (String) rhsUnknown, sf);
             }
             catch (Exception ex)
             {
@@ -517,7 +543,7 @@ public class CapabilitySet
         {
             for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
             {
-                if (compare(iter.next(), rhsUnknown, op))
+                if (compare(iter.next(), rhsUnknown, op, sf))
                 {
                     return true;
                 }
@@ -536,7 +562,7 @@ public class CapabilitySet
         // equality comparison.
         try
         {
-            return lhs.equals(coerceType(lhs, (String) rhsUnknown));
+            return lhs.equals(coerceType(lhs, (String) rhsUnknown, sf));
         }
         catch (Exception ex)
         {
@@ -572,7 +598,21 @@ public class CapabilitySet
         return sb.toString();
     }
 
-    private static Object coerceType(Object lhs, String rhsString) throws Exception
+    /**
+     * Converts the string operand of a filter to the type of the attribute
+     * value it is compared against. Since the same filter is typically
+     * matched against many attribute values of the same type, the result
+     * is remembered in the filter, so that the conversion, which may
+     * involve reflection, is only done once.
+     * @param lhs the attribute value.
+     * @param rhsString the string operand of the filter.
+     * @param sf the filter the operand belongs to, or <tt>null</tt> if the
+     *        result should not be cached.
+     * @return the converted operand.
+     * @throws Exception if the operand cannot be converted.
+    **/
+    private static Object coerceType(Object lhs, String rhsString, SimpleFilter sf)
+        throws Exception
     {
         // If the LHS expects a string, then we can just return
         // the RHS since it is a string.
@@ -581,6 +621,50 @@ public class CapabilitySet
             return rhsString;
         }
 
+        Class<?> type = lhs.getClass();
+        Object rhs = (sf != null) ? sf.getCoercedValue(type) : null;
+        if (rhs == null)
+        {
+            try
+            {
+                rhs = coerceType(lhs, rhsString);
+            }
+            catch (Exception ex)
+            {
+                rhs = ex;
+            }
+            // Only cache values of framework or JRE types, since caching
+            // other types could keep their bundle class loaders alive.
+            if ((sf != null)
+                && ((type.getClassLoader() == null) || (type == Version.class)))
+            {
+                sf.setCoercedValue(type, rhs);
+            }
+        }
+        if (rhs instanceof Exception)
+        {
+            throw (Exception) rhs;
+        }
+        return rhs;
+    }
+
+    private static Object coerceType(Object lhs, String rhsString) throws Exception
+    {
+        // Avoid reflection for the most common primitive wrapper types.
+        Class<?> type = lhs.getClass();
+        if (type == Integer.class)
+        {
+            return Integer.valueOf(rhsString.trim());
+        }
+        else if (type == Long.class)
+        {
+            return Long.valueOf(rhsString.trim());
+        }
+        else if (type == Boolean.class)
+        {
+            return Boolean.valueOf(rhsString.trim());
+        }
+
         // Try to convert the RHS type to the LHS type by using
         // the string constructor of the LHS class, if it has one.
         Object rhs = null;
@@ -40,6 +40,9 @@ public class SimpleFilter
     private final String m_name;
     private final Object m_value;
     private final int m_op;
+    // The value converted to the type of the last attribute value this
+    // filter was compared against; maintained by CapabilitySet.
+    private volatile CoercedValue m_coercedValue;
 
     public SimpleFilter(String attr, Object value, int op)
     {
@@ -63,6 +66,17 @@ public class SimpleFilter
         return m_op;
     }
 
+    Object getCoercedValue(Class<?> type)
+    {
+        CoercedValue coerced = m_coercedValue;
+        return ((coerced != null) && (coerced.m_type == type)) ? coerced.m_value : null;
+    }
+
+    void setCoercedValue(Class<?> type, Object value)
+    {
+        m_coercedValue = new CoercedValue(type, value);
+    }
+
     public String toString()
     {
         String s = null;
@@ -647,4 +661,16 @@ loop:   for (int i = 0; i < len; i++)
 
         return sf;
     }
-}
\ No newline at end of file
+
+    private static class CoercedValue
+    {
+        final Class<?> m_type;
+        final Object m_value;
+
+        CoercedValue(Class<?> type, Object value)
+        {
+            m_type = type;
+            m_value = value;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.EventListener;
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
+
+import org.apache.felix.framework.Logger;
+import org.osgi.framework.BundleContext;
+
+/**
+ * This class implements a pool of threads for delivering asynchronous
+ * framework and bundle events. Listeners are partitioned by their bundle
+ * context, so that all events for the listeners of a given bundle context
+ * are delivered by the same thread in the order in which they were fired,
+ * while a slow listener only delays the listeners sharing its partition.
+ * Each partition has its own queue, which is bounded; a thread firing an
+ * event into a full queue waits for space, but never longer than
+ * <tt>MAX_WAIT</tt> milliseconds to avoid deadlocking with listeners that
+ * need locks held by the firing thread.
+**/
+public class EventDispatchPool
+{
+    // Maximum time to wait for space in a full queue.
+    private static final long MAX_WAIT = 5000;
+
+    private final EventDispatcher m_dispatcher;
+    private final Logger m_logger;
+    private final int m_capacity;
+    private final Worker[] m_workers;
+    private volatile boolean m_stopping = false;
+
+    public EventDispatchPool(
+        EventDispatcher dispatcher, Logger logger, int threads, int capacity)
+    {
+        m_dispatcher = dispatcher;
+        m_logger = logger;
+        m_capacity = (capacity > 0) ? capacity : Integer.MAX_VALUE;
+        m_workers = new Worker[threads];
+        for (int i = 0; i < m_workers.length; i++)
+        {
+            m_workers[i] = new Worker(i);
+        }
+    }
+
+    public synchronized void start()
+    {
+        m_stopping = false;
+        for (int i = 0; i < m_workers.length; i++)
+        {
+            if ((m_workers[i].m_thread == null) || !m_workers[i].m_thread.isAlive())
+            {
+                m_workers[i].m_thread = new Thread(
+                    m_workers[i], "FelixDispatchQueue-" + i);
+                m_workers[i].m_thread.start();
+            }
+        }
+    }
+
+    /**
+     * Stops all worker threads after they have delivered the events
+     * that are already queued.
+    **/
+    public synchronized void stop()
+    {
+        m_stopping = true;
+        for (Worker worker : m_workers)
+        {
+            synchronized (worker.m_requests)
+            {
+                worker.m_requests.notifyAll();
+            }
+        }
+        for (Worker worker : m_workers)
+        {
+            Thread thread = worker.m_thread;
+            while ((thread != null) && thread.isAlive())
+            {
+                try
+                {
+                    thread.join();
+                }
+                catch (InterruptedException ex)
+                {
+                    // Keep waiting.
+                }
+            }
+            worker.m_thread = null;
+        }
+    }
+
+    void dispatch(int type, Map<BundleContext, List<ListenerInfo>> listeners,
+        EventObject event)
+    {
+        if (m_stopping || listeners.isEmpty())
+        {
+            return;
+        }
+
+        // Split the listeners into their partitions.
+        Map<BundleContext, List<ListenerInfo>>[] partitions =
+            new Map[m_workers.length];
+        for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+        {
+            int idx = getPartition(entry.getKey());
+            if (partitions[idx] == null)
+            {
+                partitions[idx] = new HashMap<BundleContext, List<ListenerInfo>>();
+            }
+            partitions[idx].put(entry.getKey(), entry.getValue());
+        }
+
+        for (int i = 0; i < partitions.length; i++)
+        {
+            if (partitions[i] != null)
+            {
+                m_workers[i].enqueue(new Request(type, partitions[i], event));
+            }
+        }
+    }
+
+    private int getPartition(BundleContext bc)
+    {
+        int hash = System.identityHashCode(bc);
+        hash ^= (hash >>> 16);
+        return (hash & 0x7fffffff) % m_workers.length;
+    }
+
+    /**
+     * Returns the number of asynchronous events waiting to be delivered.
+     * @return the total number of queued events of all partitions.
+    **/
+    public int getQueueDepth()
+    {
+        int depth = 0;
+        for (Worker worker : m_workers)
+        {
+            synchronized (worker.m_requests)
+            {
+                depth += worker.m_requests.size();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the delivery statistics of all listeners that have received
+     * an asynchronous event and that have not been garbage collected.
+     * @return a map of listeners to a copy of their statistics.
+    **/
+    public Map<EventListener, ListenerStatistics> getListenerStatistics()
+    {
+        Map<EventListener, ListenerStatistics> result =
+            new HashMap<EventListener, ListenerStatistics>();
+        for (Worker worker : m_workers)
+        {
+            synchronized (worker.m_stats)
+            {
+                for (Entry<EventListener, ListenerStatistics> entry
+                    : worker.m_stats.entrySet())
+                {
+                    result.put(entry.getKey(), new ListenerStatistics(entry.getValue()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Delivery statistics of a single listener.
+    **/
+    public static class ListenerStatistics
+    {
+        private long m_count;
+        private long m_totalTime;
+        private long m_maxTime;
+
+        ListenerStatistics()
+        {
+        }
+
+        ListenerStatistics(ListenerStatistics stats)
+        {
+            m_count = stats.m_count;
+            m_totalTime = stats.m_totalTime;
+            m_maxTime = stats.m_maxTime;
+        }
+
+        void record(long time)
+        {
+            m_count++;
+            m_totalTime += time;
+            if (time > m_maxTime)
+            {
+                m_maxTime = time;
+            }
+        }
+
+        /**
+         * @return the number of events delivered to the listener.
+        **/
+        public long getCount()
+        {
+            return m_count;
+        }
+
+        /**
+         * @return the total time spent in the listener in nanoseconds.
+        **/
+        public long getTotalTime()
+        {
+            return m_totalTime;
+        }
+
+        /**
+         * @return the longest time spent delivering a single event to
+         *         the listener in nanoseconds.
+        **/
+        public long getMaxTime()
+        {
+            return m_maxTime;
+        }
+    }
+
+    class Worker implements Runnable
+    {
+        private final int m_index;
+        private final List<Request> m_requests = new LinkedList<Request>();
+        // Only modified by the worker thread, but read by others.
+        private final Map<EventListener, ListenerStatistics> m_stats =
+            new WeakHashMap<EventListener, ListenerStatistics>();
+        private volatile Thread m_thread;
+
+        Worker(int index)
+        {
+            m_index = index;
+        }
+
+        void enqueue(Request req)
+        {
+            synchronized (m_requests)
+            {
+                // Wait for space in the queue, unless we are one of the
+                // dispatch threads ourselves, since then we might be the
+                // one that has to make space.
+                if ((m_requests.size() >= m_capacity) && !isDispatchThread())
+                {
+                    long start = System.currentTimeMillis();
+                    long remaining = MAX_WAIT;
+                    while ((m_requests.size() >= m_capacity)
+                        && !m_stopping && (remaining > 0))
+                    {
+                        try
+                        {
+                            m_requests.wait(remaining);
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            break;
+                        }
+                        remaining = MAX_WAIT - (System.currentTimeMillis() - start);
+                    }
+                    if (m_requests.size() >= m_capacity)
+                    {
+                        m_logger.log(Logger.LOG_WARNING,
+                            "EventDispatchPool: Queue " + m_index
+                            + " is full, exceeding its capacity of " + m_capacity + ".");
+                    }
+                }
+                m_requests.add(req);
+                m_requests.notifyAll();
+            }
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                Request req;
+                synchronized (m_requests)
+                {
+                    while (m_requests.isEmpty() && !m_stopping)
+                    {
+                        try
+                        {
+                            m_requests.wait();
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            // Not much we can do here except for keep waiting.
+                        }
+                    }
+                    if (m_requests.isEmpty())
+                    {
+                        return;
+                    }
+                    req = m_requests.remove(0);
+                    // Wake up threads waiting for space.
+                    m_requests.notifyAll();
+                }
+
+                EventDispatcher.fireEventImmediately(
+                    m_dispatcher, req.m_type, req.m_listeners, req.m_event, null, this);
+            }
+        }
+
+        void record(EventListener l, long time)
+        {
+            synchronized (m_stats)
+            {
+                ListenerStatistics stats = m_stats.get(l);
+                if (stats == null)
+                {
+                    stats = new ListenerStatistics();
+                    m_stats.put(l, stats);
+                }
+                stats.record(time);
+            }
+        }
+    }
+
+    private boolean isDispatchThread()
+    {
+        Thread current = Thread.currentThread();
+        for (Worker worker : m_workers)
+        {
+            if (worker.m_thread == current)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Request
+    {
+        final int m_type;
+        final Map<BundleContext, List<ListenerInfo>> m_listeners;
+        final EventObject m_event;
+
+        Request(int type, Map<BundleContext, List<ListenerInfo>> listeners,
+            EventObject event)
+        {
+            m_type = type;
+            m_listeners = listeners;
+            m_event = event;
+        }
+    }
+}
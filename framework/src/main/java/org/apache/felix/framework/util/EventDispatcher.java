@@ -65,6 +65,8 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    // Index of the service listeners by their filters; guarded by this.
+    private final ServiceListenerIndex m_svcListenerIndex = new ServiceListenerIndex();
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -79,14 +81,52 @@ public class EventDispatcher
 
     private static final SecureAction m_secureAction = new SecureAction();
 
+    // Pool of threads used instead of the shared dispatch thread, if configured.
+    private final EventDispatchPool m_pool;
+
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, 0, 0);
+    }
+
+    /**
+     * Creates an event dispatcher. If more than one thread is requested,
+     * asynchronous events are delivered by a pool of threads owned by this
+     * dispatcher, rather than by the single thread shared by all dispatchers.
+     * @param logger the logger to use.
+     * @param registry the service registry used to look up hooks.
+     * @param threads the number of threads used to deliver asynchronous events.
+     * @param queueSize the maximum number of queued events per thread when
+     *        using a pool, or zero for no limit.
+    **/
+    public EventDispatcher(
+        Logger logger, ServiceRegistry registry, int threads, int queueSize)
     {
         m_logger = logger;
         m_registry = registry;
+        m_pool = (threads > 1)
+            ? new EventDispatchPool(this, logger, threads, queueSize)
+            : null;
+    }
+
+    /**
+     * Returns the pool delivering asynchronous events, which provides
+     * statistics about event delivery.
+     * @return the pool or <tt>null</tt> if the shared dispatch thread is used.
+    **/
+    public EventDispatchPool getDispatchPool()
+    {
+        return m_pool;
     }
 
     public void startDispatching()
     {
+        if (m_pool != null)
+        {
+            m_pool.start();
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -125,6 +165,12 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_pool != null)
+        {
+            m_pool.stop();
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -260,6 +306,7 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                m_svcListenerIndex.addListener(info);
             }
         }
         return null;
@@ -312,6 +359,7 @@ public class EventDispatcher
 
             // Try to find the instance in our list.
             int idx = -1;
+            ListenerInfo removedInfo = null;
             for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
             {
                 List<ListenerInfo> infos = entry.getValue();
@@ -328,6 +376,7 @@ public class EventDispatcher
                         {
                             returnInfo = new ListenerInfo(infos.get(i), true);
                         }
+                        removedInfo = info;
                         idx = i;
                         break;
                     }
@@ -358,6 +407,10 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                if (removedInfo != null)
+                {
+                    m_svcListenerIndex.removeListener(removedInfo);
+                }
             }
         }
 
@@ -386,6 +439,11 @@ public class EventDispatcher
             m_syncBndlListeners = removeListenerInfos(m_syncBndlListeners, bc);
 
             // Remove all service listeners associated with the specified bundle.
+            List<ListenerInfo> infos = m_svcListeners.get(bc);
+            if (infos != null)
+            {
+                m_svcListenerIndex.removeListeners(infos);
+            }
             m_svcListeners = removeListenerInfos(m_svcListeners, bc);
         }
     }
@@ -427,6 +485,8 @@ public class EventDispatcher
                             info.getSecurityContext(),
                             info.isRemoved());
                         m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        m_svcListenerIndex.removeListener(info);
+                        m_svcListenerIndex.addListener(newInfo);
                         return oldFilter;
                     }
                 }
@@ -531,11 +591,14 @@ public class EventDispatcher
     public void fireServiceEvent(
         final ServiceEvent event, final Dictionary oldProps, final Framework felix)
     {
-        // Take a snapshot of the listener array.
+        // Take a snapshot of the listeners whose filter may match the
+        // service; the index lets us skip evaluating all others.
         Map<BundleContext, List<ListenerInfo>> listeners = null;
         synchronized (this)
         {
-            listeners = m_svcListeners;
+            listeners = m_svcListenerIndex.getCandidates(
+                event.getServiceReference(),
+                (event.getType() == ServiceEvent.MODIFIED) ? oldProps : null);
         }
 
         // Use service registry hooks to filter target listeners.
@@ -769,6 +832,12 @@ public class EventDispatcher
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event)
     {
+        if (dispatcher.m_pool != null)
+        {
+            dispatcher.m_pool.dispatch(type, listeners, event);
+            return;
+        }
+
         //TODO: should possibly check this within thread lock, seems to be ok though without
         // If dispatch thread is stopped, then ignore dispatch request.
         if (m_stopping || m_thread == null)
@@ -810,6 +879,14 @@ public class EventDispatcher
         EventDispatcher dispatcher, int type,
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event, Dictionary oldProps)
+    {
+        fireEventImmediately(dispatcher, type, listeners, event, oldProps, null);
+    }
+
+    static void fireEventImmediately(
+        EventDispatcher dispatcher, int type,
+        Map<BundleContext, List<ListenerInfo>> listeners,
+        EventObject event, Dictionary oldProps, EventDispatchPool.Worker worker)
     {
         if (!listeners.isEmpty())
         {
@@ -822,6 +899,7 @@ public class EventDispatcher
                     EventListener l = info.getListener();
                     Filter filter = info.getParsedFilter();
                     Object acc = info.getSecurityContext();
+                    long start = (worker != null) ? System.nanoTime() : 0;
 
                     try
                     {
@@ -851,6 +929,11 @@ public class EventDispatcher
                                 new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
                         }
                     }
+
+                    if (worker != null)
+                    {
+                        worker.record(l, System.nanoTime() - start);
+                    }
                 }
             }
         }
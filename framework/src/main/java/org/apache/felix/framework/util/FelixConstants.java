@@ -47,10 +47,18 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String LOG_LOGGER_PROP = "felix.log.logger";
     String SYSTEMBUNDLE_ACTIVATORS_PROP = "felix.systembundle.activators";
     String BUNDLE_STARTLEVEL_PROP = "felix.startlevel.bundle";
+    String STARTLEVEL_THREADS_PROP = "felix.startlevel.threads";
     String SERVICE_URLHANDLERS_PROP = "felix.service.urlhandlers";
     String IMPLICIT_BOOT_DELEGATION_PROP = "felix.bootdelegation.implicit";
     String BOOT_CLASSLOADERS_PROP = "felix.bootdelegation.classloaders";
     String USE_LOCALURLS_PROP = "felix.jarurls";
+    String SERVICE_REGISTRY_SNAPSHOT_PROP = "felix.service.registry.snapshot";
+    String EVENT_DISPATCHER_THREADS_PROP = "felix.event.dispatcher.threads";
+    String EVENT_DISPATCHER_QUEUE_SIZE_PROP = "felix.event.dispatcher.queuesize";
+    String CACHE_WIRINGS_PROP = "felix.cache.wirings";
+    String PROFILER_PROP = "felix.profiler";
+    String RESOLVER_PARALLELISM_PROP = "felix.resolver.parallelism";
+    String RESOLVER_INCREMENTAL_PROP = "felix.resolver.incremental";
     String NATIVE_OS_NAME_ALIAS_PREFIX = "felix.native.osname.alias";
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
 
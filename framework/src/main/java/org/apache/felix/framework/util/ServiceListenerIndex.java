@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
+
+/**
+ * This class indexes service listeners by the equality terms of their
+ * filters, so that only listeners whose filter can possibly match a given
+ * service need to be evaluated when a service event is fired. A filter is
+ * indexed by an equality term on a string value, which must either be the
+ * whole filter, a term of a top-level AND (preferring <tt>objectClass</tt>),
+ * or every branch of a top-level OR. Listeners with other filters, without
+ * a filter, or that are unfiltered service listeners are always considered
+ * candidates. This class is not thread safe; the event dispatcher guards it
+ * with its own lock.
+**/
+class ServiceListenerIndex
+{
+    // Maps lower case attribute names to attribute values to listeners.
+    private final Map<String, Map<String, List<ListenerInfo>>> m_index =
+        new HashMap<String, Map<String, List<ListenerInfo>>>();
+    // Listeners that must be evaluated for every event.
+    private final List<ListenerInfo> m_unindexed = new ArrayList<ListenerInfo>();
+    // Maps each indexed listener to the attribute name/value pairs it is
+    // indexed under; listener infos are compared by identity.
+    private final Map<ListenerInfo, List<String[]>> m_keys =
+        new IdentityHashMap<ListenerInfo, List<String[]>>();
+
+    public void addListener(ListenerInfo info)
+    {
+        List<String[]> keys = getIndexKeys(info);
+        if (keys == null)
+        {
+            m_unindexed.add(info);
+            return;
+        }
+
+        m_keys.put(info, keys);
+        for (String[] key : keys)
+        {
+            Map<String, List<ListenerInfo>> values = m_index.get(key[0]);
+            if (values == null)
+            {
+                values = new HashMap<String, List<ListenerInfo>>();
+                m_index.put(key[0], values);
+            }
+            List<ListenerInfo> infos = values.get(key[1]);
+            if (infos == null)
+            {
+                infos = new ArrayList<ListenerInfo>(1);
+                values.put(key[1], infos);
+            }
+            // An OR filter can mention the same value twice.
+            if (!containsIdentical(infos, info))
+            {
+                infos.add(info);
+            }
+        }
+    }
+
+    public void removeListener(ListenerInfo info)
+    {
+        List<String[]> keys = m_keys.remove(info);
+        if (keys == null)
+        {
+            removeIdentical(m_unindexed, info);
+            return;
+        }
+
+        for (String[] key : keys)
+        {
+            Map<String, List<ListenerInfo>> values = m_index.get(key[0]);
+            if (values != null)
+            {
+                List<ListenerInfo> infos = values.get(key[1]);
+                if ((infos != null) && removeIdentical(infos, info) && infos.isEmpty())
+                {
+                    values.remove(key[1]);
+                    if (values.isEmpty())
+                    {
+                        m_index.remove(key[0]);
+                    }
+                }
+            }
+        }
+    }
+
+    public void removeListeners(Collection<ListenerInfo> infos)
+    {
+        for (ListenerInfo info : infos)
+        {
+            removeListener(info);
+        }
+    }
+
+    /**
+     * Returns the listeners whose filters may match the specified service
+     * reference or, for modified services, its old properties, grouped by
+     * their bundle context.
+     * @param ref the reference of the service the event is about.
+     * @param oldProps the old service properties for a modified service, or
+     *        <tt>null</tt>.
+     * @return the candidate listeners.
+    **/
+    public Map<BundleContext, List<ListenerInfo>> getCandidates(
+        ServiceReference ref, Dictionary oldProps)
+    {
+        Map<ListenerInfo, ListenerInfo> candidates =
+            new IdentityHashMap<ListenerInfo, ListenerInfo>();
+        for (Entry<String, Map<String, List<ListenerInfo>>> entry : m_index.entrySet())
+        {
+            addCandidates(candidates, entry.getValue(), ref.getProperty(entry.getKey()));
+            if (oldProps != null)
+            {
+                addCandidates(candidates, entry.getValue(), oldProps.get(entry.getKey()));
+            }
+        }
+        for (ListenerInfo info : m_unindexed)
+        {
+            candidates.put(info, info);
+        }
+
+        Map<BundleContext, List<ListenerInfo>> listeners =
+            new HashMap<BundleContext, List<ListenerInfo>>();
+        for (ListenerInfo info : candidates.keySet())
+        {
+            List<ListenerInfo> infos = listeners.get(info.getBundleContext());
+            if (infos == null)
+            {
+                infos = new ArrayList<ListenerInfo>();
+                listeners.put(info.getBundleContext(), infos);
+            }
+            infos.add(info);
+        }
+        return listeners;
+    }
+
+    private static void addCandidates(
+        Map<ListenerInfo, ListenerInfo> candidates,
+        Map<String, List<ListenerInfo>> values, Object value)
+    {
+        if (value == null)
+        {
+            // An equality term never matches a missing property.
+        }
+        else if (value instanceof String)
+        {
+            addCandidates(candidates, values.get(value));
+        }
+        else if (value instanceof String[])
+        {
+            for (String s : (String[]) value)
+            {
+                addCandidates(candidates, values.get(s));
+            }
+        }
+        else
+        {
+            // Other types are compared after coercing the filter value,
+            // so we cannot look them up and must consider all listeners
+            // indexed by this attribute.
+            for (List<ListenerInfo> infos : values.values())
+            {
+                addCandidates(candidates, infos);
+            }
+        }
+    }
+
+    private static void addCandidates(
+        Map<ListenerInfo, ListenerInfo> candidates, List<ListenerInfo> infos)
+    {
+        for (int i = 0; (infos != null) && (i < infos.size()); i++)
+        {
+            candidates.put(infos.get(i), infos.get(i));
+        }
+    }
+
+    /**
+     * Determines the attribute name/value pairs under which a listener
+     * should be indexed; the listener is a candidate for a service if the
+     * service has any of these pairs.
+     * @param info the listener to index.
+     * @return the index keys or <tt>null</tt> if the listener cannot be indexed.
+    **/
+    static List<String[]> getIndexKeys(ListenerInfo info)
+    {
+        if ((info.getParsedFilter() == null)
+            || (info.getListener() instanceof UnfilteredServiceListener))
+        {
+            return null;
+        }
+
+        SimpleFilter sf;
+        try
+        {
+            sf = SimpleFilter.parse(info.getFilter());
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+
+        List<String[]> keys = new ArrayList<String[]>(1);
+        return addIndexKeys(keys, sf) ? keys : null;
+    }
+
+    private static boolean addIndexKeys(List<String[]> keys, SimpleFilter sf)
+    {
+        if ((sf.getOperation() == SimpleFilter.EQ) && (sf.getValue() instanceof String))
+        {
+            keys.add(new String[] {
+                sf.getName().toLowerCase(), (String) sf.getValue() });
+            return true;
+        }
+        else if (sf.getOperation() == SimpleFilter.AND)
+        {
+            // Any single term will do, but object class terms are the
+            // most selective ones in practice.
+            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            SimpleFilter best = null;
+            for (SimpleFilter term : sfs)
+            {
+                if ((term.getOperation() == SimpleFilter.EQ)
+                    && (term.getValue() instanceof String)
+                    && ((best == null)
+                        || term.getName().equalsIgnoreCase(Constants.OBJECTCLASS)))
+                {
+                    best = term;
+                }
+            }
+            return (best != null) && addIndexKeys(keys, best);
+        }
+        else if (sf.getOperation() == SimpleFilter.OR)
+        {
+            // Every branch must be indexable for the whole filter to be.
+            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            for (SimpleFilter term : sfs)
+            {
+                if (!addIndexKeys(keys, term))
+                {
+                    return false;
+                }
+            }
+            return !sfs.isEmpty();
+        }
+        return false;
+    }
+
+    private static boolean containsIdentical(List<ListenerInfo> infos, ListenerInfo info)
+    {
+        for (int i = 0; i < infos.size(); i++)
+        {
+            if (infos.get(i) == info)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean removeIdentical(List<ListenerInfo> infos, ListenerInfo info)
+    {
+        for (int i = 0; i < infos.size(); i++)
+        {
+            if (infos.get(i) == info)
+            {
+                infos.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -169,7 +169,7 @@ public class ManifestParser
         //
 
         List<ParsedHeaderClause> rbClauses =
-            parseStandardHeader((String) headerMap.get(Constants.REQUIRE_BUNDLE));
+            parseStandardHeader(headerMap, Constants.REQUIRE_BUNDLE);
         rbClauses = normalizeRequireClauses(m_logger, rbClauses, getManifestVersion());
         List<BundleRequirementImpl> rbReqs = convertRequires(rbClauses, owner);
 
@@ -178,7 +178,7 @@ public class ManifestParser
         //
 
         List<ParsedHeaderClause> importClauses =
-            parseStandardHeader((String) headerMap.get(Constants.IMPORT_PACKAGE));
+            parseStandardHeader(headerMap, Constants.IMPORT_PACKAGE);
         importClauses = normalizeImportClauses(m_logger, importClauses, getManifestVersion());
         List<BundleRequirement> importReqs = convertImports(importClauses, owner);
 
@@ -187,7 +187,7 @@ public class ManifestParser
         //
 
         List<ParsedHeaderClause> dynamicClauses =
-            parseStandardHeader((String) headerMap.get(Constants.DYNAMICIMPORT_PACKAGE));
+            parseStandardHeader(headerMap, Constants.DYNAMICIMPORT_PACKAGE);
         dynamicClauses = normalizeDynamicImportClauses(m_logger, dynamicClauses, getManifestVersion());
         List<BundleRequirement> dynamicReqs = convertImports(dynamicClauses, owner);
 
@@ -196,7 +196,7 @@ public class ManifestParser
         //
 
         List<ParsedHeaderClause> requireClauses =
-            parseStandardHeader((String) headerMap.get(Constants.REQUIRE_CAPABILITY));
+            parseStandardHeader(headerMap, Constants.REQUIRE_CAPABILITY);
         importClauses = normalizeRequireCapabilityClauses(
             m_logger, requireClauses, getManifestVersion());
         List<BundleRequirement> requireReqs = convertRequireCapabilities(importClauses, owner);
@@ -212,7 +212,7 @@ public class ManifestParser
         //
 
         List<ParsedHeaderClause> exportClauses =
-            parseStandardHeader((String) headerMap.get(Constants.EXPORT_PACKAGE));
+            parseStandardHeader(headerMap, Constants.EXPORT_PACKAGE);
         exportClauses = normalizeExportClauses(logger, exportClauses,
             getManifestVersion(), m_bundleSymbolicName, m_bundleVersion);
         List<BundleCapability> exportCaps = convertExports(exportClauses, owner);
@@ -222,7 +222,7 @@ public class ManifestParser
         //
 
         List<ParsedHeaderClause> provideClauses =
-            parseStandardHeader((String) headerMap.get(Constants.PROVIDE_CAPABILITY));
+            parseStandardHeader(headerMap, Constants.PROVIDE_CAPABILITY);
         exportClauses = normalizeProvideCapabilityClauses(
             logger, provideClauses, getManifestVersion());
         List<BundleCapability> provideCaps = convertProvideCapabilities(provideClauses, owner);
@@ -1911,8 +1911,23 @@ public class ManifestParser
     private static final int ARGUMENT = 8;
     private static final int VALUE = 16;
 
+    private static List<ParsedHeaderClause> parseStandardHeader(Map headerMap, String name)
+    {
+        // Use the clauses parsed beforehand, if the header map has them.
+        if (headerMap instanceof ParsedHeaderMap)
+        {
+            List<ParsedHeaderClause> clauses =
+                ((ParsedHeaderMap) headerMap).removeClauses(name);
+            if (clauses != null)
+            {
+                return clauses;
+            }
+        }
+        return parseStandardHeader((String) headerMap.get(name));
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    private static List<ParsedHeaderClause> parseStandardHeader(String header)
+    public static List<ParsedHeaderClause> parseStandardHeader(String header)
     {
         List<ParsedHeaderClause> clauses = new ArrayList<ParsedHeaderClause>();
         if (header == null)
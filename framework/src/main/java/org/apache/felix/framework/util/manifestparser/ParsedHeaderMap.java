@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util.manifestparser;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.util.StringMap;
+import org.osgi.framework.Constants;
+
+/**
+ * A case-insensitive manifest header map that additionally carries the
+ * already parsed clauses of the standard headers, e.g., when they were read
+ * from the bundle cache, so that the manifest parser does not need to parse
+ * the header text again. The parser normalizes clauses in place, so each
+ * list of clauses is handed out only once.
+**/
+public class ParsedHeaderMap extends StringMap
+{
+    /**
+     * The headers whose clauses can be carried by this map.
+    **/
+    public static final String[] PARSED_HEADERS = {
+        Constants.REQUIRE_BUNDLE,
+        Constants.IMPORT_PACKAGE,
+        Constants.DYNAMICIMPORT_PACKAGE,
+        Constants.REQUIRE_CAPABILITY,
+        Constants.EXPORT_PACKAGE,
+        Constants.PROVIDE_CAPABILITY
+    };
+
+    private final Map<String, List<ParsedHeaderClause>> m_clauses =
+        new HashMap<String, List<ParsedHeaderClause>>();
+
+    public ParsedHeaderMap()
+    {
+    }
+
+    public ParsedHeaderMap(Map<?, ?> map)
+    {
+        super(map);
+    }
+
+    /**
+     * Sets the parsed clauses of a header.
+     * @param header the header name, which is one of {@link #PARSED_HEADERS}.
+     * @param clauses the parsed clauses of the header.
+    **/
+    public synchronized void putClauses(String header, List<ParsedHeaderClause> clauses)
+    {
+        m_clauses.put(header, clauses);
+    }
+
+    /**
+     * Returns and forgets the parsed clauses of a header.
+     * @param header the header name.
+     * @return the parsed clauses or <tt>null</tt> if the header must be parsed.
+    **/
+    public synchronized List<ParsedHeaderClause> removeClauses(String header)
+    {
+        return m_clauses.remove(header);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.DirectoryContent;
+import org.apache.felix.framework.cache.JarContent;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+
+public class ContentIndexTest extends TestCase
+{
+    private File tempDir;
+    private WeakZipFileFactory zipFactory;
+    private List<Content> contents;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertTrue("precondition", tempDir.delete());
+        assertTrue("precondition", tempDir.mkdirs());
+        zipFactory = new WeakZipFileFactory(0);
+        contents = new ArrayList<Content>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        for (Content content : contents)
+        {
+            content.close();
+        }
+        deleteDir(tempDir);
+        tempDir = null;
+    }
+
+    public void testJarContentIsIndexed() throws Exception
+    {
+        List<Content> contentPath = Arrays.asList(
+            createJar("a.jar", "org/foo/A.class", "org/foo/bar/B.class", "root.txt"),
+            createJar("b.jar", "org/foo/C.class", "META-INF/MANIFEST.MF"));
+        ContentIndex index = new ContentIndex(contentPath);
+
+        assertTrue(index.isComplete());
+        assertIndices(index.getContentIndices("org/foo/A.class"), 0, 1);
+        assertIndices(index.getContentIndices("org/foo/bar/B.class"), 0);
+        assertIndices(index.getContentIndices("/META-INF/MANIFEST.MF"), 1);
+        assertIndices(index.getContentIndices("org/missing/D.class"));
+        // Directories are found in the class path entries containing them.
+        assertIndices(index.getContentIndices("org/foo/"), 0, 1);
+        assertIndices(index.getContentIndices("org/foo/bar/"), 0, 1);
+        assertIndices(index.getContentIndices("org"), 0, 1);
+        assertIndices(index.getContentIndices("root.txt"), 0, 1);
+        assertIndices(index.getContentIndices("/"), 0, 1);
+    }
+
+    public void testDirectoryContentIsAlwaysSearched() throws Exception
+    {
+        File dir = new File(tempDir, "dir");
+        assertTrue(dir.mkdir());
+        List<Content> contentPath = Arrays.asList(
+            new DirectoryContent(null, new HashMap(), zipFactory, this, tempDir, dir),
+            createJar("a.jar", "org/foo/A.class"));
+        ContentIndex index = new ContentIndex(contentPath);
+
+        assertFalse(index.isComplete());
+        assertIndices(index.getContentIndices("org/foo/A.class"), 0, 1);
+        assertIndices(index.getContentIndices("org/missing/D.class"), 0);
+    }
+
+    private static void assertIndices(int[] actual, int... expected)
+    {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    private Content createJar(String name, String... entries) throws IOException
+    {
+        File f = new File(tempDir, name);
+        ZipOutputStream os = new ZipOutputStream(new FileOutputStream(f));
+        for (String entry : entries)
+        {
+            os.putNextEntry(new ZipEntry(entry));
+            os.write(entry.getBytes("UTF-8"));
+        }
+        os.close();
+
+        Content content = new JarContent(null, new HashMap(), zipFactory, this,
+            tempDir, f, zipFactory.create(f));
+        contents.add(content);
+        return content;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            File[] files = root.listFiles();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    deleteDir(file);
+                }
+            }
+        }
+        root.delete();
+    }
+}
@@ -331,4 +331,45 @@ public class ServiceRegistryTest extends TestCase
         assertEquals("Unregistration should have no effect", 0, sr.getHooks(FindHook.class).size());
         assertEquals("Unregistration should have no effect", 0, sr.getHooks(ListenerHook.class).size());
     }
+
+    public void testSnapshotRegistryLookupAndUsage()
+    {
+        MockControl control = MockControl.createNiceControl(Bundle.class);
+        Bundle b = (Bundle) control.getMock();
+        control.replay();
+
+        MockControl control2 = MockControl.createNiceControl(Bundle.class);
+        Bundle b2 = (Bundle) control2.getMock();
+        control2.replay();
+
+        MockControl controlContext = MockControl.createNiceControl(BundleContext.class);
+        BundleContext c = (BundleContext) controlContext.getMock();
+        controlContext.expectAndReturn(c.getBundle(), b);
+        controlContext.replay();
+
+        ServiceRegistry sr = new ServiceRegistry(new Logger(), null, true);
+        String svcObj = "hello";
+        ServiceRegistration reg = sr.registerService(c, new String [] {String.class.getName()}, svcObj, new Hashtable());
+        ServiceReference ref = reg.getReference();
+
+        Collection refs = sr.getServiceReferences(String.class.getName(), null);
+        assertEquals(1, refs.size());
+        assertSame(ref, refs.iterator().next());
+        assertEquals(0, sr.getServiceReferences(Runnable.class.getName(), null).size());
+
+        assertSame(svcObj, sr.getService(b2, ref, false));
+        assertSame(svcObj, sr.getService(b2, ref, false));
+        assertEquals(1, sr.getServicesInUse(b2).length);
+        assertSame(b2, sr.getUsingBundles(ref)[0]);
+
+        assertTrue(sr.ungetService(b2, ref, null));
+        assertEquals(1, sr.getUsingBundles(ref).length);
+        assertTrue(sr.ungetService(b2, ref, null));
+        assertNull(sr.getUsingBundles(ref));
+        assertNull(sr.getServicesInUse(b2));
+        assertFalse(sr.ungetService(b2, ref, null));
+
+        sr.unregisterService(b, reg);
+        assertEquals(0, sr.getServiceReferences(String.class.getName(), null).size());
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+public class StartLevelTest extends TestCase
+{
+    public static final int TIMEOUT = 10000;
+
+    private File tempDir;
+    private Felix felix;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertTrue("precondition", tempDir.delete());
+        assertTrue("precondition", tempDir.mkdirs());
+
+        File cacheDir = new File(tempDir, "felix-cache");
+        assertTrue("precondition", cacheDir.mkdir());
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0,"
+            + "org.osgi.service.startlevel; version=1.1.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.STARTLEVEL_THREADS_PROP, "4");
+
+        felix = new Felix(params);
+        felix.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+
+        felix.stop();
+        felix.waitForStop(10000);
+        felix = null;
+
+        deleteDir(tempDir);
+        tempDir = null;
+    }
+
+    public void testParallelStart() throws Exception
+    {
+        // The activators wait for each other, so they can only all succeed
+        // if they are started concurrently.
+        felix.getBundleContext().registerService(CyclicBarrier.class.getName(),
+            new CyclicBarrier(4), null);
+
+        List<Bundle> bundles = new ArrayList<Bundle>();
+        for (int i = 0; i < 4; i++)
+        {
+            bundles.add(install("Bundle-SymbolicName: parallel" + i + "\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Import-Package: org.osgi.framework\n"
+                + "Bundle-Activator: " + TestBundleActivator.class.getName() + "\n",
+                2, true));
+        }
+        Bundle lazy = install("Bundle-SymbolicName: lazy\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Bundle-ActivationPolicy: lazy\n", 2, true);
+        lazy.start(Bundle.START_ACTIVATION_POLICY);
+        Bundle broken = install("Bundle-SymbolicName: broken\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.missing\n", 2, false);
+        broken.start();
+
+        final List<FrameworkEvent> errors = new ArrayList<FrameworkEvent>();
+        felix.getBundleContext().addFrameworkListener(new FrameworkListener()
+        {
+            public void frameworkEvent(FrameworkEvent event)
+            {
+                if (event.getType() == FrameworkEvent.ERROR)
+                {
+                    synchronized (errors)
+                    {
+                        errors.add(event);
+                    }
+                }
+            }
+        });
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        felix.adapt(FrameworkStartLevel.class).setStartLevel(2, new FrameworkListener()
+        {
+            public void frameworkEvent(FrameworkEvent event)
+            {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(2 * TIMEOUT, TimeUnit.MILLISECONDS));
+
+        for (Bundle b : bundles)
+        {
+            assertEquals("The bundles should have been started concurrently",
+                Bundle.ACTIVE, b.getState());
+        }
+        assertEquals(Bundle.STARTING, lazy.getState());
+        assertEquals(Bundle.INSTALLED, broken.getState());
+        synchronized (errors)
+        {
+            assertEquals(1, errors.size());
+            assertEquals(broken, errors.get(0).getBundle());
+        }
+    }
+
+    private Bundle install(String manifest, int startLevel, boolean start) throws Exception
+    {
+        Bundle b = felix.getBundleContext().installBundle(
+            createBundle(manifest).toURI().toASCIIString());
+        b.adapt(BundleStartLevel.class).setStartLevel(startLevel);
+        if (start && (manifest.indexOf(Constants.BUNDLE_ACTIVATIONPOLICY) < 0))
+        {
+            b.start();
+        }
+        return b;
+    }
+
+    private File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = TestBundleActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = TestBundleActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            File[] files = root.listFiles();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    deleteDir(file);
+                }
+            }
+        }
+        root.delete();
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            ServiceReference ref = context.getServiceReference(CyclicBarrier.class.getName());
+            CyclicBarrier barrier = (CyclicBarrier) context.getService(ref);
+            barrier.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+public class StartupProfilerTest extends TestCase
+{
+    private File tempDir;
+    private Map<String, String> params;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertTrue("precondition", tempDir.delete());
+        assertTrue("precondition", tempDir.mkdirs());
+
+        File cacheDir = new File(tempDir, "felix-cache");
+        assertTrue("precondition", cacheDir.mkdir());
+
+        params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        deleteDir(tempDir);
+        tempDir = null;
+    }
+
+    public void testProfile() throws Exception
+    {
+        params.put(FelixConstants.PROFILER_PROP, "true");
+        Felix felix = new Felix(params);
+        felix.start();
+        try
+        {
+            Bundle bundle = felix.getBundleContext().installBundle(
+                createBundle().toURI().toASCIIString());
+            bundle.start();
+
+            BundleProfileDTO dto = bundle.adapt(BundleProfileDTO.class);
+            assertNotNull(dto);
+            assertEquals(bundle.getBundleId(), dto.bundle);
+            assertEquals("profiled", dto.symbolicName);
+            assertTrue(dto.resolveTime > 0);
+            assertTrue(dto.activateTime >= TestBundleActivator.DELAY * 1000000L);
+            assertTrue(dto.classLoadTime > 0);
+            assertEquals(1, dto.loadedClasses);
+            assertEquals(0, dto.weaveTime);
+
+            BundleProfileDTO[] dtos = felix.adapt(BundleProfileDTO[].class);
+            assertEquals(2, dtos.length);
+
+            ServiceReference ref = felix.getBundleContext().getServiceReference(
+                StartupProfiler.class.getName());
+            assertEquals("felix", ref.getProperty("osgi.command.scope"));
+            StartupProfiler profiler =
+                (StartupProfiler) felix.getBundleContext().getService(ref);
+            String profile = profiler.profile(1);
+            assertTrue(profile, profile.indexOf("profiled") > 0);
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+    }
+
+    public void testDisabled() throws Exception
+    {
+        Felix felix = new Felix(params);
+        felix.start();
+        try
+        {
+            assertNull(felix.getProfiler());
+            assertNull(felix.adapt(BundleProfileDTO.class));
+            assertNull(felix.getBundleContext().getServiceReference(
+                StartupProfiler.class.getName()));
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+    }
+
+    private File createBundle() throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        String manifest = "Bundle-SymbolicName: profiled\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n"
+            + "Bundle-Activator: " + TestBundleActivator.class.getName() + "\n";
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = TestBundleActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = TestBundleActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            File[] files = root.listFiles();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    deleteDir(file);
+                }
+            }
+        }
+        root.delete();
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        static final int DELAY = 100;
+
+        public void start(BundleContext context) throws Exception
+        {
+            Thread.sleep(DELAY);
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+public class WiringSnapshotTest extends TestCase
+{
+    private File tempDir;
+    private File cacheDir;
+    private Map<String, String> params;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertTrue("precondition", tempDir.delete());
+        assertTrue("precondition", tempDir.mkdirs());
+
+        cacheDir = new File(tempDir, "felix-cache");
+        assertTrue("precondition", cacheDir.mkdir());
+
+        params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.CACHE_WIRINGS_PROP, "true");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        deleteDir(tempDir);
+        tempDir = null;
+        cacheDir = null;
+    }
+
+    public void testWiringsAreReusedAfterRestart() throws Exception
+    {
+        Felix felix = new Felix(params);
+        felix.start();
+        Bundle exporter = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: exporter\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.exported\n").toURI().toASCIIString());
+        Bundle fragment = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: fragment\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Fragment-Host: exporter\n"
+            + "Export-Package: org.foo.fragment\n").toURI().toASCIIString());
+        Bundle importer = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: importer\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.exported, org.foo.fragment\n").toURI().toASCIIString());
+        importer.start();
+        assertEquals(Bundle.RESOLVED, exporter.getState());
+        felix.stop();
+        felix.waitForStop(10000);
+
+        File file = new File(new File(cacheDir, "bundle0"), "wirings");
+        assertTrue("The wirings should have been saved", file.isFile());
+
+        felix = new Felix(params);
+        felix.init();
+        try
+        {
+            exporter = felix.getBundleContext().getBundle(exporter.getBundleId());
+            fragment = felix.getBundleContext().getBundle(fragment.getBundleId());
+            importer = felix.getBundleContext().getBundle(importer.getBundleId());
+            assertEquals(Bundle.INSTALLED, importer.getState());
+
+            // The saved wirings must cover the importer and its dependencies.
+            WiringSnapshot snapshot = readSnapshot(file);
+            Map<String, BundleRevision> revisionsById = new HashMap<String, BundleRevision>();
+            List<BundleRevision> revisions = new ArrayList<BundleRevision>();
+            for (Bundle b : felix.getBundleContext().getBundles())
+            {
+                BundleRevision br = b.adapt(BundleRevision.class);
+                revisionsById.put(WiringSnapshot.getId(br), br);
+                revisions.add(br);
+            }
+            assertEquals(snapshot.getDigest(),
+                WiringSnapshot.calculateDigest(felix.getConfig(), revisions));
+            Map<Resource, List<Wire>> wireMap = snapshot.getWireMap(
+                Collections.singleton(importer.adapt(BundleRevision.class)), revisionsById);
+            assertNotNull(wireMap);
+            assertEquals(3, wireMap.size());
+            assertTrue(wireMap.containsKey(fragment.adapt(BundleRevision.class)));
+
+            // Starting the framework starts the importer again, which
+            // must produce the original wirings.
+            felix.start();
+            assertEquals(Bundle.ACTIVE, importer.getState());
+            assertEquals(Bundle.RESOLVED, fragment.getState());
+            BundleWiring wiring = importer.adapt(BundleWiring.class);
+            List<BundleWire> wires = wiring.getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+            assertEquals(2, wires.size());
+            for (BundleWire wire : wires)
+            {
+                assertEquals(exporter, wire.getProvider().getBundle());
+            }
+            assertEquals(fragment, exporter.adapt(BundleWiring.class)
+                .getProvidedWires(BundleRevision.HOST_NAMESPACE).get(0)
+                .getRequirer().getBundle());
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+    }
+
+    public void testDigestDependsOnConfiguration() throws Exception
+    {
+        Felix felix = new Felix(params);
+        felix.init();
+        try
+        {
+            List<BundleRevision> revisions = Collections.singletonList(
+                felix.adapt(BundleRevision.class));
+            String digest = WiringSnapshot.calculateDigest(params, revisions);
+            assertEquals(digest, WiringSnapshot.calculateDigest(
+                new HashMap<String, String>(params), revisions));
+
+            Map<String, String> config = new HashMap<String, String>(params);
+            config.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, "org.foo");
+            assertFalse(digest.equals(WiringSnapshot.calculateDigest(config, revisions)));
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+    }
+
+    public void testWriteAndRead() throws Exception
+    {
+        Felix felix = new Felix(params);
+        felix.start();
+        try
+        {
+            List<BundleRevision> revisions = Collections.singletonList(
+                felix.adapt(BundleRevision.class));
+            WiringSnapshot snapshot = WiringSnapshot.create("digest", revisions);
+            assertNotNull(snapshot);
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            snapshot.write(baos);
+            WiringSnapshot copy = WiringSnapshot.read(
+                new ByteArrayInputStream(baos.toByteArray()));
+            assertEquals("digest", copy.getDigest());
+
+            // Resolved revisions need no wires.
+            assertNull(copy.getWireMap(revisions,
+                Collections.<String, BundleRevision>emptyMap()).get(revisions.get(0)));
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+    }
+
+    private static WiringSnapshot readSnapshot(File file) throws IOException
+    {
+        FileInputStream is = new FileInputStream(file);
+        try
+        {
+            return WiringSnapshot.read(is);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            File[] files = root.listFiles();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    deleteDir(file);
+                }
+            }
+        }
+        root.delete();
+    }
+}
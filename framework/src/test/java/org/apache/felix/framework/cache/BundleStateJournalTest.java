@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.Logger;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+public class BundleStateJournalTest extends TestCase
+{
+    private File cacheDir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDir = File.createTempFile("felix.test", ".cache");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        BundleCache.deleteDirectoryTree(cacheDir);
+    }
+
+    public void testWriteAndReopen() throws Exception
+    {
+        BundleStateJournal journal = new BundleStateJournal(new Logger(), cacheDir);
+        journal.write(entry(1, "loc1", 1));
+        journal.write(entry(2, "loc2", 1));
+        journal.write(entry(1, "loc1", 5));
+        journal.write(entry(3, "été", 1));
+        journal.remove(2);
+        journal.close();
+
+        journal = new BundleStateJournal(new Logger(), cacheDir);
+        assertEquals(5, journal.get(1).getStartLevel());
+        assertEquals("loc1", journal.get(1).getLocation());
+        assertNull(journal.get(2));
+        assertEquals("été", journal.get(3).getLocation());
+        journal.close();
+    }
+
+    public void testIncompleteRecordIsDiscarded() throws Exception
+    {
+        BundleStateJournal journal = new BundleStateJournal(new Logger(), cacheDir);
+        journal.write(entry(1, "loc1", 1));
+        journal.close();
+        File file = new File(cacheDir, BundleStateJournal.JOURNAL_FILE);
+        long length = file.length();
+
+        // Simulate a record that was cut off by a crash.
+        journal = new BundleStateJournal(new Logger(), cacheDir);
+        journal.write(entry(1, "loc1", 7));
+        journal.close();
+        FileOutputStream fos = new FileOutputStream(file, true);
+        fos.getChannel().truncate(file.length() - 3);
+        fos.close();
+
+        journal = new BundleStateJournal(new Logger(), cacheDir);
+        assertEquals(1, journal.get(1).getStartLevel());
+        assertEquals(length, file.length());
+        journal.write(entry(1, "loc1", 9));
+        journal.close();
+
+        journal = new BundleStateJournal(new Logger(), cacheDir);
+        assertEquals(9, journal.get(1).getStartLevel());
+        journal.close();
+    }
+
+    public void testCompaction() throws Exception
+    {
+        BundleStateJournal journal = new BundleStateJournal(new Logger(), cacheDir);
+        for (int i = 0; i < 10000; i++)
+        {
+            journal.write(entry(i % 10, "loc" + (i % 10), i));
+        }
+        journal.close();
+        assertTrue(new File(cacheDir, BundleStateJournal.JOURNAL_FILE).length() < 100000);
+
+        journal = new BundleStateJournal(new Logger(), cacheDir);
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(9990 + i, journal.get(i).getStartLevel());
+        }
+        journal.close();
+    }
+
+    public void testInterruptedCompaction() throws Exception
+    {
+        BundleStateJournal journal = new BundleStateJournal(new Logger(), cacheDir);
+        journal.write(entry(1, "loc1", 1));
+        journal.close();
+
+        // A compacted file that was not renamed yet replaces the journal.
+        File file = new File(cacheDir, BundleStateJournal.JOURNAL_FILE);
+        File tmp = new File(cacheDir, BundleStateJournal.JOURNAL_FILE + ".tmp");
+        assertTrue(file.renameTo(tmp));
+        journal = new BundleStateJournal(new Logger(), cacheDir);
+        assertEquals(1, journal.get(1).getStartLevel());
+        assertFalse(tmp.exists());
+        journal.close();
+
+        // An incomplete compacted file is discarded.
+        FileOutputStream fos = new FileOutputStream(tmp);
+        fos.write(new byte[] { 1, 2, 3 });
+        fos.close();
+        journal = new BundleStateJournal(new Logger(), cacheDir);
+        assertEquals(1, journal.get(1).getStartLevel());
+        assertFalse(tmp.exists());
+        journal.close();
+    }
+
+    public void testBundleCacheMigration() throws Exception
+    {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        config.put(BundleCache.CACHE_LOCKING_PROP, "false");
+
+        // Start with a bundle stored in its own files.
+        BundleCache cache = new BundleCache(new Logger(), config);
+        BundleArchive ba = cache.create(1, 1, "loc1", new ByteArrayInputStream(createBundle()));
+        ba.setStartLevel(3);
+        ba.close();
+        cache.release();
+
+        // Enabling the journal moves the state into it.
+        config.put(BundleCache.CACHE_JOURNAL_PROP, "true");
+        cache = new BundleCache(new Logger(), config);
+        BundleArchive[] archives = cache.getArchives();
+        assertEquals(1, archives.length);
+        assertEquals(3, archives[0].getStartLevel());
+        archives[0].setPersistentState(Bundle.ACTIVE);
+        ba = cache.create(2, 1, "loc2", new ByteArrayInputStream(createBundle()));
+        ba.setStartLevel(4);
+        assertFalse(new File(new File(cacheDir, "bundle2"), "bundle.info").exists());
+        archives[0].close();
+        ba.close();
+        cache.release();
+
+        cache = new BundleCache(new Logger(), config);
+        archives = cache.getArchives();
+        assertEquals(2, archives.length);
+        BundleArchive ba1 = (archives[0].getId() == 1) ? archives[0] : archives[1];
+        BundleArchive ba2 = (archives[0].getId() == 1) ? archives[1] : archives[0];
+        assertEquals(Bundle.ACTIVE, ba1.getPersistentState());
+        assertEquals(4, ba2.getStartLevel());
+        assertEquals("loc2", ba2.getLocation());
+        ba2.closeAndDelete();
+        ba1.close();
+        cache.release();
+
+        // Disabling the journal moves the state back into the files.
+        config.remove(BundleCache.CACHE_JOURNAL_PROP);
+        cache = new BundleCache(new Logger(), config);
+        archives = cache.getArchives();
+        assertEquals(1, archives.length);
+        assertEquals(Bundle.ACTIVE, archives[0].getPersistentState());
+        assertEquals(3, archives[0].getStartLevel());
+        assertFalse(BundleStateJournal.exists(cacheDir));
+        archives[0].close();
+        cache.release();
+    }
+
+    private static BundleStateJournal.Entry entry(long id, String location, int startLevel)
+    {
+        return new BundleStateJournal.Entry(
+            id, location, Bundle.INSTALLED, startLevel, 1234L, 0L);
+    }
+
+    private static byte[] createBundle() throws Exception
+    {
+        Manifest mf = new Manifest();
+        Attributes attrs = mf.getMainAttributes();
+        attrs.putValue("Manifest-Version", "1.0");
+        attrs.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+        attrs.putValue(Constants.BUNDLE_SYMBOLICNAME, "journal.test");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JarOutputStream jos = new JarOutputStream(baos, mf);
+        jos.close();
+        return baos.toByteArray();
+    }
+}
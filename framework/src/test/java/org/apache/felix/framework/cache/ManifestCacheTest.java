@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.StringMap;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
+import org.apache.felix.framework.util.manifestparser.ParsedHeaderMap;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+
+public class ManifestCacheTest extends TestCase
+{
+    private File revisionDir;
+    private File source;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        revisionDir = File.createTempFile("felix.test", ".revision");
+        revisionDir.delete();
+        revisionDir.mkdirs();
+        source = new File(revisionDir, "bundle.jar");
+        FileOutputStream fos = new FileOutputStream(source);
+        fos.write(new byte[] { 1, 2, 3 });
+        fos.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        BundleCache.deleteDirectoryTree(revisionDir);
+    }
+
+    public void testParsedClausesMatchManifestText() throws Exception
+    {
+        Map headers = createHeaders();
+        Map written = ManifestCache.write(new Logger(), revisionDir, source, headers);
+        assertTrue(written instanceof ParsedHeaderMap);
+        assertEquals(headers, written);
+
+        Map read = ManifestCache.read(new Logger(), revisionDir, source);
+        assertTrue(read instanceof ParsedHeaderMap);
+        assertEquals(headers, read);
+        assertNotNull(((ParsedHeaderMap) read).removeClauses(Constants.IMPORT_PACKAGE));
+        assertNull(((ParsedHeaderMap) read).removeClauses(Constants.IMPORT_PACKAGE));
+
+        String expected = describe(headers);
+        assertEquals(expected, describe(written));
+        assertEquals(expected, describe(ManifestCache.read(new Logger(), revisionDir, source)));
+    }
+
+    public void testModifiedSourceInvalidatesCache() throws Exception
+    {
+        ManifestCache.write(new Logger(), revisionDir, source, createHeaders());
+        assertNotNull(ManifestCache.read(new Logger(), revisionDir, source));
+
+        FileOutputStream fos = new FileOutputStream(source, true);
+        fos.write(4);
+        fos.close();
+        assertNull(ManifestCache.read(new Logger(), revisionDir, source));
+    }
+
+    public void testUnreadableCache() throws Exception
+    {
+        assertNull(ManifestCache.read(new Logger(), revisionDir, source));
+        FileOutputStream fos = new FileOutputStream(new File(revisionDir, "manifest.cache"));
+        fos.write(new byte[] { 1, 2, 3 });
+        fos.close();
+        assertNull(ManifestCache.read(new Logger(), revisionDir, source));
+    }
+
+    private static Map createHeaders()
+    {
+        // Long headers must not be limited by the modified UTF-8 encoding.
+        StringBuilder imports = new StringBuilder("org.osgi.framework;version=\"[1.5,2)\"");
+        for (int i = 0; i < 5000; i++)
+        {
+            imports.append(",org.example.p").append(i).append(";resolution:=optional");
+        }
+
+        Map headers = new StringMap();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "cache.test;singleton:=true");
+        headers.put(Constants.BUNDLE_VERSION, "1.0.0");
+        headers.put(Constants.BUNDLE_NAME, "Café");
+        headers.put(Constants.IMPORT_PACKAGE, imports.toString());
+        headers.put(Constants.DYNAMICIMPORT_PACKAGE, "org.example.dynamic.*");
+        headers.put(Constants.EXPORT_PACKAGE,
+            "org.example.api;uses:=\"org.osgi.framework\";version=1.2,org.example.spi");
+        headers.put(Constants.REQUIRE_BUNDLE, "other;bundle-version=\"[1,2)\"");
+        headers.put(Constants.PROVIDE_CAPABILITY,
+            "osgi.service;objectClass:List<String>=\"a.A,b.B\";rank:Long=5");
+        headers.put(Constants.REQUIRE_CAPABILITY,
+            "osgi.ee;filter:=\"(&(osgi.ee=JavaSE)(version=1.6))\"");
+        return headers;
+    }
+
+    private static String describe(Map headers) throws Exception
+    {
+        ManifestParser mp = new ManifestParser(
+            new Logger(), new HashMap(), null, headers);
+        List<String> result = new ArrayList<String>();
+        for (BundleCapability cap : mp.getCapabilities())
+        {
+            result.add(cap.getNamespace() + cap.getAttributes() + cap.getDirectives());
+        }
+        for (BundleRequirement req : mp.getRequirements())
+        {
+            result.add(req.getNamespace() + req.getAttributes() + req.getDirectives());
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import junit.framework.TestCase;
+
+public class MappedZipFileTest extends TestCase
+{
+    private File tmpZip;
+    private byte[] contentBytes;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        contentBytes = new byte[16384];
+        for (int i = 0; i < contentBytes.length; i++)
+        {
+            contentBytes[i] = (byte) ((i % 65) + 65);
+        }
+
+        tmpZip = File.createTempFile("felix.test", ".zip");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tmpZip));
+        zos.putNextEntry(new ZipEntry("dir/"));
+        zos.putNextEntry(new ZipEntry("dir/deflated.txt"));
+        zos.write(contentBytes);
+        ZipEntry stored = new ZipEntry("dir/stored.txt");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(contentBytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(contentBytes);
+        stored.setCrc(crc.getValue());
+        zos.putNextEntry(stored);
+        zos.write(contentBytes);
+        zos.putNextEntry(new ZipEntry("empty.txt"));
+        zos.setComment("comment");
+        zos.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        tmpZip.delete();
+    }
+
+    public void testEntries() throws Exception
+    {
+        MappedZipFile zipFile = new MappedZipFile(tmpZip);
+        assertEquals(4, zipFile.size());
+        assertTrue(zipFile.hasEntry("dir/deflated.txt"));
+        assertTrue(zipFile.hasEntry("dir/"));
+        assertTrue(zipFile.hasEntry("dir"));
+        assertTrue(zipFile.isDirectory("dir"));
+        assertFalse(zipFile.isDirectory("empty.txt"));
+        assertFalse(zipFile.hasEntry("missing.txt"));
+        assertNull(zipFile.getEntryAsBytes("missing.txt"));
+        assertNull(zipFile.getEntryAsStream("missing.txt"));
+
+        List<String> names = new ArrayList<String>();
+        for (Enumeration<String> e = zipFile.getNames(); e.hasMoreElements(); )
+        {
+            names.add(e.nextElement());
+        }
+        Collections.sort(names);
+        assertEquals(Arrays.asList("dir/", "dir/deflated.txt", "dir/stored.txt", "empty.txt"),
+            names);
+    }
+
+    public void testContent() throws Exception
+    {
+        MappedZipFile zipFile = new MappedZipFile(tmpZip);
+        assertTrue(Arrays.equals(contentBytes, zipFile.getEntryAsBytes("dir/deflated.txt")));
+        assertTrue(Arrays.equals(contentBytes, zipFile.getEntryAsBytes("dir/stored.txt")));
+        assertEquals(0, zipFile.getEntryAsBytes("empty.txt").length);
+        assertTrue(Arrays.equals(contentBytes, read(zipFile.getEntryAsStream("dir/deflated.txt"))));
+        assertTrue(Arrays.equals(contentBytes, read(zipFile.getEntryAsStream("dir/stored.txt"))));
+        assertEquals(0, read(zipFile.getEntryAsStream("empty.txt")).length);
+    }
+
+    public void testInvalidFile() throws Exception
+    {
+        FileOutputStream fos = new FileOutputStream(tmpZip);
+        fos.write(contentBytes);
+        fos.close();
+        try
+        {
+            new MappedZipFile(tmpZip);
+            fail("Invalid ZIP file should not be mapped.");
+        }
+        catch (IOException ex)
+        {
+            // Expected.
+        }
+    }
+
+    private static byte[] read(InputStream is) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[1000];
+            for (int n = is.read(buf); n >= 0; n = is.read(buf))
+            {
+                baos.write(buf, 0, n);
+            }
+            return baos.toByteArray();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
+
+public class CapabilitySetTest extends TestCase
+{
+    public void testMatchesReusesCoercedValues()
+    {
+        SimpleFilter sf = SimpleFilter.parse("(foo>=5)");
+        assertTrue(CapabilitySet.matches(createCapability("foo", new Long(7)), sf));
+        assertFalse(CapabilitySet.matches(createCapability("foo", new Long(3)), sf));
+        assertEquals(new Long(5), sf.getCoercedValue(Long.class));
+
+        // A value of a different type must not reuse the cached operand.
+        assertTrue(CapabilitySet.matches(createCapability("foo", new Integer(5)), sf));
+        assertFalse(CapabilitySet.matches(createCapability("foo", new Integer(4)), sf));
+        assertEquals(new Integer(5), sf.getCoercedValue(Integer.class));
+        assertNull(sf.getCoercedValue(Long.class));
+        assertTrue(CapabilitySet.matches(createCapability("foo", new Long(5)), sf));
+    }
+
+    public void testMatchesWithUncoercibleValue()
+    {
+        SimpleFilter sf = SimpleFilter.parse("(foo=bar)");
+        assertFalse(CapabilitySet.matches(createCapability("foo", new Long(1)), sf));
+        assertFalse(CapabilitySet.matches(createCapability("foo", new Long(1)), sf));
+        assertTrue(CapabilitySet.matches(createCapability("foo", "bar"), sf));
+    }
+
+    public void testMatchesVersionRange()
+    {
+        SimpleFilter sf = SimpleFilter.parse("(version=[1.0,2.0])");
+        assertTrue(CapabilitySet.matches(createCapability("version", new Version("1.5")), sf));
+        assertFalse(CapabilitySet.matches(createCapability("version", new Version("2.1")), sf));
+        assertTrue(CapabilitySet.matches(createCapability("version", new Version("1.0")), sf));
+    }
+
+    private static BundleCapabilityImpl createCapability(String name, Object value)
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(name, value);
+        return new BundleCapabilityImpl(
+            null, "test", Collections.<String, String>emptyMap(), attrs);
+    }
+}
@@ -34,6 +34,8 @@ import org.apache.felix.framework.ServiceRegistry;
 import org.easymock.EasyMock;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
@@ -151,6 +153,58 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testFireBundleEventWithDispatchPool()
+    {
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry, 3, 2);
+        assertNotNull(ed.getDispatchPool());
+
+        Framework framework = EasyMock.createNiceMock(Framework.class);
+        EasyMock.replay(new Object[]
+            {
+                framework
+            });
+
+        final List<List<Bundle>> received = new ArrayList<List<Bundle>>();
+        List<BundleListener> listeners = new ArrayList<BundleListener>();
+        for (int i = 0; i < 8; i++)
+        {
+            final List<Bundle> events = Collections.synchronizedList(new ArrayList<Bundle>());
+            received.add(events);
+            BundleListener bl = new BundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    events.add(event.getBundle());
+                }
+            };
+            listeners.add(bl);
+            ed.addListener(getMockBundle().getBundleContext(), BundleListener.class, bl, null);
+        }
+
+        ed.startDispatching();
+        List<Bundle> fired = new ArrayList<Bundle>();
+        for (int i = 0; i < 50; i++)
+        {
+            Bundle b = getMockBundle();
+            fired.add(b);
+            ed.fireBundleEvent(new BundleEvent(BundleEvent.INSTALLED, b), framework);
+        }
+        ed.stopDispatching();
+
+        // Every listener must have received all events in the order they were fired.
+        for (List<Bundle> events : received)
+        {
+            assertEquals(fired, events);
+        }
+        assertEquals(0, ed.getDispatchPool().getQueueDepth());
+        for (BundleListener bl : listeners)
+        {
+            assertEquals(50, ed.getDispatchPool().getListenerStatistics().get(bl).getCount());
+        }
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
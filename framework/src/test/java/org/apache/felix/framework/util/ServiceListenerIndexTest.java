@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.ServiceRegistry;
+import org.easymock.EasyMock;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
+
+public class ServiceListenerIndexTest extends TestCase
+{
+    private BundleContext m_bc;
+    private ServiceRegistry m_registry;
+
+    protected void setUp() throws Exception
+    {
+        m_bc = EasyMock.createNiceMock(BundleContext.class);
+        Bundle b = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.expect(m_bc.getBundle()).andReturn(b).anyTimes();
+        EasyMock.replay(new Object[] { m_bc, b });
+        m_registry = new ServiceRegistry(new Logger(), null);
+    }
+
+    public void testIndexKeys() throws Exception
+    {
+        assertNull(ServiceListenerIndex.getIndexKeys(createInfo(null)));
+        assertNull(ServiceListenerIndex.getIndexKeys(createInfo("(foo=b*)")));
+        assertNull(ServiceListenerIndex.getIndexKeys(createInfo("(|(objectClass=a)(foo>=1))")));
+        assertNull(ServiceListenerIndex.getIndexKeys(createInfo("(!(objectClass=a))")));
+
+        List<String[]> keys = ServiceListenerIndex.getIndexKeys(
+            createInfo("(&(foo=bar)(objectClass=a)(x=*))"));
+        assertEquals(1, keys.size());
+        assertEquals("objectclass", keys.get(0)[0]);
+        assertEquals("a", keys.get(0)[1]);
+
+        keys = ServiceListenerIndex.getIndexKeys(
+            createInfo("(|(objectClass=a)(&(objectClass=b)(foo=bar)))"));
+        assertEquals(2, keys.size());
+        assertEquals("b", keys.get(1)[1]);
+
+        ListenerInfo unfiltered = new ListenerInfo(null, m_bc, ServiceListener.class,
+            new UnfilteredServiceListener()
+            {
+                public void serviceChanged(ServiceEvent event)
+                {
+                }
+            }, FrameworkUtil.createFilter("(objectClass=a)"), null, false);
+        assertNull(ServiceListenerIndex.getIndexKeys(unfiltered));
+    }
+
+    public void testGetCandidates() throws Exception
+    {
+        ServiceListenerIndex index = new ServiceListenerIndex();
+        ListenerInfo a = createInfo("(objectClass=a)");
+        ListenerInfo b = createInfo("(&(objectClass=b)(foo=bar))");
+        ListenerInfo ab = createInfo("(|(objectClass=a)(objectClass=b))");
+        ListenerInfo all = createInfo(null);
+        ListenerInfo id = createInfo("(service.id=1)");
+        ListenerInfo foo = createInfo("(foo=bar)");
+        index.addListener(a);
+        index.addListener(b);
+        index.addListener(ab);
+        index.addListener(all);
+        index.addListener(id);
+        index.addListener(foo);
+
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("foo", "baz");
+        ServiceReference refA = m_registry.registerService(
+            m_bc, new String[] { "a" }, "svc", props).getReference();
+
+        List<ListenerInfo> candidates = getCandidates(index, refA, null);
+        assertEquals(4, candidates.size());
+        assertTrue(candidates.contains(a));
+        assertTrue(candidates.contains(ab));
+        assertTrue(candidates.contains(all));
+        // The service id is a Long, so its listeners cannot be looked up.
+        assertTrue(candidates.contains(id));
+
+        // Listeners matching the old properties of a modified service are
+        // candidates too, since they need a MODIFIED_ENDMATCH event.
+        Dictionary<String, Object> oldProps = new Hashtable<String, Object>();
+        oldProps.put("foo", "bar");
+        candidates = getCandidates(index, refA, oldProps);
+        assertEquals(5, candidates.size());
+        assertTrue(candidates.contains(foo));
+
+        index.removeListener(ab);
+        index.removeListener(all);
+        candidates = getCandidates(index, refA, null);
+        assertEquals(2, candidates.size());
+        assertTrue(candidates.contains(a));
+        assertTrue(candidates.contains(id));
+    }
+
+    private List<ListenerInfo> getCandidates(
+        ServiceListenerIndex index, ServiceReference ref, Dictionary oldProps)
+    {
+        List<ListenerInfo> result = new ArrayList<ListenerInfo>();
+        for (Map.Entry<BundleContext, List<ListenerInfo>> entry
+            : index.getCandidates(ref, oldProps).entrySet())
+        {
+            assertSame(m_bc, entry.getKey());
+            result.addAll(entry.getValue());
+        }
+        return result;
+    }
+
+    private ListenerInfo createInfo(String filter) throws Exception
+    {
+        return new ListenerInfo(null, m_bc, ServiceListener.class,
+            new ServiceListener()
+            {
+                public void serviceChanged(ServiceEvent event)
+                {
+                }
+            },
+            (filter == null) ? null : FrameworkUtil.createFilter(filter),
+            null, false);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.api;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Represents the request metrics of a servlet or filter.
+ */
+public class HandlerMetricsDTO extends DTO
+{
+    /** The service id of the servlet or filter. */
+    public long serviceId;
+
+    /** The service id of the servlet context. */
+    public long servletContextId;
+
+    public String name;
+
+    /** The number of finished requests. */
+    public long requestCount;
+
+    /** The number of requests that failed with an exception or a status of 500 or higher. */
+    public long errorCount;
+
+    /** The number of running requests. */
+    public int inFlightCount;
+
+    /** The mean latency in microseconds. */
+    public long meanLatency;
+
+    /** The maximum latency in microseconds. */
+    public long maxLatency;
+
+    /** The exclusive upper bounds of the latency buckets in microseconds. */
+    public long[] latencyBounds;
+
+    /** The number of requests per latency bucket. */
+    public long[] latencyCounts;
+}
@@ -16,30 +16,25 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-package org.apache.felix.resolver.util;
+package org.apache.felix.http.api;
 
-public class OpenHashMapSet<K, V> extends OpenHashMap<K, CopyOnWriteSet<V>> {
+import org.osgi.dto.DTO;
 
-    public OpenHashMapSet() {
-        super();
-    }
+/**
+ * Represents the request metrics of the HTTP service runtime.
+ *
+ * @see RequestMetricsRuntime#getRequestMetricsDTO()
+ */
+public class RequestMetricsDTO extends DTO
+{
+    /** Whether per servlet and filter metrics are recorded. */
+    public boolean enabled;
 
-    public OpenHashMapSet(int initialCapacity) {
-        super(initialCapacity);
-    }
+    /** The slow request threshold in milliseconds, 0 if slow requests are not logged. */
+    public long slowRequestThreshold;
 
-    public OpenHashMapSet(int initialCapacity, double minLoadFactor, double maxLoadFactor) {
-        super(initialCapacity, minLoadFactor, maxLoadFactor);
-    }
+    public HandlerMetricsDTO[] servletMetricsDTOs;
 
-    public OpenHashMapSet<K, V> deepClone() {
-        OpenHashMapSet<K, V> copy = (OpenHashMapSet<K, V>) super.clone();
-        Object[] values = copy.values;
-        for (int i = 0, l = values.length; i < l; i++) {
-            if (values[i] != null) {
-                values[i] = new CopyOnWriteSet<V>((CopyOnWriteSet<V>) values[i]);
-            }
-        }
-        return copy;
-    }
+    /** The metrics of the filters, which include the rest of the filter chain. */
+    public HandlerMetricsDTO[] filterMetricsDTOs;
 }
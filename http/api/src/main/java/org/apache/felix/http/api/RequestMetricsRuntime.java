@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.api;
+
+import aQute.bnd.annotation.ProviderType;
+
+/**
+ * The {@link RequestMetricsRuntime} provides the request metrics of the servlets
+ * and filters of a HTTP service runtime. The Felix implementation registers its
+ * {@code HttpServiceRuntime} service under this interface as well, with the same
+ * service properties.
+ * <p>
+ * The per servlet and filter metrics are only recorded if the framework or
+ * configuration property {@code org.apache.felix.http.requestMetrics} is set to
+ * {@code true}.
+ * </p>
+ */
+@ProviderType
+public interface RequestMetricsRuntime
+{
+    /**
+     * Returns a snapshot of the request metrics.
+     *
+     * @return the request metrics, never <code>null</code>.
+     */
+    RequestMetricsDTO getRequestMetricsDTO();
+}
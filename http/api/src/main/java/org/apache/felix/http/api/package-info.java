@@ -17,7 +17,7 @@
  * under the License.
  */
 
-@Version("2.0.6")
+@Version("2.1.0")
 package org.apache.felix.http.api;
 
 import aQute.bnd.annotation.Version;
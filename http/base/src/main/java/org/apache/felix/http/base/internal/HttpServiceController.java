@@ -28,6 +28,7 @@ import org.apache.felix.http.base.internal.console.HttpServicePlugin;
 import org.apache.felix.http.base.internal.dispatch.Dispatcher;
 import org.apache.felix.http.base.internal.handler.HandlerRegistry;
 import org.apache.felix.http.base.internal.handler.HttpSessionWrapper;
+import org.apache.felix.http.base.internal.metrics.RequestMetrics;
 import org.apache.felix.http.base.internal.service.HttpServiceFactory;
 import org.apache.felix.http.base.internal.service.listener.ServletContextAttributeListenerManager;
 import org.apache.felix.http.base.internal.whiteboard.WhiteboardManager;
@@ -37,6 +38,7 @@ public final class HttpServiceController
 {
     private final BundleContext bundleContext;
     private final HandlerRegistry registry;
+    private final RequestMetrics metrics;
     private final Dispatcher dispatcher;
     private final HttpServicePlugin plugin;
     private final HttpServiceFactory httpServiceFactory;
@@ -48,10 +50,11 @@ public final class HttpServiceController
     {
         this.bundleContext = bundleContext;
         this.registry = new HandlerRegistry(this.bundleContext);
-        this.dispatcher = new Dispatcher(this.registry);
-        this.plugin = new HttpServicePlugin(bundleContext, registry);
+        this.metrics = new RequestMetrics(this.bundleContext);
+        this.dispatcher = new Dispatcher(this.registry, this.metrics);
+        this.plugin = new HttpServicePlugin(bundleContext, registry, this.metrics);
         this.httpServiceFactory = new HttpServiceFactory(this.bundleContext, this.registry);
-        this.whiteboardManager = new WhiteboardManager(bundleContext, this.httpServiceFactory, this.registry);
+        this.whiteboardManager = new WhiteboardManager(bundleContext, this.httpServiceFactory, this.registry, this.metrics);
     }
 
     Dispatcher getDispatcher()
@@ -105,6 +108,7 @@ public final class HttpServiceController
     }
     public void setProperties(final Hashtable<String, Object> props)
     {
+        this.metrics.configure(props);
         this.httpServiceFactory.setProperties(props);
         this.whiteboardManager.setProperties(props);
     }
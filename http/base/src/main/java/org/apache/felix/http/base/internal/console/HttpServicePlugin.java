@@ -30,9 +30,13 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.felix.http.api.HandlerMetricsDTO;
+import org.apache.felix.http.api.RequestMetricsDTO;
 import org.apache.felix.http.base.internal.handler.FilterHandler;
 import org.apache.felix.http.base.internal.handler.HandlerRegistry;
 import org.apache.felix.http.base.internal.handler.ServletHandler;
+import org.apache.felix.http.base.internal.metrics.RequestMetrics;
+import org.apache.felix.http.base.internal.runtime.dto.RequestMetricsDTOBuilder;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -44,13 +48,15 @@ public class HttpServicePlugin extends HttpServlet
 {
 
     private final HandlerRegistry registry;
+    private final RequestMetrics metrics;
     private final BundleContext context;
 
     private ServiceRegistration serviceReg;
 
-    public HttpServicePlugin(BundleContext context, HandlerRegistry registry)
+    public HttpServicePlugin(BundleContext context, HandlerRegistry registry, RequestMetrics metrics)
     {
         this.registry = registry;
+        this.metrics = metrics;
         this.context = context;
     }
 
@@ -77,6 +83,7 @@ public class HttpServicePlugin extends HttpServlet
 
         printServletDetails(pw);
         printFilterDetails(pw);
+        printRequestMetrics(pw);
 
     }
 
@@ -149,6 +156,56 @@ public class HttpServicePlugin extends HttpServlet
         pw.println("</table>");
     }
 
+    private void printRequestMetrics(PrintWriter pw)
+    {
+        RequestMetricsDTO dto = new RequestMetricsDTOBuilder(this.metrics, this.registry).build();
+        pw.println("<p class=\"statline ui-state-highlight\">${Request Metrics}: "
+            + (dto.enabled ? "enabled" : "disabled")
+            + ", ${slow request threshold}: "
+            + (dto.slowRequestThreshold > 0 ? dto.slowRequestThreshold + " ms" : "disabled") + "</p>");
+        if (!dto.enabled)
+        {
+            return;
+        }
+
+        pw.println("<table class=\"nicetable\">");
+        pw.println("<thead><tr>");
+        pw.println("<th class=\"header\">${Type}</th>");
+        pw.println("<th class=\"header\">${Name}</th>");
+        pw.println("<th class=\"header\">${Requests}</th>");
+        pw.println("<th class=\"header\">${Errors}</th>");
+        pw.println("<th class=\"header\">${In Flight}</th>");
+        pw.println("<th class=\"header\">${Mean (\u00b5s)}</th>");
+        pw.println("<th class=\"header\">${Max (\u00b5s)}</th>");
+        pw.println("</tr></thead>");
+
+        String rowClass = "odd";
+        for (HandlerMetricsDTO handler : dto.servletMetricsDTOs)
+        {
+            printHandlerMetrics(pw, rowClass, "Servlet", handler);
+            rowClass = rowClass.equals("odd") ? "even" : "odd";
+        }
+        for (HandlerMetricsDTO handler : dto.filterMetricsDTOs)
+        {
+            printHandlerMetrics(pw, rowClass, "Filter", handler);
+            rowClass = rowClass.equals("odd") ? "even" : "odd";
+        }
+        pw.println("</table>");
+    }
+
+    private void printHandlerMetrics(PrintWriter pw, String rowClass, String type, HandlerMetricsDTO handler)
+    {
+        pw.println("<tr class=\"" + rowClass + " ui-state-default\">");
+        pw.println("<td>" + type + "</td>");
+        pw.println("<td>" + escapeHtml(handler.name) + " (" + handler.serviceId + ")</td>");
+        pw.println("<td>" + handler.requestCount + "</td>");
+        pw.println("<td>" + handler.errorCount + "</td>");
+        pw.println("<td>" + handler.inFlightCount + "</td>");
+        pw.println("<td>" + handler.meanLatency + "</td>");
+        pw.println("<td>" + handler.maxLatency + "</td>");
+        pw.println("</tr>");
+    }
+
     /**
      * @see org.apache.felix.webconsole.ConfigurationPrinter#printConfiguration(java.io.PrintWriter)
      */
@@ -182,6 +239,31 @@ public class HttpServicePlugin extends HttpServlet
             addSpace(pw, 1);
             pw.println("Bundle   : " + getBundleDetails(filter.getFilter().getClass()));
         }
+
+        pw.println();
+
+        RequestMetricsDTO dto = new RequestMetricsDTOBuilder(this.metrics, this.registry).build();
+        pw.println("Request Metrics : " + (dto.enabled ? "enabled" : "disabled"));
+        pw.println("Slow Request Threshold : "
+            + (dto.slowRequestThreshold > 0 ? dto.slowRequestThreshold + " ms" : "disabled"));
+        if (dto.enabled)
+        {
+            printHandlerMetrics(pw, "Servlet", dto.servletMetricsDTOs);
+            printHandlerMetrics(pw, "Filter", dto.filterMetricsDTOs);
+        }
+    }
+
+    private static void printHandlerMetrics(PrintWriter pw, String type, HandlerMetricsDTO[] handlers)
+    {
+        for (HandlerMetricsDTO handler : handlers)
+        {
+            pw.println(type + " " + handler.name + " (" + handler.serviceId + ")");
+            addSpace(pw, 1);
+            pw.println("Requests : " + handler.requestCount + ", Errors : " + handler.errorCount
+                + ", In Flight : " + handler.inFlightCount);
+            addSpace(pw, 1);
+            pw.println("Latency  : mean " + handler.meanLatency + " \u00b5s, max " + handler.maxLatency + " \u00b5s");
+        }
     }
 
     public void unregister()
@@ -223,6 +305,15 @@ public class HttpServicePlugin extends HttpServlet
         }
     }
 
+    private static String escapeHtml(String text)
+    {
+        if (text == null)
+        {
+            return "";
+        }
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
     private Bundle getBundle(Class<?> clazz)
     {
         return FrameworkUtil.getBundle(clazz);
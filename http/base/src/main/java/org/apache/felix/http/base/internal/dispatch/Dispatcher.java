@@ -56,6 +56,7 @@ import org.apache.felix.http.base.internal.handler.FilterHandler;
 import org.apache.felix.http.base.internal.handler.HandlerRegistry;
 import org.apache.felix.http.base.internal.handler.HttpSessionWrapper;
 import org.apache.felix.http.base.internal.handler.ServletHandler;
+import org.apache.felix.http.base.internal.metrics.RequestMetrics;
 import org.apache.felix.http.base.internal.util.UriUtils;
 import org.apache.felix.http.base.internal.whiteboard.WhiteboardManager;
 import org.osgi.service.http.HttpContext;
@@ -565,11 +566,14 @@ public final class Dispatcher implements RequestDispatcherProvider
 
     private final HandlerRegistry handlerRegistry;
 
+    private final RequestMetrics metrics;
+
     private WhiteboardManager whiteboardManager;
 
-    public Dispatcher(final HandlerRegistry handlerRegistry)
+    public Dispatcher(final HandlerRegistry handlerRegistry, final RequestMetrics metrics)
     {
         this.handlerRegistry = handlerRegistry;
+        this.metrics = metrics;
     }
 
     public void setWhiteboardManager(final WhiteboardManager service)
@@ -587,6 +591,7 @@ public final class Dispatcher implements RequestDispatcherProvider
      */
     public void dispatch(final HttpServletRequest req, final HttpServletResponse res) throws ServletException, IOException
     {
+        final long start = this.metrics.isSlowRequestLogEnabled() ? System.nanoTime() : 0;
         // invalid sessions first
         final HttpSession session = req.getSession(false);
         if ( session != null )
@@ -607,6 +612,10 @@ public final class Dispatcher implements RequestDispatcherProvider
         if ( servletHandler == null )
         {
             wrappedResponse.sendError(404);
+            if ( start != 0 )
+            {
+                this.metrics.requestFinished(req, wrappedResponse.getStatus(), System.nanoTime() - start);
+            }
             return;
         }
 
@@ -645,6 +654,10 @@ public final class Dispatcher implements RequestDispatcherProvider
             {
                 servletContext.getServletRequestListener().requestDestroyed(new ServletRequestEvent(servletContext, wrappedRequest));
             }
+            if ( start != 0 )
+            {
+                this.metrics.requestFinished(req, wrappedResponse.getStatus(), System.nanoTime() - start);
+            }
         }
     }
 
@@ -724,7 +737,7 @@ public final class Dispatcher implements RequestDispatcherProvider
 
     private void invokeChain(FilterHandler[] filterHandlers, ServletHandler servletHandler, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
     {
-        FilterChain filterChain = new InvocationFilterChain(servletHandler, filterHandlers, DEFAULT_CHAIN);
+        FilterChain filterChain = new InvocationFilterChain(servletHandler, filterHandlers, DEFAULT_CHAIN, this.metrics.isEnabled());
         filterChain.doFilter(request, response);
     }
 }
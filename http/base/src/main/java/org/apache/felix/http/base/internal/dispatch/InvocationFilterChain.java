@@ -16,6 +16,7 @@
  */
 package org.apache.felix.http.base.internal.dispatch;
 
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
 import java.io.IOException;
@@ -27,20 +28,27 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.felix.http.base.internal.handler.FilterHandler;
 import org.apache.felix.http.base.internal.handler.ServletHandler;
+import org.apache.felix.http.base.internal.metrics.HandlerStats;
 
 class InvocationFilterChain extends HttpFilterChain
 {
     private final ServletHandler servletHandler;
     private final FilterHandler[] filterHandlers;
     private final FilterChain defaultChain;
+    private final boolean recordMetrics;
 
     private int index = -1;
 
-    public InvocationFilterChain(ServletHandler servletHandler, FilterHandler[] filterHandlers, FilterChain defaultChain)
+    /**
+     * @param recordMetrics whether to record the metrics of the invoked handlers;
+     *        the metrics of a filter include the rest of the chain.
+     */
+    public InvocationFilterChain(ServletHandler servletHandler, FilterHandler[] filterHandlers, FilterChain defaultChain, boolean recordMetrics)
     {
         this.filterHandlers = filterHandlers;
         this.servletHandler = servletHandler;
         this.defaultChain = defaultChain;
+        this.recordMetrics = recordMetrics;
     }
 
     @Override
@@ -50,7 +58,7 @@ class InvocationFilterChain extends HttpFilterChain
 
         if (this.index < this.filterHandlers.length)
         {
-            if (this.filterHandlers[this.index].handle(req, res, this))
+            if (handleFilter(this.filterHandlers[this.index], req, res))
             {
                 // We're done...
                 return;
@@ -58,7 +66,7 @@ class InvocationFilterChain extends HttpFilterChain
         }
 
         // Last entry in the chain...
-        if (this.servletHandler != null && this.servletHandler.handle(req, res))
+        if (this.servletHandler != null && handleServlet(req, res))
         {
             // We're done...
             return;
@@ -71,4 +79,48 @@ class InvocationFilterChain extends HttpFilterChain
             this.defaultChain.doFilter(req, res);
         }
     }
+
+    private boolean handleFilter(FilterHandler filterHandler, HttpServletRequest req, HttpServletResponse res) throws IOException, ServletException
+    {
+        if (!this.recordMetrics)
+        {
+            return filterHandler.handle(req, res, this);
+        }
+        final HandlerStats stats = filterHandler.getStats();
+        final long start = System.nanoTime();
+        boolean error = true;
+        stats.started();
+        try
+        {
+            final boolean result = filterHandler.handle(req, res, this);
+            error = false;
+            return result;
+        }
+        finally
+        {
+            stats.finished(System.nanoTime() - start, error);
+        }
+    }
+
+    private boolean handleServlet(HttpServletRequest req, HttpServletResponse res) throws IOException, ServletException
+    {
+        if (!this.recordMetrics)
+        {
+            return this.servletHandler.handle(req, res);
+        }
+        final HandlerStats stats = this.servletHandler.getStats();
+        final long start = System.nanoTime();
+        boolean error = true;
+        stats.started();
+        try
+        {
+            final boolean result = this.servletHandler.handle(req, res);
+            error = res.getStatus() >= SC_INTERNAL_SERVER_ERROR;
+            return result;
+        }
+        finally
+        {
+            stats.finished(System.nanoTime() - start, error);
+        }
+    }
 }
@@ -24,12 +24,14 @@ import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 
 import org.apache.felix.http.base.internal.context.ExtServletContext;
+import org.apache.felix.http.base.internal.metrics.HandlerStats;
 
 public abstract class AbstractHandler<T extends AbstractHandler<?>> implements Comparable<T>
 {
     private final String name;
     private final ExtServletContext context;
     private final Map<String, String> initParams;
+    private final HandlerStats stats = new HandlerStats();
 
     public AbstractHandler(final ExtServletContext context,
             final Map<String, String> initParams,
@@ -60,6 +62,14 @@ public abstract class AbstractHandler<T extends AbstractHandler<?>> implements C
         return this.context;
     }
 
+    /**
+     * @return the request metrics of this handler, only updated if enabled.
+     */
+    public final HandlerStats getStats()
+    {
+        return this.stats;
+    }
+
     public abstract void init() throws ServletException;
 
     public abstract void destroy();
@@ -25,12 +25,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.felix.http.base.internal.util.PatternUtil;
@@ -40,15 +39,19 @@ import org.apache.felix.http.base.internal.util.PatternUtil;
  * for easy access to those handlers, based on the match rules defined in section 12.1 of Servlet
  * 3.0 specification.
  * <p>
+ * The patterns are indexed in a {@link PathTrie}, so finding the matching handlers
+ * does not depend on the number of mapped patterns.
+ * <p>
  * {@link HandlerMapping} instances are immutable.
  * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 final class HandlerMapping<V extends AbstractHandler<V>>
 {
-    private final SortedMap<Pattern, Set<V>> exactMap;
-    private final SortedMap<Pattern, Set<V>> wildcardMap;
+    private final SortedMap<Pattern, SortedSet<V>> exactMap;
+    private final SortedMap<Pattern, SortedSet<V>> wildcardMap;
     private final Set<V> mappedHandlers;
+    private final PathTrie<V> trie;
 
     /**
      * Creates a new, empty, {@link HandlerMapping} instance.
@@ -65,8 +68,8 @@ final class HandlerMapping<V extends AbstractHandler<V>>
      */
     private HandlerMapping(Map<Pattern, Collection<V>> mappings)
     {
-        this.exactMap = new TreeMap<Pattern, Set<V>>(PatternUtil.PatternComparator.INSTANCE);
-        this.wildcardMap = new TreeMap<Pattern, Set<V>>(PatternUtil.PatternComparator.INSTANCE);
+        this.exactMap = new TreeMap<Pattern, SortedSet<V>>(PatternUtil.PatternComparator.INSTANCE);
+        this.wildcardMap = new TreeMap<Pattern, SortedSet<V>>(PatternUtil.PatternComparator.INSTANCE);
         this.mappedHandlers = new TreeSet<V>();
 
         for (Map.Entry<Pattern, Collection<V>> mapping : mappings.entrySet())
@@ -78,7 +81,7 @@ final class HandlerMapping<V extends AbstractHandler<V>>
 
             if (PatternUtil.isWildcardPattern(pattern))
             {
-                Set<V> vs = this.wildcardMap.get(pattern);
+                SortedSet<V> vs = this.wildcardMap.get(pattern);
                 if (vs == null)
                 {
                     vs = new TreeSet<V>();
@@ -88,7 +91,7 @@ final class HandlerMapping<V extends AbstractHandler<V>>
             }
             else
             {
-                Set<V> vs = this.exactMap.get(pattern);
+                SortedSet<V> vs = this.exactMap.get(pattern);
                 if (vs == null)
                 {
                     vs = new TreeSet<V>();
@@ -97,6 +100,16 @@ final class HandlerMapping<V extends AbstractHandler<V>>
                 vs.addAll(handlers);
             }
         }
+
+        this.trie = new PathTrie<V>();
+        for (Map.Entry<Pattern, SortedSet<V>> entry : this.exactMap.entrySet())
+        {
+            this.trie.add(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Pattern, SortedSet<V>> entry : this.wildcardMap.entrySet())
+        {
+            this.trie.add(entry.getKey(), entry.getValue());
+        }
     }
 
     /**
@@ -207,7 +220,9 @@ final class HandlerMapping<V extends AbstractHandler<V>>
      */
     List<V> getAllMatches(String path)
     {
-        return getAllMatches(path, false /* firstOnly */);
+        Set<V> result = new TreeSet<V>();
+        this.trie.getAllMatches(normalize(path), result);
+        return new ArrayList<V>(result);
     }
 
     /**
@@ -225,8 +240,7 @@ final class HandlerMapping<V extends AbstractHandler<V>>
      */
     V getBestMatch(String path)
     {
-        List<V> allMatches = getAllMatches(path, true /* firstOnly */);
-        return allMatches.isEmpty() ? null : allMatches.get(0);
+        return this.trie.getBestMatch(normalize(path));
     }
 
     /**
@@ -264,57 +278,12 @@ final class HandlerMapping<V extends AbstractHandler<V>>
     }
 
     /**
-     * Performs the actual matching, yielding a list of either the first or all matching patterns.
-     *
      * @param path the path to match, can be <code>null</code> in which case an empty string is
-     *        used;
-     * @param firstOnly <code>true</code> if only the first matching pattern should be returned,
-     *        <code>false</code> if all matching patterns should be returned.
-     * @return a list with matching elements, never <code>null</code>.
+     *        used.
+     * @return the path to match the patterns against.
      */
-    private List<V> getAllMatches(String path, boolean firstOnly)
+    private static String normalize(String path)
     {
-        path = (path == null) ? "" : path.trim();
-
-        Set<V> result = new TreeSet<V>();
-        // Look for exact matches only, that is, those patterns without wildcards...
-        for (Entry<Pattern, Set<V>> entry : this.exactMap.entrySet())
-        {
-            Matcher matcher = entry.getKey().matcher(path);
-            // !!! we should always match the *entire* pattern, instead of the longest prefix...
-            if (matcher.matches())
-            {
-                Set<V> vs = entry.getValue();
-                for (V v : vs)
-                {
-                    result.add(v);
-                    if (firstOnly)
-                    {
-                        return new ArrayList<V>(result);
-                    }
-                }
-            }
-        }
-
-        // Try to apply the wildcard patterns...
-        for (Entry<Pattern, Set<V>> entry : this.wildcardMap.entrySet())
-        {
-            Matcher matcher = entry.getKey().matcher(path);
-            if (matcher.find(0))
-            {
-                Set<V> vs = entry.getValue();
-                for (V v : vs)
-                {
-                    result.add(v);
-
-                    if (firstOnly)
-                    {
-                        break;
-                    }
-                }
-            }
-        }
-
-        return new ArrayList<V>(result);
+        return (path == null) ? "" : path.trim();
     }
 }
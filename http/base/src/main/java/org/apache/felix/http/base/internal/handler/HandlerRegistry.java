@@ -17,6 +17,7 @@
 package org.apache.felix.http.base.internal.handler;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -226,6 +227,18 @@ public final class HandlerRegistry
         return null;
     }
 
+    /**
+     * Adds the active servlet handlers and the filter handlers of all
+     * contexts to the given collections.
+     */
+    public void collectHandlers(Collection<ServletHandler> servletHandlers, Collection<FilterHandler> filterHandlers)
+    {
+        for (PerContextHandlerRegistry contextRegistry : this.registrations)
+        {
+            contextRegistry.collectHandlers(servletHandlers, filterHandlers);
+        }
+    }
+
     public synchronized List<ContextRuntime> getRuntime(FailureRuntime.Builder failureRuntimeBuilder)
     {
         List<ContextRuntime> handlerRuntimes = new ArrayList<ContextRuntime>();
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.base.internal.handler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded cache for the results of handler lookups.
+ * <p>
+ * The cache is cleared once it is full. This bounds the memory used if requests are
+ * made for arbitrary paths, while the paths that are actually served are cached again
+ * with their next request.
+ * <p>
+ * A cache is never invalidated; it is replaced together with the mappings it caches
+ * lookups for. As long as a new cache is published after the new mappings, a lookup
+ * made with an outdated mapping can only end up in an outdated cache.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+final class LookupCache<K, V>
+{
+    private final ConcurrentMap<K, V> map = new ConcurrentHashMap<K, V>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+
+    LookupCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    V get(K key)
+    {
+        return this.map.get(key);
+    }
+
+    void put(K key, V value)
+    {
+        if (this.map.putIfAbsent(key, value) == null && this.size.incrementAndGet() > this.maxSize)
+        {
+            this.map.clear();
+            this.size.set(0);
+        }
+    }
+}
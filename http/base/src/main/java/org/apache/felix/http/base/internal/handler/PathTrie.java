@@ -0,0 +1,340 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.base.internal.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.felix.http.base.internal.util.PatternUtil;
+
+/**
+ * Indexes the path patterns of a {@link HandlerMapping}, so that the handlers
+ * matching a path can be found without matching every pattern against the path.
+ * <p>
+ * Exact patterns are kept in a hash map, path prefix patterns (<tt>/foo/*</tt>)
+ * in a trie of path segments and extension patterns (<tt>*.jsp</tt>) in a hash
+ * map keyed by the extension. Patterns which do not have one of these forms, or
+ * contain regular expression characters, are matched against the path with their
+ * regular expressions, as before.
+ * <p>
+ * A {@link PathTrie} must not be modified once it is shared between threads.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+final class PathTrie<V extends AbstractHandler<V>>
+{
+    // see PatternUtil#convertToRegEx()
+    private static final String PREFIX_START = "^(";
+    private static final String PREFIX_END = ")(|/.*)$";
+    private static final String EXTENSION_START = "^(.*)(\\.\\Q";
+    private static final String EXTENSION_END = "\\E)$";
+
+    private static final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+
+    private static final int EXACT = 0;
+    private static final int PREFIX = 1;
+    private static final int EXTENSION = 2;
+    private static final int REGEX = 3;
+
+    private final Map<String, SortedSet<V>> exactMap = new HashMap<String, SortedSet<V>>();
+    private final Node<V> root = new Node<V>();
+    private final Map<String, SortedSet<V>> extensionMap = new HashMap<String, SortedSet<V>>();
+
+    /** The patterns which are not indexed, in the order they were added. */
+    private final List<Unindexed<V>> unindexed = new ArrayList<Unindexed<V>>();
+
+    /**
+     * Adds the handlers for the given pattern.
+     *
+     * @param pattern the pattern, as created by {@link PatternUtil#convertToRegEx(String)} or
+     *        a regular expression.
+     * @param handlers the handlers mapped to the pattern, cannot be empty.
+     */
+    void add(Pattern pattern, SortedSet<V> handlers)
+    {
+        String regex = pattern.pattern();
+        if (regex.startsWith(EXTENSION_START) && regex.endsWith(EXTENSION_END)
+            && regex.length() >= EXTENSION_START.length() + EXTENSION_END.length())
+        {
+            String extension = regex.substring(EXTENSION_START.length(), regex.length() - EXTENSION_END.length());
+            if (extension.indexOf("\\E") < 0)
+            {
+                this.extensionMap.put(extension, handlers);
+            }
+            else
+            {
+                this.unindexed.add(new Unindexed<V>(EXTENSION, pattern, handlers));
+            }
+        }
+        else if (regex.startsWith(PREFIX_START) && regex.endsWith(PREFIX_END)
+            && regex.length() >= PREFIX_START.length() + PREFIX_END.length())
+        {
+            String prefix = regex.substring(PREFIX_START.length(), regex.length() - PREFIX_END.length());
+            if (isLiteral(prefix))
+            {
+                Node<V> node = this.root;
+                for (String segment : prefix.split("/", -1))
+                {
+                    node = node.getOrCreateChild(segment);
+                }
+                node.handlers = handlers;
+            }
+            else
+            {
+                this.unindexed.add(new Unindexed<V>(PREFIX, pattern, handlers));
+            }
+        }
+        else if (!PatternUtil.isWildcardPattern(pattern))
+        {
+            if (isLiteral(regex))
+            {
+                this.exactMap.put(regex, handlers);
+            }
+            else
+            {
+                this.unindexed.add(new Unindexed<V>(EXACT, pattern, handlers));
+            }
+        }
+        else
+        {
+            this.unindexed.add(new Unindexed<V>(REGEX, pattern, handlers));
+        }
+    }
+
+    /**
+     * Adds all handlers matching the given path to the given collection.
+     *
+     * @param path the path to match, cannot be <code>null</code>.
+     * @param result the collection to add the matching handlers to.
+     */
+    void getAllMatches(String path, Collection<V> result)
+    {
+        SortedSet<V> handlers = this.exactMap.get(path);
+        if (handlers != null)
+        {
+            result.addAll(handlers);
+        }
+
+        Node<V> node = this.root;
+        int start = 0;
+        while (node != null)
+        {
+            int end = path.indexOf('/', start);
+            node = node.getChild(path.substring(start, (end < 0) ? path.length() : end));
+            if (node != null && node.handlers != null)
+            {
+                result.addAll(node.handlers);
+            }
+            if (end < 0)
+            {
+                break;
+            }
+            start = end + 1;
+        }
+
+        if (!this.extensionMap.isEmpty())
+        {
+            for (int i = path.indexOf('.'); i >= 0; i = path.indexOf('.', i + 1))
+            {
+                handlers = this.extensionMap.get(path.substring(i + 1));
+                if (handlers != null)
+                {
+                    result.addAll(handlers);
+                }
+            }
+        }
+
+        for (Unindexed<V> entry : this.unindexed)
+        {
+            if (entry.matches(path) != null)
+            {
+                result.addAll(entry.handlers);
+            }
+        }
+    }
+
+    /**
+     * Returns the best matching handler for the given path, that is the handler of an
+     * exact match, of the longest matching path prefix, or of the longest matching
+     * extension, in this order.
+     *
+     * @param path the path to match, cannot be <code>null</code>.
+     * @return the best matching handler, or <code>null</code> if no handler matched.
+     */
+    V getBestMatch(String path)
+    {
+        SortedSet<V> handlers = this.exactMap.get(path);
+        if (handlers != null)
+        {
+            return handlers.first();
+        }
+        handlers = getUnindexedMatch(EXACT, path);
+        if (handlers != null)
+        {
+            return handlers.first();
+        }
+
+        // Step down the path a segment at a time, the deepest node with handlers wins...
+        int longest = -1;
+        Node<V> node = this.root;
+        int start = 0;
+        while (node != null)
+        {
+            int end = path.indexOf('/', start);
+            if (end < 0)
+            {
+                end = path.length();
+            }
+            node = node.getChild(path.substring(start, end));
+            if (node != null && node.handlers != null)
+            {
+                handlers = node.handlers;
+                longest = end;
+            }
+            if (end == path.length())
+            {
+                break;
+            }
+            start = end + 1;
+        }
+        for (Unindexed<V> entry : this.unindexed)
+        {
+            if (entry.kind == PREFIX)
+            {
+                Matcher matcher = entry.matches(path);
+                if (matcher != null && matcher.group(1).length() > longest)
+                {
+                    handlers = entry.handlers;
+                    longest = matcher.group(1).length();
+                }
+            }
+        }
+        if (handlers != null)
+        {
+            return handlers.first();
+        }
+
+        if (!this.extensionMap.isEmpty())
+        {
+            // The first dot gives the longest extension...
+            for (int i = path.indexOf('.'); i >= 0; i = path.indexOf('.', i + 1))
+            {
+                handlers = this.extensionMap.get(path.substring(i + 1));
+                if (handlers != null)
+                {
+                    return handlers.first();
+                }
+            }
+        }
+        handlers = getUnindexedMatch(EXTENSION, path);
+        if (handlers == null)
+        {
+            handlers = getUnindexedMatch(REGEX, path);
+        }
+        return (handlers != null) ? handlers.first() : null;
+    }
+
+    private SortedSet<V> getUnindexedMatch(int kind, String path)
+    {
+        for (Unindexed<V> entry : this.unindexed)
+        {
+            if (entry.kind == kind && entry.matches(path) != null)
+            {
+                return entry.handlers;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isLiteral(String pattern)
+    {
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            if (REGEX_CHARS.indexOf(pattern.charAt(i)) >= 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A node of the path segment trie, holding the handlers of the path prefix
+     * formed by the segments leading to it.
+     */
+    private static final class Node<V>
+    {
+        private Map<String, Node<V>> children;
+        private SortedSet<V> handlers;
+
+        Node<V> getChild(String segment)
+        {
+            return (this.children == null) ? null : this.children.get(segment);
+        }
+
+        Node<V> getOrCreateChild(String segment)
+        {
+            if (this.children == null)
+            {
+                this.children = new HashMap<String, Node<V>>();
+            }
+            Node<V> child = this.children.get(segment);
+            if (child == null)
+            {
+                child = new Node<V>();
+                this.children.put(segment, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * A pattern which is matched with its regular expression.
+     */
+    private static final class Unindexed<V>
+    {
+        private final int kind;
+        private final Pattern pattern;
+        private final SortedSet<V> handlers;
+
+        Unindexed(int kind, Pattern pattern, SortedSet<V> handlers)
+        {
+            this.kind = kind;
+            this.pattern = pattern;
+            this.handlers = handlers;
+        }
+
+        /**
+         * @return the matcher if the path matches, <code>null</code> otherwise.
+         */
+        Matcher matches(String path)
+        {
+            Matcher matcher = this.pattern.matcher(path);
+            // wildcard patterns are found anywhere in the path, as by HandlerMapping before...
+            boolean found = PatternUtil.isWildcardPattern(this.pattern) ? matcher.find(0) : matcher.matches();
+            return found ? matcher : null;
+        }
+    }
+}
@@ -56,6 +56,9 @@ import org.osgi.framework.ServiceObjects;
 
 public final class PerContextHandlerRegistry implements Comparable<PerContextHandlerRegistry>
 {
+    /** The maximum number of cached servlet and filter lookups. */
+    private static final int LOOKUP_CACHE_SIZE = 1000;
+
     private final BundleContext bundleContext;
 
     private final Map<Filter, FilterHandler> filterMap = new HashMap<Filter, FilterHandler>();
@@ -64,6 +67,10 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
     private volatile HandlerMapping<FilterHandler> filterMapping = new HandlerMapping<FilterHandler>();
     private final ErrorsMapping errorsMapping = new ErrorsMapping();
 
+    /** Cached lookups, replaced whenever the servlet or filter mapping changes. */
+    private volatile LookupCache<String, ServletHandler> servletCache = new LookupCache<String, ServletHandler>(LOOKUP_CACHE_SIZE);
+    private volatile LookupCache<FilterLookup, FilterHandler[]> filterCache = new LookupCache<FilterLookup, FilterHandler[]>(LOOKUP_CACHE_SIZE);
+
     private final SortedMap<Pattern, SortedSet<ServletHandler>> patternToServletHandler = new TreeMap<Pattern, SortedSet<ServletHandler>>(PatternUtil.PatternComparator.INSTANCE);
     private final Map<ServletHandler, Integer> servletHandlerToUses = new HashMap<ServletHandler, Integer>();
     private final SortedSet<ServletHandler> allServletHandlers = new TreeSet<ServletHandler>();
@@ -111,6 +118,7 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
         handler.init();
         this.filterMapping = this.filterMapping.add(handler);
         this.filterMap.put(handler.getFilter(), handler);
+        invalidateLookups();
     }
 
     @Override
@@ -185,6 +193,7 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
         this.servletMapping = this.servletMapping.remove(toRemove);
         this.servletMapping = this.servletMapping.add(toAdd);
         this.allServletHandlers.add(handler);
+        invalidateLookups();
 
         if (errorPages != null)
         {
@@ -285,7 +294,30 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
         return this.errorsMapping;
     }
 
+    /**
+     * Replaces the cached lookups, must be called after the servlet or filter mapping changed.
+     */
+    private void invalidateLookups()
+    {
+        this.servletCache = new LookupCache<String, ServletHandler>(LOOKUP_CACHE_SIZE);
+        this.filterCache = new LookupCache<FilterLookup, FilterHandler[]>(LOOKUP_CACHE_SIZE);
+    }
+
     public FilterHandler[] getFilterHandlers(ServletHandler servletHandler, DispatcherType dispatcherType, String requestURI)
+    {
+        // the cache must be read before the mapping, see LookupCache
+        final LookupCache<FilterLookup, FilterHandler[]> cache = this.filterCache;
+        final FilterLookup key = new FilterLookup(servletHandler, dispatcherType, requestURI);
+        FilterHandler[] result = cache.get(key);
+        if (result == null)
+        {
+            result = findFilterHandlers(servletHandler, dispatcherType, requestURI);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    private FilterHandler[] findFilterHandlers(ServletHandler servletHandler, DispatcherType dispatcherType, String requestURI)
     {
         // See Servlet 3.0 specification, section 6.2.4...
         List<FilterHandler> result = new ArrayList<FilterHandler>();
@@ -331,7 +363,18 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
 
     public ServletHandler getServletHander(String requestURI)
     {
-        return this.servletMapping.getBestMatch(requestURI);
+        // the cache must be read before the mapping, see LookupCache
+        final LookupCache<String, ServletHandler> cache = this.servletCache;
+        ServletHandler handler = cache.get(requestURI);
+        if (handler == null)
+        {
+            handler = this.servletMapping.getBestMatch(requestURI);
+            if (handler != null)
+            {
+                cache.put(requestURI, handler);
+            }
+        }
+        return handler;
     }
 
     public synchronized void removeAll()
@@ -341,6 +384,7 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
 
         this.servletMapping = new HandlerMapping<ServletHandler>();
         this.filterMapping = new HandlerMapping<FilterHandler>();
+        invalidateLookups();
 
         for (ServletHandler handler : servletHandlers)
         {
@@ -364,6 +408,7 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
         if (handler != null)
         {
             this.filterMapping = this.filterMapping.remove(handler);
+            invalidateLookups();
             if (destroy)
             {
                 handler.destroy();
@@ -381,6 +426,7 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
         }
 
         this.filterMapping = this.filterMapping.remove(handler);
+        invalidateLookups();
 
         if (destroy)
         {
@@ -462,6 +508,7 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
 
         this.servletMapping = this.servletMapping.remove(toRemove);
         this.servletMapping = this.servletMapping.add(toAdd);
+        invalidateLookups();
 
         return servlet;
     }
@@ -534,6 +581,17 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
         return this.serviceId;
     }
 
+    /**
+     * Adds the active servlet handlers, including error pages, and the filter
+     * handlers of this context to the given collections.
+     */
+    public synchronized void collectHandlers(Collection<ServletHandler> servletHandlers, Collection<FilterHandler> filterHandlers)
+    {
+        servletHandlers.addAll(servletMapping.values());
+        servletHandlers.addAll(errorsMapping.getMappedHandlers());
+        filterHandlers.addAll(filterMap.values());
+    }
+
     public synchronized ContextRuntime getRuntime(FailureRuntime.Builder failureRuntimeBuilder)
     {
         Collection<ErrorPageRuntime> errorPages = new TreeSet<ErrorPageRuntime>(ServletRuntime.COMPARATOR);
@@ -572,4 +630,47 @@ public final class PerContextHandlerRegistry implements Comparable<PerContextHan
 
         return new ContextRuntime(servletRuntimes, filterRuntimes, resourceRuntimes, errorPages, serviceId);
     }
+
+    /**
+     * The key of a cached filter lookup.
+     */
+    private static final class FilterLookup
+    {
+        private final ServletHandler servletHandler;
+        private final DispatcherType dispatcherType;
+        private final String requestURI;
+
+        FilterLookup(ServletHandler servletHandler, DispatcherType dispatcherType, String requestURI)
+        {
+            this.servletHandler = servletHandler;
+            this.dispatcherType = dispatcherType;
+            this.requestURI = requestURI;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = System.identityHashCode(this.servletHandler);
+            result = 31 * result + ((this.dispatcherType == null) ? 0 : this.dispatcherType.hashCode());
+            result = 31 * result + ((this.requestURI == null) ? 0 : this.requestURI.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof FilterLookup))
+            {
+                return false;
+            }
+            FilterLookup other = (FilterLookup) obj;
+            return this.servletHandler == other.servletHandler
+                && this.dispatcherType == other.dispatcherType
+                && (this.requestURI == null ? other.requestURI == null : this.requestURI.equals(other.requestURI));
+        }
+    }
 }
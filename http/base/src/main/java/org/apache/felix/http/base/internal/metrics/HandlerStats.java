@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.base.internal.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The request counters of a servlet or filter, shared by all threads
+ * dispatching to its handler. For a filter, the latency includes the rest
+ * of the filter chain and the servlet. The counters are only updated while
+ * request metrics are enabled, and they live as long as the handler, so a
+ * re-registered servlet or filter starts from zero.
+ */
+public final class HandlerStats
+{
+    /**
+     * The number of latency buckets. The upper bounds double from 1 microsecond
+     * up to about 16 seconds, slower requests are counted in the last bucket.
+     */
+    private static final int BUCKETS = 26;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Record the start of a request.
+     */
+    public void started()
+    {
+        this.inFlight.incrementAndGet();
+    }
+
+    /**
+     * Record the end of a request started with {@link #started()}.
+     *
+     * @param nanos the latency in nanoseconds;
+     * @param error whether the request failed.
+     */
+    public void finished(final long nanos, final boolean error)
+    {
+        this.inFlight.decrementAndGet();
+        if (error)
+        {
+            this.errors.incrementAndGet();
+        }
+        final long micros = nanos / 1000;
+        final int index = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        this.counts.incrementAndGet(index);
+        this.totalNanos.addAndGet(nanos);
+        long max = this.maxNanos.get();
+        while (nanos > max && !this.maxNanos.compareAndSet(max, nanos))
+        {
+            max = this.maxNanos.get();
+        }
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            this.counts.set(i, 0);
+        }
+        this.errors.set(0);
+        this.totalNanos.set(0);
+        this.maxNanos.set(0);
+    }
+
+    /**
+     * @return the number of finished requests.
+     */
+    public long getRequestCount()
+    {
+        long result = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            result += this.counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of failed requests.
+     */
+    public long getErrorCount()
+    {
+        return this.errors.get();
+    }
+
+    /**
+     * @return the number of running requests.
+     */
+    public int getInFlightCount()
+    {
+        return this.inFlight.get();
+    }
+
+    /**
+     * @return the exclusive upper bounds of the latency buckets in microseconds.
+     */
+    public long[] getLatencyBounds()
+    {
+        final long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS - 1; i++)
+        {
+            result[i] = 1L << i;
+        }
+        result[BUCKETS - 1] = Long.MAX_VALUE;
+        return result;
+    }
+
+    /**
+     * @return the number of requests per latency bucket.
+     */
+    public long[] getLatencyCounts()
+    {
+        final long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            result[i] = this.counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the mean latency in microseconds.
+     */
+    public long getMeanLatency()
+    {
+        final long count = this.getRequestCount();
+        return count == 0 ? 0 : this.totalNanos.get() / count / 1000;
+    }
+
+    /**
+     * @return the maximum latency in microseconds.
+     */
+    public long getMaxLatency()
+    {
+        return this.maxNanos.get() / 1000;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile.
+     *
+     * @param percentile the percentile between 0 and 100;
+     * @return the latency in microseconds.
+     */
+    public long getLatencyPercentile(final double percentile)
+    {
+        final long[] counts = this.getLatencyCounts();
+        long total = 0;
+        for (final long c : counts)
+        {
+            total += c;
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * Math.max(0, Math.min(100, percentile)) / 100);
+        final long[] bounds = this.getLatencyBounds();
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+            {
+                return bounds[i];
+            }
+        }
+        return bounds[BUCKETS - 1];
+    }
+}
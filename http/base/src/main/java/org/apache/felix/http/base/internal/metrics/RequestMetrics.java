@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.base.internal.metrics;
+
+import java.util.Dictionary;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.felix.http.base.internal.logger.SystemLogger;
+import org.osgi.framework.BundleContext;
+
+/**
+ * The configuration of the request metrics. Both the per handler metrics
+ * and the slow request log are disabled by default, in which case
+ * dispatching a request only reads the volatile settings.
+ */
+public final class RequestMetrics
+{
+    /** Whether to record per servlet and filter metrics. */
+    public static final String REQUEST_METRICS = "org.apache.felix.http.requestMetrics";
+
+    /** The duration in milliseconds after which a request is logged, 0 disables the log. */
+    public static final String SLOW_REQUEST_THRESHOLD = "org.apache.felix.http.slowRequestThreshold";
+
+    private final BundleContext bundleContext;
+
+    private volatile boolean enabled;
+
+    private volatile long slowRequestNanos;
+
+    public RequestMetrics(final BundleContext bundleContext)
+    {
+        this.bundleContext = bundleContext;
+        configure(null);
+    }
+
+    /**
+     * Updates the settings from the given properties, falling back to the
+     * framework properties.
+     *
+     * @param props the properties, can be <code>null</code>.
+     */
+    public void configure(final Dictionary<String, ?> props)
+    {
+        this.enabled = Boolean.parseBoolean(getProperty(props, REQUEST_METRICS));
+
+        long threshold = 0;
+        final String value = getProperty(props, SLOW_REQUEST_THRESHOLD);
+        if (value != null)
+        {
+            try
+            {
+                threshold = Long.parseLong(value.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                SystemLogger.warning("Ignoring invalid " + SLOW_REQUEST_THRESHOLD + ": " + value, null);
+            }
+        }
+        this.slowRequestNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, threshold));
+    }
+
+    /**
+     * @return <code>true</code> if per handler metrics are recorded.
+     */
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * @return <code>true</code> if slow requests are logged.
+     */
+    public boolean isSlowRequestLogEnabled()
+    {
+        return this.slowRequestNanos > 0;
+    }
+
+    /**
+     * @return the slow request threshold in milliseconds, 0 if disabled.
+     */
+    public long getSlowRequestThreshold()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.slowRequestNanos);
+    }
+
+    /**
+     * Logs the request if it took longer than the slow request threshold.
+     *
+     * @param req the finished request;
+     * @param status the response status;
+     * @param nanos the duration of the request in nanoseconds.
+     */
+    public void requestFinished(final HttpServletRequest req, final int status, final long nanos)
+    {
+        final long threshold = this.slowRequestNanos;
+        if (threshold > 0 && nanos >= threshold)
+        {
+            final StringBuilder sb = new StringBuilder("Slow request: ");
+            sb.append(req.getMethod()).append(' ').append(req.getRequestURI());
+            if (req.getQueryString() != null)
+            {
+                sb.append('?').append(req.getQueryString());
+            }
+            sb.append(" returned ").append(status);
+            sb.append(" after ").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms");
+            SystemLogger.warning(sb.toString(), null);
+        }
+    }
+
+    private String getProperty(final Dictionary<String, ?> props, final String name)
+    {
+        final Object value = props == null ? null : props.get(name);
+        if (value != null)
+        {
+            return value.toString();
+        }
+        return this.bundleContext == null ? null : this.bundleContext.getProperty(name);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.base.internal.runtime.dto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.apache.felix.http.api.HandlerMetricsDTO;
+import org.apache.felix.http.api.RequestMetricsDTO;
+import org.apache.felix.http.base.internal.handler.FilterHandler;
+import org.apache.felix.http.base.internal.handler.HandlerRegistry;
+import org.apache.felix.http.base.internal.handler.ServletHandler;
+import org.apache.felix.http.base.internal.metrics.HandlerStats;
+import org.apache.felix.http.base.internal.metrics.RequestMetrics;
+
+public final class RequestMetricsDTOBuilder
+{
+    private final RequestMetrics metrics;
+    private final HandlerRegistry registry;
+
+    public RequestMetricsDTOBuilder(RequestMetrics metrics, HandlerRegistry registry)
+    {
+        this.metrics = metrics;
+        this.registry = registry;
+    }
+
+    public RequestMetricsDTO build()
+    {
+        Collection<ServletHandler> servletHandlers = new LinkedHashSet<ServletHandler>();
+        Collection<FilterHandler> filterHandlers = new LinkedHashSet<FilterHandler>();
+        registry.collectHandlers(servletHandlers, filterHandlers);
+
+        List<HandlerMetricsDTO> servletDTOs = new ArrayList<HandlerMetricsDTO>();
+        for (ServletHandler handler : servletHandlers)
+        {
+            servletDTOs.add(createDTO(handler.getStats(), handler.getServletInfo().getServiceId(),
+                    handler.getContextServiceId(), handler.getName()));
+        }
+        List<HandlerMetricsDTO> filterDTOs = new ArrayList<HandlerMetricsDTO>();
+        for (FilterHandler handler : filterHandlers)
+        {
+            filterDTOs.add(createDTO(handler.getStats(), handler.getFilterInfo().getServiceId(),
+                    handler.getContextServiceId(), handler.getName()));
+        }
+
+        RequestMetricsDTO dto = new RequestMetricsDTO();
+        dto.enabled = metrics.isEnabled();
+        dto.slowRequestThreshold = metrics.getSlowRequestThreshold();
+        dto.servletMetricsDTOs = servletDTOs.toArray(new HandlerMetricsDTO[servletDTOs.size()]);
+        dto.filterMetricsDTOs = filterDTOs.toArray(new HandlerMetricsDTO[filterDTOs.size()]);
+        return dto;
+    }
+
+    private HandlerMetricsDTO createDTO(HandlerStats stats, long serviceId, long servletContextId, String name)
+    {
+        HandlerMetricsDTO dto = new HandlerMetricsDTO();
+        dto.serviceId = serviceId;
+        dto.servletContextId = servletContextId;
+        dto.name = name;
+        dto.requestCount = stats.getRequestCount();
+        dto.errorCount = stats.getErrorCount();
+        dto.inFlightCount = stats.getInFlightCount();
+        dto.meanLatency = stats.getMeanLatency();
+        dto.maxLatency = stats.getMaxLatency();
+        dto.latencyBounds = stats.getLatencyBounds();
+        dto.latencyCounts = stats.getLatencyCounts();
+        return dto;
+    }
+}
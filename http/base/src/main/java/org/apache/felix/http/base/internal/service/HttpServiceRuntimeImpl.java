@@ -21,26 +21,33 @@ import static java.util.Collections.list;
 import java.util.Dictionary;
 import java.util.Hashtable;
 
+import org.apache.felix.http.api.RequestMetricsDTO;
+import org.apache.felix.http.api.RequestMetricsRuntime;
 import org.apache.felix.http.base.internal.handler.HandlerRegistry;
+import org.apache.felix.http.base.internal.metrics.RequestMetrics;
 import org.apache.felix.http.base.internal.runtime.dto.RegistryRuntime;
+import org.apache.felix.http.base.internal.runtime.dto.RequestMetricsDTOBuilder;
 import org.apache.felix.http.base.internal.runtime.dto.RuntimeDTOBuilder;
 import org.apache.felix.http.base.internal.whiteboard.WhiteboardManager;
 import org.osgi.service.http.runtime.HttpServiceRuntime;
 import org.osgi.service.http.runtime.dto.RequestInfoDTO;
 import org.osgi.service.http.runtime.dto.RuntimeDTO;
 
-public final class HttpServiceRuntimeImpl implements HttpServiceRuntime
+public final class HttpServiceRuntimeImpl implements HttpServiceRuntime, RequestMetricsRuntime
 {
     private final Hashtable<String, Object> attributes = new Hashtable<String, Object>();
 
     private final HandlerRegistry registry;
     private final WhiteboardManager contextManager;
+    private final RequestMetrics metrics;
 
     public HttpServiceRuntimeImpl(HandlerRegistry registry,
-            WhiteboardManager contextManager)
+            WhiteboardManager contextManager,
+            RequestMetrics metrics)
     {
         this.registry = registry;
         this.contextManager = contextManager;
+        this.metrics = metrics;
     }
 
     @Override
@@ -51,6 +58,12 @@ public final class HttpServiceRuntimeImpl implements HttpServiceRuntime
         return runtimeDTOBuilder.build();
     }
 
+    @Override
+    public RequestMetricsDTO getRequestMetricsDTO()
+    {
+        return new RequestMetricsDTOBuilder(metrics, registry).build();
+    }
+
     @Override
     public RequestInfoDTO calculateRequestInfoDTO(String path)
     {
@@ -0,0 +1,677 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.base.internal.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the resources of a resource servlet.
+ * <p>
+ * The metadata of the served resources (length, last modification time, ETag and
+ * MIME type) and the contents of small resources are kept in a bounded cache.
+ * Resources backed by a file are validated against the file on each request and
+ * sent with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, other
+ * resources are validated again once {@link #REVALIDATE_INTERVAL} has passed.
+ * <p>
+ * Conditional requests (<tt>If-None-Match</tt>, <tt>If-Modified-Since</tt>),
+ * single byte ranges (<tt>Range</tt>, <tt>If-Range</tt>) and precompressed
+ * variants are supported: if a resource with the name of the requested resource
+ * and a <tt>.gz</tt> suffix exists, it is sent to clients accepting the gzip
+ * content encoding.
+ */
+public final class ResourceCache
+{
+    /** The interval in milliseconds in which resources not backed by a file are validated. */
+    public static final long REVALIDATE_INTERVAL = 2000;
+
+    private static final int MAX_ENTRIES = 256;
+
+    /** The maximum size of a resource whose contents are cached. */
+    private static final int MAX_CACHED_CONTENT = 16 * 1024;
+
+    /** The maximum size of all cached contents. */
+    private static final long MAX_CACHED_BYTES = 1024 * 1024;
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The result of parsing a range that is outside of the resource. */
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    /** The entries by resource name, in access order. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** The size of the contents of the cached entries. */
+    private long cachedBytes;
+
+    /**
+     * Sends the resource to the client.
+     *
+     * @param context the servlet context of the resource servlet.
+     * @param req the request.
+     * @param res the response.
+     * @param url the URL of the resource.
+     * @param resName the name of the resource.
+     * @throws IOException in case of I/O problems.
+     */
+    public void serve(final ServletContext context,
+            final HttpServletRequest req,
+            final HttpServletResponse res,
+            final URL url,
+            final String resName)
+    throws IOException
+    {
+        final Entry entry = getEntry(context, url, resName);
+
+        Entry selected = entry;
+        if (entry.gzip != null)
+        {
+            res.setHeader("Vary", "Accept-Encoding");
+            if (acceptsGzip(req.getHeader("Accept-Encoding")))
+            {
+                selected = entry.gzip;
+                res.setHeader("Content-Encoding", "gzip");
+            }
+        }
+
+        if (entry.contentType != null)
+        {
+            res.setContentType(entry.contentType);
+        }
+        if (selected.lastModified != 0)
+        {
+            res.setDateHeader("Last-Modified", selected.lastModified);
+        }
+        if (selected.etag != null)
+        {
+            res.setHeader("ETag", selected.etag);
+        }
+
+        if (isNotModified(req, selected))
+        {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long count = selected.length;
+        if (selected.length >= 0)
+        {
+            res.setHeader("Accept-Ranges", "bytes");
+
+            final String range = req.getHeader("Range");
+            if (range != null && isRangeApplicable(req, selected))
+            {
+                final long[] bounds = parseRange(range, selected.length);
+                if (bounds == UNSATISFIABLE)
+                {
+                    res.setHeader("Content-Range", "bytes */" + selected.length);
+                    res.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                if (bounds != null)
+                {
+                    start = bounds[0];
+                    count = bounds[1] - bounds[0] + 1;
+                    res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    res.setHeader("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + selected.length);
+                }
+            }
+
+            // FELIX-3987 content length should be set *before* any streaming is done
+            // as headers should be written before the content is actually written...
+            if (count < Integer.MAX_VALUE)
+            {
+                res.setContentLength((int) count);
+            }
+            else
+            {
+                res.setHeader("Content-Length", String.valueOf(count));
+            }
+        }
+
+        if ("HEAD".equals(req.getMethod()))
+        {
+            return;
+        }
+
+        final OutputStream os = res.getOutputStream();
+        if (selected.content != null)
+        {
+            os.write(selected.content, (int) start, (int) count);
+        }
+        else if (selected.file != null)
+        {
+            transfer(selected.file, start, count, os);
+        }
+        else
+        {
+            copy(selected.url, start, count, os);
+        }
+    }
+
+    /**
+     * Returns the valid cache entry for the resource, loading it if necessary.
+     */
+    private Entry getEntry(final ServletContext context, final URL url, final String resName) throws IOException
+    {
+        final String key = url.toExternalForm();
+        final long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (this)
+        {
+            entry = this.entries.get(resName);
+        }
+        if (entry != null && entry.key.equals(key) && entry.isValid(now))
+        {
+            return entry;
+        }
+
+        entry = load(url, key, context.getMimeType(resName), now);
+        if (!resName.endsWith(GZIP_SUFFIX))
+        {
+            final URL gzipUrl = context.getResource(resName + GZIP_SUFFIX);
+            if (gzipUrl != null)
+            {
+                try
+                {
+                    entry.gzip = load(gzipUrl, gzipUrl.toExternalForm(), entry.contentType, now);
+                    if (entry.gzip.etag != null)
+                    {
+                        // the variants must not share ETags
+                        entry.gzip.etag = entry.gzip.etag.substring(0, entry.gzip.etag.length() - 1) + "-gzip\"";
+                    }
+                }
+                catch (final IOException e)
+                {
+                    // serve the resource itself
+                }
+            }
+        }
+
+        synchronized (this)
+        {
+            final Entry old = this.entries.put(resName, entry);
+            if (old != null)
+            {
+                this.cachedBytes -= old.size();
+            }
+            this.cachedBytes += entry.size();
+
+            final Iterator<Map.Entry<String, Entry>> i = this.entries.entrySet().iterator();
+            while ((this.entries.size() > MAX_ENTRIES || this.cachedBytes > MAX_CACHED_BYTES) && i.hasNext())
+            {
+                final Entry eldest = i.next().getValue();
+                i.remove();
+                this.cachedBytes -= eldest.size();
+            }
+        }
+        return entry;
+    }
+
+    private Entry load(final URL url, final String key, final String contentType, final long now) throws IOException
+    {
+        final File file = getFile(url);
+        long lastModified;
+        long length;
+        InputStream is = null;
+        byte[] content = null;
+        try
+        {
+            if (file != null)
+            {
+                lastModified = file.lastModified();
+                length = file.length();
+                if (length <= MAX_CACHED_CONTENT)
+                {
+                    is = new FileInputStream(file);
+                }
+            }
+            else
+            {
+                final URLConnection conn = url.openConnection();
+                lastModified = getLastModified(url, conn);
+                length = getContentLength(conn);
+                if (length <= MAX_CACHED_CONTENT)
+                {
+                    is = conn.getInputStream();
+                }
+            }
+
+            if (is != null)
+            {
+                content = read(is, MAX_CACHED_CONTENT);
+                if (content != null)
+                {
+                    length = content.length;
+                }
+            }
+        }
+        finally
+        {
+            if (is != null)
+            {
+                is.close();
+            }
+        }
+
+        String etag = null;
+        if (lastModified != 0 && length >= 0)
+        {
+            etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+        }
+        else if (content != null)
+        {
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(length) + "\"";
+        }
+        return new Entry(key, url, file, lastModified, length, etag, contentType, content, now);
+    }
+
+    /**
+     * @return the file of a <tt>file:</tt> URL denoting a regular file, <code>null</code> otherwise.
+     */
+    private static File getFile(final URL url)
+    {
+        if (!"file".equals(url.getProtocol()))
+        {
+            return null;
+        }
+        File file;
+        try
+        {
+            file = new File(url.toURI());
+        }
+        catch (final URISyntaxException e)
+        {
+            file = new File(url.getPath());
+        }
+        catch (final IllegalArgumentException e)
+        {
+            file = new File(url.getPath());
+        }
+        return file.isFile() ? file : null;
+    }
+
+    private static long getLastModified(final URL url, final URLConnection conn)
+    {
+        long lastModified = conn.getLastModified();
+        if (lastModified == 0)
+        {
+            final String filepath = url.getPath();
+            if (filepath != null)
+            {
+                final File f = new File(filepath);
+                if (f.exists())
+                {
+                    lastModified = f.lastModified();
+                }
+            }
+        }
+        return lastModified;
+    }
+
+    private static long getContentLength(final URLConnection conn)
+    {
+        long length = conn.getContentLength();
+        if (length < 0)
+        {
+            // Unknown, try whether it is a file, and if so, use the file
+            // API to get the length of the content...
+            final String path = conn.getURL().getPath();
+            if (path != null)
+            {
+                final File f = new File(path);
+                if (f.isFile())
+                {
+                    length = f.length();
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Reads the stream completely, unless it contains more than the given number of bytes.
+     *
+     * @return the contents, or <code>null</code> if the stream is too long.
+     */
+    private static byte[] read(final InputStream is, final int max) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = is.read(buf, 0, buf.length)) >= 0)
+        {
+            out.write(buf, 0, n);
+            if (out.size() > max)
+            {
+                return null;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void transfer(final File file, final long start, final long count, final OutputStream os) throws IOException
+    {
+        final FileInputStream fis = new FileInputStream(file);
+        try
+        {
+            final FileChannel channel = fis.getChannel();
+            // Containers with channel based output streams get the file without copying...
+            final WritableByteChannel target = (os instanceof WritableByteChannel) ? (WritableByteChannel) os : Channels.newChannel(os);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0)
+            {
+                final long n = channel.transferTo(position, remaining, target);
+                if (n <= 0)
+                {
+                    // file was truncated
+                    break;
+                }
+                position += n;
+                remaining -= n;
+            }
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    private static void copy(final URL url, final long start, final long count, final OutputStream os) throws IOException
+    {
+        final InputStream is = url.openStream();
+        try
+        {
+            long skipped = 0;
+            while (skipped < start)
+            {
+                final long n = is.skip(start - skipped);
+                if (n <= 0)
+                {
+                    return;
+                }
+                skipped += n;
+            }
+
+            final byte[] buf = new byte[BUFFER_SIZE];
+            long remaining = (count < 0) ? Long.MAX_VALUE : count;
+            int n;
+            while (remaining > 0 && (n = is.read(buf, 0, (int) Math.min(buf.length, remaining))) >= 0)
+            {
+                os.write(buf, 0, n);
+                remaining -= n;
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static boolean acceptsGzip(final String acceptEncoding)
+    {
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+        for (final String coding : acceptEncoding.split(","))
+        {
+            final String[] params = coding.split(";");
+            final String name = params[0].trim();
+            if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name))
+            {
+                for (int i = 1; i < params.length; i++)
+                {
+                    final String param = params[i].trim();
+                    if (param.startsWith("q="))
+                    {
+                        try
+                        {
+                            return Float.parseFloat(param.substring(2)) > 0;
+                        }
+                        catch (final NumberFormatException e)
+                        {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNotModified(final HttpServletRequest req, final Entry entry)
+    {
+        final String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            if (entry.etag == null)
+            {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(","))
+            {
+                tag = tag.trim();
+                if (tag.startsWith("W/"))
+                {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(entry.etag))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return !resourceModified(entry.lastModified, req.getDateHeader("If-Modified-Since"));
+    }
+
+    private static boolean resourceModified(long resTimestamp, long modSince)
+    {
+        modSince /= 1000;
+        resTimestamp /= 1000;
+
+        return resTimestamp == 0 || modSince == -1 || resTimestamp > modSince;
+    }
+
+    /**
+     * @return whether the range of the request applies to the current contents of the resource.
+     */
+    private static boolean isRangeApplicable(final HttpServletRequest req, final Entry entry)
+    {
+        final String ifRange = req.getHeader("If-Range");
+        if (ifRange == null)
+        {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+        {
+            // weak validators never match
+            return ifRange.equals(entry.etag);
+        }
+        try
+        {
+            final long date = req.getDateHeader("If-Range");
+            return entry.lastModified != 0 && entry.lastModified / 1000 == date / 1000;
+        }
+        catch (final IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a <tt>Range</tt> header with a single byte range.
+     *
+     * @return the first and last byte of the range, {@link #UNSATISFIABLE} if the range
+     *         is outside of the resource, or <code>null</code> if the header is invalid or
+     *         has multiple ranges, in which case the whole resource is sent.
+     */
+    static long[] parseRange(final String range, final long length)
+    {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0)
+        {
+            return null;
+        }
+        final String spec = range.substring(6).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0)
+        {
+            return null;
+        }
+        try
+        {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.length() == 0)
+            {
+                // suffix range: the last n bytes
+                final long n = Long.parseLong(last);
+                if (n < 0)
+                {
+                    return null;
+                }
+                if (n == 0 || length == 0)
+                {
+                    return UNSATISFIABLE;
+                }
+                return new long[] { Math.max(0, length - n), length - 1 };
+            }
+
+            final long start = Long.parseLong(first);
+            final long end = (last.length() == 0) ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start)
+            {
+                return null;
+            }
+            if (start >= length)
+            {
+                return UNSATISFIABLE;
+            }
+            return new long[] { start, Math.min(end, length - 1) };
+        }
+        catch (final NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * A cached resource.
+     */
+    private static final class Entry
+    {
+        /** The external form of the URL. */
+        final String key;
+        final URL url;
+        /** The file of the resource, if it is backed by a file. */
+        final File file;
+        final long lastModified;
+        /** The length or -1 if not known. */
+        final long length;
+        String etag;
+        final String contentType;
+        /** The contents if the resource is small enough. */
+        final byte[] content;
+        /** The precompressed variant. */
+        Entry gzip;
+        /** When the entry was validated the last time. */
+        volatile long checked;
+
+        Entry(final String key, final URL url, final File file, final long lastModified, final long length,
+                final String etag, final String contentType, final byte[] content, final long checked)
+        {
+            this.key = key;
+            this.url = url;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.content = content;
+            this.checked = checked;
+        }
+
+        long size()
+        {
+            long size = (this.content == null) ? 0 : this.content.length;
+            if (this.gzip != null)
+            {
+                size += this.gzip.size();
+            }
+            return size;
+        }
+
+        boolean isValid(final long now)
+        {
+            if (this.gzip != null && !this.gzip.isValid(now))
+            {
+                return false;
+            }
+            if (this.file != null)
+            {
+                return this.file.lastModified() == this.lastModified && this.file.length() == this.length;
+            }
+            if (now - this.checked < REVALIDATE_INTERVAL)
+            {
+                return true;
+            }
+            try
+            {
+                final URLConnection conn = this.url.openConnection();
+                final long length = getContentLength(conn);
+                if (getLastModified(this.url, conn) != this.lastModified || (length >= 0 && length != this.length))
+                {
+                    return false;
+                }
+            }
+            catch (final IOException e)
+            {
+                return false;
+            }
+            this.checked = now;
+            return true;
+        }
+    }
+}
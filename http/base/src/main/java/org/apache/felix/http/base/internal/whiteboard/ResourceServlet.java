@@ -16,18 +16,16 @@
  */
 package org.apache.felix.http.base.internal.whiteboard;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URL;
-import java.net.URLConnection;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.felix.http.base.internal.util.ResourceCache;
+
 /**
  * The resource servlet used for resource whiteboard registrations.
  */
@@ -38,6 +36,9 @@ public final class ResourceServlet extends HttpServlet
     /** The path of the resource registration. */
     private final String prefix;
 
+    /** The metadata and contents of the served resources. */
+    private final transient ResourceCache cache = new ResourceCache();
+
     public ResourceServlet(final String prefix)
     {
         this.prefix = prefix;
@@ -58,136 +59,7 @@ public final class ResourceServlet extends HttpServlet
         }
         else
         {
-            handle(req, res, url, resName);
-        }
-    }
-
-    private void handle(final HttpServletRequest req,
-            final HttpServletResponse res, final URL url, final String resName)
-    throws IOException
-    {
-        final String contentType = getServletContext().getMimeType(resName);
-        if (contentType != null)
-        {
-            res.setContentType(contentType);
-        }
-
-        final long lastModified = getLastModified(url);
-        if (lastModified != 0)
-        {
-            res.setDateHeader("Last-Modified", lastModified);
-        }
-
-        if (!resourceModified(lastModified, req.getDateHeader("If-Modified-Since")))
-        {
-            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-        }
-        else
-        {
-            copyResource(url, res);
-        }
-    }
-
-    private long getLastModified(final URL url)
-    {
-        long lastModified = 0;
-
-        try
-        {
-            final URLConnection conn = url.openConnection();
-            lastModified = conn.getLastModified();
-        }
-        catch (final Exception e)
-        {
-            // Do nothing
-        }
-
-        if (lastModified == 0)
-        {
-            final String filepath = url.getPath();
-            if (filepath != null)
-            {
-                final File f = new File(filepath);
-                if (f.exists())
-                {
-                    lastModified = f.lastModified();
-                }
-            }
-        }
-
-        return lastModified;
-    }
-
-    private boolean resourceModified(long resTimestamp, long modSince)
-    {
-        modSince /= 1000;
-        resTimestamp /= 1000;
-
-        return resTimestamp == 0 || modSince == -1 || resTimestamp > modSince;
-    }
-
-    private void copyResource(final URL url, final HttpServletResponse res) throws IOException
-    {
-        URLConnection conn = null;
-        OutputStream os = null;
-        InputStream is = null;
-
-        try
-        {
-            conn = url.openConnection();
-
-            is = conn.getInputStream();
-            os = res.getOutputStream();
-            // FELIX-3987 content length should be set *before* any streaming is done
-            // as headers should be written before the content is actually written...
-            int len = getContentLength(conn);
-            if (len >= 0)
-            {
-                res.setContentLength(len);
-            }
-
-            byte[] buf = new byte[1024];
-            int n;
-
-            while ((n = is.read(buf, 0, buf.length)) >= 0)
-            {
-                os.write(buf, 0, n);
-            }
-        }
-        finally
-        {
-            if (is != null)
-            {
-                is.close();
-            }
-
-            if (os != null)
-            {
-                os.close();
-            }
-        }
-    }
-
-    private int getContentLength(final URLConnection conn)
-    {
-        int length = -1;
-
-        length = conn.getContentLength();
-        if (length < 0)
-        {
-            // Unknown, try whether it is a file, and if so, use the file
-            // API to get the length of the content...
-            String path = conn.getURL().getPath();
-            if (path != null)
-            {
-                File f = new File(path);
-                // In case more than 2GB is streamed
-                if (f.length() < Integer.MAX_VALUE)
-                {
-                    length = (int) f.length();
-                }
-            }
+            this.cache.serve(getServletContext(), req, res, url, resName);
         }
-        return length;
     }
 }
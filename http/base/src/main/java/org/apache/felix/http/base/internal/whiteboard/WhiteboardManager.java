@@ -40,10 +40,12 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletContextListener;
 import javax.servlet.http.HttpSession;
 
+import org.apache.felix.http.api.RequestMetricsRuntime;
 import org.apache.felix.http.base.internal.context.ExtServletContext;
 import org.apache.felix.http.base.internal.handler.HandlerRegistry;
 import org.apache.felix.http.base.internal.handler.HttpSessionWrapper;
 import org.apache.felix.http.base.internal.logger.SystemLogger;
+import org.apache.felix.http.base.internal.metrics.RequestMetrics;
 import org.apache.felix.http.base.internal.runtime.AbstractInfo;
 import org.apache.felix.http.base.internal.runtime.FilterInfo;
 import org.apache.felix.http.base.internal.runtime.HttpSessionAttributeListenerInfo;
@@ -114,22 +116,24 @@ public final class WhiteboardManager
 
     private final List<ServiceTracker<?, ?>> trackers = new ArrayList<ServiceTracker<?, ?>>();
 
-    private volatile ServiceRegistration<HttpServiceRuntime> runtimeServiceReg;
+    private volatile ServiceRegistration<?> runtimeServiceReg;
 
     /**
      * Create a new whiteboard http manager
      * @param bundleContext
      * @param httpServiceFactory
      * @param registry
+     * @param metrics
      */
     public WhiteboardManager(final BundleContext bundleContext,
             final HttpServiceFactory httpServiceFactory,
-            final HandlerRegistry registry)
+            final HandlerRegistry registry,
+            final RequestMetrics metrics)
     {
         this.bundleContext = bundleContext;
         this.httpServiceFactory = httpServiceFactory;
         this.httpService = new WhiteboardHttpService(this.bundleContext, registry);
-        this.serviceRuntime = new HttpServiceRuntimeImpl(registry, this);
+        this.serviceRuntime = new HttpServiceRuntimeImpl(registry, this, metrics);
     }
 
     public void start(final ServletContext context)
@@ -137,7 +141,9 @@ public final class WhiteboardManager
         // TODO set Endpoint
         this.serviceRuntime.setAttribute(HttpServiceRuntimeConstants.HTTP_SERVICE_ID_ATTRIBUTE,
                 this.httpServiceFactory.getHttpServiceServiceId());
-        this.runtimeServiceReg = this.bundleContext.registerService(HttpServiceRuntime.class,
+        this.runtimeServiceReg = this.bundleContext.registerService(new String[] {
+                    HttpServiceRuntime.class.getName(), RequestMetricsRuntime.class.getName()
+                },
                 serviceRuntime,
                 this.serviceRuntime.getAttributes());
 
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import org.apache.felix.http.base.internal.util.PatternUtil;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link HandlerMapping}.
+ */
+public class HandlerMappingTest
+{
+    @Test
+    public void testEmptyMapping()
+    {
+        HandlerMapping<TestHandler> mapping = new HandlerMapping<TestHandler>();
+        assertTrue(mapping.isEmpty());
+        assertNull(mapping.getBestMatch("/foo"));
+        assertTrue(mapping.getAllMatches("/foo").isEmpty());
+    }
+
+    @Test
+    public void testBestMatchFollowsServletSpecPrecedence()
+    {
+        // Examples from the Servlet 3.0 spec, section 12.2.2...
+        TestHandler servlet1 = createServletHandler("servlet1", 0, "/foo/bar/*");
+        TestHandler servlet2 = createServletHandler("servlet2", 1, "/baz/*");
+        TestHandler servlet3 = createServletHandler("servlet3", 2, "/catalog");
+        TestHandler servlet4 = createServletHandler("servlet4", 3, "*.bop");
+
+        HandlerMapping<TestHandler> mapping = new HandlerMapping<TestHandler>()
+            .add(servlet1).add(servlet2).add(servlet3).add(servlet4);
+
+        assertSame(servlet1, mapping.getBestMatch("/foo/bar/index.html"));
+        assertSame(servlet1, mapping.getBestMatch("/foo/bar/index.bop"));
+        assertSame(servlet2, mapping.getBestMatch("/baz"));
+        assertSame(servlet2, mapping.getBestMatch("/baz/index.html"));
+        assertSame(servlet3, mapping.getBestMatch("/catalog"));
+        assertSame(servlet4, mapping.getBestMatch("/catalog/index.bop"));
+        assertSame(servlet4, mapping.getBestMatch("/index.bop"));
+        assertNull(mapping.getBestMatch("/catalog/racecar.html"));
+        assertNull(mapping.getBestMatch("/foo/barista"));
+    }
+
+    @Test
+    public void testBestMatchPrefersLongestPrefix()
+    {
+        // the lower ranked handler has the longer prefix
+        TestHandler root = createServletHandler("root", 0, "/*");
+        TestHandler foo = createServletHandler("foo", 1, "/foo/*");
+        TestHandler fooBar = createServletHandler("fooBar", 2, "/foo/bar/*");
+
+        HandlerMapping<TestHandler> mapping = new HandlerMapping<TestHandler>().add(root).add(foo).add(fooBar);
+
+        assertSame(root, mapping.getBestMatch(""));
+        assertSame(root, mapping.getBestMatch("/"));
+        assertSame(root, mapping.getBestMatch("/fo"));
+        assertSame(foo, mapping.getBestMatch("/foo"));
+        assertSame(foo, mapping.getBestMatch("/foo/"));
+        assertSame(foo, mapping.getBestMatch("/foo/baz/bar"));
+        assertSame(fooBar, mapping.getBestMatch("/foo/bar/"));
+        assertSame(fooBar, mapping.getBestMatch("/foo/bar/qux.html"));
+
+        mapping = mapping.remove(fooBar);
+        assertSame(foo, mapping.getBestMatch("/foo/bar/qux.html"));
+    }
+
+    @Test
+    public void testExtensionMatches()
+    {
+        TestHandler gz = createServletHandler("gz", 0, "*.gz");
+        TestHandler tarGz = createServletHandler("tarGz", 1, "*.tar.gz");
+        TestHandler any = createServletHandler("any", 2, "*.*");
+
+        HandlerMapping<TestHandler> mapping = new HandlerMapping<TestHandler>().add(gz).add(tarGz).add(any);
+
+        assertSame(gz, mapping.getBestMatch("/foo.gz"));
+        assertSame(tarGz, mapping.getBestMatch("/foo.tar.gz"));
+        assertSame(any, mapping.getBestMatch("/foo.*"));
+        assertNull(mapping.getBestMatch("/foo.tar"));
+        assertEquals(Arrays.asList(gz, tarGz), mapping.getAllMatches("/foo.tar.gz"));
+    }
+
+    @Test
+    public void testPatternsWithRegexCharactersAreMatchedAsRegex()
+    {
+        TestHandler dot = createServletHandler("dot", 0, "/foo.html");
+        TestHandler plus = createServletHandler("plus", 1, "/a+b/*");
+        TestHandler prefix = createServletHandler("prefix", 2, "/*");
+
+        HandlerMapping<TestHandler> mapping = new HandlerMapping<TestHandler>().add(dot).add(plus).add(prefix);
+
+        assertSame(dot, mapping.getBestMatch("/foo.html"));
+        assertSame(plus, mapping.getBestMatch("/aab/c"));
+        assertSame(prefix, mapping.getBestMatch("/a+b/c"));
+        assertEquals(Arrays.asList(plus, prefix), mapping.getAllMatches("/ab"));
+    }
+
+    @Test
+    public void testAllMatchesForFilters()
+    {
+        TestHandler all = createFilterHandler("all", 0, ".*");
+        TestHandler foo = createFilterHandler("foo", 1, "/foo/.*");
+        TestHandler exact = createFilterHandler("exact", 2, "/foo/bar");
+        TestHandler prefix = createServletHandler("prefix", 3, "/foo/*");
+        TestHandler extension = createServletHandler("extension", 4, "*.html");
+
+        HandlerMapping<TestHandler> mapping = new HandlerMapping<TestHandler>()
+            .add(all).add(foo).add(exact).add(prefix).add(extension);
+
+        assertEquals(Arrays.asList(all, foo, exact, prefix), mapping.getAllMatches("/foo/bar"));
+        assertEquals(Arrays.asList(all, foo, prefix, extension), mapping.getAllMatches("/foo/bar.html"));
+        assertEquals(Arrays.asList(all, prefix), mapping.getAllMatches("/foo"));
+        assertEquals(Arrays.asList(all), mapping.getAllMatches(null));
+    }
+
+    private static TestHandler createServletHandler(String name, int order, String... patterns)
+    {
+        Pattern[] result = new Pattern[patterns.length];
+        for (int i = 0; i < patterns.length; i++)
+        {
+            result[i] = Pattern.compile(PatternUtil.convertToRegEx(patterns[i]));
+        }
+        return new TestHandler(name, order, result);
+    }
+
+    private static TestHandler createFilterHandler(String name, int order, String regex)
+    {
+        return new TestHandler(name, order, new Pattern[] { Pattern.compile(regex) });
+    }
+
+    private static final class TestHandler extends AbstractHandler<TestHandler>
+    {
+        private final int order;
+        private final Pattern[] patterns;
+
+        TestHandler(String name, int order, Pattern[] patterns)
+        {
+            super(null, Collections.<String, String>emptyMap(), name);
+            this.order = order;
+            this.patterns = patterns;
+        }
+
+        @Override
+        public int compareTo(TestHandler other)
+        {
+            return Integer.compare(this.order, other.order);
+        }
+
+        @Override
+        public void init()
+        {
+        }
+
+        @Override
+        public void destroy()
+        {
+        }
+
+        @Override
+        protected Object getSubject()
+        {
+            return this;
+        }
+
+        @Override
+        protected long getServiceId()
+        {
+            return this.order;
+        }
+
+        @Override
+        public Pattern[] getPatterns()
+        {
+            return this.patterns;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getName();
+        }
+    }
+}
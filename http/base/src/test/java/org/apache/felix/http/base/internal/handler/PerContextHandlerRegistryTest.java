@@ -16,14 +16,23 @@
  */
 package org.apache.felix.http.base.internal.handler;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.Servlet;
+
+import org.apache.felix.http.base.internal.runtime.FilterInfo;
 import org.apache.felix.http.base.internal.runtime.ServletContextHelperInfo;
+import org.apache.felix.http.base.internal.runtime.ServletInfo;
 import org.apache.felix.http.base.internal.runtime.WhiteboardServiceHelper;
 import org.junit.Test;
 
@@ -108,6 +117,37 @@ public class PerContextHandlerRegistryTest
         assertTrue(high.compareTo(low) > 0);
     }
 
+    @Test
+    public void testLookupCachesAreDroppedOnChange() throws Exception
+    {
+        final PerContextHandlerRegistry registry = new PerContextHandlerRegistry(null);
+
+        final ServletInfo fooInfo = new ServletInfo("foo", "/foo/*", 0, Collections.<String, String> emptyMap());
+        final ServletHandler foo = new ServletHandler(null, null, fooInfo, mock(Servlet.class));
+        registry.addServlet(foo);
+
+        // fill the caches
+        assertSame(foo, registry.getServletHander("/foo/bar"));
+        assertEquals(0, registry.getFilterHandlers(foo, DispatcherType.REQUEST, "/foo/bar").length);
+
+        final ServletInfo barInfo = new ServletInfo("bar", "/foo/bar", 0, Collections.<String, String> emptyMap());
+        final ServletHandler bar = new ServletHandler(null, null, barInfo, mock(Servlet.class));
+        registry.addServlet(bar);
+        final FilterInfo filterInfo = new FilterInfo("filter", "/foo/.*", 0, Collections.<String, String> emptyMap());
+        final FilterHandler filter = new FilterHandler(null, null, mock(Filter.class), filterInfo);
+        registry.addFilter(filter);
+
+        assertSame(bar, registry.getServletHander("/foo/bar"));
+        assertArrayEquals(new FilterHandler[] { filter },
+            registry.getFilterHandlers(foo, DispatcherType.REQUEST, "/foo/bar"));
+
+        registry.removeServlet(barInfo, true);
+        registry.removeFilter(filterInfo, true);
+
+        assertSame(foo, registry.getServletHander("/foo/bar"));
+        assertEquals(0, registry.getFilterHandlers(foo, DispatcherType.REQUEST, "/foo/bar").length);
+    }
+
     private ServletContextHelperInfo createServletContextHelperInfo(final String path, final long serviceId, final int ranking)
     {
         return WhiteboardServiceHelper.createContextInfo(ranking, serviceId, "", path, null);
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.base.internal.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link HandlerStats}.
+ */
+public class HandlerStatsTest
+{
+    @Test
+    public void testFinishedRequestsAreCounted()
+    {
+        HandlerStats stats = new HandlerStats();
+        stats.started();
+        stats.started();
+        assertEquals(2, stats.getInFlightCount());
+
+        stats.finished(3000, false);
+        stats.finished(5000000, true);
+        assertEquals(0, stats.getInFlightCount());
+        assertEquals(2, stats.getRequestCount());
+        assertEquals(1, stats.getErrorCount());
+        assertEquals(2501, stats.getMeanLatency());
+        assertEquals(5000, stats.getMaxLatency());
+
+        // 3 us is below 4 us, 5000 us below 8192 us
+        long[] counts = stats.getLatencyCounts();
+        assertEquals(1, counts[2]);
+        assertEquals(1, counts[13]);
+        assertEquals(4, stats.getLatencyPercentile(50));
+        assertEquals(8192, stats.getLatencyPercentile(99));
+    }
+
+    @Test
+    public void testReset()
+    {
+        HandlerStats stats = new HandlerStats();
+        stats.started();
+        stats.finished(1000, true);
+        stats.reset();
+        assertEquals(0, stats.getRequestCount());
+        assertEquals(0, stats.getErrorCount());
+        assertEquals(0, stats.getMaxLatency());
+        assertEquals(0, stats.getLatencyPercentile(50));
+    }
+}
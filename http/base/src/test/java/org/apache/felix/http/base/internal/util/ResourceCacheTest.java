@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.http.base.internal.util;
+
+import static org.apache.felix.http.base.internal.util.ResourceCache.parseRange;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ResourceCache}.
+ */
+public class ResourceCacheTest
+{
+    private static final String NAME = "/test.txt";
+
+    private File dir;
+
+    private File file;
+
+    private byte[] content;
+
+    private ServletContext context;
+
+    private ResourceCache cache;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.dir = File.createTempFile("resourcecache", ".dir");
+        this.dir.delete();
+        this.dir.mkdirs();
+
+        this.file = new File(this.dir, "test.txt");
+        this.content = createContent(100, 'a');
+        write(this.file, this.content);
+
+        this.context = mock(ServletContext.class);
+        when(this.context.getMimeType(NAME)).thenReturn("text/plain");
+
+        this.cache = new ResourceCache();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (final File f : this.dir.listFiles())
+        {
+            f.delete();
+        }
+        this.dir.delete();
+    }
+
+    @Test
+    public void testParseRange()
+    {
+        assertArrayEquals(new long[] { 0, 99 }, parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] { 500, 999 }, parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[] { 900, 999 }, parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] { 0, 999 }, parseRange("bytes=-2000", 1000));
+        // the last byte position is limited by the length
+        assertArrayEquals(new long[] { 990, 999 }, parseRange("bytes=990-2000", 1000));
+    }
+
+    @Test
+    public void testParseUnsatisfiableRange()
+    {
+        assertEquals(0, parseRange("bytes=1000-", 1000).length);
+        assertEquals(0, parseRange("bytes=-0", 1000).length);
+        assertEquals(0, parseRange("bytes=0-", 0).length);
+    }
+
+    @Test
+    public void testParseIgnoredRange()
+    {
+        assertNull(parseRange("items=0-99", 1000));
+        assertNull(parseRange("bytes=0-9,20-29", 1000));
+        assertNull(parseRange("bytes=99-0", 1000));
+        assertNull(parseRange("bytes=a-b", 1000));
+        assertNull(parseRange("bytes=100", 1000));
+    }
+
+    @Test
+    public void testServe() throws IOException
+    {
+        final HttpServletResponse res = createResponse();
+        final ByteArrayOutputStream out = serve(createRequest("GET"), res);
+
+        verify(res).setContentType("text/plain");
+        verify(res).setContentLength(100);
+        verify(res).setHeader("ETag", etag(this.file));
+        verify(res).setHeader("Accept-Ranges", "bytes");
+        verify(res, never()).setHeader("Vary", "Accept-Encoding");
+        assertArrayEquals(this.content, out.toByteArray());
+    }
+
+    @Test
+    public void testIfNoneMatch() throws IOException
+    {
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getHeader("If-None-Match")).thenReturn("\"other\", " + etag(this.file));
+        final HttpServletResponse res = createResponse();
+        serve(req, res);
+
+        verify(res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(res, never()).getOutputStream();
+    }
+
+    @Test
+    public void testIfNoneMatchMismatch() throws IOException
+    {
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getHeader("If-None-Match")).thenReturn("\"other\"");
+        // If-None-Match takes precedence over If-Modified-Since
+        when(req.getDateHeader("If-Modified-Since")).thenReturn(this.file.lastModified());
+        final HttpServletResponse res = createResponse();
+        final ByteArrayOutputStream out = serve(req, res);
+
+        verify(res, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertArrayEquals(this.content, out.toByteArray());
+    }
+
+    @Test
+    public void testIfModifiedSince() throws IOException
+    {
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getDateHeader("If-Modified-Since")).thenReturn(this.file.lastModified());
+        final HttpServletResponse res = createResponse();
+        serve(req, res);
+
+        verify(res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(res, never()).getOutputStream();
+    }
+
+    @Test
+    public void testRange() throws IOException
+    {
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getHeader("Range")).thenReturn("bytes=10-19");
+        final HttpServletResponse res = createResponse();
+        final ByteArrayOutputStream out = serve(req, res);
+
+        verify(res).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(res).setHeader("Content-Range", "bytes 10-19/100");
+        verify(res).setContentLength(10);
+        assertArrayEquals(Arrays.copyOfRange(this.content, 10, 20), out.toByteArray());
+    }
+
+    @Test
+    public void testRangeOfLargeFile() throws IOException
+    {
+        // too large to be cached, so it is transferred from the file
+        final byte[] large = createContent(100000, 'A');
+        write(this.file, large);
+
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getHeader("Range")).thenReturn("bytes=-1000");
+        final HttpServletResponse res = createResponse();
+        final ByteArrayOutputStream out = serve(req, res);
+
+        verify(res).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(res).setHeader("Content-Range", "bytes 99000-99999/100000");
+        verify(res).setContentLength(1000);
+        assertArrayEquals(Arrays.copyOfRange(large, 99000, 100000), out.toByteArray());
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws IOException
+    {
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getHeader("Range")).thenReturn("bytes=100-");
+        final HttpServletResponse res = createResponse();
+        serve(req, res);
+
+        verify(res).setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        verify(res).setHeader("Content-Range", "bytes */100");
+        verify(res, never()).getOutputStream();
+    }
+
+    @Test
+    public void testIfRange() throws IOException
+    {
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getHeader("Range")).thenReturn("bytes=10-19");
+        when(req.getHeader("If-Range")).thenReturn(etag(this.file));
+        final HttpServletResponse res = createResponse();
+        final ByteArrayOutputStream out = serve(req, res);
+
+        verify(res).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertEquals(10, out.size());
+    }
+
+    @Test
+    public void testIfRangeMismatch() throws IOException
+    {
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getHeader("Range")).thenReturn("bytes=10-19");
+        when(req.getHeader("If-Range")).thenReturn("\"other\"");
+        final HttpServletResponse res = createResponse();
+        final ByteArrayOutputStream out = serve(req, res);
+
+        verify(res, never()).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(res).setContentLength(100);
+        assertArrayEquals(this.content, out.toByteArray());
+    }
+
+    @Test
+    public void testGzipVariant() throws IOException
+    {
+        final File gzFile = new File(this.dir, "test.txt.gz");
+        final byte[] gzContent = createContent(40, 'z');
+        write(gzFile, gzContent);
+        when(this.context.getResource(NAME + ".gz")).thenReturn(gzFile.toURI().toURL());
+
+        final HttpServletRequest req = createRequest("GET");
+        when(req.getHeader("Accept-Encoding")).thenReturn("deflate, gzip");
+        final HttpServletResponse res = createResponse();
+        final ByteArrayOutputStream out = serve(req, res);
+
+        verify(res).setHeader("Vary", "Accept-Encoding");
+        verify(res).setHeader("Content-Encoding", "gzip");
+        verify(res).setContentType("text/plain");
+        verify(res).setContentLength(40);
+        assertArrayEquals(gzContent, out.toByteArray());
+
+        // clients not accepting gzip get the resource itself
+        final HttpServletRequest plainReq = createRequest("GET");
+        when(plainReq.getHeader("Accept-Encoding")).thenReturn("gzip;q=0");
+        final HttpServletResponse plainRes = createResponse();
+        final ByteArrayOutputStream plainOut = serve(plainReq, plainRes);
+
+        verify(plainRes).setHeader("Vary", "Accept-Encoding");
+        verify(plainRes, never()).setHeader("Content-Encoding", "gzip");
+        assertArrayEquals(this.content, plainOut.toByteArray());
+    }
+
+    @Test
+    public void testHead() throws IOException
+    {
+        final HttpServletResponse res = createResponse();
+        serve(createRequest("HEAD"), res);
+
+        verify(res).setContentLength(100);
+        verify(res).setHeader("ETag", etag(this.file));
+        verify(res, never()).getOutputStream();
+    }
+
+    @Test
+    public void testReloadModifiedFile() throws IOException
+    {
+        assertArrayEquals(this.content, serve(createRequest("GET"), createResponse()).toByteArray());
+
+        final byte[] changed = createContent(50, 'A');
+        write(this.file, changed);
+        // make sure the change is visible even with a coarse file time resolution
+        this.file.setLastModified(this.file.lastModified() + 2000);
+
+        final HttpServletResponse res = createResponse();
+        final ByteArrayOutputStream out = serve(createRequest("GET"), res);
+
+        verify(res).setContentLength(50);
+        verify(res).setHeader("ETag", etag(this.file));
+        assertArrayEquals(changed, out.toByteArray());
+    }
+
+    private ByteArrayOutputStream serve(final HttpServletRequest req, final HttpServletResponse res) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(res.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public void write(final int b) throws IOException
+            {
+                out.write(b);
+            }
+
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener writeListener)
+            {
+            }
+        });
+        this.cache.serve(this.context, req, res, this.file.toURI().toURL(), NAME);
+        return out;
+    }
+
+    private HttpServletRequest createRequest(final String method)
+    {
+        final HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getMethod()).thenReturn(method);
+        when(req.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        return req;
+    }
+
+    private HttpServletResponse createResponse()
+    {
+        return mock(HttpServletResponse.class);
+    }
+
+    private static String etag(final File file)
+    {
+        return "\"" + Long.toHexString(file.lastModified()) + "-" + Long.toHexString(file.length()) + "\"";
+    }
+
+    private static byte[] createContent(final int length, final char first)
+    {
+        final byte[] result = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            result[i] = (byte) (first + (i % 26));
+        }
+        return result;
+    }
+
+    private static void write(final File file, final byte[] data) throws IOException
+    {
+        final FileOutputStream fos = new FileOutputStream(file);
+        try
+        {
+            fos.write(data);
+        }
+        finally
+        {
+            fos.close();
+        }
+    }
+}
@@ -173,6 +173,87 @@ class ConfigMetaTypeProvider implements MetaTypeProvider
                 24576,
                 bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_RESPONSE_BUFFER_SIZE)));
 
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_RESPONSE_HEADER_SIZE,
+                "Response Header Size",
+                "Size of the buffer for response headers. Defaults to the header buffer size.",
+                16384,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_RESPONSE_HEADER_SIZE)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_THREADPOOL_MIN,
+                "Minimum Threads",
+                "Minimum number of threads handling requests. Default is 8.",
+                8,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_THREADPOOL_MIN)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_THREADPOOL_MAX,
+                "Maximum Threads",
+                "Maximum number of threads handling requests. Default is 200.",
+                200,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_THREADPOOL_MAX)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_THREADPOOL_IDLE_TIMEOUT,
+                "Thread Idle Timeout",
+                "Time in milliseconds after which idle threads above the minimum are stopped. Default is 60 seconds.",
+                60000,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_THREADPOOL_IDLE_TIMEOUT)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_THREADPOOL_QUEUE_SIZE,
+                "Thread Pool Queue Size",
+                "Maximum number of jobs waiting for a thread. Jobs exceeding the limit are rejected. Default is -1, which means unbounded.",
+                -1,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_THREADPOOL_QUEUE_SIZE)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_VIRTUAL_THREADS,
+                "Use Virtual Threads",
+                "Whether to handle requests on virtual threads instead of the thread pool. Only supported on JVMs providing virtual threads. Default is false.",
+                false,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_VIRTUAL_THREADS)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_ACCEPTORS,
+                "Acceptors",
+                "Number of acceptor threads per connector. Default is -1, which lets Jetty decide based on the number of processors.",
+                -1,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_ACCEPTORS)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_SELECTORS,
+                "Selectors",
+                "Number of selectors per connector. Default is -1, which lets Jetty decide based on the number of processors.",
+                -1,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_SELECTORS)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_ACCEPT_QUEUE_SIZE,
+                "Accept Queue Size",
+                "Number of pending connections the operating system queues. Default is 0, which uses the OS default.",
+                0,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_ACCEPT_QUEUE_SIZE)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_MAX_REQUESTS_PER_CONNECTION,
+                "Maximum Requests per Connection",
+                "Number of requests, including pipelined requests, after which an HTTP/1.1 connection is closed. Default is 0, which means unlimited.",
+                0,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_MAX_REQUESTS_PER_CONNECTION)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_GZIP_ENABLE,
+                "Enable Gzip",
+                "Whether to compress responses if the client accepts gzip. Default is false.",
+                false,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_GZIP_ENABLE)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_GZIP_MIN_SIZE,
+                "Gzip Minimum Size",
+                "Minimum size of responses to compress in bytes. Default is 256.",
+                256,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_GZIP_MIN_SIZE)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_GZIP_MIME_TYPES,
+                "Gzip Mime Types",
+                "List of mime types to compress. Default is Jetty's list of text types.",
+                AttributeDefinition.STRING,
+                null,
+                2147483647,
+                null, null,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_GZIP_MIME_TYPES)));
+
         adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_MAX_FORM_SIZE,
                 "Maximum Form Size",
                 "Size of Body for submitted form content. Default is 200KB.",
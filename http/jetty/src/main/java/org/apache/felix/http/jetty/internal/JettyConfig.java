@@ -20,12 +20,16 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.felix.http.base.internal.logger.SystemLogger;
 import org.osgi.framework.BundleContext;
@@ -100,6 +104,51 @@ public final class JettyConfig
     /** Felix specific property to enable Jetty MBeans. Valid values are "true", "false". Default is false */
     public static final String FELIX_HTTP_MBEANS = "org.apache.felix.http.mbeans";
 
+    /** Felix specific property to configure the response header size. Default is the header buffer size */
+    public static final String FELIX_JETTY_RESPONSE_HEADER_SIZE = "org.apache.felix.http.jetty.responseHeaderSize";
+
+    /** Felix specific property to configure the minimum number of threads. Default is 8 */
+    public static final String FELIX_JETTY_THREADPOOL_MIN = "org.apache.felix.http.jetty.threadpool.min";
+
+    /** Felix specific property to configure the maximum number of threads. Default is 200 */
+    public static final String FELIX_JETTY_THREADPOOL_MAX = "org.apache.felix.http.jetty.threadpool.max";
+
+    /** Felix specific property to configure the idle timeout of threads in milliseconds. Default is 60000 */
+    public static final String FELIX_JETTY_THREADPOOL_IDLE_TIMEOUT = "org.apache.felix.http.jetty.threadpool.idleTimeout";
+
+    /** Felix specific property to configure the maximum number of queued jobs. Default is -1, which means unbounded */
+    public static final String FELIX_JETTY_THREADPOOL_QUEUE_SIZE = "org.apache.felix.http.jetty.threadpool.queueSize";
+
+    /** Felix specific property to run requests on virtual threads if supported by the JVM. Default is false */
+    public static final String FELIX_JETTY_VIRTUAL_THREADS = "org.apache.felix.http.jetty.virtualThreads";
+
+    /** Felix specific property to configure the number of acceptor threads per connector. Default is -1, which lets Jetty decide */
+    public static final String FELIX_JETTY_ACCEPTORS = "org.apache.felix.http.jetty.acceptors";
+
+    /** Felix specific property to configure the number of selectors per connector. Default is -1, which lets Jetty decide */
+    public static final String FELIX_JETTY_SELECTORS = "org.apache.felix.http.jetty.selectors";
+
+    /** Felix specific property to configure the accept queue size of connectors. Default is 0, which uses the OS default */
+    public static final String FELIX_JETTY_ACCEPT_QUEUE_SIZE = "org.apache.felix.http.jetty.acceptQueueSize";
+
+    /** Felix specific property to limit the number of (pipelined) requests per HTTP/1.1 connection. Default is 0, which means unlimited */
+    public static final String FELIX_JETTY_MAX_REQUESTS_PER_CONNECTION = "org.apache.felix.http.jetty.maxRequestsPerConnection";
+
+    /** Felix specific property to enable gzip compression of responses. Default is false */
+    public static final String FELIX_JETTY_GZIP_ENABLE = "org.apache.felix.http.jetty.gzip.enable";
+
+    /** Felix specific property to configure the minimum size of compressed responses. Default is 256 bytes */
+    public static final String FELIX_JETTY_GZIP_MIN_SIZE = "org.apache.felix.http.jetty.gzip.minSize";
+
+    /** Felix specific property to configure the mime types to compress. Default is Jetty's list of text types */
+    public static final String FELIX_JETTY_GZIP_MIME_TYPES = "org.apache.felix.http.jetty.gzip.mimeTypes";
+
+    /** Felix specific property to record per servlet and filter request metrics. Valid values are "true", "false". Default is false */
+    public static final String FELIX_HTTP_REQUEST_METRICS = "org.apache.felix.http.requestMetrics";
+
+    /** Felix specific property to log requests taking longer than the given number of milliseconds. Default is 0, which disables the log */
+    public static final String FELIX_HTTP_SLOW_REQUEST_THRESHOLD = "org.apache.felix.http.slowRequestThreshold";
+
     /** Felix specific property to set the servlet context path of the Http Service */
     public static final String FELIX_HTTP_CONTEXT_PATH = "org.apache.felix.http.context_path";
 
@@ -127,6 +176,15 @@ public final class JettyConfig
     /** Felix specific property to configure the excluded protocols */
     public static final String FELIX_JETTY_EXCLUDED_PROTOCOLS = "org.apache.felix.https.jetty.protocols.excluded";
 
+    /**
+     * The properties that are applied to a running server, all others restart the server.
+     */
+    private static final Set<String> LIVE_PROPERTIES = new HashSet<String>(Arrays.asList(
+        FELIX_JETTY_THREADPOOL_MIN, FELIX_JETTY_THREADPOOL_MAX, FELIX_JETTY_THREADPOOL_IDLE_TIMEOUT,
+        FELIX_JETTY_MAX_REQUESTS_PER_CONNECTION, FELIX_JETTY_RESPONSE_BUFFER_SIZE,
+        FELIX_JETTY_GZIP_MIN_SIZE, FELIX_JETTY_GZIP_MIME_TYPES,
+        FELIX_HTTP_REQUEST_METRICS, FELIX_HTTP_SLOW_REQUEST_THRESHOLD));
+
     private static String validateContextPath(String ctxPath)
     {
         // undefined, empty, or root context path
@@ -212,6 +270,76 @@ public final class JettyConfig
         return getIntProperty(FELIX_JETTY_HEADER_BUFFER_SIZE, 16 * 1024);
     }
 
+    public int getResponseHeaderSize()
+    {
+        return getIntProperty(FELIX_JETTY_RESPONSE_HEADER_SIZE, getHeaderSize());
+    }
+
+    public int getThreadPoolMin()
+    {
+        return getIntProperty(FELIX_JETTY_THREADPOOL_MIN, 8);
+    }
+
+    public int getThreadPoolMax()
+    {
+        return getIntProperty(FELIX_JETTY_THREADPOOL_MAX, 200);
+    }
+
+    public int getThreadPoolIdleTimeout()
+    {
+        return getIntProperty(FELIX_JETTY_THREADPOOL_IDLE_TIMEOUT, 60000);
+    }
+
+    public int getThreadPoolQueueSize()
+    {
+        return getIntProperty(FELIX_JETTY_THREADPOOL_QUEUE_SIZE, -1);
+    }
+
+    public boolean isUseVirtualThreads()
+    {
+        return getBooleanProperty(FELIX_JETTY_VIRTUAL_THREADS, false);
+    }
+
+    public int getAcceptors()
+    {
+        return getIntProperty(FELIX_JETTY_ACCEPTORS, -1);
+    }
+
+    public int getSelectors()
+    {
+        return getIntProperty(FELIX_JETTY_SELECTORS, -1);
+    }
+
+    public int getAcceptQueueSize()
+    {
+        return getIntProperty(FELIX_JETTY_ACCEPT_QUEUE_SIZE, 0);
+    }
+
+    public int getMaxRequestsPerConnection()
+    {
+        return getIntProperty(FELIX_JETTY_MAX_REQUESTS_PER_CONNECTION, 0);
+    }
+
+    public boolean isGzipEnabled()
+    {
+        return getBooleanProperty(FELIX_JETTY_GZIP_ENABLE, false);
+    }
+
+    public int getGzipMinSize()
+    {
+        return getIntProperty(FELIX_JETTY_GZIP_MIN_SIZE, 256);
+    }
+
+    public String[] getGzipMimeTypes()
+    {
+        return getStringArrayProperty(FELIX_JETTY_GZIP_MIME_TYPES, null);
+    }
+
+    public int getSlowRequestThreshold()
+    {
+        return getIntProperty(FELIX_HTTP_SLOW_REQUEST_THRESHOLD, 0);
+    }
+
     public String getHost()
     {
         return getProperty(FELIX_HOST, null);
@@ -328,6 +456,11 @@ public final class JettyConfig
         return getBooleanProperty(FELIX_HTTP_DEBUG, getBooleanProperty(HTTP_DEBUG, false));
     }
 
+    public boolean isRequestMetrics()
+    {
+        return getBooleanProperty(FELIX_HTTP_REQUEST_METRICS, false);
+    }
+
     public boolean isRegisterMBeans()
     {
         return getBooleanProperty(FELIX_HTTP_MBEANS, false);
@@ -371,6 +504,48 @@ public final class JettyConfig
         props.put(HTTPS_PORT, Integer.toString(getHttpsPort()));
         props.put(FELIX_HTTP_ENABLE, Boolean.toString(isUseHttp()));
         props.put(FELIX_HTTPS_ENABLE, Boolean.toString(isUseHttps()));
+        props.put(FELIX_HTTP_REQUEST_METRICS, Boolean.toString(isRequestMetrics()));
+        props.put(FELIX_HTTP_SLOW_REQUEST_THRESHOLD, Integer.toString(getSlowRequestThreshold()));
+    }
+
+    /**
+     * Returns whether the given configuration only differs from this configuration in
+     * properties that can be applied to a running server without restarting it.
+     *
+     * @param props the dictionary with the new configuration values, can be <code>null</code>.
+     * @return <code>true</code> if the server does not need to be restarted.
+     */
+    public boolean isLiveUpdate(Dictionary props)
+    {
+        if (props == null)
+        {
+            props = new Properties();
+        }
+        Dictionary currentConfig = this.config;
+        if (currentConfig == null)
+        {
+            return false;
+        }
+
+        Set<Object> keys = new HashSet<Object>();
+        for (Enumeration<?> e = currentConfig.keys(); e.hasMoreElements();)
+        {
+            keys.add(e.nextElement());
+        }
+        for (Enumeration<?> e = props.keys(); e.hasMoreElements();)
+        {
+            keys.add(e.nextElement());
+        }
+        for (Object key : keys)
+        {
+            // arrays are compared by their elements
+            if (!LIVE_PROPERTIES.contains(key)
+                && !Arrays.deepEquals(new Object[] { currentConfig.get(key) }, new Object[] { props.get(key) }))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -16,6 +16,7 @@
  */
 package org.apache.felix.http.jetty.internal;
 
+import java.lang.reflect.Method;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -25,10 +26,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -43,12 +47,17 @@ import org.apache.felix.http.base.internal.DispatcherServlet;
 import org.apache.felix.http.base.internal.EventDispatcher;
 import org.apache.felix.http.base.internal.HttpServiceController;
 import org.apache.felix.http.base.internal.logger.SystemLogger;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.security.HashLoginService;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.ConnectorStatistics;
 import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -58,9 +67,14 @@ import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.servlets.gzip.GzipHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.component.LifeCycle;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -98,6 +112,7 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
     private ServiceRegistration configServiceReg;
     private Server server;
     private ContextHandlerCollection parent;
+    private GzipHandler gzipHandler;
     private EventDispatcher eventDispatcher;
     private MBeanServerTracker mbeanServerTracker;
     private BundleTracker bundleTracker;
@@ -183,11 +198,54 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
 
     public void updated(Dictionary props)
     {
+        final boolean live = this.server != null && this.config.isLiveUpdate(props);
         if (this.config.update(props))
         {
-            // Something changed in our configuration, restart Jetty...
-            stopJetty();
-            startJetty();
+            if (live)
+            {
+                // Only tunable settings changed, keep the connections open...
+                applyConfiguration();
+            }
+            else
+            {
+                // Something changed in our configuration, restart Jetty...
+                stopJetty();
+                startJetty();
+            }
+        }
+    }
+
+    /**
+     * Applies the settings that can be changed on a running server.
+     */
+    private void applyConfiguration()
+    {
+        final ThreadPool threadPool = this.server.getThreadPool();
+        if (threadPool instanceof QueuedThreadPool)
+        {
+            configureThreadPool((QueuedThreadPool) threadPool);
+        }
+        for (Connector connector : this.server.getConnectors())
+        {
+            HttpConnectionFactory connFactory = connector.getConnectionFactory(HttpConnectionFactory.class);
+            if (connFactory != null)
+            {
+                connFactory.getHttpConfiguration().setOutputBufferSize(this.config.getResponseBufferSize());
+            }
+        }
+        if (this.gzipHandler != null)
+        {
+            configureGzipHandler(this.gzipHandler);
+        }
+        publishServiceProperties();
+
+        if (threadPool instanceof QueuedThreadPool)
+        {
+            SystemLogger.info("Applied configuration to running Jetty");
+        }
+        else
+        {
+            SystemLogger.info("Applied configuration to running Jetty, the thread pool settings have no effect on virtual threads");
         }
     }
 
@@ -216,6 +274,7 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
             {
                 this.server.stop();
                 this.server = null;
+                this.gzipHandler = null;
             }
             catch (Exception e)
             {
@@ -235,7 +294,7 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         if (this.config.isUseHttp() || this.config.isUseHttps())
         {
             final String version = fixJettyVersion();
-            this.server = new Server();
+            this.server = new Server(createThreadPool());
             this.server.addLifeCycleListener(this);
 
             this.server.addBean(new HashLoginService("OSGi HTTP Service Realm"));
@@ -259,7 +318,16 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
                 context.addBean(new StatisticsHandler());
             }
 
-            this.server.setHandler(this.parent);
+            Handler handler = this.parent;
+            if (this.config.isGzipEnabled())
+            {
+                this.gzipHandler = new GzipHandler();
+                configureGzipHandler(this.gzipHandler);
+                this.gzipHandler.setHandler(this.parent);
+                handler = this.gzipHandler;
+            }
+
+            this.server.setHandler(handler);
             this.server.start();
 
             StringBuffer message = new StringBuffer("Started Jetty ").append(version).append(" at port(s)");
@@ -315,7 +383,7 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
     {
         HttpConnectionFactory connFactory = new HttpConnectionFactory();
         configureHttpConnectionFactory(connFactory);
-        ServerConnector connector = new ServerConnector(server, connFactory);
+        ServerConnector connector = new ServerConnector(server, this.config.getAcceptors(), this.config.getSelectors(), connFactory);
         configureConnector(connector, this.config.getHttpPort());
         return startConnector(connector);
     }
@@ -328,7 +396,8 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         SslContextFactory sslContextFactory = new SslContextFactory();
         configureSslContextFactory(sslContextFactory);
 
-        ServerConnector connector = new ServerConnector(server, new SslConnectionFactory(sslContextFactory, HttpVersion.HTTP_1_1.toString()), connFactory);
+        ServerConnector connector = new ServerConnector(server, this.config.getAcceptors(), this.config.getSelectors(),
+            new SslConnectionFactory(sslContextFactory, HttpVersion.HTTP_1_1.toString()), connFactory);
         connFactory.getHttpConfiguration().addCustomizer(new SecureRequestCustomizer());
         configureConnector(connector, this.config.getHttpsPort());
         return startConnector(connector);
@@ -406,6 +475,7 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         connector.setPort(port);
         connector.setHost(this.config.getHost());
         connector.setIdleTimeout(this.config.getHttpTimeout());
+        connector.setAcceptQueueSize(this.config.getAcceptQueueSize());
 
         if (this.config.isRegisterMBeans())
         {
@@ -417,13 +487,14 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
     {
         HttpConfiguration config = connFactory.getHttpConfiguration();
         config.setRequestHeaderSize(this.config.getHeaderSize());
-        config.setResponseHeaderSize(this.config.getHeaderSize());
+        config.setResponseHeaderSize(this.config.getResponseHeaderSize());
         config.setOutputBufferSize(this.config.getResponseBufferSize());
 
         // HTTP/1.1 requires Date header if possible (it is)
         config.setSendDateHeader(true);
         config.setSendServerVersion(this.config.isSendServerHeader());
         config.setSendXPoweredBy(this.config.isSendServerHeader());
+        config.addCustomizer(new MaxRequestsCustomizer(this.config));
 
         connFactory.setInputBufferSize(this.config.getRequestBufferSize());
 
@@ -433,6 +504,98 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         //statsOn -> ServerConnector.addBean(new ConnectorStatistics());
     }
 
+    private ThreadPool createThreadPool()
+    {
+        if (this.config.isUseVirtualThreads())
+        {
+            ExecutorService executor = createVirtualThreadExecutor();
+            if (executor != null)
+            {
+                return new ExecutorThreadPool(executor);
+            }
+            SystemLogger.warning("Virtual threads are not supported by this JVM, using a thread pool instead", null);
+        }
+
+        // a full queue rejects new jobs instead of queuing them without limits
+        int queueSize = this.config.getThreadPoolQueueSize();
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new BlockingArrayQueue<Runnable>(queueSize) : null;
+        int min = this.config.getThreadPoolMin();
+        int max = Math.max(min, this.config.getThreadPoolMax());
+        return new QueuedThreadPool(max, min, this.config.getThreadPoolIdleTimeout(), queue);
+    }
+
+    private ExecutorService createVirtualThreadExecutor()
+    {
+        try
+        {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (Exception e)
+        {
+            // not supported by this JVM
+            return null;
+        }
+    }
+
+    private void configureThreadPool(final QueuedThreadPool threadPool)
+    {
+        int min = this.config.getThreadPoolMin();
+        int max = Math.max(min, this.config.getThreadPoolMax());
+
+        // keep min <= max while changing the limits
+        if (min > threadPool.getMaxThreads())
+        {
+            threadPool.setMaxThreads(max);
+            threadPool.setMinThreads(min);
+        }
+        else
+        {
+            threadPool.setMinThreads(min);
+            threadPool.setMaxThreads(max);
+        }
+        threadPool.setIdleTimeout(this.config.getThreadPoolIdleTimeout());
+    }
+
+    private void configureGzipHandler(final GzipHandler handler)
+    {
+        handler.setMinGzipSize(this.config.getGzipMinSize());
+
+        String[] mimeTypes = this.config.getGzipMimeTypes();
+        if (mimeTypes != null)
+        {
+            Set<String> types = new HashSet<String>();
+            for (String value : mimeTypes)
+            {
+                for (String type : value.split(","))
+                {
+                    if (type.trim().length() > 0)
+                    {
+                        types.add(type.trim());
+                    }
+                }
+            }
+            handler.setMimeTypes(types);
+        }
+        else if (handler.isStarted())
+        {
+            // the property was removed, restore the defaults Jetty sets on start
+            Set<String> types = new HashSet<String>();
+            for (String type : MimeTypes.getKnownMimeTypes())
+            {
+                if (type.startsWith("image/") || type.startsWith("audio/") || type.startsWith("video/"))
+                {
+                    types.add(type);
+                }
+            }
+            types.add("application/compress");
+            types.add("application/zip");
+            types.add("application/gzip");
+            handler.setMimeTypes(types);
+            handler.setExcludeMimeTypes(true);
+        }
+    }
+
     private void configureSessionManager(final ServletContextHandler context)
     {
         final SessionManager manager = context.getSessionHandler().getSessionManager();
@@ -906,4 +1069,28 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
     {
         return this.executor != null && !this.executor.isShutdown();
     }
+
+    /**
+     * Closes HTTP/1.1 connections after the configured number of requests,
+     * which also limits the number of pipelined requests per connection.
+     */
+    private static final class MaxRequestsCustomizer implements HttpConfiguration.Customizer
+    {
+        private final JettyConfig config;
+
+        MaxRequestsCustomizer(final JettyConfig config)
+        {
+            this.config = config;
+        }
+
+        @Override
+        public void customize(Connector connector, HttpConfiguration channelConfig, Request request)
+        {
+            int max = this.config.getMaxRequestsPerConnection();
+            if (max > 0 && request.getHttpChannel().getRequests() >= max)
+            {
+                request.getResponse().setHeader(HttpHeader.CONNECTION.asString(), HttpHeaderValue.CLOSE.asString());
+            }
+        }
+    }
 }
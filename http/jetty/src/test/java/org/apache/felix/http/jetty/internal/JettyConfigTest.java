@@ -113,6 +113,30 @@ public class JettyConfigTest extends TestCase
         assertTrue(this.config.getHttpsPort() == port);
     }
 
+    public void testLiveUpdate()
+    {
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("org.osgi.service.http.port", "9000");
+        props.put("org.apache.felix.https.jetty.protocols.included", new String[] { "TLSv1.2" });
+        this.config.update(props);
+
+        Hashtable<String, Object> tuned = new Hashtable<String, Object>(props);
+        tuned.put("org.apache.felix.https.jetty.protocols.included", new String[] { "TLSv1.2" });
+        tuned.put("org.apache.felix.http.jetty.threadpool.max", "50");
+        tuned.put("org.apache.felix.http.jetty.gzip.minSize", "1024");
+        assertTrue(this.config.isLiveUpdate(tuned));
+
+        Hashtable<String, Object> moved = new Hashtable<String, Object>(tuned);
+        moved.put("org.osgi.service.http.port", "9001");
+        assertFalse(this.config.isLiveUpdate(moved));
+        assertFalse(this.config.isLiveUpdate(null));
+
+        this.config.update(tuned);
+        assertEquals(50, this.config.getThreadPoolMax());
+        assertEquals(8, this.config.getThreadPoolMin());
+        assertEquals(1024, this.config.getGzipMinSize());
+    }
+
     @Override
     protected void setUp()
     {
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.Map;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Resource;
+
+/**
+ * A capability of a synthetic repository.
+**/
+public class BenchmarkCapability implements Capability
+{
+    private final Resource m_resource;
+    private final String m_namespace;
+    private final Map<String, String> m_directives;
+    private final Map<String, Object> m_attributes;
+
+    BenchmarkCapability(Resource resource, String namespace,
+        Map<String, String> directives, Map<String, Object> attributes)
+    {
+        m_resource = resource;
+        m_namespace = namespace;
+        m_directives = directives;
+        m_attributes = attributes;
+    }
+
+    public String getNamespace()
+    {
+        return m_namespace;
+    }
+
+    public Map<String, String> getDirectives()
+    {
+        return m_directives;
+    }
+
+    public Map<String, Object> getAttributes()
+    {
+        return m_attributes;
+    }
+
+    public Resource getResource()
+    {
+        return m_resource;
+    }
+
+    public String toString()
+    {
+        return "[" + m_resource + "] " + m_namespace + "; " + m_attributes.get(m_namespace);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+
+/**
+ * A requirement of a synthetic repository. It matches the capabilities of
+ * its namespace with the specified name and a version in the range
+ * <tt>[floor, ceiling)</tt>, so no filters need to be evaluated.
+**/
+public class BenchmarkRequirement implements Requirement
+{
+    private final Resource m_resource;
+    private final String m_namespace;
+    private final String m_name;
+    private final Version m_floor;
+    private final Version m_ceiling;
+    private final Map<String, String> m_directives;
+
+    BenchmarkRequirement(Resource resource, String namespace, String name,
+        Version floor, Version ceiling, Map<String, String> directives)
+    {
+        m_resource = resource;
+        m_namespace = namespace;
+        m_name = name;
+        m_floor = floor;
+        m_ceiling = ceiling;
+        m_directives = directives;
+        m_directives.put(Namespace.REQUIREMENT_FILTER_DIRECTIVE,
+            "(&(" + namespace + "=" + name + ")(version>=" + floor
+            + ")(!(version>=" + ceiling + ")))");
+    }
+
+    String getName()
+    {
+        return m_name;
+    }
+
+    boolean matches(Capability capability)
+    {
+        if (!capability.getNamespace().equals(m_namespace)
+            || !m_name.equals(capability.getAttributes().get(m_namespace)))
+        {
+            return false;
+        }
+        Version version = getVersion(capability);
+        return (version.compareTo(m_floor) >= 0) && (version.compareTo(m_ceiling) < 0);
+    }
+
+    static Version getVersion(Capability capability)
+    {
+        Object version = capability.getAttributes().get("version");
+        if (version == null)
+        {
+            version = capability.getAttributes().get("bundle-version");
+        }
+        return (version == null) ? Version.emptyVersion : (Version) version;
+    }
+
+    public String getNamespace()
+    {
+        return m_namespace;
+    }
+
+    public Map<String, String> getDirectives()
+    {
+        return m_directives;
+    }
+
+    public Map<String, Object> getAttributes()
+    {
+        return Collections.emptyMap();
+    }
+
+    public Resource getResource()
+    {
+        return m_resource;
+    }
+
+    public String toString()
+    {
+        return "[" + m_resource + "] " + m_namespace + "; "
+            + m_directives.get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+
+/**
+ * A resource of a synthetic repository.
+**/
+public class BenchmarkResource implements Resource
+{
+    private final String m_name;
+    private final List<Capability> m_capabilities = new ArrayList<Capability>();
+    private final List<Requirement> m_requirements = new ArrayList<Requirement>();
+
+    BenchmarkResource(String name)
+    {
+        m_name = name;
+    }
+
+    void addCapability(Capability capability)
+    {
+        m_capabilities.add(capability);
+    }
+
+    void addRequirement(Requirement requirement)
+    {
+        m_requirements.add(requirement);
+    }
+
+    public List<Capability> getCapabilities(String namespace)
+    {
+        if (namespace == null)
+        {
+            return m_capabilities;
+        }
+        List<Capability> result = new ArrayList<Capability>();
+        for (Capability capability : m_capabilities)
+        {
+            if (capability.getNamespace().equals(namespace))
+            {
+                result.add(capability);
+            }
+        }
+        return result;
+    }
+
+    public List<Requirement> getRequirements(String namespace)
+    {
+        if (namespace == null)
+        {
+            return m_requirements;
+        }
+        List<Requirement> result = new ArrayList<Requirement>();
+        for (Requirement requirement : m_requirements)
+        {
+            if (requirement.getNamespace().equals(namespace))
+            {
+                result.add(requirement);
+            }
+        }
+        return result;
+    }
+
+    public String toString()
+    {
+        return m_name;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+
+/**
+ * The wiring of a resolved resource of a synthetic repository.
+**/
+public class BenchmarkWiring implements Wiring
+{
+    private final Resource m_resource;
+    private final List<Wire> m_requiredWires = new ArrayList<Wire>();
+    private final List<Wire> m_providedWires = new ArrayList<Wire>();
+
+    BenchmarkWiring(Resource resource)
+    {
+        m_resource = resource;
+    }
+
+    /**
+     * Creates the wirings of the resources of the specified resolve result.
+     *
+     * @param wireMap the result of a resolve operation.
+     * @return the wirings of all resolved resources.
+    **/
+    public static Map<Resource, Wiring> createWirings(Map<Resource, List<Wire>> wireMap)
+    {
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        for (Map.Entry<Resource, List<Wire>> entry : wireMap.entrySet())
+        {
+            getWiring(wirings, entry.getKey()).m_requiredWires.addAll(entry.getValue());
+            for (Wire wire : entry.getValue())
+            {
+                getWiring(wirings, wire.getProvider()).m_providedWires.add(wire);
+            }
+        }
+        return wirings;
+    }
+
+    private static BenchmarkWiring getWiring(Map<Resource, Wiring> wirings, Resource resource)
+    {
+        BenchmarkWiring wiring = (BenchmarkWiring) wirings.get(resource);
+        if (wiring == null)
+        {
+            wiring = new BenchmarkWiring(resource);
+            wirings.put(resource, wiring);
+        }
+        return wiring;
+    }
+
+    public List<Capability> getResourceCapabilities(String namespace)
+    {
+        return m_resource.getCapabilities(namespace);
+    }
+
+    public List<Requirement> getResourceRequirements(String namespace)
+    {
+        return m_resource.getRequirements(namespace);
+    }
+
+    public List<Wire> getProvidedResourceWires(String namespace)
+    {
+        return filter(m_providedWires, namespace);
+    }
+
+    public List<Wire> getRequiredResourceWires(String namespace)
+    {
+        return filter(m_requiredWires, namespace);
+    }
+
+    public Resource getResource()
+    {
+        return m_resource;
+    }
+
+    private static List<Wire> filter(List<Wire> wires, String namespace)
+    {
+        if (namespace == null)
+        {
+            return wires;
+        }
+        List<Wire> result = new ArrayList<Wire>();
+        for (Wire wire : wires)
+        {
+            if (wire.getCapability().getNamespace().equals(namespace))
+            {
+                result.add(wire);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * Measures the time and the peak heap usage of resolving a large synthetic
+ * repository, in which the used packages of every resource span most of the
+ * repository. Uses constraint violations make the resolver check
+ * permutations of candidates; their number grows exponentially with the
+ * number of conflicts. The peak heap usage is the sum of the
+ * peak usages of all heap pools during an invocation, which is printed
+ * after each trial; it includes garbage, so run with a fixed heap size
+ * like <tt>-jvmArgs -Xmx2g</tt> to compare runs.
+**/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LargeResolutionBenchmark
+{
+    @Param({ "250", "1000" })
+    public int bundles;
+
+    @Param({ "5" })
+    public int imports;
+
+    @Param({ "0", "3" })
+    public int conflicts;
+
+    private ResolveContext m_context;
+    private ResolverImpl m_resolver;
+    private List<MemoryPoolMXBean> m_heapPools;
+    private long m_peakHeap;
+
+    @Setup(Level.Trial)
+    public void setUpRepository()
+    {
+        m_context = SyntheticRepository.createPackageTree(bundles, imports, conflicts, 42)
+            .createResolveContext();
+        m_resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR));
+        m_heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                m_heapPools.add(pool);
+            }
+        }
+        m_peakHeap = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void printPeakHeap()
+    {
+        System.out.println();
+        System.out.println("Peak heap usage: " + (m_peakHeap >> 20) + " MB");
+    }
+
+    @Setup(Level.Invocation)
+    public void resetPeakHeap()
+    {
+        System.gc();
+        for (MemoryPoolMXBean pool : m_heapPools)
+        {
+            pool.resetPeakUsage();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void recordPeakHeap()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : m_heapPools)
+        {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        m_peakHeap = Math.max(m_peakHeap, peak);
+    }
+
+    @Benchmark
+    public Map<Resource, List<Wire>> resolve() throws Exception
+    {
+        return m_resolver.resolve(m_context);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * Measures the time of resolve operations in scenarios that stress
+ * different parts of the resolver:
+ * <ul>
+ * <li><tt>usesChains</tt> - long chains of uses constraints.</li>
+ * <li><tt>substitutableExports</tt> - many bundles exporting and importing
+ * the same packages.</li>
+ * <li><tt>fragments</tt> - many fragments attaching to their hosts.</li>
+ * <li><tt>dynamicImport</tt> - dynamic imports of packages whose exporters
+ * are not resolved yet, into a repository half of which is resolved.</li>
+ * </ul>
+ * The number of resolves and of checked candidate permutations are reported
+ * as the secondary results <tt>resolves</tt> and <tt>permutations</tt>;
+ * a change in the number of permutations per resolve usually explains a
+ * change in time. Run with <tt>-prof gc</tt> to get the allocation rate.
+ * The sizes of the scenarios can be changed with the <tt>size</tt>
+ * parameter, which is scaled for each scenario.
+**/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class ResolverBenchmark
+{
+    @Param({ "usesChains", "substitutableExports", "fragments", "dynamicImport" })
+    public String scenario;
+
+    @Param({ "1" })
+    public int size;
+
+    @Param({ "1" })
+    public int parallelism;
+
+    private final PermutationCounter m_logger = new PermutationCounter();
+    private ResolverImpl m_resolver;
+    private ResolveContext m_context;
+    private Resource m_dynamicHost;
+    private BenchmarkRequirement m_dynamicImport;
+    private List<List<Capability>> m_dynamicMatches;
+    private int m_nextDynamicMatch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        m_resolver = new ResolverImpl(m_logger, parallelism);
+        if ("usesChains".equals(scenario))
+        {
+            m_context = SyntheticRepository.createUsesChains(4 * size, 25)
+                .createResolveContext();
+        }
+        else if ("substitutableExports".equals(scenario))
+        {
+            m_context = SyntheticRepository.createSubstitutableExports(50 * size, 10)
+                .createResolveContext();
+        }
+        else if ("fragments".equals(scenario))
+        {
+            m_context = SyntheticRepository.createFragments(20 * size, 20)
+                .createResolveContext();
+        }
+        else if ("dynamicImport".equals(scenario))
+        {
+            setUpDynamicImport(400 * size);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+
+    /**
+     * Resolves the lower half of a package tree and adds a resolved bundle
+     * dynamically importing all packages. The packages of the upper half
+     * are imported in turn.
+    **/
+    private void setUpDynamicImport(int bundles) throws Exception
+    {
+        SyntheticRepository repository =
+            SyntheticRepository.createPackageTree(bundles, 5, 0, 42);
+        List<Resource> resources = repository.getResources();
+        // The bundles of the tree only import packages of earlier bundles.
+        List<Resource> lowerHalf = new ArrayList<Resource>(resources.subList(0, bundles));
+        Map<Resource, Wiring> wirings = BenchmarkWiring.createWirings(m_resolver.resolve(
+            repository.createResolveContext(
+                lowerHalf, Collections.<Resource, Wiring>emptyMap())));
+
+        BenchmarkResource host = repository.addBundle("dynamic", new Version(1, 0, 0));
+        m_dynamicImport = repository.addDynamicImport(host);
+        m_dynamicHost = host;
+        wirings.put(host, new BenchmarkWiring(host));
+        m_context = repository.createResolveContext(
+            Collections.<Resource>emptyList(), wirings);
+
+        m_dynamicMatches = new ArrayList<List<Capability>>();
+        for (int i = bundles / 2; i < bundles; i++)
+        {
+            m_dynamicMatches.add(repository.getProviders(
+                PackageNamespace.PACKAGE_NAMESPACE, "pkg" + i));
+        }
+    }
+
+    @Benchmark
+    public Map<Resource, List<Wire>> resolve(Permutations permutations) throws Exception
+    {
+        m_logger.m_permutations.set(permutations);
+        if (m_dynamicHost != null)
+        {
+            List<Capability> matches = m_dynamicMatches.get(
+                m_nextDynamicMatch++ % m_dynamicMatches.size());
+            // The resolver removes matches that cannot be resolved.
+            return m_resolver.resolve(m_context, m_dynamicHost, m_dynamicImport,
+                new ArrayList<Capability>(matches));
+        }
+        return m_resolver.resolve(m_context);
+    }
+
+    /**
+     * The counters of a benchmark thread, which JMH sums up over all threads
+     * and reports per iteration.
+    **/
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Permutations
+    {
+        public long resolves;
+        public long permutations;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            resolves = 0;
+            permutations = 0;
+        }
+    }
+
+    /**
+     * Counts the checked permutations of the resolves of each thread. The
+     * resolver calls it on the thread that called resolve.
+    **/
+    private static class PermutationCounter extends Logger
+    {
+        final ThreadLocal<Permutations> m_permutations = new ThreadLocal<Permutations>();
+
+        PermutationCounter()
+        {
+            super(Logger.LOG_ERROR);
+        }
+
+        @Override
+        public void logCheckedPermutations(int count)
+        {
+            Permutations permutations = m_permutations.get();
+            if (permutations != null)
+            {
+                permutations.resolves++;
+                permutations.permutations += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.HostedCapability;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * A repository of generated resources and resolve contexts for them.
+ * Providers are sorted by descending version, like the framework does for
+ * unresolved exporters. The static methods create repositories for the
+ * different scenarios of the benchmarks.
+**/
+public class SyntheticRepository
+{
+    private static final Version V1 = new Version(1, 0, 0);
+    private static final Version V2 = new Version(2, 0, 0);
+    private static final Version V3 = new Version(3, 0, 0);
+
+    private static final Comparator<Capability> PROVIDER_ORDER = new Comparator<Capability>()
+    {
+        public int compare(Capability c1, Capability c2)
+        {
+            return BenchmarkRequirement.getVersion(c2).compareTo(
+                BenchmarkRequirement.getVersion(c1));
+        }
+    };
+
+    private final List<Resource> m_resources = new ArrayList<Resource>();
+    private final Map<String, List<Capability>> m_capabilities =
+        new HashMap<String, List<Capability>>();
+
+    /**
+     * Creates a repository of bundles with a tree of package dependencies.
+     * Every bundle exports one package, which uses the packages it imports
+     * from randomly chosen earlier bundles, and exists in two versions, so
+     * every import has two candidates. In addition, the specified number
+     * of clients import a package in the lower version only, but also
+     * import an API package whose higher version uses the higher version of
+     * that package. Each of these clients causes a uses constraint
+     * violation, which the resolver solves by trying a permutation of the
+     * candidates with the lower version of the API package.
+     *
+     * @param bundles the number of bundles in the tree; twice as many
+     * resources are created.
+     * @param imports the number of imports per bundle.
+     * @param conflicts the number of clients causing uses constraint
+     * violations.
+     * @param seed the seed of the random choices.
+     * @return the repository.
+    **/
+    public static SyntheticRepository createPackageTree(
+        int bundles, int imports, int conflicts, long seed)
+    {
+        Random random = new Random(seed);
+        SyntheticRepository repository = new SyntheticRepository();
+        for (int i = 0; i < bundles; i++)
+        {
+            Set<String> importedPackages = new LinkedHashSet<String>();
+            for (int j = 0; (i > 0) && (j < imports); j++)
+            {
+                importedPackages.add("pkg" + random.nextInt(i));
+            }
+            for (Version version : new Version[] { V1, V2 })
+            {
+                BenchmarkResource resource = repository.addBundle("bundle" + i, version);
+                repository.addExport(resource, "pkg" + i, version, join(importedPackages));
+                for (String pkg : importedPackages)
+                {
+                    repository.addImport(resource, pkg, V1, V3, false);
+                }
+            }
+        }
+        for (int i = 0; i < conflicts; i++)
+        {
+            String lib = "pkg" + random.nextInt(bundles);
+            String api = "api" + i;
+            for (Version version : new Version[] { V1, V2 })
+            {
+                BenchmarkResource resource = repository.addBundle(api, version);
+                repository.addExport(resource, api, version, lib);
+                repository.addImport(resource, lib, V1, (version == V1) ? V2 : V3, false);
+            }
+            BenchmarkResource client = repository.addBundle("client" + i, V1);
+            repository.addImport(client, api, V1, V3, false);
+            repository.addImport(client, lib, V1, V2, false);
+        }
+        return repository;
+    }
+
+    private static String join(Collection<String> names)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names)
+        {
+            sb.append((sb.length() == 0) ? "" : ",").append(name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates a repository of chains of bundles, where every bundle exports
+     * a package using the packages of the previous bundles of its own and
+     * the next chain, so that the used packages of a bundle are everything
+     * before it in both chains. A single bundle imports the packages of the
+     * last bundles of all chains.
+     *
+     * @param chains the number of chains.
+     * @param depth the number of bundles per chain.
+     * @return the repository.
+    **/
+    public static SyntheticRepository createUsesChains(int chains, int depth)
+    {
+        SyntheticRepository repository = new SyntheticRepository();
+        for (int d = 0; d < depth; d++)
+        {
+            for (int c = 0; c < chains; c++)
+            {
+                Set<String> importedPackages = new LinkedHashSet<String>();
+                if (d > 0)
+                {
+                    importedPackages.add("chain" + c + ".pkg" + (d - 1));
+                    importedPackages.add("chain" + ((c + 1) % chains) + ".pkg" + (d - 1));
+                }
+                BenchmarkResource resource = repository.addBundle("chain" + c + "." + d, V1);
+                repository.addExport(resource, "chain" + c + ".pkg" + d, V1, join(importedPackages));
+                for (String pkg : importedPackages)
+                {
+                    repository.addImport(resource, pkg, V1, V2, false);
+                }
+            }
+        }
+        BenchmarkResource top = repository.addBundle("top", V1);
+        for (int c = 0; c < chains; c++)
+        {
+            repository.addImport(top, "chain" + c + ".pkg" + (depth - 1), V1, V2, false);
+        }
+        return repository;
+    }
+
+    /**
+     * Creates a repository of bundles that all export and import the same
+     * packages, like bundles embedding an API, so that the resolver has to
+     * substitute the exports of all but one bundle. Every package uses the
+     * previous one.
+     *
+     * @param bundles the number of bundles.
+     * @param packages the number of packages.
+     * @return the repository.
+    **/
+    public static SyntheticRepository createSubstitutableExports(int bundles, int packages)
+    {
+        SyntheticRepository repository = new SyntheticRepository();
+        for (int i = 0; i < bundles; i++)
+        {
+            BenchmarkResource resource = repository.addBundle("embedding" + i, V1);
+            for (int p = 0; p < packages; p++)
+            {
+                repository.addExport(resource, "api" + p, V1, (p > 0) ? "api" + (p - 1) : null);
+                repository.addImport(resource, "api" + p, V1, V2, false);
+            }
+        }
+        return repository;
+    }
+
+    /**
+     * Creates a repository of hosts with many fragments each. Every
+     * fragment exports a package and imports the package of the next host,
+     * and every host has a client importing all packages of its fragments.
+     *
+     * @param hosts the number of hosts.
+     * @param fragments the number of fragments per host.
+     * @return the repository.
+    **/
+    public static SyntheticRepository createFragments(int hosts, int fragments)
+    {
+        SyntheticRepository repository = new SyntheticRepository();
+        for (int h = 0; h < hosts; h++)
+        {
+            String host = "host" + h;
+            BenchmarkResource resource = repository.addBundle(host, V1);
+            repository.addExport(resource, host + ".pkg", V1, null);
+            BenchmarkResource client = repository.addBundle(host + ".client", V1);
+            for (int f = 0; f < fragments; f++)
+            {
+                String pkg = host + ".fragment" + f;
+                BenchmarkResource fragment = repository.addFragment(
+                    host + ".fragment" + f, V1, host, V1, V2);
+                repository.addExport(fragment, pkg, V1, host + ".pkg");
+                repository.addImport(fragment, "host" + ((h + 1) % hosts) + ".pkg", V1, V2, false);
+                repository.addImport(client, pkg, V1, V2, false);
+            }
+        }
+        return repository;
+    }
+
+    public BenchmarkResource addBundle(String symbolicName, Version version)
+    {
+        BenchmarkResource resource =
+            addResource(symbolicName, version, IdentityNamespace.TYPE_BUNDLE);
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(HostNamespace.HOST_NAMESPACE, symbolicName);
+        attrs.put(HostNamespace.CAPABILITY_BUNDLE_VERSION_ATTRIBUTE, version);
+        addCapability(new BenchmarkCapability(resource, HostNamespace.HOST_NAMESPACE,
+            Collections.<String, String>emptyMap(), attrs));
+        return resource;
+    }
+
+    public BenchmarkResource addFragment(String symbolicName, Version version,
+        String host, Version hostFloor, Version hostCeiling)
+    {
+        BenchmarkResource resource =
+            addResource(symbolicName, version, IdentityNamespace.TYPE_FRAGMENT);
+        resource.addRequirement(new BenchmarkRequirement(resource, HostNamespace.HOST_NAMESPACE,
+            host, hostFloor, hostCeiling, new HashMap<String, String>()));
+        return resource;
+    }
+
+    private BenchmarkResource addResource(String symbolicName, Version version, String type)
+    {
+        BenchmarkResource resource = new BenchmarkResource(symbolicName + ";" + version);
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(IdentityNamespace.IDENTITY_NAMESPACE, symbolicName);
+        attrs.put(IdentityNamespace.CAPABILITY_VERSION_ATTRIBUTE, version);
+        attrs.put(IdentityNamespace.CAPABILITY_TYPE_ATTRIBUTE, type);
+        addCapability(new BenchmarkCapability(resource, IdentityNamespace.IDENTITY_NAMESPACE,
+            Collections.<String, String>emptyMap(), attrs));
+        m_resources.add(resource);
+        return resource;
+    }
+
+    public BenchmarkCapability addExport(
+        BenchmarkResource resource, String pkg, Version version, String uses)
+    {
+        Map<String, String> dirs = new HashMap<String, String>();
+        if ((uses != null) && (uses.length() > 0))
+        {
+            dirs.put(Namespace.CAPABILITY_USES_DIRECTIVE, uses);
+        }
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(PackageNamespace.PACKAGE_NAMESPACE, pkg);
+        attrs.put(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE, version);
+        BenchmarkCapability capability = new BenchmarkCapability(
+            resource, PackageNamespace.PACKAGE_NAMESPACE, dirs, attrs);
+        addCapability(capability);
+        return capability;
+    }
+
+    public BenchmarkRequirement addImport(BenchmarkResource resource, String pkg,
+        Version floor, Version ceiling, boolean optional)
+    {
+        Map<String, String> dirs = new HashMap<String, String>();
+        if (optional)
+        {
+            dirs.put(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE,
+                Namespace.RESOLUTION_OPTIONAL);
+        }
+        BenchmarkRequirement requirement = new BenchmarkRequirement(
+            resource, PackageNamespace.PACKAGE_NAMESPACE, pkg, floor, ceiling, dirs);
+        resource.addRequirement(requirement);
+        return requirement;
+    }
+
+    /**
+     * Adds a dynamic import of all packages to the specified resource.
+    **/
+    public BenchmarkRequirement addDynamicImport(BenchmarkResource resource)
+    {
+        Map<String, String> dirs = new HashMap<String, String>();
+        dirs.put(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE, PackageNamespace.RESOLUTION_DYNAMIC);
+        BenchmarkRequirement requirement = new BenchmarkRequirement(
+            resource, PackageNamespace.PACKAGE_NAMESPACE, "*", V1, V1, dirs);
+        resource.addRequirement(requirement);
+        return requirement;
+    }
+
+    private void addCapability(BenchmarkCapability capability)
+    {
+        ((BenchmarkResource) capability.getResource()).addCapability(capability);
+        String key = capability.getNamespace() + ":"
+            + capability.getAttributes().get(capability.getNamespace());
+        List<Capability> capabilities = m_capabilities.get(key);
+        if (capabilities == null)
+        {
+            capabilities = new ArrayList<Capability>();
+            m_capabilities.put(key, capabilities);
+        }
+        capabilities.add(capability);
+    }
+
+    public List<Resource> getResources()
+    {
+        return m_resources;
+    }
+
+    /**
+     * Returns the capabilities of a namespace with the specified name,
+     * sorted by descending version.
+     *
+     * @param namespace the namespace.
+     * @param name the name of the capabilities.
+     * @return a new list of the capabilities.
+    **/
+    public List<Capability> getProviders(String namespace, String name)
+    {
+        List<Capability> capabilities = m_capabilities.get(namespace + ":" + name);
+        List<Capability> providers = (capabilities == null)
+            ? new ArrayList<Capability>() : new ArrayList<Capability>(capabilities);
+        Collections.sort(providers, PROVIDER_ORDER);
+        return providers;
+    }
+
+    /**
+     * Creates a context resolving all resources of the repository, none of
+     * which is resolved yet.
+     *
+     * @return the resolve context.
+    **/
+    public ResolveContext createResolveContext()
+    {
+        return createResolveContext(m_resources, Collections.<Resource, Wiring>emptyMap());
+    }
+
+    /**
+     * Creates a context resolving the specified resources, where the
+     * resources with wirings are resolved already. The resources are
+     * optional, so resources failing to resolve do not fail the whole
+     * resolve.
+     *
+     * @param resources the resources to resolve.
+     * @param wirings the wirings of resolved resources.
+     * @return the resolve context.
+    **/
+    public ResolveContext createResolveContext(
+        final Collection<Resource> resources, final Map<Resource, Wiring> wirings)
+    {
+        return new ResolveContext()
+        {
+            @Override
+            public Collection<Resource> getOptionalResources()
+            {
+                return resources;
+            }
+
+            @Override
+            public List<Capability> findProviders(Requirement requirement)
+            {
+                BenchmarkRequirement req = (BenchmarkRequirement) requirement;
+                List<Capability> providers =
+                    getProviders(req.getNamespace(), req.getName());
+                for (Iterator<Capability> it = providers.iterator(); it.hasNext();)
+                {
+                    if (!req.matches(it.next()))
+                    {
+                        it.remove();
+                    }
+                }
+                return providers;
+            }
+
+            @Override
+            public int insertHostedCapability(
+                List<Capability> capabilities, HostedCapability hostedCapability)
+            {
+                capabilities.add(hostedCapability);
+                return capabilities.size() - 1;
+            }
+
+            @Override
+            public boolean isEffective(Requirement requirement)
+            {
+                return true;
+            }
+
+            @Override
+            public Map<Resource, Wiring> getWirings()
+            {
+                return wirings;
+            }
+        };
+    }
+}
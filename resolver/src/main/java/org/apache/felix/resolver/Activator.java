@@ -18,6 +18,8 @@
  */
 package org.apache.felix.resolver;
 
+import java.util.Hashtable;
+
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.resolver.Resolver;
@@ -25,6 +27,8 @@ import org.osgi.service.resolver.Resolver;
 public class Activator implements BundleActivator
 {
     public static final String LOG_LEVEL = "felix.resolver.log.level";
+    public static final String PARALLELISM = "felix.resolver.parallelism";
+    public static final String INCREMENTAL = "felix.resolver.incremental";
 
     public void start(BundleContext bc) throws Exception
     {
@@ -40,10 +44,26 @@ public class Activator implements BundleActivator
                 // Use default log level.
             }
         }
+        int parallelism = 1;
+        if (bc.getProperty(PARALLELISM) != null)
+        {
+            try
+            {
+                parallelism = Integer.parseInt(bc.getProperty(PARALLELISM));
+            }
+            catch (NumberFormatException ex)
+            {
+                // Resolve sequentially.
+            }
+        }
+        boolean incremental = Boolean.parseBoolean(bc.getProperty(INCREMENTAL));
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put(PARALLELISM, Math.max(1, parallelism));
+        props.put(INCREMENTAL, incremental);
         bc.registerService(
             Resolver.class,
-            new ResolverImpl(new Logger(logLevel)),
-            null);
+            new ResolverImpl(new Logger(logLevel), parallelism, incremental),
+            props);
     }
 
     public void stop(BundleContext bc) throws Exception
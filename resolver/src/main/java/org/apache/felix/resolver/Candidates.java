@@ -32,10 +32,9 @@ import java.util.Set;
 import java.util.TreeMap;
 
 import org.apache.felix.resolver.util.CopyOnWriteSet;
+import org.apache.felix.resolver.util.HashTrieMapList;
+import org.apache.felix.resolver.util.HashTrieMapSet;
 import org.apache.felix.resolver.util.CopyOnWriteList;
-import org.apache.felix.resolver.util.OpenHashMap;
-import org.apache.felix.resolver.util.OpenHashMapList;
-import org.apache.felix.resolver.util.OpenHashMapSet;
 import org.apache.felix.resolver.util.ShadowList;
 import org.osgi.framework.Version;
 import org.osgi.framework.namespace.HostNamespace;
@@ -57,9 +56,9 @@ class Candidates
 
     private final Set<Resource> m_mandatoryResources;
     // Maps a capability to requirements that match it.
-    private final OpenHashMapSet<Capability, Requirement> m_dependentMap;
+    private final HashTrieMapSet<Capability, Requirement> m_dependentMap;
     // Maps a requirement to the capability it matches.
-    private final OpenHashMapList<Requirement, Capability> m_candidateMap;
+    private final HashTrieMapList<Requirement, Capability> m_candidateMap;
     // Maps a bundle revision to its associated wrapped revision; this only happens
     // when a revision being resolved has fragments to attach to it.
     private final Map<Resource, WrappedResource> m_allWrappedHosts;
@@ -73,20 +72,25 @@ class Candidates
 
     private final Map<Capability, Requirement> m_subtitutableMap;
 
-    private final OpenHashMapSet<Requirement, Capability> m_path;
+    private final HashTrieMapSet<Requirement, Capability> m_path;
+
+    // Requirement and initial candidate for which permutateIfNeeded()
+    // created this permutation, if any.
+    private Requirement m_permutatedReq = null;
+    private Capability m_permutatedCap = null;
 
     /**
      * Private copy constructor used by the copy() method.
      */
     private Candidates(
         Set<Resource> mandatoryResources,
-        OpenHashMapSet<Capability, Requirement> dependentMap,
-        OpenHashMapList<Requirement, Capability> candidateMap,
+        HashTrieMapSet<Capability, Requirement> dependentMap,
+        HashTrieMapList<Requirement, Capability> candidateMap,
         Map<Resource, WrappedResource> wrappedHosts, Map<Resource, Object> populateResultCache,
         boolean fragmentsPresent,
         Map<Resource, Boolean> onDemandResources,
         Map<Capability, Requirement> substitutableMap,
-        OpenHashMapSet<Requirement, Capability> path)
+        HashTrieMapSet<Requirement, Capability> path)
     {
         m_mandatoryResources = mandatoryResources;
         m_dependentMap = dependentMap;
@@ -105,13 +109,13 @@ class Candidates
     public Candidates(Map<Resource, Boolean> validOnDemandResources)
     {
         m_mandatoryResources = new HashSet<Resource>();
-        m_dependentMap = new OpenHashMapSet<Capability, Requirement>();
-        m_candidateMap = new OpenHashMapList<Requirement, Capability>();
+        m_dependentMap = new HashTrieMapSet<Capability, Requirement>();
+        m_candidateMap = new HashTrieMapList<Requirement, Capability>();
         m_allWrappedHosts = new HashMap<Resource, WrappedResource>();
         m_populateResultCache = new LinkedHashMap<Resource, Object>();
         m_validOnDemandResources = validOnDemandResources;
         m_subtitutableMap = new LinkedHashMap<Capability, Requirement>();
-        m_path = new OpenHashMapSet<Requirement, Capability>(3);
+        m_path = new HashTrieMapSet<Requirement, Capability>();
     }
 
     public Object getPath() {
@@ -478,7 +482,7 @@ class Candidates
             {
                 for (Requirement dependent : dependents)
                 {
-                    List<Capability> candidates = m_candidateMap.get(dependent);
+                    List<Capability> candidates = m_candidateMap.getForUpdate(dependent);
                     if (candidates != null)
                     {
                         candidates:
@@ -827,7 +831,7 @@ class Candidates
 
     public void removeFirstCandidate(Requirement req)
     {
-        List<Capability> candidates = m_candidateMap.get(req);
+        List<Capability> candidates = m_candidateMap.getForUpdate(req);
         // Remove the conflicting candidate.
         Capability cap = candidates.remove(0);
         if (candidates.isEmpty())
@@ -835,7 +839,7 @@ class Candidates
             m_candidateMap.remove(req);
         }
         // Update resolution path
-        CopyOnWriteSet<Capability> capPath = m_path.get(req);
+        CopyOnWriteSet<Capability> capPath = m_path.getForUpdate(req);
         if (capPath == null) {
             capPath = new CopyOnWriteSet<Capability>();
             m_path.put(req, capPath);
@@ -845,10 +849,10 @@ class Candidates
 
     public List<Capability> clearCandidates(Requirement req, Collection<Capability> caps)
     {
-        List<Capability> l = m_candidateMap.get(req);
+        List<Capability> l = m_candidateMap.getForUpdate(req);
         l.removeAll(caps);
         // Update resolution path
-        CopyOnWriteSet<Capability> capPath = m_path.get(req);
+        CopyOnWriteSet<Capability> capPath = m_path.getForUpdate(req);
         if (capPath == null) {
             capPath = new CopyOnWriteSet<Capability>();
             m_path.put(req, capPath);
@@ -1079,9 +1083,6 @@ class Candidates
         }
 
         populateSubstitutables();
-
-        m_candidateMap.concat();
-        m_dependentMap.concat();
     }
 
     // Maps a host capability to a map containing its potential fragments;
@@ -1099,7 +1100,7 @@ class Candidates
             for (Capability cap : caps)
             {
                 // Record the requirement as dependent on the capability.
-                CopyOnWriteSet<Requirement> dependents = m_dependentMap.get(cap);
+                CopyOnWriteSet<Requirement> dependents = m_dependentMap.getForUpdate(cap);
                 if (dependents == null)
                 {
                     dependents = new CopyOnWriteSet<Requirement>();
@@ -1338,29 +1339,55 @@ class Candidates
         List<Capability> candidates = m_candidateMap.get(req);
         if ((candidates != null) && (candidates.size() > 1))
         {
-            // Check existing permutations to make sure we haven't
-            // already permutated this requirement. This check for
-            // duplicate permutations is simplistic. It assumes if
-            // there is any permutation that contains a different
-            // initial candidate for the requirement in question,
-            // then it has already been permutated.
-            boolean permutated = false;
-            for (Candidates existingPerm : permutations)
+            // If we haven't already permutated the existing
+            // import, do so now.
+            if (!isPermutated(req, candidates.get(0), permutations))
             {
-                List<Capability> existingPermCands = existingPerm.m_candidateMap.get(req);
-                if (existingPermCands != null && !existingPermCands.get(0).equals(candidates.get(0)))
+                int size = permutations.size();
+                permutate(req, permutations);
+                if (permutations.size() > size)
                 {
-                    permutated = true;
-                    break;
+                    Candidates perm = permutations.get(size);
+                    perm.m_permutatedReq = req;
+                    perm.m_permutatedCap = candidates.get(0);
                 }
             }
-            // If we haven't already permutated the existing
-            // import, do so now.
-            if (!permutated)
+        }
+    }
+
+    /**
+     * Checks whether this permutation was created by permutateIfNeeded()
+     * although one of the specified permutations already permutates the
+     * same requirement. Parallel resolves use this to repeat the check for
+     * permutations that were created without seeing all other permutations.
+     *
+     * @param permutations the permutations to check against.
+     * @return <tt>true</tt> if this permutation is not needed.
+     */
+    public boolean isRedundant(List<Candidates> permutations)
+    {
+        return (m_permutatedReq != null)
+            && isPermutated(m_permutatedReq, m_permutatedCap, permutations);
+    }
+
+    private static boolean isPermutated(
+        Requirement req, Capability firstCandidate, List<Candidates> permutations)
+    {
+        // Check existing permutations to make sure we haven't
+        // already permutated this requirement. This check for
+        // duplicate permutations is simplistic. It assumes if
+        // there is any permutation that contains a different
+        // initial candidate for the requirement in question,
+        // then it has already been permutated.
+        for (Candidates existingPerm : permutations)
+        {
+            List<Capability> existingPermCands = existingPerm.m_candidateMap.get(req);
+            if (existingPermCands != null && !existingPermCands.get(0).equals(firstCandidate))
             {
-                permutate(req, permutations);
+                return true;
             }
         }
+        return false;
     }
 
 }
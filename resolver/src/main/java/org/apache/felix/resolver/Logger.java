@@ -124,4 +124,16 @@ public class Logger
     {
         // do nothing by default
     }
+
+    /**
+     * Called after each attempt of a resolve operation with the number of
+     * candidate permutations whose package space consistency was checked,
+     * including the initial candidates.
+     *
+     * @param count the number of checked permutations.
+     */
+    public void logCheckedPermutations(int count)
+    {
+        // do nothing by default
+    }
 }
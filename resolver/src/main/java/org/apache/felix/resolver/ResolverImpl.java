@@ -30,7 +30,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.resolver.util.ChainedList;
 import org.osgi.framework.namespace.BundleNamespace;
 import org.osgi.framework.namespace.ExecutionEnvironmentNamespace;
 import org.osgi.framework.namespace.HostNamespace;
@@ -50,9 +59,13 @@ import org.osgi.service.resolver.Resolver;
 public class ResolverImpl implements Resolver
 {
     private final Logger m_logger;
+    private final int m_parallelism;
+    // Package spaces of resolved resources, if resolving incrementally.
+    private final Map<Resource, CachedPackages> m_packagesCache;
 
     // Note this class is not thread safe.
-    // Only use in the context of a single thread.
+    // Only use in the context of a single thread; parallel resolves
+    // give each thread its own child session.
     class ResolveSession
     {
         // Holds the resolve context for this session
@@ -71,11 +84,38 @@ public class ResolverImpl implements Resolver
 
         private final Map<Capability, Set<Capability>> m_packageSourcesCache = new HashMap<Capability, Set<Capability>>(256);
 
-        private final Map<String, List<String>> m_usesCache = new HashMap<String, List<String>>();
+        // Shared with child sessions.
+        private final Map<String, List<String>> m_usesCache;
+
+        // Number of permutations a child session inherited from its parent.
+        private final int m_inheritedUsesPermutations;
+        private final int m_inheritedImportPermutations;
+
+        // Checks permutations in parallel; only created on demand.
+        private ExecutorService m_executor = null;
 
         ResolveSession(ResolveContext resolveContext)
         {
             m_resolveContext = resolveContext;
+            m_usesCache = new ConcurrentHashMap<String, List<String>>();
+            m_inheritedUsesPermutations = 0;
+            m_inheritedImportPermutations = 0;
+        }
+
+        /**
+         * Creates a child session for checking a single permutation in
+         * another thread. The child starts with copies of the permutation
+         * lists of its parent, so that it does not add permutations the
+         * parent already has, but it never modifies the parent.
+         */
+        ResolveSession(ResolveSession parent)
+        {
+            m_resolveContext = parent.m_resolveContext;
+            m_usesCache = parent.m_usesCache;
+            m_usesPermutations.addAll(parent.m_usesPermutations);
+            m_importPermutations.addAll(parent.m_importPermutations);
+            m_inheritedUsesPermutations = m_usesPermutations.size();
+            m_inheritedImportPermutations = m_importPermutations.size();
         }
 
         List<Candidates> getUsesPermutations()
@@ -88,6 +128,30 @@ public class ResolverImpl implements Resolver
             return m_importPermutations;
         }
 
+        /**
+         * Adds the permutations a child session created to this session.
+         * The child did not see the permutations its siblings created, so
+         * the duplicate check of import permutations is repeated here.
+         *
+         * @param child the child session.
+         * @param pending import permutations taken from this session that
+         * are still to be checked before the ones in this session.
+         */
+        void addPermutations(ResolveSession child, List<Candidates> pending)
+        {
+            m_usesPermutations.addAll(child.m_usesPermutations.subList(
+                child.m_inheritedUsesPermutations, child.m_usesPermutations.size()));
+            for (Candidates permutation : child.m_importPermutations.subList(
+                child.m_inheritedImportPermutations, child.m_importPermutations.size()))
+            {
+                if (!permutation.isRedundant(m_importPermutations)
+                    && !permutation.isRedundant(pending))
+                {
+                    m_importPermutations.add(permutation);
+                }
+            }
+        }
+
         Candidates getMultipleCardCandidates()
         {
             return m_multipleCardCandidates;
@@ -111,20 +175,122 @@ public class ResolverImpl implements Resolver
         public Map<String, List<String>> getUsesCache() {
             return m_usesCache;
         }
+
+        ExecutorService getExecutor()
+        {
+            if (m_executor == null)
+            {
+                m_executor = Executors.newFixedThreadPool(m_parallelism, new ResolverThreadFactory());
+            }
+            return m_executor;
+        }
+
+        void shutdownExecutor()
+        {
+            if (m_executor != null)
+            {
+                m_executor.shutdownNow();
+                m_executor = null;
+            }
+        }
+    }
+
+    /**
+     * Holds the outcome of checking a single candidate permutation.
+     */
+    static class PermutationResult
+    {
+        final Candidates m_candidates;
+        final Map<Resource, Packages> m_resourcePkgMap = new HashMap<Resource, Packages>();
+        Candidates m_multipleCardCandidates = null;
+        ResolutionException m_rethrow = null;
+        Map<Resource, ResolutionException> m_faultyResources = null;
+
+        PermutationResult(Candidates candidates)
+        {
+            m_candidates = candidates;
+        }
+    }
+
+    /**
+     * Holds the package space of a resolved resource along with the wiring
+     * it was calculated for. Dynamic imports add wires to an existing wiring,
+     * so the number of required wires is kept as well.
+     */
+    static class CachedPackages
+    {
+        final Wiring m_wiring;
+        final int m_wireCount;
+        final Packages m_packages;
+
+        CachedPackages(Wiring wiring, int wireCount, Packages packages)
+        {
+            m_wiring = wiring;
+            m_wireCount = wireCount;
+            m_packages = packages;
+        }
+    }
+
+    static class ResolverThreadFactory implements ThreadFactory
+    {
+        private static final AtomicInteger m_count = new AtomicInteger();
+
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "FelixResolver-" + m_count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     public ResolverImpl(Logger logger)
+    {
+        this(logger, 1);
+    }
+
+    /**
+     * Creates a resolver checking up to the specified number of candidate
+     * permutations in parallel. Permutations are checked in batches, whose
+     * results are evaluated in the order of a sequential resolve, so the
+     * selected solution is the one a sequential resolver selects.
+     *
+     * @param logger the logger.
+     * @param parallelism the maximum number of threads used by a single
+     * resolve operation; values smaller than two resolve sequentially.
+     */
+    public ResolverImpl(Logger logger, int parallelism)
+    {
+        this(logger, parallelism, false);
+    }
+
+    /**
+     * Creates a resolver that optionally resolves incrementally. An
+     * incremental resolver keeps the package spaces of resolved resources
+     * between resolve operations and reuses them as long as the wiring of
+     * a resource stays the same, so only the package spaces of resolving
+     * resources need to be calculated. This is most effective if the
+     * resolve context returns the same wiring objects for all operations.
+     *
+     * @param logger the logger.
+     * @param parallelism the maximum number of threads used by a single
+     * resolve operation; values smaller than two resolve sequentially.
+     * @param incremental whether package spaces of resolved resources are
+     * reused.
+     */
+    public ResolverImpl(Logger logger, int parallelism, boolean incremental)
     {
         m_logger = logger;
+        m_parallelism = Math.max(1, parallelism);
+        m_packagesCache = incremental
+            ? new ConcurrentHashMap<Resource, CachedPackages>() : null;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
     {
         ResolveSession session = new ResolveSession(rc);
+        prunePackagesCache(rc);
         Map<Resource, List<Wire>> wireMap =
             new HashMap<Resource, List<Wire>>();
-        Map<Resource, Packages> resourcePkgMap =
-            new HashMap<Resource, Packages>();
 
         // Make copies of arguments in case we want to modify them.
         Collection<Resource> mandatoryResources = new ArrayList<Resource>(rc.getMandatoryResources());
@@ -137,6 +303,7 @@ public class ResolverImpl implements Resolver
         do
         {
             retry = false;
+            int checkedPermutations = 0;
             try
             {
                 // Create object to hold all candidates.
@@ -210,115 +377,53 @@ public class ResolverImpl implements Resolver
 
                 Set<Object> donePaths = new HashSet<Object>();
                 Map<Resource, ResolutionException> faultyResources = null;
+                PermutationResult result = null;
                 do
                 {
-                    allCandidates = (usesPermutations.size() > 0)
-                            ? usesPermutations.remove(0)
-                            : (importPermutations.size() > 0
-                                    ? importPermutations.remove(0)
-                                    : null);
-                    if (allCandidates == null)
+                    // Uses permutations take precedence over import permutations.
+                    boolean imports;
+                    List<Candidates> batch;
+                    do
                     {
-                        break;
+                        imports = usesPermutations.isEmpty();
+                        batch = getNextPermutations(
+                            imports ? importPermutations : usesPermutations, donePaths);
                     }
-                    if (!donePaths.add(allCandidates.getPath()))
+                    while (batch.isEmpty()
+                        && !(usesPermutations.isEmpty() && importPermutations.isEmpty()));
+                    if (batch.isEmpty())
                     {
-                        continue;
+                        break;
                     }
 
                     rethrow = null;
 
-                    resourcePkgMap.clear();
-                    session.getPackageSourcesCache().clear();
-                    // Null out each time a new permutation is attempted.
-                    // We only use this to store a valid permutation which is a
-                    // delta of the current permutation.
-                    session.setMultipleCardCandidates(null);
-
-//allCandidates.dump();
-
-                    Map<Resource, ResolutionException> currentFaultyResources = null;
-                    try
-                    {
-                        allCandidates.checkSubstitutes(importPermutations);
-                    }
-                    catch (ResolutionException e)
-                    {
-                        rethrow = e;
-                        continue;
-                    }
-
-                    // Reuse a resultCache map for checking package consistency
-                    // for all resources.
-                    Map<Resource, Object> resultCache =
-                        new HashMap<Resource, Object>(allResources.size());
-                    // Check the package space consistency for all 'root' resources.
-                    for (Resource resource : allResources)
+                    List<PermutationResult> results = checkPermutations(
+                        session, batch, imports, donePaths, allResources, hostReqs);
+                    checkedPermutations += results.size();
+                    for (PermutationResult current : results)
                     {
-                        Resource target = resource;
-
-                        // If we are resolving a fragment, then get its
-                        // host candidate and verify it instead.
-                        Requirement hostReq = hostReqs.get(resource);
-                        if (hostReq != null)
+                        result = current;
+                        rethrow = current.m_rethrow;
+                        Map<Resource, ResolutionException> currentFaultyResources =
+                            current.m_faultyResources;
+                        if (currentFaultyResources != null)
                         {
-                            Capability hostCap = allCandidates.getFirstCandidate(hostReq);
-                            // If the resource is an already resolved fragment and can not
-                            // be attached to new hosts, there will be no matching host,
-                            // so ignore this resource
-                            if (hostCap == null)
+                            if (faultyResources == null)
                             {
-                                continue;
+                                faultyResources = currentFaultyResources;
                             }
-                            target = hostCap.getResource();
-                        }
-
-                        calculatePackageSpaces(
-                            session, allCandidates.getWrappedHost(target), allCandidates,
-                            resourcePkgMap, new HashMap<Capability, Set<Resource>>(256),
-                            new HashSet<Resource>(64));
-//System.out.println("+++ PACKAGE SPACES START +++");
-//dumpResourcePkgMap(resourcePkgMap);
-//System.out.println("+++ PACKAGE SPACES END +++");
-
-                        try
-                        {
-                            checkPackageSpaceConsistency(
-                                session, allCandidates.getWrappedHost(target),
-                                allCandidates, resourcePkgMap, resultCache);
-                        }
-                        catch (ResolutionException ex)
-                        {
-                            rethrow = ex;
-                            if (currentFaultyResources == null)
+                            else if (faultyResources.size() > currentFaultyResources.size())
                             {
-                                currentFaultyResources = new HashMap<Resource, ResolutionException>();
+                                // save the optimal faultyResources which has less
+                                faultyResources = currentFaultyResources;
                             }
-                            Resource faultyResource = resource;
-                            // check that the faulty requirement is not from a fragment
-                            for (Requirement faultyReq : ex.getUnresolvedRequirements())
-                            {
-                                if (faultyReq instanceof WrappedRequirement)
-                                {
-                                    faultyResource =
-                                        ((WrappedRequirement) faultyReq)
-                                        .getDeclaredRequirement().getResource();
-                                    break;
-                                }
-                            }
-                            currentFaultyResources.put(faultyResource, ex);
                         }
-                    }
-                    if (currentFaultyResources != null)
-                    {
-                        if (faultyResources == null)
+                        // Results are in batch order, so the first consistent
+                        // permutation wins no matter which thread finished first.
+                        if (rethrow == null)
                         {
-                            faultyResources = currentFaultyResources;
-                        }
-                        else if (faultyResources.size() > currentFaultyResources.size())
-                        {
-                            // save the optimal faultyResources which has less
-                            faultyResources = currentFaultyResources;
+                            break;
                         }
                     }
                 }
@@ -360,12 +465,14 @@ public class ResolverImpl implements Resolver
                 // resolve, so populate the wire map.
                 else
                 {
-                    if (session.getMultipleCardCandidates() != null)
+                    allCandidates = result.m_candidates;
+                    Map<Resource, Packages> resourcePkgMap = result.m_resourcePkgMap;
+                    if (result.m_multipleCardCandidates != null)
                     {
                         // Candidates for multiple cardinality requirements were
                         // removed in order to provide a consistent class space.
                         // Use the consistent permutation
-                        allCandidates = session.getMultipleCardCandidates();
+                        allCandidates = result.m_multipleCardCandidates;
                     }
                     for (Resource resource : allResources)
                     {
@@ -405,6 +512,8 @@ public class ResolverImpl implements Resolver
                 session.setMultipleCardCandidates(null);
                 // TODO this was not cleared out before; but it seems it should be
                 session.getPackageSourcesCache().clear();
+                session.shutdownExecutor();
+                m_logger.logCheckedPermutations(checkedPermutations);
             }
         }
         while (retry);
@@ -412,6 +521,240 @@ public class ResolverImpl implements Resolver
         return wireMap;
     }
 
+    /**
+     * Removes the next permutations to check from the specified queue.
+     * Sequential resolvers check one permutation at a time, while parallel
+     * resolvers take as many permutations as they have threads. Permutations
+     * whose path has already been checked are skipped.
+     *
+     * @param permutations the queue of permutations.
+     * @param donePaths the paths of all permutations checked so far.
+     * @return the next permutations to check, which may be empty if all
+     * permutations of the queue have already been checked.
+     */
+    private List<Candidates> getNextPermutations(
+        List<Candidates> permutations, Set<Object> donePaths)
+    {
+        List<Candidates> batch = new ArrayList<Candidates>(m_parallelism);
+        while ((batch.size() < m_parallelism) && !permutations.isEmpty())
+        {
+            Candidates permutation = permutations.remove(0);
+            if (donePaths.add(permutation.getPath()))
+            {
+                batch.add(permutation);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Checks the package space consistency of a batch of permutations and
+     * returns the results in the order in which a sequential resolver would
+     * have checked them. A single permutation is checked in the calling
+     * thread using the given session; otherwise, each permutation is checked
+     * on the executor of the session using its own child session and the
+     * permutations generated while checking are added to the session in
+     * batch order, so the outcome does not depend on thread scheduling.
+     * <p>
+     * Since uses permutations take precedence, a batch of import permutations
+     * is speculative: once a permutation yields uses permutations, the
+     * results of the following permutations are discarded and they are put
+     * back into the queue.
+     *
+     * @param session the resolve session.
+     * @param batch the permutations to check.
+     * @param imports whether the batch was taken from the import permutations.
+     * @param donePaths the paths of all permutations checked so far.
+     * @param allResources the root resources.
+     * @param hostReqs the host requirements of the root fragments.
+     * @return the results of the checked permutations.
+     * @throws ResolutionException if the resolving thread is interrupted.
+     */
+    private List<PermutationResult> checkPermutations(
+        final ResolveSession session, List<Candidates> batch, boolean imports,
+        Set<Object> donePaths, final Collection<Resource> allResources,
+        final Map<Resource, Requirement> hostReqs)
+        throws ResolutionException
+    {
+        if (batch.size() == 1)
+        {
+            return Collections.singletonList(
+                checkPermutation(session, batch.get(0), allResources, hostReqs));
+        }
+
+        List<ResolveSession> children = new ArrayList<ResolveSession>(batch.size());
+        List<Future<PermutationResult>> futures =
+            new ArrayList<Future<PermutationResult>>(batch.size());
+        try
+        {
+            for (int i = 0; i < batch.size(); i++)
+            {
+                // Checking modifies permutations, so speculatively checked
+                // permutations must be copied to be able to put them back.
+                final Candidates permutation = (imports && (i > 0))
+                    ? batch.get(i).copy() : batch.get(i);
+                final ResolveSession child = new ResolveSession(session);
+                children.add(child);
+                futures.add(session.getExecutor().submit(new Callable<PermutationResult>()
+                {
+                    public PermutationResult call() throws Exception
+                    {
+                        return checkPermutation(child, permutation, allResources, hostReqs);
+                    }
+                }));
+            }
+
+            List<PermutationResult> results = new ArrayList<PermutationResult>(batch.size());
+            for (int i = 0; i < futures.size(); i++)
+            {
+                PermutationResult result = futures.get(i).get();
+                results.add(result);
+                if (result.m_rethrow == null)
+                {
+                    break;
+                }
+                session.addPermutations(children.get(i), imports
+                    ? batch.subList(i + 1, batch.size())
+                    : Collections.<Candidates>emptyList());
+                if (imports && !session.getUsesPermutations().isEmpty())
+                {
+                    for (int j = futures.size() - 1; j > i; j--)
+                    {
+                        donePaths.remove(batch.get(j).getPath());
+                        session.getImportPermutations().add(0, batch.get(j));
+                    }
+                    break;
+                }
+            }
+            return results;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new ResolutionException("Interrupted while resolving.", ex, null);
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) ex.getCause();
+            }
+            else if (ex.getCause() instanceof Error)
+            {
+                throw (Error) ex.getCause();
+            }
+            throw new ResolutionException(ex.getCause());
+        }
+        finally
+        {
+            for (Future<PermutationResult> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Checks the package space consistency of all root resources for a
+     * single permutation. Permutations derived from the checked permutation
+     * are added to the session.
+     *
+     * @param session the resolve session.
+     * @param allCandidates the permutation to check.
+     * @param allResources the root resources.
+     * @param hostReqs the host requirements of the root fragments.
+     * @return the result of the check.
+     */
+    private PermutationResult checkPermutation(
+        ResolveSession session, Candidates allCandidates,
+        Collection<Resource> allResources, Map<Resource, Requirement> hostReqs)
+    {
+        PermutationResult result = new PermutationResult(allCandidates);
+        Map<Resource, Packages> resourcePkgMap = result.m_resourcePkgMap;
+
+        session.getPackageSourcesCache().clear();
+        // Null out each time a new permutation is attempted.
+        // We only use this to store a valid permutation which is a
+        // delta of the current permutation.
+        session.setMultipleCardCandidates(null);
+
+//allCandidates.dump();
+
+        try
+        {
+            allCandidates.checkSubstitutes(session.getImportPermutations());
+        }
+        catch (ResolutionException e)
+        {
+            result.m_rethrow = e;
+            return result;
+        }
+
+        // Reuse a resultCache map for checking package consistency
+        // for all resources.
+        Map<Resource, Object> resultCache =
+            new HashMap<Resource, Object>(allResources.size());
+        // Check the package space consistency for all 'root' resources.
+        for (Resource resource : allResources)
+        {
+            Resource target = resource;
+
+            // If we are resolving a fragment, then get its
+            // host candidate and verify it instead.
+            Requirement hostReq = hostReqs.get(resource);
+            if (hostReq != null)
+            {
+                Capability hostCap = allCandidates.getFirstCandidate(hostReq);
+                // If the resource is an already resolved fragment and can not
+                // be attached to new hosts, there will be no matching host,
+                // so ignore this resource
+                if (hostCap == null)
+                {
+                    continue;
+                }
+                target = hostCap.getResource();
+            }
+
+            calculatePackageSpaces(
+                session, allCandidates.getWrappedHost(target), allCandidates,
+                resourcePkgMap, new HashMap<Capability, Set<Resource>>(256),
+                new HashSet<Resource>(64));
+//System.out.println("+++ PACKAGE SPACES START +++");
+//dumpResourcePkgMap(resourcePkgMap);
+//System.out.println("+++ PACKAGE SPACES END +++");
+
+            try
+            {
+                checkPackageSpaceConsistency(
+                    session, allCandidates.getWrappedHost(target),
+                    allCandidates, resourcePkgMap, resultCache);
+            }
+            catch (ResolutionException ex)
+            {
+                result.m_rethrow = ex;
+                if (result.m_faultyResources == null)
+                {
+                    result.m_faultyResources = new HashMap<Resource, ResolutionException>();
+                }
+                Resource faultyResource = resource;
+                // check that the faulty requirement is not from a fragment
+                for (Requirement faultyReq : ex.getUnresolvedRequirements())
+                {
+                    if (faultyReq instanceof WrappedRequirement)
+                    {
+                        faultyResource =
+                            ((WrappedRequirement) faultyReq)
+                            .getDeclaredRequirement().getResource();
+                        break;
+                    }
+                }
+                result.m_faultyResources.put(faultyResource, ex);
+            }
+        }
+        result.m_multipleCardCandidates = session.getMultipleCardCandidates();
+        return result;
+    }
+
     /**
      * Resolves a dynamic requirement for the specified host resource using the
      * specified {@link ResolveContext}. The dynamic requirement may contain
@@ -470,6 +813,7 @@ public class ResolverImpl implements Resolver
             do
             {
                 retry = false;
+                int checkedPermutations = 0;
 
                 try
                 {
@@ -498,6 +842,7 @@ public class ResolverImpl implements Resolver
                         allCandidates = (usesPermutations.size() > 0)
                             ? usesPermutations.remove(0)
                             : importPermutations.remove(0);
+                        checkedPermutations++;
 //allCandidates.dump();
 
                         try
@@ -591,6 +936,7 @@ public class ResolverImpl implements Resolver
                     // TODO these were not cleared out before; but it seems they should be
                     session.setMultipleCardCandidates(null);
                     session.getPackageSourcesCache().clear();
+                    m_logger.logCheckedPermutations(checkedPermutations);
                 }
             }
             while (retry);
@@ -634,6 +980,7 @@ public class ResolverImpl implements Resolver
         List<Requirement> reqs = new ArrayList<Requirement>();
         List<Capability> caps = new ArrayList<Capability>();
         boolean isDynamicImporting = false;
+        int wireCount = 0;
         Wiring wiring = session.getContext().getWirings().get(resource);
         if (wiring != null)
         {
@@ -665,6 +1012,7 @@ public class ResolverImpl implements Resolver
                 reqs.add(r);
                 caps.add(c);
             }
+            wireCount = reqs.size();
 
             // Since the resource is resolved, it could be dynamically importing,
             // so check to see if there are candidates for any of its dynamic
@@ -730,6 +1078,30 @@ public class ResolverImpl implements Resolver
             }
         }
 
+        // The package space of a resolved resource only depends on its wires,
+        // unless it is dynamically importing, so reuse it if possible. Wires
+        // are only ever added to a wiring by dynamic imports, so the same
+        // wiring with the same number of wires has the same package space. We
+        // still need the package spaces of its providers, but they are
+        // resolved too.
+        boolean isCacheable = (m_packagesCache != null) && (wiring != null) && !isDynamicImporting;
+        if (isCacheable)
+        {
+            CachedPackages cached = m_packagesCache.get(resource);
+            if ((cached != null) && (cached.m_wiring == wiring)
+                && (cached.m_wireCount == wireCount))
+            {
+                resourcePkgMap.put(resource, cached.m_packages);
+                for (Capability cap : caps)
+                {
+                    calculatePackageSpaces(
+                        session, cap.getResource(), allCandidates, resourcePkgMap,
+                        usesCycleMap, cycle);
+                }
+                return;
+            }
+        }
+
         // First, add all exported packages to the target resource's package space.
         calculateExportedPackages(session.getContext(), resource, allCandidates, resourcePkgMap);
         resourcePkgs = resourcePkgMap.get(resource);
@@ -768,6 +1140,15 @@ public class ResolverImpl implements Resolver
                 new HashMap<Resource, Set<Capability>>(), new HashMap<Resource, Set<Resource>>());
         }
 
+        // Resolved package spaces are complete at this point, since uses
+        // constraints are not merged for them; cache them before calculating
+        // the package spaces of the candidates.
+        if (isCacheable)
+        {
+            resourcePkgs.m_isCalculated = true;
+            m_packagesCache.put(resource, new CachedPackages(wiring, wireCount, resourcePkgs));
+        }
+
         // Third, have all candidates to calculate their package spaces.
         for (Capability cap : caps)
         {
@@ -797,8 +1178,7 @@ public class ResolverImpl implements Resolver
                 if (!req.getNamespace().equals(BundleNamespace.BUNDLE_NAMESPACE)
                     && !req.getNamespace().equals(PackageNamespace.PACKAGE_NAMESPACE))
                 {
-                    List<Requirement> blameReqs = new ArrayList<Requirement>();
-                    blameReqs.add(req);
+                    ChainedList<Requirement> blameReqs = ChainedList.of(req);
 
                     mergeUses(
                         session,
@@ -820,8 +1200,8 @@ public class ResolverImpl implements Resolver
                     // Ignore resources that import from themselves.
                     if (!blame.m_cap.getResource().equals(resource))
                     {
-                        List<Requirement> blameReqs = new ArrayList<Requirement>();
-                        blameReqs.add(blame.m_reqs.get(0));
+                        ChainedList<Requirement> blameReqs =
+                            ChainedList.of(blame.m_reqs.get(0));
 
                         mergeUses(
                             session,
@@ -841,8 +1221,8 @@ public class ResolverImpl implements Resolver
             {
                 for (Blame blame : entry.getValue())
                 {
-                    List<Requirement> blameReqs = new ArrayList<Requirement>();
-                    blameReqs.add(blame.m_reqs.get(0));
+                    ChainedList<Requirement> blameReqs =
+                        ChainedList.of(blame.m_reqs.get(0));
 
                     mergeUses(
                         session,
@@ -985,8 +1365,7 @@ public class ResolverImpl implements Resolver
 
             String pkgName = (String) candCap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE);
 
-            List<Requirement> blameReqs = new ArrayList<Requirement>();
-            blameReqs.add(currentReq);
+            List<Requirement> blameReqs = ChainedList.of(currentReq);
 
             Packages currentPkgs = resourcePkgMap.get(current);
 
@@ -1007,7 +1386,7 @@ public class ResolverImpl implements Resolver
 
     private void mergeUses(
         ResolveSession session, Resource current, Packages currentPkgs,
-        Capability mergeCap, List<Requirement> blameReqs, Capability matchingCap,
+        Capability mergeCap, ChainedList<Requirement> blameReqs, Capability matchingCap,
         Map<Resource, Packages> resourcePkgMap,
         Candidates allCandidates,
         Map<Capability, Set<Resource>> cycleMap)
@@ -1098,10 +1477,11 @@ public class ResolverImpl implements Resolver
                 {
                     if (blame.m_reqs != null)
                     {
-                        List<Requirement> blameReqs2 = new ArrayList<Requirement>(blameReqs);
                         // Only add the last requirement in blame chain because
-                        // that is the requirement wired to the blamed capability
-                        blameReqs2.add(blame.m_reqs.get(blame.m_reqs.size() - 1));
+                        // that is the requirement wired to the blamed capability.
+                        // The new chain shares the requirements of the current one.
+                        ChainedList<Requirement> blameReqs2 =
+                            blameReqs.append(blame.m_reqs.get(blame.m_reqs.size() - 1));
                         addUsedBlame(usedPkgBlames, blame.m_cap, blameReqs2, matchingCap);
                         mergeUses(session, current, currentPkgs, blame.m_cap, blameReqs2, matchingCap,
                             resourcePkgMap, allCandidates, cycleMap);
@@ -1544,6 +1924,29 @@ public class ResolverImpl implements Resolver
         return (candidates != null) && !candidates.isEmpty();
     }
 
+    /**
+     * Removes the package spaces of resources whose wiring changed or that
+     * are no longer resolved from the cache of an incremental resolver.
+     *
+     * @param rc the resolve context.
+     */
+    private void prunePackagesCache(ResolveContext rc)
+    {
+        if ((m_packagesCache != null) && !m_packagesCache.isEmpty())
+        {
+            Map<Resource, Wiring> wirings = rc.getWirings();
+            for (Iterator<Entry<Resource, CachedPackages>> it =
+                m_packagesCache.entrySet().iterator(); it.hasNext();)
+            {
+                Entry<Resource, CachedPackages> entry = it.next();
+                if (wirings.get(entry.getKey()) != entry.getValue().m_wiring)
+                {
+                    it.remove();
+                }
+            }
+        }
+    }
+
     private static void calculateExportedPackages(
         ResolveContext rc,
         Resource resource,
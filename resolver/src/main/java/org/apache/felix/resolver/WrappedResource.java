@@ -32,8 +32,10 @@ class WrappedResource implements Resource
 {
     private final Resource m_host;
     private final List<Resource> m_fragments;
-    private List<Capability> m_cachedCapabilities = null;
-    private List<Requirement> m_cachedRequirements = null;
+    // Parallel resolves may compute these concurrently, which is harmless
+    // since wrapped capabilities and requirements are compared by value.
+    private volatile List<Capability> m_cachedCapabilities = null;
+    private volatile List<Requirement> m_cachedRequirements = null;
 
     public WrappedResource(Resource host, List<Resource> fragments)
     {
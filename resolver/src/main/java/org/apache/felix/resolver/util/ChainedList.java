@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable list sharing all but its last element with the list it was
+ * appended to. Getting the last element is constant time, getting other
+ * elements is linear.
+ *
+ * The resolver uses it for blame chains, which are extended by one
+ * requirement for every used package that is followed, so that the chains
+ * do not have to be copied.
+ */
+public final class ChainedList<E> extends AbstractList<E> {
+
+    private final ChainedList<E> parent;
+    private final E last;
+    private final int size;
+
+    private ChainedList(ChainedList<E> parent, E last) {
+        this.parent = parent;
+        this.last = last;
+        this.size = parent != null ? parent.size + 1 : 1;
+    }
+
+    public static <E> ChainedList<E> of(E element) {
+        return new ChainedList<E>(null, element);
+    }
+
+    /**
+     * Returns a list containing the elements of this list followed by
+     * the specified element. This list is not changed.
+     */
+    public ChainedList<E> append(E element) {
+        return new ChainedList<E>(this, element);
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ChainedList<E> list = this;
+        for (int i = size - 1; i > index; i--) {
+            list = list.parent;
+        }
+        return list.last;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof ChainedList)) {
+            return super.equals(o);
+        }
+        ChainedList<?> l1 = this;
+        ChainedList<?> l2 = (ChainedList<?>) o;
+        if (l1.size != l2.size) {
+            return false;
+        }
+        while (l1 != l2) {
+            if (l1.last == null ? l2.last != null : !l1.last.equals(l2.last)) {
+                return false;
+            }
+            l1 = l1.parent;
+            l2 = l2.parent;
+        }
+        return true;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] array = new Object[size];
+        ChainedList<E> list = this;
+        for (int i = size - 1; i >= 0; i--) {
+            array[i] = list.last;
+            list = list.parent;
+        }
+        return array;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        final Object[] array = toArray();
+        return new Iterator<E>() {
+            int idx = 0;
+            public boolean hasNext() {
+                return idx < array.length;
+            }
+            public E next() {
+                if (idx >= array.length) {
+                    throw new NoSuchElementException();
+                }
+                return (E) array[idx++];
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
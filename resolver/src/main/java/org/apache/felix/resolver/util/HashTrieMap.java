@@ -0,0 +1,481 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A hash array mapped trie whose clones share their structure.
+ *
+ * Cloning a map is constant time: the clone and the original share all
+ * nodes, and each of them copies the nodes on the path to an entry the
+ * first time it is changed. Nodes created by a map after the last clone
+ * are owned by it and are updated in place. Null keys are not supported.
+ *
+ * The resolver creates a copy of its candidates for every permutation, but
+ * each permutation only changes a few entries, so most of the maps are
+ * shared between the permutations.
+ */
+public class HashTrieMap<K, V> extends AbstractMap<K, V> implements Cloneable {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object NOT_FOUND = new Object();
+
+    Node root;
+    int size;
+    /**
+     * Nodes with this owner can be changed in place.
+     */
+    Object owner = new Object();
+
+    public HashTrieMap() {
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public HashTrieMap<K, V> clone() {
+        try {
+            HashTrieMap<K, V> copy = (HashTrieMap<K, V>) super.clone();
+            // Neither map may change the shared nodes any more
+            owner = new Object();
+            copy.owner = new Object();
+            return copy;
+        } catch (CloneNotSupportedException exc) {
+            InternalError e = new InternalError();
+            e.initCause(exc);
+            throw e; //should never happen since we are cloneable
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root != null && root.find(key, key.hashCode(), 0) != NOT_FOUND;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (root == null) {
+            return null;
+        }
+        Object value = root.find(key, key.hashCode(), 0);
+        return value != NOT_FOUND ? (V) value : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        Change change = new Change();
+        int hash = key.hashCode();
+        if (root == null) {
+            root = new BitmapNode(owner, 0, new Object[0]).put(owner, key, hash, 0, value, change);
+        } else {
+            root = root.put(owner, key, hash, 0, value, change);
+        }
+        if (change.sizeChanged) {
+            size++;
+        }
+        return (V) change.oldValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (root == null || key == null) {
+            return null;
+        }
+        Change change = new Change();
+        root = root.remove(owner, key, key.hashCode(), 0, change);
+        if (change.sizeChanged) {
+            size--;
+        }
+        return (V) change.oldValue;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Result of an update of the trie.
+     */
+    static final class Change {
+        boolean sizeChanged;
+        Object oldValue;
+    }
+
+    abstract static class Node {
+        final Object owner;
+
+        Node(Object owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Returns the value of the key or NOT_FOUND.
+         */
+        abstract Object find(Object key, int hash, int shift);
+
+        abstract Node put(Object owner, Object key, int hash, int shift, Object value, Change change);
+
+        abstract Node remove(Object owner, Object key, int hash, int shift, Change change);
+
+        /**
+         * The keys and values of the node, where a null key denotes a sub node.
+         */
+        abstract Object[] array();
+    }
+
+    /**
+     * A node storing up to 32 entries or sub nodes, one for each
+     * bit of its bitmap.
+     */
+    static final class BitmapNode extends Node {
+        int bitmap;
+        Object[] array;
+
+        BitmapNode(Object owner, int bitmap, Object[] array) {
+            super(owner);
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        Object[] array() {
+            return array;
+        }
+
+        Object find(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int idx = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object k = array[idx];
+            if (k == null) {
+                return ((Node) array[idx + 1]).find(key, hash, shift + BITS);
+            }
+            return key.equals(k) ? array[idx + 1] : NOT_FOUND;
+        }
+
+        Node put(Object owner, Object key, int hash, int shift, Object value, Change change) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int idx = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                change.sizeChanged = true;
+                Object[] a = new Object[array.length + 2];
+                System.arraycopy(array, 0, a, 0, idx);
+                a[idx] = key;
+                a[idx + 1] = value;
+                System.arraycopy(array, idx, a, idx + 2, array.length - idx);
+                if (this.owner == owner) {
+                    this.bitmap |= bit;
+                    this.array = a;
+                    return this;
+                }
+                return new BitmapNode(owner, bitmap | bit, a);
+            }
+            Object k = array[idx];
+            Object v = array[idx + 1];
+            if (k == null) {
+                Node sub = ((Node) v).put(owner, key, hash, shift + BITS, value, change);
+                return sub == v ? this : set(owner, idx, null, sub);
+            }
+            if (key.equals(k)) {
+                change.oldValue = v;
+                return v == value ? this : set(owner, idx, k, value);
+            }
+            change.sizeChanged = true;
+            Node sub = createNode(owner, k, v, key, hash, value, shift + BITS);
+            return set(owner, idx, null, sub);
+        }
+
+        Node remove(Object owner, Object key, int hash, int shift, Change change) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int idx = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object k = array[idx];
+            Object v = array[idx + 1];
+            if (k == null) {
+                Node sub = ((Node) v).remove(owner, key, hash, shift + BITS, change);
+                if (sub == v) {
+                    return this;
+                }
+                if (sub != null) {
+                    return set(owner, idx, null, sub);
+                }
+            } else if (key.equals(k)) {
+                change.sizeChanged = true;
+                change.oldValue = v;
+            } else {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] a = new Object[array.length - 2];
+            System.arraycopy(array, 0, a, 0, idx);
+            System.arraycopy(array, idx + 2, a, idx, array.length - idx - 2);
+            if (this.owner == owner) {
+                this.bitmap ^= bit;
+                this.array = a;
+                return this;
+            }
+            return new BitmapNode(owner, bitmap ^ bit, a);
+        }
+
+        private BitmapNode set(Object owner, int idx, Object key, Object value) {
+            if (this.owner == owner) {
+                array[idx] = key;
+                array[idx + 1] = value;
+                return this;
+            }
+            Object[] a = array.clone();
+            a[idx] = key;
+            a[idx + 1] = value;
+            return new BitmapNode(owner, bitmap, a);
+        }
+    }
+
+    /**
+     * A node storing the entries of keys with the same hash code.
+     */
+    static final class CollisionNode extends Node {
+        final int hash;
+        Object[] array;
+
+        CollisionNode(Object owner, int hash, Object[] array) {
+            super(owner);
+            this.hash = hash;
+            this.array = array;
+        }
+
+        Object[] array() {
+            return array;
+        }
+
+        Object find(Object key, int hash, int shift) {
+            int idx = indexOf(key);
+            return idx >= 0 ? array[idx + 1] : NOT_FOUND;
+        }
+
+        Node put(Object owner, Object key, int hash, int shift, Object value, Change change) {
+            if (hash != this.hash) {
+                Node node = new BitmapNode(owner, 1 << ((this.hash >>> shift) & MASK), new Object[] { null, this });
+                return node.put(owner, key, hash, shift, value, change);
+            }
+            int idx = indexOf(key);
+            Object[] a;
+            if (idx >= 0) {
+                change.oldValue = array[idx + 1];
+                if (array[idx + 1] == value) {
+                    return this;
+                }
+                a = this.owner == owner ? array : array.clone();
+                a[idx + 1] = value;
+            } else {
+                change.sizeChanged = true;
+                a = new Object[array.length + 2];
+                System.arraycopy(array, 0, a, 0, array.length);
+                a[array.length] = key;
+                a[array.length + 1] = value;
+            }
+            if (this.owner == owner) {
+                this.array = a;
+                return this;
+            }
+            return new CollisionNode(owner, hash, a);
+        }
+
+        Node remove(Object owner, Object key, int hash, int shift, Change change) {
+            int idx = indexOf(key);
+            if (idx < 0) {
+                return this;
+            }
+            change.sizeChanged = true;
+            change.oldValue = array[idx + 1];
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] a = new Object[array.length - 2];
+            System.arraycopy(array, 0, a, 0, idx);
+            System.arraycopy(array, idx + 2, a, idx, array.length - idx - 2);
+            if (this.owner == owner) {
+                this.array = a;
+                return this;
+            }
+            return new CollisionNode(owner, hash, a);
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    static Node createNode(Object owner, Object key1, Object value1, Object key2, int hash2, Object value2, int shift) {
+        int hash1 = key1.hashCode();
+        if (hash1 == hash2) {
+            return new CollisionNode(owner, hash1, new Object[] { key1, value1, key2, value2 });
+        }
+        Change change = new Change();
+        return new BitmapNode(owner, 0, new Object[0])
+                .put(owner, key1, hash1, shift, value1, change)
+                .put(owner, key2, hash2, shift, value2, change);
+    }
+
+    /**
+     * Iterates over a snapshot of the map taken when the iterator is created.
+     */
+    class EntryIterator implements Iterator<Entry<K, V>> {
+        final Object[][] arrays = new Object[8][];
+        final int[] indexes = new int[8];
+        int depth = -1;
+        Object[] next;
+        K lastKey;
+
+        EntryIterator() {
+            // Later changes must not change the nodes being iterated over
+            owner = new Object();
+            if (root != null) {
+                push(root.array());
+            }
+        }
+
+        public boolean hasNext() {
+            while (next == null && depth >= 0) {
+                Object[] array = arrays[depth];
+                int idx = indexes[depth];
+                if (idx >= array.length) {
+                    depth--;
+                } else {
+                    indexes[depth] = idx + 2;
+                    if (array[idx] == null) {
+                        push(((Node) array[idx + 1]).array());
+                    } else {
+                        next = new Object[] { array[idx], array[idx + 1] };
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final K key = (K) next[0];
+            final V value = (V) next[1];
+            next = null;
+            lastKey = key;
+            return new Map.Entry<K, V>() {
+                public K getKey() {
+                    return key;
+                }
+
+                public V getValue() {
+                    return value;
+                }
+
+                public V setValue(V value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public boolean equals(Object o) {
+                    if (!(o instanceof Map.Entry)) {
+                        return false;
+                    }
+                    Map.Entry e = (Map.Entry) o;
+                    return key.equals(e.getKey())
+                            && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+                }
+
+                @Override
+                public int hashCode() {
+                    return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+                }
+
+                @Override
+                public String toString() {
+                    return key + "=" + value;
+                }
+            };
+        }
+
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            HashTrieMap.this.remove(lastKey);
+            lastKey = null;
+        }
+
+        private void push(Object[] array) {
+            depth++;
+            // 32 bit hash codes and 5 bits per level give at most 8 levels
+            // including the collision nodes
+            arrays[depth] = array;
+            indexes[depth] = 0;
+        }
+    }
+
+}
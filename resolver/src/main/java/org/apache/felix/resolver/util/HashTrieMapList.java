@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+/**
+ * A map of lists whose copies share their structure and lists.
+ *
+ * The values of a copy must not be changed directly; {@link #getForUpdate}
+ * returns a value that can be changed without affecting other copies.
+ */
+public class HashTrieMapList<K, V> extends HashTrieMap<K, CopyOnWriteList<V>> {
+
+    public HashTrieMapList() {
+        super();
+    }
+
+    public HashTrieMapList<K, V> deepClone() {
+        return (HashTrieMapList<K, V>) clone();
+    }
+
+    /**
+     * Returns the list of the key for an update. The list of other
+     * copies is replaced by a copy first, which shares the elements until
+     * either of them is changed.
+     *
+     * @param key the key.
+     * @return the list or null if the key has none.
+     */
+    public CopyOnWriteList<V> getForUpdate(K key) {
+        CopyOnWriteList<V> value = get(key);
+        if (value != null) {
+            value = new CopyOnWriteList<V>(value);
+            put(key, value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+/**
+ * A map of sets whose copies share their structure and sets.
+ *
+ * The values of a copy must not be changed directly; {@link #getForUpdate}
+ * returns a value that can be changed without affecting other copies.
+ */
+public class HashTrieMapSet<K, V> extends HashTrieMap<K, CopyOnWriteSet<V>> {
+
+    public HashTrieMapSet() {
+        super();
+    }
+
+    public HashTrieMapSet<K, V> deepClone() {
+        return (HashTrieMapSet<K, V>) clone();
+    }
+
+    /**
+     * Returns the set of the key for an update. The set of other
+     * copies is replaced by a copy first, which shares the elements until
+     * either of them is changed.
+     *
+     * @param key the key.
+     * @return the set or null if the key has none.
+     */
+    public CopyOnWriteSet<V> getForUpdate(K key) {
+        CopyOnWriteSet<V> value = get(key);
+        if (value != null) {
+            value = new CopyOnWriteSet<V>(value);
+            put(key, value);
+        }
+        return value;
+    }
+}
@@ -81,6 +81,28 @@ public class BigResolutionTest {
         checkResolutions(wiring1, wiring2);
     }
 
+    @Test
+    @Ignore
+    public void testParallelResolution() throws Exception {
+        ResolveContext rc = buildResolutionContext();
+
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_INFO));
+        ResolverImpl parallel = new ResolverImpl(new Logger(Logger.LOG_INFO),
+            Runtime.getRuntime().availableProcessors());
+
+        long t0 = System.currentTimeMillis();
+        Map<Resource, List<Wire>> wiring1 = resolver.resolve(rc);
+        long t1 = System.currentTimeMillis();
+        System.out.println("Resolver took " + (t1 - t0) + " ms");
+
+        long t2 = System.currentTimeMillis();
+        Map<Resource, List<Wire>> wiring2 = parallel.resolve(rc);
+        long t3 = System.currentTimeMillis();
+        System.out.println("Parallel resolver took " + (t3 - t2) + " ms");
+
+        checkResolutions(wiring1, wiring2);
+    }
+
     private ResolveContext buildResolutionContext() throws IOException, BundleException {
         Object resolution;
 
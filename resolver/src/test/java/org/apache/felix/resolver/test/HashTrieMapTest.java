@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.felix.resolver.util.ChainedList;
+import org.apache.felix.resolver.util.CopyOnWriteList;
+import org.apache.felix.resolver.util.HashTrieMap;
+import org.apache.felix.resolver.util.HashTrieMapList;
+import org.junit.Test;
+
+public class HashTrieMapTest
+{
+    @Test
+    public void testRandomOperations()
+    {
+        Random random = new Random(1);
+        HashTrieMap<Key, Integer> map = new HashTrieMap<Key, Integer>();
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        HashTrieMap<Key, Integer> clone = null;
+        Map<Key, Integer> expectedClone = null;
+        for (int i = 0; i < 20000; i++)
+        {
+            Key key = new Key(random.nextInt(2000));
+            if (random.nextInt(3) == 0)
+            {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            else
+            {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            if (i % 5000 == 0)
+            {
+                clone = map.clone();
+                expectedClone = new HashMap<Key, Integer>(expected);
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.size(), map.size());
+        assertEquals(expectedClone, clone);
+        assertEquals(expectedClone.size(), clone.size());
+        for (Key key : expected.keySet())
+        {
+            assertTrue(map.containsKey(key));
+        }
+    }
+
+    @Test
+    public void testIteratorRemove()
+    {
+        HashTrieMap<Key, Integer> map = new HashTrieMap<Key, Integer>();
+        for (int i = 0; i < 1000; i++)
+        {
+            map.put(new Key(i), i);
+        }
+        for (Iterator<Map.Entry<Key, Integer>> it = map.entrySet().iterator(); it.hasNext();)
+        {
+            if (it.next().getValue() % 2 == 0)
+            {
+                it.remove();
+            }
+        }
+        assertEquals(500, map.size());
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals((i % 2 == 0) ? null : Integer.valueOf(i), map.get(new Key(i)));
+        }
+    }
+
+    @Test
+    public void testGetForUpdate()
+    {
+        HashTrieMapList<String, String> map = new HashTrieMapList<String, String>();
+        map.put("a", new CopyOnWriteList<String>(Arrays.asList("1", "2")));
+        HashTrieMapList<String, String> copy = map.deepClone();
+        copy.getForUpdate("a").remove(0);
+        map.getForUpdate("a").add("3");
+        assertEquals(Arrays.asList("2"), copy.get("a"));
+        assertEquals(Arrays.asList("1", "2", "3"), map.get("a"));
+        assertNull(copy.getForUpdate("b"));
+        assertFalse(copy.containsKey("b"));
+    }
+
+    @Test
+    public void testChainedList()
+    {
+        ChainedList<String> base = ChainedList.of("a").append("b");
+        ChainedList<String> l1 = base.append("c");
+        ChainedList<String> l2 = base.append("d");
+        assertEquals(Arrays.asList("a", "b"), base);
+        assertEquals(Arrays.asList("a", "b", "c"), l1);
+        assertEquals(Arrays.asList("a", "b", "d"), l2);
+        assertEquals("a", l2.get(0));
+        assertEquals(Arrays.asList("a", "b").hashCode(), base.hashCode());
+        assertEquals(ChainedList.of("a").append("b").append("c"), l1);
+        assertFalse(l1.equals(l2));
+    }
+
+    /**
+     * A key with few hash codes, so that keys collide.
+     */
+    private static class Key
+    {
+        private final int m_id;
+
+        Key(int id)
+        {
+            m_id = id;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (m_id % 700) * 0x9E3779B9;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return (o instanceof Key) && (((Key) o).m_id == m_id);
+        }
+    }
+}
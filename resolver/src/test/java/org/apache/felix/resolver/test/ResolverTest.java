@@ -393,6 +393,163 @@ public class ResolverTest
         assertEquals(3, wireMap.size());
     }
 
+    @Test
+    public void testParallelResolve() throws Exception
+    {
+        Resolver sequential = new ResolverImpl(new Logger(Logger.LOG_DEBUG));
+        Resolver parallel = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 4);
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = populateScenario6(wirings, candMap);
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList());
+
+        Map<Resource, List<Wire>> wireMap = sequential.resolve(rci);
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(wireMap, parallel.resolve(rci));
+        }
+    }
+
+    @Test
+    public void testIncrementalResolve() throws Exception
+    {
+        Resolver resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG));
+        Resolver incremental = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1, true);
+
+        ResourceImpl a1 = new ResourceImpl("A");
+        Capability a1_p1 = new PackageCapability(a1, "p1");
+        a1.addCapability(a1_p1);
+
+        ResourceImpl a2 = new ResourceImpl("A");
+        Capability a2_p1 = new PackageCapability(a2, "p1");
+        a2.addCapability(a2_p1);
+
+        ResourceImpl b = new ResourceImpl("B");
+        Capability b_p2 = new PackageCapability(b, "p2");
+        b_p2.getDirectives().put(Namespace.CAPABILITY_USES_DIRECTIVE, "p1");
+        b.addCapability(b_p2);
+        Requirement b_p1 = new PackageRequirement(b, "p1");
+        b.addRequirement(b_p1);
+
+        ResourceImpl c = new ResourceImpl("C");
+        Requirement c_p1 = new PackageRequirement(c, "p1");
+        c.addRequirement(c_p1);
+        Requirement c_p2 = new PackageRequirement(c, "p2");
+        c.addRequirement(c_p2);
+
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        candMap.put(b_p1, Arrays.asList(a1_p1));
+        // C has to import p1 from the resolved A that B uses.
+        candMap.put(c_p1, Arrays.asList(a2_p1, a1_p1));
+        candMap.put(c_p2, Arrays.asList(b_p2));
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(new ResolveContextImpl(
+            wirings, candMap, Arrays.<Resource> asList(a1, a2, b), Collections.<Resource> emptyList()));
+        addWirings(wirings, wireMap);
+
+        ResolveContextImpl rci = new ResolveContextImpl(
+            wirings, candMap, Arrays.<Resource> asList(c), Collections.<Resource> emptyList());
+        wireMap = resolver.resolve(rci);
+        assertEquals(1, wireMap.size());
+        // The second incremental resolve reuses the package spaces of A and B.
+        assertEquals(wireMap, incremental.resolve(rci));
+        assertEquals(wireMap, incremental.resolve(rci));
+
+        for (Wire w : wireMap.get(c))
+        {
+            if (w.getRequirement().equals(c_p1))
+            {
+                assertEquals(a1_p1, w.getCapability());
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalResolveAfterDynamicImport() throws Exception
+    {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1, true);
+
+        ResourceImpl a1 = new ResourceImpl("A");
+        Capability a1_p1 = new PackageCapability(a1, "p1");
+        a1.addCapability(a1_p1);
+
+        ResourceImpl a2 = new ResourceImpl("A");
+        Capability a2_p1 = new PackageCapability(a2, "p1");
+        a2.addCapability(a2_p1);
+
+        ResourceImpl h = new ResourceImpl("H");
+        Capability h_p2 = new PackageCapability(h, "p2");
+        h_p2.getDirectives().put(Namespace.CAPABILITY_USES_DIRECTIVE, "p1");
+        h.addCapability(h_p2);
+        Requirement h_p1 = new PackageRequirement(h, "p1");
+        h_p1.getDirectives().put(
+            PackageNamespace.REQUIREMENT_RESOLUTION_DIRECTIVE, PackageNamespace.RESOLUTION_DYNAMIC);
+        h.addRequirement(h_p1);
+
+        ResourceImpl b = new ResourceImpl("B");
+        Requirement b_p2 = new PackageRequirement(b, "p2");
+        b.addRequirement(b_p2);
+
+        ResourceImpl c = new ResourceImpl("C");
+        Requirement c_p1 = new PackageRequirement(c, "p1");
+        c.addRequirement(c_p1);
+        Requirement c_p2 = new PackageRequirement(c, "p2");
+        c.addRequirement(c_p2);
+
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        candMap.put(b_p2, Arrays.asList(h_p2));
+        candMap.put(c_p1, Arrays.asList(a2_p1, a1_p1));
+        candMap.put(c_p2, Arrays.asList(h_p2));
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        addWirings(wirings, resolver.resolve(new ResolveContextImpl(
+            wirings, candMap, Arrays.<Resource> asList(a1, a2, h), Collections.<Resource> emptyList())));
+
+        // Caches the package space of H, which does not import p1 yet.
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(new ResolveContextImpl(
+            wirings, candMap, Arrays.<Resource> asList(b), Collections.<Resource> emptyList()));
+        assertEquals(h, wireMap.get(b).get(0).getProvider());
+
+        // Add the dynamic wire to the existing wiring of H, like the framework does.
+        wireMap = resolver.resolve(new ResolveContextImpl(
+            wirings, candMap, Collections.<Resource> emptyList(), Collections.<Resource> emptyList()),
+            h, h_p1, new ArrayList<Capability>(Arrays.asList(a1_p1)));
+        assertEquals(1, wireMap.get(h).size());
+        ((WiringImpl) wirings.get(h)).addRequiredWire(wireMap.get(h).get(0));
+
+        // C uses p1 through p2 of H, so it has to import p1 from A1 now.
+        wireMap = resolver.resolve(new ResolveContextImpl(
+            wirings, candMap, Arrays.<Resource> asList(c), Collections.<Resource> emptyList()));
+        for (Wire w : wireMap.get(c))
+        {
+            if (w.getRequirement().equals(c_p1))
+            {
+                assertEquals(a1_p1, w.getCapability());
+            }
+        }
+    }
+
+    private static void addWirings(Map<Resource, Wiring> wirings, Map<Resource, List<Wire>> wireMap)
+    {
+        for (Resource r : wireMap.keySet())
+        {
+            List<Wire> providedWires = new ArrayList<Wire>();
+            for (List<Wire> wires : wireMap.values())
+            {
+                for (Wire w : wires)
+                {
+                    if (w.getProvider().equals(r))
+                    {
+                        providedWires.add(w);
+                    }
+                }
+            }
+            wirings.put(r, new WiringImpl(r, new ArrayList<Wire>(wireMap.get(r)), providedWires));
+        }
+    }
+
     private static String getResourceName(Resource r)
     {
         return r.getCapabilities(IdentityNamespace.IDENTITY_NAMESPACE).get(0).getAttributes()
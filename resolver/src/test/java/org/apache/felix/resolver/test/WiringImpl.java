@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+
+class WiringImpl implements Wiring
+{
+    private final Resource m_resource;
+    private final List<Wire> m_requiredWires;
+    private final List<Wire> m_providedWires;
+
+    public WiringImpl(Resource resource, List<Wire> requiredWires, List<Wire> providedWires)
+    {
+        m_resource = resource;
+        m_requiredWires = requiredWires;
+        m_providedWires = providedWires;
+    }
+
+    public List<Capability> getResourceCapabilities(String namespace)
+    {
+        return m_resource.getCapabilities(namespace);
+    }
+
+    public List<Requirement> getResourceRequirements(String namespace)
+    {
+        return m_resource.getRequirements(namespace);
+    }
+
+    public List<Wire> getProvidedResourceWires(String namespace)
+    {
+        return filter(m_providedWires, namespace);
+    }
+
+    public List<Wire> getRequiredResourceWires(String namespace)
+    {
+        return filter(m_requiredWires, namespace);
+    }
+
+    void addRequiredWire(Wire wire)
+    {
+        m_requiredWires.add(wire);
+    }
+
+    public Resource getResource()
+    {
+        return m_resource;
+    }
+
+    private static List<Wire> filter(List<Wire> wires, String namespace)
+    {
+        List<Wire> result = new ArrayList<Wire>();
+        for (Wire wire : wires)
+        {
+            if ((namespace == null) || namespace.equals(wire.getCapability().getNamespace()))
+            {
+                result.add(wire);
+            }
+        }
+        return result;
+    }
+}
@@ -535,13 +535,26 @@ public class BundleComponentActivator implements Logger
      * @param task The component task to execute
      */
     public void schedule( Runnable task )
+    {
+        schedule( null, task );
+    }
+
+    /**
+     * Schedules the given <code>task</code> like {@link #schedule(Runnable)}
+     * after the tasks scheduled before with the same <code>key</code>. Tasks
+     * with different keys may run concurrently.
+     *
+     * @param key The component the task acts upon or <code>null</code>
+     * @param task The component task to execute
+     */
+    public void schedule( Object key, Runnable task )
     {
         if ( isActive() )
         {
             ComponentActorThread cat = m_componentActor;
             if ( cat != null )
             {
-                cat.schedule( task );
+                cat.schedule( key, task );
             }
             else
             {
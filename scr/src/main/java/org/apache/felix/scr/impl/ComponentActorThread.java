@@ -19,58 +19,97 @@
 package org.apache.felix.scr.impl;
 
 
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
 
 import org.osgi.service.log.LogService;
 
 
 /**
- * The <code>ComponentActorThread</code> is the thread used to act upon registered
- * components of the service component runtime.
+ * The <code>ComponentActorThread</code> runs the tasks acting upon registered
+ * components of the service component runtime on one or more threads.
+ * <p>
+ * Tasks are scheduled with a key, usually the component they act upon. Tasks
+ * with the same key are run one after the other in the order they have been
+ * scheduled, while tasks with different keys may run concurrently. With a
+ * single thread all tasks are run in the order they have been scheduled.
  */
-class ComponentActorThread implements Runnable
+class ComponentActorThread
 {
 
-    // sentinel task to terminate this thread
-    private static final Runnable TERMINATION_TASK = new Runnable()
+    // the key of tasks not acting upon a single component
+    private static final Object NO_KEY = new Object()
     {
-        public void run()
+        public String toString()
         {
+            return "No Component";
         }
+    };
 
+    // the tasks ready to be run, at most one per key
+    private final LinkedList<Task> tasks = new LinkedList<Task>();
 
-        public String toString()
+    // the tasks waiting for the ready or running task with the same key
+    private final Map<Object, LinkedList<Task>> waiting = new HashMap<Object, LinkedList<Task>>();
+
+    private final Thread[] threads;
+
+    // the number of tasks not run yet
+    private int size;
+
+    private boolean terminated;
+
+
+    ComponentActorThread( int threadCount )
+    {
+        threads = new Thread[Math.max( 1, threadCount )];
+        for ( int i = 0; i < threads.length; i++ )
         {
-            return "Component Actor Terminator";
+            String name = ( threads.length == 1 ) ? "SCR Component Actor" : "SCR Component Actor " + ( i + 1 );
+            threads[i] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    ComponentActorThread.this.run();
+                }
+            }, name );
+            threads[i].setDaemon( true );
         }
-    };
-
-    // the queue of Runnable instances  to be run
-    private LinkedList<Runnable> tasks;
+    }
 
 
-    ComponentActorThread()
+    // starts the threads
+    void start()
     {
-        tasks = new LinkedList<Runnable>();
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
     }
 
 
-    // waits on Runnable instances coming into the queue. As instances come
-    // in, this method calls the Runnable.run method, logs any exception
-    // happening and keeps on waiting for the next Runnable. If the Runnable
-    // taken from the queue is this thread instance itself, the thread
-    // terminates.
-    public void run()
+    // waits on tasks coming into the queue. As tasks come in, this method
+    // calls the Runnable.run method, logs any exception happening, releases
+    // the next task with the same key and keeps on waiting for the next task.
+    // Once terminated, the thread returns after all tasks have been run.
+    private void run()
     {
         Activator.log( LogService.LOG_DEBUG, null, "Starting ComponentActorThread", null );
 
         for ( ;; )
         {
-            final Runnable task;
+            final Task task;
             synchronized ( tasks )
             {
                 while ( tasks.isEmpty() )
                 {
+                    if ( terminated && waiting.isEmpty() )
+                    {
+                        Activator.log( LogService.LOG_DEBUG, null, "Shutting down ComponentActorThread", null );
+                        return;
+                    }
+
                     try
                     {
                         tasks.wait();
@@ -83,29 +122,33 @@ class ComponentActorThread implements Runnable
                 }
 
                 task = tasks.removeFirst();
+                size--;
             }
 
             try
             {
-                // return if the task is this thread itself
-                if ( task == TERMINATION_TASK )
-                {
-                    Activator.log( LogService.LOG_DEBUG, null, "Shutting down ComponentActorThread", null );
-                    return;
-                }
-
-                // otherwise execute the task, log any issues
-                Activator.log( LogService.LOG_DEBUG, null, "Running task: " + task, null );
-                task.run();
+                // execute the task, log any issues
+                Activator.log( LogService.LOG_DEBUG, null, "Running task: " + task.runnable, null );
+                task.runnable.run();
             }
             catch ( Throwable t )
             {
-                Activator.log( LogService.LOG_ERROR, null, "Unexpected problem executing task " + task, t );
+                Activator.log( LogService.LOG_ERROR, null, "Unexpected problem executing task " + task.runnable, t );
             }
             finally
             {
                 synchronized ( tasks )
                 {
+                    // release the next task with the same key
+                    LinkedList<Task> next = waiting.get( task.key );
+                    if ( next.isEmpty() )
+                    {
+                        waiting.remove( task.key );
+                    }
+                    else
+                    {
+                        tasks.add( next.removeFirst() );
+                    }
                     tasks.notifyAll();
                 }
             }
@@ -113,24 +156,31 @@ class ComponentActorThread implements Runnable
     }
 
 
-    // cause this thread to terminate by adding this thread to the end
-    // of the queue
+    // cause the threads to terminate once all scheduled tasks have been run
+    // and wait for them
     void terminate()
     {
-        schedule( TERMINATION_TASK );
         synchronized ( tasks )
         {
-            while ( !tasks.isEmpty() )
+            terminated = true;
+            tasks.notifyAll();
+        }
+
+        for ( Thread thread : threads )
+        {
+            if ( thread == Thread.currentThread() )
             {
-                try
-                {
-                    tasks.wait();
-                }
-                catch ( InterruptedException e )
-                {
-                    Thread.currentThread().interrupt();
-                    Activator.log( LogService.LOG_ERROR, null, "Interrupted exception waiting for queue to empty", e );
-                }
+                continue;
+            }
+            try
+            {
+                thread.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                Activator.log( LogService.LOG_ERROR, null, "Interrupted exception waiting for queue to empty", e );
+                return;
             }
         }
     }
@@ -139,16 +189,50 @@ class ComponentActorThread implements Runnable
     // queue the given runnable to be run as soon as possible
     void schedule( Runnable task )
     {
+        schedule( null, task );
+    }
+
+
+    // queue the given runnable to be run as soon as possible after the tasks
+    // scheduled before with the same key
+    void schedule( Object key, Runnable task )
+    {
+        // a single thread runs all tasks in order
+        final Object lane = ( key == null || threads.length == 1 ) ? NO_KEY : key;
         synchronized ( tasks )
         {
-            // append to the task queue
-            tasks.add( task );
+            LinkedList<Task> next = waiting.get( lane );
+            if ( next == null )
+            {
+                waiting.put( lane, new LinkedList<Task>() );
+                tasks.add( new Task( lane, task ) );
+            }
+            else
+            {
+                next.add( new Task( lane, task ) );
+            }
+            size++;
 
-            Activator.log( LogService.LOG_DEBUG, null, "Adding task [{0}] as #{1} in the queue" 
-                    , new Object[] {task, tasks.size()}, null );
+            Activator.log( LogService.LOG_DEBUG, null, "Adding task [{0}] as #{1} in the queue"
+                    , new Object[] {task, size}, null );
 
-            // notify the waiting thread
+            // notify the waiting threads
             tasks.notifyAll();
         }
     }
+
+
+    private static final class Task
+    {
+        final Object key;
+
+        final Runnable runnable;
+
+
+        Task( Object key, Runnable runnable )
+        {
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
 }
@@ -560,24 +560,26 @@ public class ComponentRegistry implements ServiceListener
         final List<Entry<?, ?>> dependencyManagers = m_missingDependencies.remove( serviceReference );
         if ( dependencyManagers != null )
         {
-            actor.schedule( new Runnable()
+            for ( final Entry<?, ?> entry : dependencyManagers )
             {
-
-                public void run()
+                final DependencyManager<?, T> dm = ( DependencyManager<?, T> ) entry.getDm();
+                // keyed like the enable and disable tasks of the component
+                actor.schedule( dm.getComponentManager(), new Runnable()
                 {
-                    for ( Entry<?, ?> entry : dependencyManagers )
+
+                    public void run()
                     {
-                        ((DependencyManager<?, T>)entry.getDm()).invokeBindMethodLate( serviceReference, entry.getTrackingCount() );
+                        dm.invokeBindMethodLate( serviceReference, entry.getTrackingCount() );
                     }
-                }
 
-                @Override
-                public String toString()
-                {
-                    return "Late binding task of reference " + serviceReference + " for dependencyManagers " + dependencyManagers;
-                }
+                    @Override
+                    public String toString()
+                    {
+                        return "Late binding task of reference " + serviceReference + " for dependencyManager " + dm;
+                    }
 
-            } );
+                } );
+            }
         }
     }
 
@@ -74,6 +74,10 @@ public class ScrConfiguration
 
     public static final long DEFAULT_STOP_TIMEOUT_MILLISECONDS = 60000;
 
+    public static final String PROP_ACTOR_THREADS = "ds.actor.threads";
+
+    public static final int DEFAULT_ACTOR_THREADS = 1;
+
     public static final String PROP_LOGLEVEL = "ds.loglevel";
 
     private static final String LOG_LEVEL_DEBUG = "debug";
@@ -104,6 +108,8 @@ public class ScrConfiguration
 
     private long stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
 
+    private int actorThreads = DEFAULT_ACTOR_THREADS;
+
     private Boolean globalExtender;
 
     private BundleContext bundleContext;
@@ -173,6 +179,7 @@ public class ScrConfiguration
                         infoAsService = false;
                         lockTimeout = DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
                         stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
+                        actorThreads = DEFAULT_ACTOR_THREADS;
                         newGlobalExtender = false;
                     }
                     else
@@ -183,6 +190,7 @@ public class ScrConfiguration
                         infoAsService = getDefaultInfoAsService();
                         lockTimeout = getDefaultLockTimeout();
                         stopTimeout = getDefaultStopTimeout();
+                        actorThreads = getActorThreads( bundleContext.getProperty( PROP_ACTOR_THREADS ) );
                         newGlobalExtender = getDefaultGlobalExtender();
                     }
                 }
@@ -201,6 +209,7 @@ public class ScrConfiguration
                 lockTimeout = timeout == null? DEFAULT_LOCK_TIMEOUT_MILLISECONDS: timeout;
                 timeout = ( Long ) config.get( PROP_STOP_TIMEOUT );
                 stopTimeout = timeout == null? DEFAULT_STOP_TIMEOUT_MILLISECONDS: timeout;
+                actorThreads = getActorThreads( config.get( PROP_ACTOR_THREADS ) );
                 newGlobalExtender = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_GLOBAL_EXTENDER) ) );
             }
             if ( scrCommand != null )
@@ -252,6 +261,15 @@ public class ScrConfiguration
         return stopTimeout;
     }
 
+    /**
+     * Returns the number of threads running the asynchronous component tasks.
+     * Changes only apply once the implementation is restarted.
+     */
+    public int actorThreads()
+    {
+        return actorThreads;
+    }
+
     public boolean globalExtender()
     {
         return globalExtender;
@@ -305,6 +323,26 @@ public class ScrConfiguration
         return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_GLOBAL_EXTENDER) );
     }
 
+    private int getActorThreads( final Object value )
+    {
+        if ( value instanceof Number )
+        {
+            return Math.max( 1, ( ( Number ) value ).intValue() );
+        }
+        if ( value != null )
+        {
+            try
+            {
+                return Math.max( 1, Integer.parseInt( value.toString().trim() ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // ignore
+            }
+        }
+        return DEFAULT_ACTOR_THREADS;
+    }
+
     private int getLogLevel( final Object levelObject )
     {
         if ( levelObject != null )
@@ -109,6 +109,15 @@ class ScrManagedServiceMetaTypeProvider extends ScrManagedService
                 new String[] { String.valueOf(this.getScrConfiguration().lockTimeout())},
                 0, null, null) );
 
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTOR_THREADS,
+                "Actor threads",
+                "Number of threads enabling, disabling and configuring components asynchronously. Tasks for the " +
+                "same component are always run in order. Changes apply when SCR is restarted.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.getScrConfiguration().actorThreads())},
+                0, null, null) );
+
         adList.add( new AttributeDefinitionImpl(
                 ScrConfiguration.PROP_STOP_TIMEOUT,
                 "Stop timeout milliseconds",
@@ -410,7 +410,7 @@ public abstract class AbstractComponentManager<S> implements SimpleLogger, Compo
         if ( async )
         {
             final Deferred<Void> latch = enableLatch;
-            getActivator().schedule( new Runnable()
+            getActivator().schedule( this, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -502,7 +502,7 @@ public abstract class AbstractComponentManager<S> implements SimpleLogger, Compo
         if ( async )
         {
             final Deferred<Void> latch = enableLatch;
-            getActivator().schedule( new Runnable()
+            getActivator().schedule( this, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -119,6 +119,14 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         return m_index;
     }
 
+    /**
+     * Returns the component manager owning this dependency manager.
+     */
+    public AbstractComponentManager<S> getComponentManager()
+    {
+        return m_componentManager;
+    }
+
     /**
      * Initialize binding methods.
      */
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+public class ComponentActorThreadTest extends TestCase
+{
+
+    public void test_single_thread_runs_tasks_in_order()
+    {
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        ComponentActorThread actor = new ComponentActorThread( 1 );
+        actor.start();
+        for ( int i = 0; i < 20; i++ )
+        {
+            actor.schedule( i % 3, new Recorder( order, i ) );
+        }
+        actor.terminate();
+
+        TestCase.assertEquals( 20, order.size() );
+        for ( int i = 0; i < 20; i++ )
+        {
+            TestCase.assertEquals( Integer.valueOf( i ), order.get( i ) );
+        }
+    }
+
+
+    public void test_tasks_with_same_key_run_in_order()
+    {
+        final List<List<Integer>> orders = new ArrayList<List<Integer>>();
+        for ( int k = 0; k < 4; k++ )
+        {
+            orders.add( Collections.synchronizedList( new ArrayList<Integer>() ) );
+        }
+        ComponentActorThread actor = new ComponentActorThread( 4 );
+        actor.start();
+        for ( int i = 0; i < 100; i++ )
+        {
+            actor.schedule( i % 4, new Recorder( orders.get( i % 4 ), i / 4 ) );
+        }
+        actor.terminate();
+
+        for ( List<Integer> order : orders )
+        {
+            TestCase.assertEquals( 25, order.size() );
+            for ( int i = 0; i < 25; i++ )
+            {
+                TestCase.assertEquals( Integer.valueOf( i ), order.get( i ) );
+            }
+        }
+    }
+
+
+    public void test_tasks_with_different_keys_run_concurrently() throws Exception
+    {
+        // the first task only completes if the second one runs meanwhile
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        final boolean[] released = new boolean[1];
+        ComponentActorThread actor = new ComponentActorThread( 2 );
+        actor.start();
+        actor.schedule( "a", new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    released[0] = latch.await( 5, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+        actor.schedule( "b", new Runnable()
+        {
+            public void run()
+            {
+                latch.countDown();
+            }
+        } );
+        actor.terminate();
+
+        TestCase.assertTrue( released[0] );
+    }
+
+
+    private static final class Recorder implements Runnable
+    {
+        private final List<Integer> order;
+
+        private final int value;
+
+
+        Recorder( List<Integer> order, int value )
+        {
+            this.order = order;
+            this.value = value;
+        }
+
+
+        public void run()
+        {
+            order.add( value );
+        }
+    }
+}
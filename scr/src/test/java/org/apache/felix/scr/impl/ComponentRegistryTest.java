@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.scr.impl.config.ComponentContainer;
+import org.apache.felix.scr.impl.helper.ComponentMethods;
+import org.apache.felix.scr.impl.manager.DependencyManager;
+import org.apache.felix.scr.impl.manager.SingleComponentManager;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.easymock.EasyMock;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentConstants;
+
+
+public class ComponentRegistryTest extends TestCase
+{
+
+    public void test_late_binding_runs_after_tasks_of_same_component() throws Exception
+    {
+        final BundleContext context = EasyMock.createNiceMock( BundleContext.class );
+        final ServiceReference ref = EasyMock.createNiceMock( ServiceReference.class );
+        EasyMock.expect( ref.getProperty( ComponentConstants.COMPONENT_NAME ) ).andReturn( "provider" ).anyTimes();
+        EasyMock.expect( ref.getProperty( ComponentConstants.COMPONENT_ID ) ).andReturn( 1L ).anyTimes();
+        EasyMock.replay( new Object[]
+            { context, ref } );
+
+        final SingleComponentManager<?> a = newComponentManager( "a" );
+        final SingleComponentManager<?> b = newComponentManager( "b" );
+
+        // records the key of each task once it has been run
+        final List<Object> ran = Collections.synchronizedList( new ArrayList<Object>() );
+        final CountDownLatch lateBoundB = new CountDownLatch( 1 );
+        ComponentActorThread actor = new ComponentActorThread( 2 )
+        {
+            @Override
+            void schedule( final Object key, final Runnable task )
+            {
+                super.schedule( key, new Runnable()
+                {
+                    public void run()
+                    {
+                        task.run();
+                        ran.add( key );
+                        if ( key == b )
+                        {
+                            lateBoundB.countDown();
+                        }
+                    }
+                } );
+            }
+        };
+        actor.start();
+
+        // an enable or disable task of component a still running
+        final CountDownLatch release = new CountDownLatch( 1 );
+        actor.schedule( a, new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    release.await( 5, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+
+        ComponentRegistry registry = new ComponentRegistry( context );
+        registry.registerMissingDependency( getDependencyManager( a ), ref, 1 );
+        registry.registerMissingDependency( getDependencyManager( b ), ref, 1 );
+        registry.missingServicePresent( ref, actor );
+
+        // component b is bound on the other thread, component a has to wait
+        TestCase.assertTrue( lateBoundB.await( 5, TimeUnit.SECONDS ) );
+        TestCase.assertEquals( Collections.<Object> singletonList( b ), new ArrayList<Object>( ran ) );
+
+        release.countDown();
+        actor.terminate();
+
+        TestCase.assertEquals( 3, ran.size() );
+        TestCase.assertSame( b, ran.get( 0 ) );
+        TestCase.assertSame( a, ran.get( 1 ) );
+        TestCase.assertSame( a, ran.get( 2 ) );
+    }
+
+
+    private static DependencyManager<?, ?> getDependencyManager( SingleComponentManager<?> manager )
+    {
+        return ( DependencyManager<?, ?> ) manager.getReferenceManagers().get( 0 );
+    }
+
+
+    private static SingleComponentManager<?> newComponentManager( String name )
+    {
+        ReferenceMetadata reference = new ReferenceMetadata();
+        reference.setName( "provider" );
+        reference.setInterface( "place.holder" );
+
+        final ComponentMetadata metadata = new ComponentMetadata( DSVersion.DS11 );
+        metadata.setName( name );
+        metadata.setImplementationClassName( Object.class.getName() );
+        metadata.addDependency( reference );
+        metadata.validate( null );
+
+        ComponentContainer container = new ComponentContainer()
+        {
+            public BundleComponentActivator getActivator()
+            {
+                return null;
+            }
+
+            public ComponentMetadata getComponentMetadata()
+            {
+                return metadata;
+            }
+
+            public void disposed( SingleComponentManager component )
+            {
+            }
+        };
+        return new SingleComponentManager( container, new ComponentMethods() );
+    }
+}